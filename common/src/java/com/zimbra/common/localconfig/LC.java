@@ -174,6 +174,21 @@ public final class LC {
 
     @Supported
     public static final KnownKey zimbra_store_sweeper_max_age = KnownKey.newKey(480); // 480 mins = 8 hours
+    // deliveries of the same content on a volume share one file, unreferenced files are swept every N minutes
+    public static final KnownKey zimbra_store_single_instance_enabled = KnownKey.newKey(false);
+    public static final KnownKey zimbra_store_single_instance_sweep_interval = KnownKey.newKey(60);
+    // "gzip" writes compressed blobs as a single gzip stream, "block" as indexed gzip blocks that can be read without
+    // uncompressing the whole blob; both are always readable. "block" applies to the comma separated volume IDs in
+    // zimbra_blob_compression_block_volumes, or to all volumes if that is empty.
+    public static final KnownKey zimbra_blob_compression_format = KnownKey.newKey("gzip");
+    public static final KnownKey zimbra_blob_compression_block_volumes = KnownKey.newKey("");
+    public static final KnownKey zimbra_blob_compression_block_size_kb = KnownKey.newKey(64);
+    // moving blobs between message volumes: copier threads, IO budget (0 for none), items per transaction
+    public static final KnownKey zimbra_volume_migration_threads = KnownKey.newKey(4);
+    public static final KnownKey zimbra_volume_migration_bytes_per_sec = KnownKey.newKey(20L * 1024 * 1024);
+    public static final KnownKey zimbra_volume_migration_batch_size = KnownKey.newKey(500);
+    // mailboxes checked at once by CheckBlobConsistency
+    public static final KnownKey zimbra_blob_consistency_check_threads = KnownKey.newKey(4);
 
     @Supported
     public static final KnownKey zimbra_store_copy_buffer_size_kb = KnownKey.newKey(16); // KB
@@ -209,6 +224,9 @@ public final class LC {
     @Supported
     public static final KnownKey zimbra_reindex_threads = KnownKey.newKey(10);
 
+    // shared by all mailboxes being (re-)indexed, 0 tokenizes in the re-index thread itself
+    public static final KnownKey zimbra_index_tokenize_threads = KnownKey.newKey(4);
+
     @Supported
     public static final KnownKey zimbra_index_max_readers = KnownKey.newKey(35);
 
@@ -256,6 +274,17 @@ public final class LC {
     @Supported
     public static final KnownKey zimbra_index_lucene_ram_buffer_size_kb = KnownKey.newKey(10240);
 
+    // server-wide merge scheduling: merges running at once, merge write budget (0 is unlimited), and merges bigger
+    // than zimbra_index_lucene_merge_defer_kb only run in the quiet hours ("start-end", local hours, e.g. "1-5")
+    public static final KnownKey zimbra_index_lucene_merge_threads = KnownKey.newKey(8);
+    public static final KnownKey zimbra_index_lucene_merge_max_concurrent = KnownKey.newKey(2);
+    public static final KnownKey zimbra_index_lucene_merge_max_pending = KnownKey.newKey(1000);
+    public static final KnownKey zimbra_index_lucene_merge_bytes_per_sec = KnownKey.newKey(20L * 1024 * 1024);
+    public static final KnownKey zimbra_index_lucene_merge_defer_kb = KnownKey.newKey(100 * 1024);
+    public static final KnownKey zimbra_index_lucene_merge_quiet_hours = KnownKey.newKey("");
+    // date sorted searches visit index segments newest first and skip those that can't contribute
+    public static final KnownKey zimbra_index_lucene_date_shards_enabled = KnownKey.newKey(true);
+
     @Supported
     public static final KnownKey zimbra_index_lucene_term_index_divisor = KnownKey.newKey(1);
 
@@ -265,11 +294,19 @@ public final class LC {
     @Supported
     public static final KnownKey zimbra_index_elasticsearch_url_base = KnownKey.newKey("http://localhost:9200/");
 
+    public static final KnownKey zimbra_index_elasticsearch_bulk_max_docs = KnownKey.newKey(500);
+    public static final KnownKey zimbra_index_elasticsearch_bulk_max_bytes = KnownKey.newKey(5 * 1024 * 1024);
+    public static final KnownKey zimbra_index_elasticsearch_bulk_max_delay = KnownKey.newKey(1000); // millis
+    public static final KnownKey zimbra_index_elasticsearch_bulk_max_inflight = KnownKey.newKey(4);
+    public static final KnownKey zimbra_index_elasticsearch_bulk_max_retries = KnownKey.newKey(3);
+
     @Supported
     public static final KnownKey zimbra_index_wildcard_max_terms_expanded = KnownKey.newKey(20000);
 
     public static final KnownKey zimbra_index_rfc822address_max_token_length = KnownKey.newKey(256);
     public static final KnownKey zimbra_index_rfc822address_max_token_count = KnownKey.newKey(512);
+    public static final KnownKey zimbra_index_rfc822address_domain_cache_size = KnownKey.newKey(10000);
+    public static final KnownKey zimbra_index_max_toplevel_text_length = KnownKey.newKey(10 * 1024 * 1024);
 
     public static final KnownKey zimbra_rights_delegated_admin_supported = KnownKey.newKey(true);
 
@@ -692,6 +729,8 @@ public final class LC {
     @Supported
     public static final KnownKey calendar_cache_range_months = KnownKey.newKey(3);
     public static final KnownKey calendar_cache_max_stale_items = KnownKey.newKey(10);
+    public static final KnownKey calendar_instance_cache_lru_size = KnownKey.newKey(5000);
+    public static final KnownKey calendar_instance_cache_max_instances = KnownKey.newKey(2000);
     public static final KnownKey calendar_exchange_form_auth_url = KnownKey.newKey("/exchweb/bin/auth/owaauth.dll");
     public static final KnownKey calendar_item_get_max_retries = KnownKey.newKey(100);
 
@@ -727,6 +766,8 @@ public final class LC {
     public static final KnownKey imap_throttle_command_limit = KnownKey.newKey(25);
     public static final KnownKey imap_throttle_fetch = KnownKey.newKey(true);
     public static final KnownKey data_source_imap_reuse_connections = KnownKey.newKey(false);
+    public static final KnownKey data_source_imap_sync_threads = KnownKey.newKey(4);
+    public static final KnownKey data_source_imap_pipelined_fetch = KnownKey.newKey(true);
 
     public static final KnownKey pop3_write_timeout = KnownKey.newKey(10);
     public static final KnownKey pop3_thread_keep_alive_time = KnownKey.newKey(60);
@@ -823,6 +864,12 @@ public final class LC {
 
     public static final KnownKey search_disable_database_hints = KnownKey.newKey(false);
     public static final KnownKey search_dbfirst_term_percentage_cutoff = KnownKey.newKey(0.8F);
+    public static final KnownKey search_index_range_filter_enabled = KnownKey.newKey(true);
+    public static final KnownKey search_results_cache_max_bytes = KnownKey.newKey(32 * 1024 * 1024);
+    public static final KnownKey search_results_cache_max_hits = KnownKey.newKey(10000);
+    public static final KnownKey search_results_cache_read_ahead_pages = KnownKey.newKey(4);
+    public static final KnownKey search_query_plan_cache_size = KnownKey.newKey(1000);
+    public static final KnownKey search_remote_fanout_threads = KnownKey.newKey(16);
     public static final KnownKey search_tagged_item_count_join_query_cutoff = KnownKey.newKey(1000); //beyond this limit server will not use join in the query while fetching unread items
 
     public static final KnownKey zmstat_interval = KnownKey.newKey(30);
@@ -851,6 +898,12 @@ public final class LC {
     public static final KnownKey zimbra_archive_formatter_disable_timeout = KnownKey.newKey(true);
     public static final KnownKey zimbra_csv_formatter_disable_timeout = KnownKey.newKey(true);
     public static final KnownKey zimbra_archive_formatter_search_chunk_size = KnownKey.newKey(4096);
+    // archive export: blob reader threads shared by all exports, and how far each export reads ahead
+    public static final KnownKey zimbra_archive_formatter_io_threads = KnownKey.newKey(2);
+    public static final KnownKey zimbra_archive_formatter_readahead_kb = KnownKey.newKey(8192);
+    // archive bulk import: threads adding messages for all imports, and message data each import may buffer
+    public static final KnownKey zimbra_archive_import_threads = KnownKey.newKey(4);
+    public static final KnownKey zimbra_archive_import_buffer_kb = KnownKey.newKey(16384);
     public static final KnownKey zimbra_gal_sync_disable_timeout = KnownKey.newKey(true);
     // for bug 79865
     /**
@@ -921,9 +974,14 @@ public final class LC {
     public static final KnownKey yauth_baseuri = KnownKey.newKey("https://login.yahoo.com/WSLogin/V1");
 
     public static final KnownKey purge_initial_sleep_ms = KnownKey.newKey(30 * Constants.MILLIS_PER_MINUTE);
+    // number of mailboxes purged concurrently, and at most how many of them may share a mailbox group database
+    public static final KnownKey purge_worker_threads = KnownKey.newKey(1);
+    public static final KnownKey purge_max_mailboxes_per_db_group = KnownKey.newKey(1);
 
     public static final KnownKey conversation_max_age_ms = KnownKey.newKey(31 * Constants.MILLIS_PER_DAY);
     public static final KnownKey tombstone_max_age_ms = KnownKey.newKey(3 * Constants.MILLIS_PER_MONTH);
+    // recent item changes and deletes kept in memory per mailbox to answer delta syncs; 0 disables
+    public static final KnownKey zimbra_mailbox_sync_journal_size = KnownKey.newKey(1000);
 
     public static final KnownKey autoprov_initial_sleep_ms = KnownKey.newKey(5 * Constants.MILLIS_PER_MINUTE);
 
@@ -1074,6 +1132,10 @@ public final class LC {
     public static final KnownKey freebusy_exchange_cn2 = KnownKey.newKey(null);
     public static final KnownKey freebusy_exchange_cn3 = KnownKey.newKey(null);
     public static final KnownKey freebusy_disable_nodata_status = KnownKey.newKey(false);
+    public static final KnownKey freebusy_index_lru_size = KnownKey.newKey(1000);
+    public static final KnownKey freebusy_index_days_back = KnownKey.newKey(7);
+    public static final KnownKey freebusy_index_days = KnownKey.newKey(98);
+    public static final KnownKey freebusy_index_max_stale_items = KnownKey.newKey(100);
 
     public static final KnownKey notes_enabled = KnownKey.newKey(false);
 
@@ -1081,6 +1143,11 @@ public final class LC {
     public static final KnownKey zimbra_lmtp_max_line_length = KnownKey.newKey(10240);
 
     public static final KnownKey data_source_scheduling_enabled = KnownKey.newKey(true);
+    public static final KnownKey data_source_scheduler_threads = KnownKey.newKey(10);
+    public static final KnownKey data_source_scheduler_max_queued = KnownKey.newKey(10000);
+    public static final KnownKey data_source_scheduler_jitter_percent = KnownKey.newKey(10);
+    public static final KnownKey data_source_backoff_threshold = KnownKey.newKey(3);
+    public static final KnownKey data_source_backoff_max_multiplier = KnownKey.newKey(4);
     public static final KnownKey data_source_eas_sync_email = KnownKey.newKey(true);
     public static final KnownKey data_source_eas_sync_contacts = KnownKey.newKey(true);
     public static final KnownKey data_source_eas_sync_calendar = KnownKey.newKey(true);
@@ -201,6 +201,8 @@ public final class AdminConstants {
     public static final String E_EXPORT_AND_DELETE_ITEMS_RESPONSE = "ExportAndDeleteItemsResponse";
     public static final String E_DEDUPE_BLOBS_REQUEST = "DedupeBlobsRequest";
     public static final String E_DEDUPE_BLOBS_RESPONSE = "DedupeBlobsResponse";
+    public static final String E_MIGRATE_VOLUME_REQUEST = "MigrateVolumeRequest";
+    public static final String E_MIGRATE_VOLUME_RESPONSE = "MigrateVolumeResponse";
     public static final String E_GET_ALL_ACTIVE_SERVERS_REQUEST = "GetAllActiveServersRequest";
     public static final String E_GET_ALL_ACTIVE_SERVERS_RESPONSE = "GetAllActiveServersResponse";
     public static final String E_SET_SERVER_OFFLINE_REQUEST = "SetServerOfflineRequest";
@@ -700,6 +702,8 @@ public final class AdminConstants {
     public static final QName EXPORT_AND_DELETE_ITEMS_RESPONSE = QName.get(E_EXPORT_AND_DELETE_ITEMS_RESPONSE, NAMESPACE);
     public static final QName DEDUPE_BLOBS_REQUEST = QName.get(E_DEDUPE_BLOBS_REQUEST, NAMESPACE);
     public static final QName DEDUPE_BLOBS_RESPONSE = QName.get(E_DEDUPE_BLOBS_RESPONSE, NAMESPACE);
+    public static final QName MIGRATE_VOLUME_REQUEST = QName.get(E_MIGRATE_VOLUME_REQUEST, NAMESPACE);
+    public static final QName MIGRATE_VOLUME_RESPONSE = QName.get(E_MIGRATE_VOLUME_RESPONSE, NAMESPACE);
     public static final QName GET_ALL_ACTIVE_SERVERS_REQUEST = QName.get(E_GET_ALL_ACTIVE_SERVERS_REQUEST, NAMESPACE);
     public static final QName GET_ALL_ACTIVE_SERVERS_RESPONSE = QName.get(E_GET_ALL_ACTIVE_SERVERS_RESPONSE, NAMESPACE);
 
@@ -1221,7 +1225,20 @@ public final class AdminConstants {
     public static final String A_FILE_SIZE = "fileSize";
     public static final String A_CHECK_SIZE = "checkSize";
     public static final String A_REPORT_USED_BLOBS = "reportUsedBlobs";
+    public static final String A_INCREMENTAL = "incremental";
+    public static final String A_NUM_MAILBOXES = "mailboxes";
+    public static final String A_NUM_ITEMS = "items";
+    public static final String A_NUM_FILES = "files";
+    public static final String A_NUM_BYTES = "bytes";
+    public static final String A_ITEMS_PER_SEC = "itemsPerSec";
+    public static final String A_BYTES_PER_SEC = "bytesPerSec";
     public static final String A_VOLUME_ID = "volumeId";
+    public static final String A_SOURCE_VOLUME_ID = "sourceVolumeId";
+    public static final String A_DEST_VOLUME_ID = "destVolumeId";
+    public static final String A_MAX_DATE = "maxDate";
+    public static final String A_MIN_SIZE = "minSize";
+    public static final String A_NUM_ERRORS = "errors";
+    public static final String A_LAST_MAILBOX_ID = "lastMailboxId";
     public static final String A_EXPORT_DIR = "exportDir";
     public static final String A_EXPORT_FILENAME_PREFIX = "exportFilenamePrefix";
     public static final String A_EXTERNAL = "external";
@@ -785,6 +785,28 @@ public final class ZimbraLog {
         sContextString.remove();
     }
 
+    /**
+     * Returns a copy of the current thread's logging context, so that it can be
+     * handed to a worker thread with {@link #setContext(Map)}.
+     */
+    public static Map<String, String> getContextMap() {
+        Map<String, String> contextMap = sContextMap.get();
+        if (contextMap == null) {
+            return Collections.emptyMap();
+        }
+        return new LinkedHashMap<String, String>(contextMap);
+    }
+
+    /**
+     * Replaces the current thread's logging context with the given entries.
+     */
+    public static void setContext(Map<String, String> context) {
+        clearContext();
+        for (Map.Entry<String, String> entry : context.entrySet()) {
+            addToContext(entry.getKey(), entry.getValue());
+        }
+    }
+
     public static String getStackTrace(int maxDepth) {
         // Thread.currentThread().getStackTrace() would seem cleaner but bizarrely is slower.
         StackTraceElement[] stElems = new Throwable().getStackTrace();
@@ -806,6 +806,8 @@ public final class JaxbUtil {
             com.zimbra.soap.admin.message.MailQueueFlushResponse.class,
             com.zimbra.soap.admin.message.MigrateAccountRequest.class,
             com.zimbra.soap.admin.message.MigrateAccountResponse.class,
+            com.zimbra.soap.admin.message.MigrateVolumeRequest.class,
+            com.zimbra.soap.admin.message.MigrateVolumeResponse.class,
             com.zimbra.soap.admin.message.ModifyAccountRequest.class,
             com.zimbra.soap.admin.message.ModifyAccountResponse.class,
             com.zimbra.soap.admin.message.ModifyAdminSavedSearchesRequest.class,
@@ -61,6 +61,14 @@ public class CheckBlobConsistencyRequest {
     @XmlAttribute(name=AdminConstants.A_REPORT_USED_BLOBS /* reportUsedBlobs */, required=false)
     private ZmBoolean reportUsedBlobs;
 
+    /**
+     * @zm-api-field-tag incremental
+     * @zm-api-field-description If set, only blobs of items whose content changed since the last incremental check
+     * of the mailbox are checked
+     */
+    @XmlAttribute(name=AdminConstants.A_INCREMENTAL /* incremental */, required=false)
+    private ZmBoolean incremental;
+
     // ShortIdAttr would be a more accurate fit
     /**
      * @zm-api-field-description Volumes
@@ -79,6 +87,7 @@ public class CheckBlobConsistencyRequest {
 
     public void setCheckSize(Boolean checkSize) { this.checkSize = ZmBoolean.fromBool(checkSize); }
     public void setReportUsedBlobs(Boolean reportUsedBlobs) { this.reportUsedBlobs = ZmBoolean.fromBool(reportUsedBlobs); }
+    public void setIncremental(Boolean incremental) { this.incremental = ZmBoolean.fromBool(incremental); }
     public void setVolumes(Iterable <IntIdAttr> volumes) {
         this.volumes.clear();
         if (volumes != null) {
@@ -105,6 +114,7 @@ public class CheckBlobConsistencyRequest {
 
     public Boolean getCheckSize() { return ZmBoolean.toBool(checkSize); }
     public Boolean getReportUsedBlobs() { return ZmBoolean.toBool(reportUsedBlobs); }
+    public Boolean getIncremental() { return ZmBoolean.toBool(incremental); }
     public List<IntIdAttr> getVolumes() {
         return Collections.unmodifiableList(volumes);
     }
@@ -116,6 +126,7 @@ public class CheckBlobConsistencyRequest {
         return helper
             .add("checkSize", checkSize)
             .add("reportUsedBlobs", reportUsedBlobs)
+            .add("incremental", incremental)
             .add("volumes", volumes)
             .add("mailboxes", mailboxes);
     }
@@ -30,6 +30,7 @@ import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
 import com.zimbra.common.soap.AdminConstants;
+import com.zimbra.soap.admin.type.BlobConsistencyStats;
 import com.zimbra.soap.admin.type.MailboxBlobConsistency;
 
 @XmlAccessorType(XmlAccessType.NONE)
@@ -42,6 +43,12 @@ public class CheckBlobConsistencyResponse {
     @XmlElement(name=AdminConstants.E_MAILBOX /* mbox */, required=false)
     private List<MailboxBlobConsistency> mailboxes = Lists.newArrayList();
 
+    /**
+     * @zm-api-field-description Counts and throughput of the check.  Only returned for file based blob stores.
+     */
+    @XmlElement(name=AdminConstants.E_STATS /* stats */, required=false)
+    private BlobConsistencyStats stats;
+
     public CheckBlobConsistencyResponse() {
     }
 
@@ -60,9 +67,13 @@ public class CheckBlobConsistencyResponse {
         return Collections.unmodifiableList(mailboxes);
     }
 
+    public void setStats(BlobConsistencyStats stats) { this.stats = stats; }
+    public BlobConsistencyStats getStats() { return stats; }
+
     public Objects.ToStringHelper addToStringInfo(Objects.ToStringHelper helper) {
         return helper
-            .add("mailboxes", mailboxes);
+            .add("mailboxes", mailboxes)
+            .add("stats", stats);
     }
 
     @Override
@@ -0,0 +1,115 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.soap.admin.message;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlEnum;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import com.google.common.base.Objects;
+import com.zimbra.common.soap.AdminConstants;
+
+/**
+ * @zm-api-command-auth-required true
+ * @zm-api-command-admin-auth-required true
+ * @zm-api-command-description Starts, stops or reports on moving the blobs of old items from one message volume to
+ * another in the background.
+ * <br />
+ * A stopped migration picks up where it left off when started again with the same source and destination volumes.
+ */
+@XmlAccessorType(XmlAccessType.NONE)
+@XmlRootElement(name=AdminConstants.E_MIGRATE_VOLUME_REQUEST)
+public class MigrateVolumeRequest {
+
+    @XmlEnum
+    public static enum Action {
+        start,
+        status,
+        stop
+    }
+
+    /**
+     * @zm-api-field-description Action to perform - one of <b>start|status|stop</b>
+     */
+    @XmlAttribute(name=AdminConstants.A_ACTION, required=true)
+    private final Action action;
+
+    /**
+     * @zm-api-field-tag source-volume-id
+     * @zm-api-field-description Volume to move the blobs from. Required for <b>start</b>
+     */
+    @XmlAttribute(name=AdminConstants.A_SOURCE_VOLUME_ID, required=false)
+    private Short sourceVolumeId;
+
+    /**
+     * @zm-api-field-tag dest-volume-id
+     * @zm-api-field-description Volume to move the blobs to. Required for <b>start</b>
+     */
+    @XmlAttribute(name=AdminConstants.A_DEST_VOLUME_ID, required=false)
+    private Short destVolumeId;
+
+    /**
+     * @zm-api-field-tag max-date
+     * @zm-api-field-description Only move the blobs of items dated before this time, in seconds since the epoch.
+     * Default is now
+     */
+    @XmlAttribute(name=AdminConstants.A_MAX_DATE, required=false)
+    private Integer maxDate;
+
+    /**
+     * @zm-api-field-tag min-size
+     * @zm-api-field-description Only move the blobs of items at least this many bytes long. Default is 0
+     */
+    @XmlAttribute(name=AdminConstants.A_MIN_SIZE, required=false)
+    private Long minSize;
+
+    /**
+     * no-argument constructor wanted by JAXB
+     */
+    @SuppressWarnings("unused")
+    private MigrateVolumeRequest() {
+        this((Action) null);
+    }
+
+    public MigrateVolumeRequest(Action action) {
+        this.action = action;
+    }
+
+    public void setSourceVolumeId(Short id) { this.sourceVolumeId = id; }
+    public void setDestVolumeId(Short id) { this.destVolumeId = id; }
+    public void setMaxDate(Integer maxDate) { this.maxDate = maxDate; }
+    public void setMinSize(Long minSize) { this.minSize = minSize; }
+
+    public Action getAction() { return action; }
+    public Short getSourceVolumeId() { return sourceVolumeId; }
+    public Short getDestVolumeId() { return destVolumeId; }
+    public Integer getMaxDate() { return maxDate; }
+    public Long getMinSize() { return minSize; }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("action", action)
+            .add("sourceVolumeId", sourceVolumeId)
+            .add("destVolumeId", destVolumeId)
+            .add("maxDate", maxDate)
+            .add("minSize", minSize)
+            .toString();
+    }
+}
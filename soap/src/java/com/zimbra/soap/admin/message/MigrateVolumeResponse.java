@@ -0,0 +1,111 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.soap.admin.message;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlEnum;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import com.zimbra.common.soap.AdminConstants;
+
+/**
+ * Progress of the running or last volume migration; all attributes are left out if none was started since the server
+ * started.
+ */
+@XmlAccessorType(XmlAccessType.NONE)
+@XmlRootElement(name=AdminConstants.E_MIGRATE_VOLUME_RESPONSE)
+public class MigrateVolumeResponse {
+
+    @XmlEnum
+    public static enum Status {
+        running,
+        stopped
+    }
+
+    /**
+     * @zm-api-field-description Status - one of <b>running|stopped</b>
+     */
+    @XmlAttribute(name=AdminConstants.A_STATUS, required=false)
+    private Status status;
+
+    /**
+     * @zm-api-field-tag source-volume-id
+     * @zm-api-field-description Volume the blobs are moved from
+     */
+    @XmlAttribute(name=AdminConstants.A_SOURCE_VOLUME_ID, required=false)
+    private Short sourceVolumeId;
+
+    /**
+     * @zm-api-field-tag dest-volume-id
+     * @zm-api-field-description Volume the blobs are moved to
+     */
+    @XmlAttribute(name=AdminConstants.A_DEST_VOLUME_ID, required=false)
+    private Short destVolumeId;
+
+    /**
+     * @zm-api-field-description Number of mailboxes done
+     */
+    @XmlAttribute(name=AdminConstants.A_NUM_MAILBOXES, required=false)
+    private Integer mailboxes;
+
+    /**
+     * @zm-api-field-description Number of blobs moved
+     */
+    @XmlAttribute(name=AdminConstants.A_NUM_FILES, required=false)
+    private Long files;
+
+    /**
+     * @zm-api-field-description Number of bytes moved
+     */
+    @XmlAttribute(name=AdminConstants.A_NUM_BYTES, required=false)
+    private Long bytes;
+
+    /**
+     * @zm-api-field-description Number of blobs or mailboxes which could not be moved
+     */
+    @XmlAttribute(name=AdminConstants.A_NUM_ERRORS, required=false)
+    private Integer errors;
+
+    /**
+     * @zm-api-field-description ID of the last mailbox done
+     */
+    @XmlAttribute(name=AdminConstants.A_LAST_MAILBOX_ID, required=false)
+    private Integer lastMailboxId;
+
+    public MigrateVolumeResponse() {
+    }
+
+    public void setStatus(Status status) { this.status = status; }
+    public void setSourceVolumeId(Short id) { this.sourceVolumeId = id; }
+    public void setDestVolumeId(Short id) { this.destVolumeId = id; }
+    public void setMailboxes(Integer mailboxes) { this.mailboxes = mailboxes; }
+    public void setFiles(Long files) { this.files = files; }
+    public void setBytes(Long bytes) { this.bytes = bytes; }
+    public void setErrors(Integer errors) { this.errors = errors; }
+    public void setLastMailboxId(Integer id) { this.lastMailboxId = id; }
+
+    public Status getStatus() { return status; }
+    public Short getSourceVolumeId() { return sourceVolumeId; }
+    public Short getDestVolumeId() { return destVolumeId; }
+    public Integer getMailboxes() { return mailboxes; }
+    public Long getFiles() { return files; }
+    public Long getBytes() { return bytes; }
+    public Integer getErrors() { return errors; }
+    public Integer getLastMailboxId() { return lastMailboxId; }
+}
@@ -0,0 +1,112 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+
+package com.zimbra.soap.admin.type;
+
+import com.google.common.base.Objects;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+
+import com.zimbra.common.soap.AdminConstants;
+
+@XmlAccessorType(XmlAccessType.NONE)
+public class BlobConsistencyStats {
+
+    /**
+     * @zm-api-field-tag num-mailboxes
+     * @zm-api-field-description Number of mailboxes checked
+     */
+    @XmlAttribute(name=AdminConstants.A_NUM_MAILBOXES /* mailboxes */, required=true)
+    private int mailboxes;
+
+    /**
+     * @zm-api-field-tag num-items
+     * @zm-api-field-description Number of blobs expected from the database
+     */
+    @XmlAttribute(name=AdminConstants.A_NUM_ITEMS /* items */, required=true)
+    private int items;
+
+    /**
+     * @zm-api-field-tag num-files
+     * @zm-api-field-description Number of files compared
+     */
+    @XmlAttribute(name=AdminConstants.A_NUM_FILES /* files */, required=true)
+    private int files;
+
+    /**
+     * @zm-api-field-tag num-bytes
+     * @zm-api-field-description Total size of the blobs found
+     */
+    @XmlAttribute(name=AdminConstants.A_NUM_BYTES /* bytes */, required=true)
+    private long bytes;
+
+    /**
+     * @zm-api-field-tag duration-millis
+     * @zm-api-field-description Time taken by the check in milliseconds
+     */
+    @XmlAttribute(name=AdminConstants.A_DURATION /* duration */, required=true)
+    private long duration;
+
+    /**
+     * @zm-api-field-tag items-per-sec
+     * @zm-api-field-description Blobs checked per second
+     */
+    @XmlAttribute(name=AdminConstants.A_ITEMS_PER_SEC /* itemsPerSec */, required=true)
+    private long itemsPerSec;
+
+    /**
+     * @zm-api-field-tag bytes-per-sec
+     * @zm-api-field-description Bytes of blobs checked per second
+     */
+    @XmlAttribute(name=AdminConstants.A_BYTES_PER_SEC /* bytesPerSec */, required=true)
+    private long bytesPerSec;
+
+    public BlobConsistencyStats() {
+    }
+
+    public void setMailboxes(int mailboxes) { this.mailboxes = mailboxes; }
+    public void setItems(int items) { this.items = items; }
+    public void setFiles(int files) { this.files = files; }
+    public void setBytes(long bytes) { this.bytes = bytes; }
+    public void setDuration(long duration) { this.duration = duration; }
+    public void setItemsPerSec(long itemsPerSec) { this.itemsPerSec = itemsPerSec; }
+    public void setBytesPerSec(long bytesPerSec) { this.bytesPerSec = bytesPerSec; }
+    public int getMailboxes() { return mailboxes; }
+    public int getItems() { return items; }
+    public int getFiles() { return files; }
+    public long getBytes() { return bytes; }
+    public long getDuration() { return duration; }
+    public long getItemsPerSec() { return itemsPerSec; }
+    public long getBytesPerSec() { return bytesPerSec; }
+
+    public Objects.ToStringHelper addToStringInfo(Objects.ToStringHelper helper) {
+        return helper
+            .add("mailboxes", mailboxes)
+            .add("items", items)
+            .add("files", files)
+            .add("bytes", bytes)
+            .add("duration", duration)
+            .add("itemsPerSec", itemsPerSec)
+            .add("bytesPerSec", bytesPerSec);
+    }
+
+    @Override
+    public String toString() {
+        return addToStringInfo(Objects.toStringHelper(this)).toString();
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+
+package com.zimbra.cs.datasource;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zimbra.cs.datasource.DataSourceScheduler.FairQueue;
+import com.zimbra.cs.datasource.DataSourceScheduler.PollState;
+
+public class DataSourceSchedulerTest {
+
+    @Test
+    public void roundRobin() {
+        FairQueue<String> queue = new FairQueue<String>();
+        Assert.assertTrue(queue.add("a", "a1", "a1"));
+        Assert.assertTrue(queue.add("a", "a2", "a2"));
+        Assert.assertTrue(queue.add("a", "a3", "a3"));
+        Assert.assertTrue(queue.add("b", "b1", "b1"));
+        Assert.assertTrue(queue.add("c", "c1", "c1"));
+        Assert.assertTrue(queue.add("c", "c2", "c2"));
+        Assert.assertEquals(6, queue.size());
+
+        Assert.assertEquals("a1", queue.poll());
+        Assert.assertEquals("b1", queue.poll());
+        Assert.assertEquals("c1", queue.poll());
+        Assert.assertEquals("a2", queue.poll());
+        Assert.assertEquals("c2", queue.poll());
+        Assert.assertEquals("a3", queue.poll());
+        Assert.assertNull(queue.poll());
+        Assert.assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void coalesce() {
+        FairQueue<String> queue = new FairQueue<String>();
+        Assert.assertTrue(queue.add("a", "a1", "first"));
+        Assert.assertFalse(queue.add("a", "a1", "second"));
+        Assert.assertEquals(1, queue.size());
+        Assert.assertEquals("first", queue.remove("a", "a1"));
+        Assert.assertNull(queue.poll());
+
+        // can be queued again once it has been taken off the queue
+        Assert.assertTrue(queue.add("a", "a1", "third"));
+        Assert.assertEquals("third", queue.poll());
+    }
+
+    @Test
+    public void backoff() {
+        PollState state = new PollState(2, 4);
+        state.update(false);
+        Assert.assertFalse(state.skip());
+
+        // second empty poll reaches the threshold and doubles the interval
+        state.update(false);
+        Assert.assertTrue(state.skip());
+        Assert.assertFalse(state.skip());
+
+        // then four times the interval, which is the maximum
+        state.update(false);
+        assertSkips(state, 3);
+        state.update(false);
+        assertSkips(state, 3);
+
+        // new mail goes straight back to the normal interval
+        state.update(true);
+        Assert.assertFalse(state.skip());
+        Assert.assertEquals(0, state.getEmptyPolls());
+    }
+
+    private static void assertSkips(PollState state, int skips) {
+        for (int i = 0; i < skips; i++) {
+            Assert.assertTrue(state.skip());
+        }
+        Assert.assertFalse(state.skip());
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.datasource.imap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zimbra.common.util.ZimbraLog;
+
+public class FolderSyncStateTest {
+
+    @After
+    public void tearDown() {
+        ZimbraLog.clearContext();
+    }
+
+    /*
+     * Two folders fetched in parallel, each handing its imports to another
+     * thread, must neither lose a UID update nor each other's log context.
+     */
+    @Test
+    public void twoFoldersInParallel() throws Exception {
+        final FolderSyncState state = new FolderSyncState();
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService folders = Executors.newFixedThreadPool(2);
+        final ExecutorService importer = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<String>> futures = new ArrayList<Future<String>>();
+            for (final String name : new String[] { "folder1", "folder2" }) {
+                final long first = name.equals("folder1") ? 1 : 2;
+                futures.add(folders.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        ZimbraLog.addDataSourceNameToContext(name);
+                        start.await();
+                        for (long uid = first; uid <= 10000; uid += 2) {
+                            state.updateLastFetchedUid(uid);
+                        }
+                        final Map<String, String> context = ZimbraLog.getContextMap();
+                        return importer.submit(new Callable<String>() {
+                            @Override
+                            public String call() {
+                                ZimbraLog.setContext(context);
+                                try {
+                                    return ZimbraLog.getContextString();
+                                } finally {
+                                    ZimbraLog.clearContext();
+                                }
+                            }
+                        }).get();
+                    }
+                }));
+            }
+            start.countDown();
+            Assert.assertTrue(futures.get(0).get().contains("folder1"));
+            Assert.assertTrue(futures.get(1).get().contains("folder2"));
+            Assert.assertEquals(10000, state.getLastFetchedUid());
+        } finally {
+            folders.shutdown();
+            importer.shutdown();
+        }
+    }
+
+    @Test
+    public void updateLastFetchedUidKeepsMax() {
+        FolderSyncState state = new FolderSyncState();
+        state.setLastFetchedUid(10);
+        state.updateLastFetchedUid(5);
+        Assert.assertEquals(10, state.getLastFetchedUid());
+        state.updateLastFetchedUid(11);
+        Assert.assertEquals(11, state.getLastFetchedUid());
+    }
+}
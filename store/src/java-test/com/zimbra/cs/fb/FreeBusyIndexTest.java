@@ -0,0 +1,69 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+
+package com.zimbra.cs.fb;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zimbra.cs.fb.FreeBusy.FBInstance;
+import com.zimbra.cs.fb.FreeBusyIndex.MailboxTimeline;
+import com.zimbra.cs.mailbox.calendar.IcalXmlStrMap;
+
+public class FreeBusyIndexTest {
+
+    private static FBInstance busy(long start, long end, int apptId) {
+        return new FBInstance(IcalXmlStrMap.FBTYPE_BUSY, start, end, apptId, 0);
+    }
+
+    @Test
+    public void overlap() {
+        MailboxTimeline timeline = new MailboxTimeline(0, 1000);
+        timeline.put(257, 10, Arrays.asList(busy(100, 200, 257), busy(300, 400, 257)));
+        timeline.put(258, 10, Arrays.asList(busy(0, 900, 258)));
+        timeline.put(259, 11, Arrays.asList(busy(150, 160, 259)));
+
+        Map<Integer, List<FBInstance>> result = timeline.collect(250, 350, FreeBusyQuery.CALENDAR_FOLDER_ALL);
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals(2, result.get(10).size());  // the long block starting earlier is included
+
+        result = timeline.collect(200, 300, FreeBusyQuery.CALENDAR_FOLDER_ALL);
+        Assert.assertEquals(Arrays.asList(busy(0, 900, 258)), result.get(10));
+
+        result = timeline.collect(0, 1000, 11);
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals(1, result.get(11).size());
+    }
+
+    @Test
+    public void replaceAndRemove() {
+        MailboxTimeline timeline = new MailboxTimeline(0, 1000);
+        timeline.put(257, 10, Arrays.asList(busy(100, 200, 257)));
+
+        // moved to another folder and rescheduled
+        timeline.put(257, 11, Arrays.asList(busy(500, 600, 257)));
+        Assert.assertTrue(timeline.collect(0, 1000, 10).isEmpty());
+        Assert.assertEquals(Arrays.asList(busy(500, 600, 257)), timeline.collect(0, 1000, 11).get(11));
+
+        timeline.remove(257);
+        Assert.assertTrue(timeline.collect(0, 1000, FreeBusyQuery.CALENDAR_FOLDER_ALL).isEmpty());
+    }
+}
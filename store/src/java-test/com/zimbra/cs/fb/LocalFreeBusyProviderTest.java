@@ -0,0 +1,83 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.fb;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+import com.zimbra.common.account.Key.AccountBy;
+import com.zimbra.common.util.Pair;
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.mailbox.OperationContext;
+
+public class LocalFreeBusyProviderTest {
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+        Provisioning prov = Provisioning.getInstance();
+        prov.createAccount("test@zimbra.com", "secret", Maps.<String, Object>newHashMap());
+        prov.createAccount("test2@zimbra.com", "secret", Maps.<String, Object>newHashMap());
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+    }
+
+    private static Mailbox getMailbox(String name) throws Exception {
+        Account acct = Provisioning.getInstance().get(AccountBy.name, name);
+        return MailboxManager.getInstance().getMailboxByAccount(acct);
+    }
+
+    @Test
+    public void batched() throws Exception {
+        Mailbox mbox = getMailbox("test@zimbra.com");
+        Mailbox mbox2 = getMailbox("test2@zimbra.com");
+        long start = System.currentTimeMillis();
+        long end = start + 3600000L;
+
+        // two names backed by the first mailbox, split by a target in another one
+        Map<String, Pair<Mailbox, Integer>> targets = new LinkedHashMap<String, Pair<Mailbox, Integer>>();
+        targets.put("test@zimbra.com", new Pair<Mailbox, Integer>(mbox, FreeBusyQuery.CALENDAR_FOLDER_ALL));
+        targets.put("test2@zimbra.com", new Pair<Mailbox, Integer>(mbox2, FreeBusyQuery.CALENDAR_FOLDER_ALL));
+        targets.put("alias@zimbra.com", new Pair<Mailbox, Integer>(mbox, Mailbox.ID_FOLDER_CALENDAR));
+
+        OperationContext octxt = new OperationContext(mbox);
+        List<FreeBusy> result = LocalFreeBusyProvider.getFreeBusyLists(octxt, targets, start, end, null);
+        Assert.assertEquals(3, result.size());
+        int i = 0;
+        for (Map.Entry<String, Pair<Mailbox, Integer>> target : targets.entrySet()) {
+            FreeBusy fb = result.get(i++);
+            Assert.assertEquals(target.getKey(), fb.getName());
+            FreeBusy single = target.getValue().getFirst().getFreeBusy(octxt, target.getKey(), start, end,
+                    target.getValue().getSecond());
+            Assert.assertEquals(single.toString(), fb.toString());
+        }
+    }
+}
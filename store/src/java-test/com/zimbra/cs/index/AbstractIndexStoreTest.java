@@ -674,7 +674,7 @@ public abstract class AbstractIndexStoreTest {
                 Collections.singletonMap(ContactConstants.A_email, email)), folder.getId(), null);
     }
 
-    private Contact createContact(Mailbox mbox, String firstName, String lastName, String email)
+    protected Contact createContact(Mailbox mbox, String firstName, String lastName, String email)
             throws ServiceException {
         Folder folder = mbox.getFolderById(null, Mailbox.ID_FOLDER_CONTACTS);
         Map<String, Object> fields;
@@ -697,7 +697,7 @@ public abstract class AbstractIndexStoreTest {
         return mbox.createContact(null, new ParsedContact(fields), folder.getId(), null);
     }
 
-    private static String getBlobIdForResultDoc(ZimbraIndexSearcher searcher, ZimbraTopDocs result, int index)
+    protected static String getBlobIdForResultDoc(ZimbraIndexSearcher searcher, ZimbraTopDocs result, int index)
             throws IOException {
         return searcher.doc(result.getScoreDoc(index).getDocumentID()).get(LuceneFields.L_MAILBOX_BLOB_ID);
     }
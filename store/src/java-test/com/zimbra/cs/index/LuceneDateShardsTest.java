@@ -0,0 +1,108 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+
+package com.zimbra.cs.index;
+
+import org.apache.lucene.analysis.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link LuceneDateShards}.
+ */
+public final class LuceneDateShardsTest {
+
+    private static FieldDoc hit(int doc, String date) {
+        return new FieldDoc(doc, Float.NaN, new Comparable<?>[] { date });
+    }
+
+    @Test
+    public void canBeat() {
+        LuceneDateShards.Span span = new LuceneDateShards.Span("20100101", "20101231", false);
+        Assert.assertTrue(span.canBeat(hit(0, "20100601"), true));
+        Assert.assertTrue(span.canBeat(hit(0, "20101231"), true)); // ties on date are decided by document ID
+        Assert.assertFalse(span.canBeat(hit(0, "20110101"), true));
+        Assert.assertTrue(span.canBeat(hit(0, "20100601"), false));
+        Assert.assertFalse(span.canBeat(hit(0, "20091231"), false));
+        // documents without a date sort first in ascending order
+        Assert.assertTrue(new LuceneDateShards.Span("20100101", "20101231", true).canBeat(hit(0, "20091231"), false));
+        Assert.assertFalse(span.canBeat(hit(0, null), false));
+    }
+
+    @Test
+    public void hitOrder() {
+        LuceneDateShards.HitOrder newest = new LuceneDateShards.HitOrder(true);
+        Assert.assertTrue(newest.compare(hit(5, "20101231"), hit(1, "20100101")) < 0);
+        Assert.assertTrue(newest.compare(hit(1, "20100101"), hit(5, "20100101")) < 0);
+        Assert.assertTrue(newest.compare(hit(1, "20100101"), hit(0, null)) < 0);
+        LuceneDateShards.HitOrder oldest = new LuceneDateShards.HitOrder(false);
+        Assert.assertTrue(oldest.compare(hit(0, null), hit(1, "20100101")) < 0);
+        Assert.assertTrue(oldest.compare(hit(1, "20100101"), hit(5, "20100101")) < 0);
+    }
+
+    @Test
+    public void estimatedTotalHits() throws Exception {
+        RAMDirectory dir = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_35, new KeywordAnalyzer())
+                .setMergePolicy(NoMergePolicy.NO_COMPOUND_FILES));
+        // one segment per year
+        for (int year = 2010; year <= 2012; year++) {
+            for (int month = 10; month <= 12; month++) {
+                Document doc = new Document();
+                doc.add(new Field(LuceneFields.L_SORT_DATE, year + "" + month + "01", Field.Store.NO,
+                        Field.Index.NOT_ANALYZED));
+                writer.addDocument(doc);
+            }
+            writer.commit();
+        }
+        writer.close();
+
+        IndexReader reader = IndexReader.open(dir);
+        IndexSearcher searcher = new IndexSearcher(reader);
+        try {
+            Assert.assertEquals(3, searcher.getSubReaders().length);
+            Sort sort = new Sort(new SortField(LuceneFields.L_SORT_DATE, SortField.STRING, true));
+
+            // stops after the newest segment, so the unvisited ones are only estimated
+            ZimbraTopFieldDocs docs = LuceneDateShards.search(searcher, new MatchAllDocsQuery(), null, 2, sort);
+            Assert.assertEquals(2, docs.getScoreDocs().size());
+            Assert.assertTrue(docs.isTotalHitsEstimated());
+            Assert.assertEquals(9, docs.getTotalHits());
+
+            docs = LuceneDateShards.search(searcher, new MatchAllDocsQuery(), null, 10, sort);
+            Assert.assertEquals(9, docs.getScoreDocs().size());
+            Assert.assertFalse(docs.isTotalHitsEstimated());
+            Assert.assertEquals(9, docs.getTotalHits());
+        } finally {
+            searcher.close();
+            reader.close();
+        }
+    }
+}
@@ -16,6 +16,17 @@
  */
 package com.zimbra.cs.index;
 
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.TermQuery;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.mailbox.Contact;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+
 /**
  * Unit test for {@link LuceneIndex}.
  */
@@ -27,4 +38,34 @@ public final class LuceneIndexTest extends AbstractIndexStoreTest {
         // Default for LC.zimbra_class_index_store_factory.value() is USUALLY this
         return "com.zimbra.cs.index.LuceneIndex$Factory";
     }
+
+    @Test
+    public void rangeFilter() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        Contact contact1 = createContact(mbox, "a", "bc", "abc@zimbra.com");
+        Contact contact2 = createContact(mbox, "x", "yz", "xyz@zimbra.com");
+        mbox.index.indexDeferredItems();
+
+        ZimbraIndexSearcher searcher = mbox.index.getIndexStore().openSearcher();
+        try {
+            TermQuery query = new TermQuery(new Term(LuceneFields.L_CONTACT_DATA, "zimbra.com"));
+            ZimbraTermsFilter filter = new ZimbraTermsFilter().addLongRange(LuceneFields.L_SORT_SIZE, null, null);
+            Assert.assertEquals(2, searcher.search(query, filter, 100).getTotalHits());
+
+            filter = new ZimbraTermsFilter().addLongRange(LuceneFields.L_SORT_SIZE, contact1.getSize(), null);
+            Assert.assertTrue(searcher.search(query, filter, 100).getTotalHits() >= 1);
+            filter = new ZimbraTermsFilter().addLongRange(LuceneFields.L_SORT_SIZE, null, -1L);
+            Assert.assertEquals(0, searcher.search(query, filter, 100).getTotalHits());
+
+            // ranges combine with the terms restriction
+            filter = new ZimbraTermsFilter(ImmutableList.of(
+                    new Term(LuceneFields.L_MAILBOX_BLOB_ID, String.valueOf(contact2.getId()))))
+                    .addLongRange(LuceneFields.L_SORT_SIZE, 0L, null);
+            ZimbraTopDocs result = searcher.search(query, filter, 100);
+            Assert.assertEquals(1, result.getTotalHits());
+            Assert.assertEquals(String.valueOf(contact2.getId()), getBlobIdForResultDoc(searcher, result, 0));
+        } finally {
+            searcher.close();
+        }
+    }
 }
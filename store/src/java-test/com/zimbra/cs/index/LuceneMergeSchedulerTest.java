@@ -0,0 +1,127 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+
+package com.zimbra.cs.index;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Unit test for {@link LuceneMergeScheduler}.
+ */
+public final class LuceneMergeSchedulerTest {
+
+    @Test
+    public void quietHours() {
+        Assert.assertNull(LuceneMergeScheduler.parseHours(""));
+        Assert.assertNull(LuceneMergeScheduler.parseHours("1"));
+        Assert.assertNull(LuceneMergeScheduler.parseHours("a-b"));
+        Assert.assertNull(LuceneMergeScheduler.parseHours("1-25"));
+
+        int[] hours = LuceneMergeScheduler.parseHours("1-5");
+        Assert.assertFalse(LuceneMergeScheduler.isQuietHour(hours, 0));
+        Assert.assertTrue(LuceneMergeScheduler.isQuietHour(hours, 1));
+        Assert.assertTrue(LuceneMergeScheduler.isQuietHour(hours, 4));
+        Assert.assertFalse(LuceneMergeScheduler.isQuietHour(hours, 5));
+
+        // wraps around midnight
+        hours = LuceneMergeScheduler.parseHours(" 22 - 3 ");
+        Assert.assertTrue(LuceneMergeScheduler.isQuietHour(hours, 23));
+        Assert.assertTrue(LuceneMergeScheduler.isQuietHour(hours, 0));
+        Assert.assertFalse(LuceneMergeScheduler.isQuietHour(hours, 3));
+        Assert.assertFalse(LuceneMergeScheduler.isQuietHour(hours, 12));
+    }
+
+    @Test
+    public void pacer() {
+        LuceneMergeScheduler.Pacer pacer = new LuceneMergeScheduler.Pacer(1000);
+        long second = TimeUnit.SECONDS.toNanos(1);
+        Assert.assertEquals(0, pacer.reserve(500, 0));
+        // the budget is shared, so the next writer waits for the first one's bytes
+        Assert.assertEquals(second / 2, pacer.reserve(1000, 0));
+        Assert.assertEquals(second / 2, pacer.reserve(1000, second));
+        // an idle budget isn't saved up
+        Assert.assertEquals(0, pacer.reserve(1000, second * 10));
+        Assert.assertNull(new LuceneMergeScheduler.Pacer(0).newAccount());
+    }
+
+    @Test
+    public void gate() throws Exception {
+        final LuceneMergeScheduler.Gate gate = new LuceneMergeScheduler.Gate(1);
+        final List<String> order = new CopyOnWriteArrayList<String>();
+        gate.acquire(0, false); // hold the only slot while the others line up
+
+        Thread large = start(gate, order, "large", 1000, false);
+        Thread small = start(gate, order, "small", 10, false);
+        Thread interactive = start(gate, order, "interactive", 5000, true);
+        while (gate.getWaiting() < 3) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, gate.getRunning());
+        gate.release();
+        large.join();
+        small.join();
+        interactive.join();
+        Assert.assertEquals(ImmutableList.of("interactive", "small", "large"), order);
+        Assert.assertEquals(0, gate.getRunning());
+    }
+
+    @Test
+    public void resumeDeferred() {
+        LuceneMergeScheduler.Gate gate = new LuceneMergeScheduler.Gate(1);
+        Runnable first = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        Runnable second = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        gate.defer(1, first);
+        gate.defer(1, first);
+        gate.defer(2, second);
+        Assert.assertTrue(gate.setQuiet(false).isEmpty());
+        // each mailbox is resumed once when the quiet hours start
+        Assert.assertEquals(ImmutableList.of(first, second), gate.setQuiet(true));
+        gate.defer(1, first);
+        Assert.assertTrue("only on the transition", gate.setQuiet(true).isEmpty());
+        Assert.assertTrue(gate.setQuiet(false).isEmpty());
+        Assert.assertEquals(ImmutableList.of(first), gate.setQuiet(true));
+    }
+
+    private static Thread start(final LuceneMergeScheduler.Gate gate, final List<String> order, final String name,
+            final long bytes, final boolean interactive) {
+        Thread thread = new Thread(name) {
+            @Override
+            public void run() {
+                gate.acquire(bytes, interactive);
+                order.add(name);
+                gate.release();
+            }
+        };
+        thread.start();
+        return thread;
+    }
+}
@@ -55,12 +55,12 @@ public final class MockQueryResults extends ZimbraQueryResultsImpl {
 
     @Override
     public ZimbraHit getNext() {
-        return hits.get(next++);
+        return next < hits.size() ? hits.get(next++) : null;
     }
 
     @Override
     public ZimbraHit peekNext() {
-        return hits.get(next);
+        return next < hits.size() ? hits.get(next) : null;
     }
 
     @Override
@@ -0,0 +1,79 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.index;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+
+/**
+ * Unit test for {@link ReSortingQueryResults}.
+ */
+public final class ReSortingQueryResultsTest {
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initProvisioning();
+    }
+
+    private static SearchParams params(int offset, int limit) {
+        SearchParams params = new SearchParams();
+        params.setLocale(Locale.ENGLISH);
+        params.setSortBy(SortBy.NAME_LOCALIZED_ASC);
+        params.setOffset(offset);
+        params.setLimit(limit);
+        return params;
+    }
+
+    private static List<Integer> sort(SearchParams params) throws Exception {
+        MockQueryResults results = new MockQueryResults(EnumSet.of(MailItem.Type.CONTACT), SortBy.NAME_ASC);
+        String[] names = { "e", "b", "d", "a", "c", "b", "f" };
+        for (int i = 0; i < names.length; i++) {
+            results.add(new MockHit(results, i + 1, names[i]));
+        }
+        ReSortingQueryResults sorted = new ReSortingQueryResults(results, SortBy.NAME_LOCALIZED_ASC, params);
+        List<Integer> ids = new ArrayList<Integer>();
+        for (ZimbraHit hit = sorted.getNext(); hit != null; hit = sorted.getNext()) {
+            ids.add(hit.getItemId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void topHits() throws Exception {
+        SearchParams params = params(1, 2);
+        // offset + limit + 1 hits, in the same order as a stable sort of all of them
+        List<Integer> all = sort(params(0, 0));
+        Assert.assertEquals(7, all.size());
+        Assert.assertEquals(all.subList(0, 4), sort(params));
+        Assert.assertEquals(2, all.get(1).intValue());
+        Assert.assertEquals(6, all.get(2).intValue());
+
+        // the truncated hits must not be cached as the complete result list
+        Assert.assertFalse(SearchResultsCache.isCacheable(params));
+        params.setSortBy(SortBy.NAME_ASC);
+        Assert.assertTrue(SearchResultsCache.isCacheable(params));
+    }
+}
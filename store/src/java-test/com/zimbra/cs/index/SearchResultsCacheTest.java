@@ -0,0 +1,154 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.index;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.common.soap.SoapProtocol;
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.DeliveryOptions;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.mailbox.OperationContext;
+import com.zimbra.cs.mime.ParsedMessage;
+
+/**
+ * Unit test for {@link SearchResultsCache}.
+ */
+public final class SearchResultsCacheTest {
+
+    private Mailbox mbox;
+    private SearchResultsCache cache;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+        Provisioning prov = Provisioning.getInstance();
+        prov.createAccount("test@zimbra.com", "secret", new HashMap<String, Object>());
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+        mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        for (int i = 0; i < 7; i++) {
+            addMessage(i);
+        }
+        cache = new SearchResultsCache(1024 * 1024, 100, 4);
+    }
+
+    private void addMessage(int i) throws Exception {
+        DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX);
+        String msg = "From: test" + i + "@zimbra.com\r\nSubject: test " + i + "\r\n\r\nbody";
+        mbox.addMessage(null, new ParsedMessage(msg.getBytes(), System.currentTimeMillis() - i * 60000L, false),
+                dopt, null);
+    }
+
+    private SearchParams params(int offset, int limit) {
+        SearchParams params = new SearchParams();
+        params.setQueryString("in:inbox");
+        params.setTypes(EnumSet.of(MailItem.Type.MESSAGE));
+        params.setSortBy(SortBy.DATE_DESC);
+        params.setOffset(offset);
+        params.setLimit(limit);
+        return params;
+    }
+
+    private List<Integer> page(SearchResultsCache cache, SearchParams params) throws Exception {
+        ZimbraQueryResults results = cache.search(mbox, SoapProtocol.Soap12, new OperationContext(mbox), params);
+        List<Integer> ids = new ArrayList<Integer>();
+        try {
+            ResultsPager pager = ResultsPager.create(results, params);
+            while (pager.hasNext() && ids.size() < params.getLimit()) {
+                ids.add(pager.getNextHit().getItemId());
+            }
+        } finally {
+            results.close();
+        }
+        return ids;
+    }
+
+    @Test
+    public void hitAndMiss() throws Exception {
+        List<Integer> first = page(cache, params(0, 2));
+        Assert.assertEquals(0, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(1, cache.size());
+
+        Assert.assertEquals(first, page(cache, params(0, 2)));
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+
+        // different query
+        SearchParams other = params(0, 2);
+        other.setSortBy(SortBy.DATE_ASC);
+        page(cache, other);
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void secondPage() throws Exception {
+        SearchResultsCache uncached = new SearchResultsCache(0, 0, 1);
+        List<Integer> expected = page(uncached, params(2, 2));
+        Assert.assertEquals(2, expected.size());
+
+        page(cache, params(0, 2));
+        Assert.assertEquals(expected, page(cache, params(2, 2)));
+        Assert.assertEquals(1, cache.getHitCount());
+
+        // past the end of the read ahead, the cached prefix knows the result list is complete
+        Assert.assertEquals(page(uncached, params(6, 2)), page(cache, params(6, 2)));
+        Assert.assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    public void invalidateOnChange() throws Exception {
+        page(cache, params(0, 2));
+        page(cache, params(0, 2));
+        Assert.assertEquals(1, cache.getHitCount());
+
+        addMessage(10);
+        page(cache, params(0, 2));
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(2, cache.getMissCount());
+
+        cache.invalidate(mbox.getAccountId());
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void quickIsPartOfKey() throws Exception {
+        page(cache, params(0, 2));
+        SearchParams quick = params(0, 2);
+        quick.setQuick(true);
+        page(cache, quick);
+        Assert.assertEquals(0, cache.getHitCount());
+        Assert.assertEquals(2, cache.getMissCount());
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.index;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.mailbox.MailItem;
+
+/**
+ * Unit test for {@link UnionQueryOperation} and the prefetch of {@link RemoteQueryOperation}.
+ */
+public final class UnionQueryOperationTest {
+
+    private final MockQueryResults results =
+            new MockQueryResults(EnumSet.of(MailItem.Type.MESSAGE), SortBy.DATE_DESC);
+
+    @After
+    public void tearDown() {
+        ZimbraLog.clearContext();
+    }
+
+    private MockQueryOperation op(int id, long... dates) {
+        MockQueryOperation op = new MockQueryOperation();
+        for (long date : dates) {
+            op.add(new MockHit(results, id++, date));
+        }
+        return op;
+    }
+
+    @Test
+    public void merge() throws Exception {
+        UnionQueryOperation union = new UnionQueryOperation();
+        union.add(op(100, 9, 5, 1));
+        union.add(op(200, 8, 5, 2));
+        union.add(op(300));
+        union.add(op(400, 7));
+        SearchParams params = new SearchParams();
+        params.setSortBy(SortBy.DATE_DESC);
+        union.begin(new QueryOperation.QueryContext(null, results, params, 10));
+
+        List<Integer> ids = new ArrayList<Integer>();
+        for (ZimbraHit hit = union.getNext(); hit != null; hit = union.getNext()) {
+            ids.add(hit.getItemId());
+        }
+        // of equal hits, the one of the operation added first comes first
+        Assert.assertEquals(ImmutableList.of(100, 200, 400, 101, 201, 202, 102), ids);
+
+        union.resetIterator();
+        Assert.assertEquals(100, union.getNext().getItemId());
+    }
+
+    @Test
+    public void prefetch() throws Exception {
+        ZimbraLog.addAccountNameToContext("test@zimbra.com");
+        List<MockQueryOperation> ops = new ArrayList<MockQueryOperation>();
+        for (int i = 0; i < 3; i++) {
+            ops.add(op(i * 100, i));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            RemoteQueryOperation.prefetch(ops, executor);
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertSame(Thread.currentThread(), ops.get(0).getPeekThread());
+        for (MockQueryOperation op : ops.subList(1, ops.size())) {
+            Assert.assertNotSame(Thread.currentThread(), op.getPeekThread());
+            Assert.assertTrue(op.getPeekContext(), op.getPeekContext().contains("test@zimbra.com"));
+        }
+
+        // without a pool, all are fetched on this thread
+        ops.clear();
+        for (int i = 0; i < 3; i++) {
+            ops.add(op(i * 100, i));
+        }
+        RemoteQueryOperation.prefetch(ops, null);
+        for (MockQueryOperation op : ops) {
+            Assert.assertSame(Thread.currentThread(), op.getPeekThread());
+        }
+    }
+}
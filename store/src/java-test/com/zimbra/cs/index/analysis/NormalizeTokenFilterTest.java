@@ -16,8 +16,11 @@
  */
 package com.zimbra.cs.index.analysis;
 
+import java.io.StringReader;
+
 import junit.framework.Assert;
 
+import org.apache.lucene.analysis.CharReader;
 import org.junit.Test;
 
 /**
@@ -283,7 +286,21 @@ public class NormalizeTokenFilterTest {
         Assert.assertEquals('\u308F', NormalizeTokenFilter.normalize('\uFF9C'));
         Assert.assertEquals('\u3093', NormalizeTokenFilter.normalize('\uFF9D'));
     }
-    
-    
 
+    @Test
+    public void ascii() throws Exception {
+        for (char c = 0; c < 0x80; c++) {
+            Assert.assertEquals(Character.toLowerCase(c), NormalizeTokenFilter.normalize(c));
+        }
+        Assert.assertEquals(-1, NormalizeTokenFilter.normalize(-1));
+
+        // bulk reads normalize the same as single char reads
+        String src = "Hello W\u00D6RLD \uFF34\uFF45\uFF53\uFF54 \u30AC!";
+        NormalizeTokenFilter filter = new NormalizeTokenFilter(CharReader.get(new StringReader(src)));
+        char[] buf = new char[src.length() + 2];
+        Assert.assertEquals(src.length(), filter.read(buf, 2, src.length()));
+        for (int i = 0; i < src.length(); i++) {
+            Assert.assertEquals(NormalizeTokenFilter.normalize(src.charAt(i)), buf[i + 2]);
+        }
+    }
 }
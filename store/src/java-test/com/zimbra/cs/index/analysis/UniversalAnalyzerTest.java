@@ -18,6 +18,8 @@ package com.zimbra.cs.index.analysis;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.cjk.CJKAnalyzer;
@@ -200,6 +202,28 @@ public final class UniversalAnalyzerTest {
         testSTD(src);
     }
 
+    @Test
+    public void reuse() throws Exception {
+        String src = new String(ByteStreams.toByteArray(getClass().getResourceAsStream("wikipedia-zimbra.txt")),
+                Charsets.ISO_8859_1);
+        List<String> first = tokenize(src);
+        Assert.assertFalse(first.isEmpty());
+        // the reused stream, and the state of its filters, start over
+        Assert.assertEquals(first, tokenize(src));
+    }
+
+    private List<String> tokenize(String src) throws IOException {
+        List<String> result = new ArrayList<String>();
+        TokenStream stream = universalAnalyzer.reusableTokenStream(null, new StringReader(src));
+        CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+        stream.reset();
+        while (stream.incrementToken()) {
+            result.add(term.toString());
+        }
+        stream.end();
+        return result;
+    }
+
     @Test
     public void japanese() throws Exception {
         testCJK("\u4e00");
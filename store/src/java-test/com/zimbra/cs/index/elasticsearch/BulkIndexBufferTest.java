@@ -0,0 +1,195 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+
+package com.zimbra.cs.index.elasticsearch;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Unit test for {@link BulkIndexBuffer} against a stand-in for the ElasticSearch server.
+ */
+public final class BulkIndexBufferTest {
+
+    /**
+     * Answers every bulk request, creating each document unless its status is scripted in {@link #statuses}.
+     */
+    private static class StandIn extends BulkIndexBuffer {
+        final List<String> requests = Lists.newArrayList();
+        final List<String> deleteQueries = Lists.newArrayList();
+        final List<Integer> statuses = Lists.newArrayList();
+        int docs = 0;
+        boolean failDeletes = false;
+
+        StandIn(int maxActions, long maxBytes, long maxDelay) {
+            super("http://localhost:9200/test/", "zimbra", maxActions, maxBytes, maxDelay, 2);
+        }
+
+        @Override
+        Response execute(String url, String body) throws IOException {
+            Assert.assertEquals("http://localhost:9200/test/zimbra/_bulk", url);
+            requests.add(body);
+            String[] lines = body.split("\n");
+            Assert.assertEquals(0, lines.length % 2);
+            JSONArray items = new JSONArray();
+            try {
+                for (int i = 0; i < lines.length; i += 2) {
+                    int status = statuses.isEmpty() ? 201 : statuses.remove(0);
+                    if (status == 201) {
+                        docs++;
+                    }
+                    items.put(new JSONObject().put("index", new JSONObject().put("status", status)));
+                }
+                return new Response(200, new JSONObject().put("items", items).toString());
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        void executeDelete(String query, List<Integer> ids) throws IOException {
+            deleteQueries.add(query);
+            if (failDeletes) {
+                throw new IOException("connection refused");
+            }
+        }
+    }
+
+    private static JSONObject doc(int id) throws Exception {
+        return new JSONObject().put("l.mbox_blob_id", String.valueOf(id));
+    }
+
+    @Test
+    public void batching() throws Exception {
+        StandIn buffer = new StandIn(10, Long.MAX_VALUE, Long.MAX_VALUE);
+        for (int i = 1; i <= 25; i++) {
+            buffer.index(i, doc(i));
+        }
+        Assert.assertEquals(2, buffer.requests.size());
+        buffer.flush();
+        Assert.assertEquals(3, buffer.requests.size());
+        Assert.assertEquals(25, buffer.docs);
+        Assert.assertEquals(25, buffer.getIndexed());
+        Assert.assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void maxBytes() throws Exception {
+        StandIn buffer = new StandIn(100, 1, Long.MAX_VALUE);
+        buffer.index(1, doc(1));
+        buffer.index(2, doc(2));
+        Assert.assertEquals(2, buffer.requests.size());
+    }
+
+    @Test
+    public void utf8Bytes() throws Exception {
+        Assert.assertEquals(3, BulkIndexBuffer.utf8Length("abc"));
+        Assert.assertEquals(2 + 3 + 4, BulkIndexBuffer.utf8Length("\u00e9\u65e5\ud83d\ude00"));
+
+        // each document is over 40 bytes in UTF-8, but under 40 chars
+        StandIn buffer = new StandIn(100, 80, Long.MAX_VALUE);
+        buffer.index(1, new JSONObject().put("l.content", "\u65e5\u65e5\u65e5\u65e5\u65e5\u65e5"));
+        Assert.assertEquals(0, buffer.requests.size());
+        buffer.index(2, new JSONObject().put("l.content", "\u65e5\u65e5\u65e5\u65e5\u65e5\u65e5"));
+        Assert.assertEquals(1, buffer.requests.size());
+    }
+
+    @Test
+    public void ageFlush() throws Exception {
+        StandIn buffer = new StandIn(100, Long.MAX_VALUE, 50);
+        buffer.index(1, doc(1));
+        // sent by the timer without any further call
+        for (int i = 0; i < 100 && buffer.getIndexed() == 0; i++) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(1, buffer.getIndexed());
+        Assert.assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void deleteFailure() throws Exception {
+        StandIn buffer = new StandIn(100, Long.MAX_VALUE, Long.MAX_VALUE);
+        buffer.failDeletes = true;
+        buffer.delete(ImmutableList.of(1));
+        buffer.index(2, doc(2));
+        // the failed delete is logged, and the documents still go out
+        buffer.close();
+        Assert.assertEquals(1, buffer.deleteQueries.size());
+        Assert.assertEquals(1, buffer.getIndexed());
+        Assert.assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void deletes() throws Exception {
+        StandIn buffer = new StandIn(100, Long.MAX_VALUE, Long.MAX_VALUE);
+        buffer.index(1, doc(1));
+        buffer.index(2, doc(2));
+        // documents buffered for a deleted item are dropped, and the delete goes out before the next documents
+        buffer.delete(ImmutableList.of(2, 3));
+        buffer.index(2, doc(2));
+        buffer.flush();
+        Assert.assertEquals(ImmutableList.of("l.mbox_blob_id:(2 OR 3)"), buffer.deleteQueries);
+        Assert.assertEquals(1, buffer.requests.size());
+        Assert.assertEquals(2, buffer.docs);
+    }
+
+    @Test
+    public void retry() throws Exception {
+        StandIn buffer = new StandIn(100, Long.MAX_VALUE, Long.MAX_VALUE);
+        // second document is throttled once, third one is rejected for good
+        buffer.statuses.addAll(ImmutableList.of(201, 429, 400));
+        buffer.index(1, doc(1));
+        buffer.index(2, doc(2));
+        buffer.index(3, doc(3));
+        buffer.flush();
+        Assert.assertEquals(2, buffer.requests.size());
+        Assert.assertEquals(2, buffer.requests.get(1).split("\n").length);
+        Assert.assertEquals(2, buffer.getIndexed());
+        Assert.assertEquals(1, buffer.getFailed());
+    }
+
+    @Test
+    public void giveUp() throws Exception {
+        StandIn buffer = new StandIn(100, Long.MAX_VALUE, Long.MAX_VALUE);
+        buffer.statuses.addAll(ImmutableList.of(503, 503, 503));
+        buffer.index(1, doc(1));
+        buffer.flush();
+        Assert.assertEquals(3, buffer.requests.size());
+        Assert.assertEquals(0, buffer.getIndexed());
+        Assert.assertEquals(1, buffer.getFailed());
+    }
+
+    @Test
+    public void manyDocs() throws Exception {
+        StandIn buffer = new StandIn(500, Long.MAX_VALUE, Long.MAX_VALUE);
+        int total = 20000;
+        for (int i = 1; i <= total; i++) {
+            buffer.index(i, doc(i));
+        }
+        buffer.flush();
+        Assert.assertEquals(total / 500, buffer.requests.size());
+        Assert.assertEquals(total, buffer.getIndexed());
+    }
+}
@@ -573,4 +573,15 @@ public final class QueryParserTest {
         Assert.assertEquals("Q(l.content:all,hands,meeting[*])", Query.toString(parser.parse("all hands meeting*")));
     }
 
+    @Test
+    public void cachedSyntaxTree() throws Exception {
+        // the second parse reuses the syntax tree of the first one, but is bound to its own parameters
+        QueryParser parser = new QueryParser(null, ZimbraAnalyzer.getInstance());
+        Assert.assertEquals("Q(l.content:cached) && Q(l.content:tree)", Query.toString(parser.parse("cached tree")));
+
+        parser = new QueryParser(null, ZimbraAnalyzer.getInstance());
+        parser.setDefaultField("subject:");
+        Assert.assertEquals("Q(subject:cached) && Q(subject:tree)", Query.toString(parser.parse("cached tree")));
+    }
+
 }
@@ -16,6 +16,7 @@
  */
 package com.zimbra.cs.mailbox;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
@@ -29,6 +30,7 @@ import com.zimbra.common.util.Constants;
 import com.zimbra.cs.account.Account;
 import com.zimbra.cs.account.MockProvisioning;
 import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.index.SortBy;
 import com.zimbra.cs.mailbox.util.TypedIdList;
 
 public class ConversationTest {
@@ -112,4 +114,26 @@ public class ConversationTest {
         mbox.purge(MailItem.Type.CONVERSATION);
         Assert.assertEquals("1 message remaining in conv (DB)", 1, mbox.getConversationById(null, convId).getSize());
     }
+
+    @Test
+    public void prefetchMessages() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        int msgId = mbox.addMessage(null, MailboxTestUtil.generateMessage("test subject"), MailboxTest.STANDARD_DELIVERY_OPTIONS, null).getId();
+        DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX).setConversationId(-msgId);
+        Message reply = mbox.addMessage(null, MailboxTestUtil.generateMessage("Re: test subject"), dopt, null);
+        Conversation conv = mbox.getConversationById(null, reply.getConversationId());
+
+        Assert.assertEquals(1, mbox.prefetchMessagesByConversation(null, Collections.singletonList(conv)));
+        Assert.assertTrue(conv.hasPrefetchedMessages());
+        Assert.assertEquals("already prefetched", 0, mbox.prefetchMessagesByConversation(null, Collections.singletonList(conv)));
+        List<Message> msgs = mbox.getMessagesByConversation(null, conv.getId(), SortBy.DATE_DESC, 1);
+        Assert.assertEquals(1, msgs.size());
+        Assert.assertEquals(reply.getId(), msgs.get(0).getId());
+        Assert.assertEquals(2, mbox.getMessagesByConversation(null, conv.getId()).size());
+
+        // any change to the mailbox drops the prefetched messages
+        mbox.addMessage(null, MailboxTestUtil.generateMessage("Fwd: test subject"), dopt, null);
+        Assert.assertFalse(conv.hasPrefetchedMessages());
+        Assert.assertEquals(3, mbox.getMessagesByConversation(null, conv.getId()).size());
+    }
 }
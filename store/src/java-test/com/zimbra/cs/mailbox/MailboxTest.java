@@ -103,6 +103,24 @@ public final class MailboxTest {
         Assert.assertEquals(2, terms.get(3).getFreq());
     }
 
+    @Test
+    public void indexDeferredItemsInParallel() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+
+        // more items than are tokenized at once or committed in one chunk
+        DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX);
+        for (int i = 0; i < 40; i++) {
+            mbox.addMessage(null, new ParsedMessage(("From: test" + i + "@parallel.zimbra.com").getBytes(), false),
+                    dopt, null);
+        }
+        mbox.index.indexDeferredItems();
+
+        List<BrowseTerm> terms = mbox.browse(null, Mailbox.BrowseBy.domains, null, 100);
+        Assert.assertEquals("Number of expected terms", 1, terms.size());
+        Assert.assertEquals("parallel.zimbra.com", terms.get(0).getText());
+        Assert.assertEquals(80, terms.get(0).getFreq());
+    }
+
     @Test
     public void threadDraft() throws Exception {
         Account acct = Provisioning.getInstance().getAccount("test@zimbra.com");
@@ -0,0 +1,91 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+
+package com.zimbra.cs.mailbox;
+
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zimbra.common.util.BEncoding;
+
+/**
+ * Unit test for decoding {@link Metadata} from its encoded form.
+ */
+public final class MetadataEncodingTest {
+    private static final String FOLDER = "d1:ai1e4:aclmd1:gld1:ei0e1:g36:474b7021-cef6-469d-b5fb-54c96117efd1" +
+            "1:ri1e1:ti1eee2:gei0e2:iei0ee5:mdveri4e4:mseqi628e2:szi7596456e4:unxti744e1:vi10e2:vti5ee";
+    // the legacy serialization version, which is dropped on decoding
+    private static final String VERSION = "v";
+
+    @Test
+    public void lazy() throws Exception {
+        Metadata meta = new Metadata(FOLDER);
+        Assert.assertTrue(meta.containsKey("unxt"));
+        Assert.assertFalse(meta.containsKey(VERSION));
+        Assert.assertFalse(meta.containsKey("x"));
+        Assert.assertFalse(meta.isEmpty());
+        Assert.assertEquals(744, meta.getInt("unxt", 0));
+        Assert.assertEquals(7596456L, meta.getLong("sz"));
+        Assert.assertEquals("dflt", meta.get("x", "dflt"));
+        Assert.assertEquals(1, meta.getMap("aclm").getList("g").size());
+        Assert.assertEquals(7, meta.size());
+
+        // same as decoding all of it up front
+        Map<String, Object> expected = BEncoding.decode(FOLDER);
+        expected.remove(VERSION);
+        Assert.assertEquals(expected, new Metadata(FOLDER).map());
+        Assert.assertEquals(new Metadata(expected).toString(), new Metadata(FOLDER).toString());
+    }
+
+    @Test
+    public void update() throws Exception {
+        Metadata meta = new Metadata(FOLDER);
+        Assert.assertEquals("5", meta.get("vt"));
+        meta.put("vt", 6).remove("mseq");
+        Assert.assertEquals(6, meta.getInt("vt", 0));
+        Metadata reread = new Metadata(meta.toString());
+        Assert.assertEquals(6, reread.getInt("vt", 0));
+        Assert.assertFalse(reread.containsKey("mseq"));
+        Assert.assertEquals(744, reread.getInt("unxt", 0));
+    }
+
+    @Test
+    public void duplicateKey() throws Exception {
+        Assert.assertEquals("2", new Metadata("d1:ai1e1:ai2ee").get("a"));
+    }
+
+    @Test
+    public void malformed() throws Exception {
+        // left to the full decoder, which falls back to the legacy format
+        for (String encoded : new String[] { "d1:ai1e", "d1:ae", "d1:ai1ee1", "d3:ai1ee" }) {
+            Assert.assertTrue(encoded, new Metadata(encoded).isEmpty());
+        }
+        // a nested dictionary with a key but no value fails up front, not when the value is first read
+        for (String encoded : new String[] { "d1:ad1:bee", "d1:ald1:beee", "d1:ai1e1:bd1:cd1:dee1:ci2ee" }) {
+            Assert.assertTrue(encoded, new Metadata(encoded).isEmpty());
+        }
+        try {
+            new Metadata("d1:ad1:=ee"); // not the legacy format either
+            Assert.fail();
+        } catch (MailServiceException e) {
+            Assert.assertEquals(MailServiceException.INVALID_METADATA, e.getCode());
+        }
+        Assert.assertEquals("2", new Metadata("di1ei2ee").get("1"));
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+
+package com.zimbra.cs.mailbox;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Unit test for {@link PurgeThread}.
+ */
+public final class PurgeThreadTest {
+
+    @Test
+    public void schedule() {
+        List<Integer> ids = ImmutableList.of(4, 5, 1, 2, 3);
+        Assert.assertEquals(ids, PurgeThread.schedule(ids, Collections.<Integer>emptySet()));
+        // pending mailboxes go first in their own order, and those no longer on this server are dropped
+        Assert.assertEquals(ImmutableList.of(2, 5, 4, 1, 3),
+                PurgeThread.schedule(ids, ImmutableSet.of(2, 9, 5)));
+    }
+
+    @Test
+    public void progress() {
+        PurgeThread.Progress progress = new PurgeThread.Progress(ImmutableList.of(4, 5, 1, 2));
+        Assert.assertEquals(-1, progress.done(5));
+        Assert.assertEquals(-1, progress.done(2));
+        Assert.assertEquals(5, progress.done(4));
+        Assert.assertEquals(2, progress.done(1));
+        Assert.assertEquals(-1, progress.done(1));
+    }
+}
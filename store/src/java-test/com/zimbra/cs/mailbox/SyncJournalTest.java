@@ -0,0 +1,83 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.zimbra.cs.mailbox.util.TypedIdList;
+
+/**
+ * Unit test for {@link SyncJournal}.
+ */
+public final class SyncJournalTest {
+
+    @Test
+    public void changes() throws Exception {
+        SyncJournal journal = new SyncJournal(10, 100);
+        journal.modified(101, 300, MailItem.Type.MESSAGE);
+        journal.modified(102, 301, MailItem.Type.MESSAGE);
+        journal.modified(103, 300, MailItem.Type.MESSAGE);
+        journal.deleted(104, 301, MailItem.Type.MESSAGE, null);
+        journal.deleted(105, 302, MailItem.Type.DOCUMENT, "uuid");
+
+        Assert.assertNull(journal.getModifiedIds(99));
+        Assert.assertEquals(Arrays.asList(300), Lists.newArrayList(journal.getModifiedIds(100)));
+        Assert.assertEquals(Arrays.asList(300), Lists.newArrayList(journal.getModifiedIds(102)));
+        Assert.assertEquals(Collections.emptyList(), Lists.newArrayList(journal.getModifiedIds(103)));
+
+        TypedIdList tombstones = journal.getTombstones(100, false);
+        Assert.assertEquals(Arrays.asList(301), tombstones.getIds(MailItem.Type.MESSAGE));
+        Assert.assertEquals(Arrays.asList(302), tombstones.getIds(MailItem.Type.DOCUMENT));
+        Assert.assertEquals(1, journal.getTombstones(104, false).size());
+        Assert.assertEquals(2, journal.getTombstones(104, true).size());
+        Assert.assertNull(journal.getTombstones(100, true));
+    }
+
+    @Test
+    public void overflow() throws Exception {
+        SyncJournal journal = new SyncJournal(3, 0);
+        for (int i = 1; i <= 5; i++) {
+            journal.modified(i, 300 + i, MailItem.Type.MESSAGE);
+        }
+        Assert.assertNull(journal.getModifiedIds(1));
+        Assert.assertEquals(Arrays.asList(303, 304, 305), Lists.newArrayList(journal.getModifiedIds(2)));
+    }
+
+    @Test
+    public void reset() throws Exception {
+        SyncJournal journal = new SyncJournal(10, 0);
+        journal.modified(1, 300, MailItem.Type.MESSAGE);
+        journal.reset(2);
+        journal.modified(2, 301, MailItem.Type.MESSAGE);
+        journal.modified(3, 302, MailItem.Type.MESSAGE);
+        Assert.assertNull(journal.getModifiedIds(1));
+        Assert.assertEquals(Arrays.asList(302), Lists.newArrayList(journal.getModifiedIds(2)));
+    }
+
+    @Test
+    public void disabled() throws Exception {
+        SyncJournal journal = new SyncJournal(0, 0);
+        journal.modified(1, 300, MailItem.Type.MESSAGE);
+        Assert.assertNull(journal.getModifiedIds(0));
+        Assert.assertNull(journal.getTombstones(0, false));
+    }
+}
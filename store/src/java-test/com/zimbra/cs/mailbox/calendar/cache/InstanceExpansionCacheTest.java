@@ -0,0 +1,127 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+
+package com.zimbra.cs.mailbox.calendar.cache;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+import com.zimbra.common.account.Key;
+import com.zimbra.common.calendar.ZCalendar.ZCalendarBuilder;
+import com.zimbra.common.calendar.ZCalendar.ZVCalendar;
+import com.zimbra.common.mime.MimeConstants;
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.CalendarItem.Instance;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.mailbox.calendar.Invite;
+import com.zimbra.cs.mailbox.calendar.Recurrence;
+import com.zimbra.cs.mailbox.calendar.Recurrence.IRecurrence;
+
+public class InstanceExpansionCacheTest {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+    private static final long START = 1325419200000L;  // 2012-01-01T12:00:00Z
+
+    private static final String WEEKLY =
+            "BEGIN:VCALENDAR\n" +
+            "PRODID:Zimbra-Calendar-Provider\n" +
+            "VERSION:2.0\n" +
+            "METHOD:PUBLISH\n" +
+            "BEGIN:VEVENT\n" +
+            "UID:instance-expansion-cache-test\n" +
+            "RRULE:FREQ=WEEKLY;BYDAY=MO,WE,FR\n" +
+            "SUMMARY:standup\n" +
+            "ORGANIZER:mailto:test@zimbra.com\n" +
+            "DTSTART:20120101T120000Z\n" +
+            "DTEND:20120101T123000Z\n" +
+            "DTSTAMP:20120101T000000Z\n" +
+            "SEQUENCE:0\n" +
+            "END:VEVENT\n" +
+            "END:VCALENDAR";
+
+    private Account acct;
+    private IRecurrence recur;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+        Provisioning.getInstance().createAccount("test@zimbra.com", "secret", Maps.<String, Object>newHashMap());
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+        acct = Provisioning.getInstance().get(Key.AccountBy.name, "test@zimbra.com");
+        List<ZVCalendar> icals = ZCalendarBuilder.buildMulti(
+                new ByteArrayInputStream(WEEKLY.getBytes(MimeConstants.P_CHARSET_UTF8)), MimeConstants.P_CHARSET_UTF8);
+        List<Invite> invites = Invite.createFromCalendar(acct, null, icals.get(0), true);
+        recur = invites.get(0).getRecurrence();
+    }
+
+    @Test
+    public void coveredRange() throws Exception {
+        InstanceExpansionCache cache = new InstanceExpansionCache(10, 1000);
+        List<Instance> month = cache.expand(acct.getId(), 1, 5, 5, recur, START, START + 31 * DAY);
+        Assert.assertEquals(Recurrence.expandInstances(recur, 1, START, START + 31 * DAY), month);
+
+        // a week inside the cached month is sliced out of the window
+        List<Instance> week = cache.expand(acct.getId(), 1, 5, 5, recur, START + 7 * DAY, START + 14 * DAY);
+        Assert.assertEquals(Recurrence.expandInstances(recur, 1, START + 7 * DAY, START + 14 * DAY), week);
+        Assert.assertEquals(3, week.size());
+    }
+
+    @Test
+    public void extendEdges() throws Exception {
+        InstanceExpansionCache cache = new InstanceExpansionCache(10, 1000);
+        cache.expand(acct.getId(), 1, 5, 5, recur, START + 14 * DAY, START + 21 * DAY);
+
+        // grows on both sides
+        List<Instance> wider = cache.expand(acct.getId(), 1, 5, 5, recur, START, START + 60 * DAY);
+        Assert.assertEquals(Recurrence.expandInstances(recur, 1, START, START + 60 * DAY), wider);
+
+        // grows again at the end only
+        List<Instance> later = cache.expand(acct.getId(), 1, 5, 5, recur, START + 30 * DAY, START + 90 * DAY);
+        Assert.assertEquals(Recurrence.expandInstances(recur, 1, START + 30 * DAY, START + 90 * DAY), later);
+    }
+
+    @Test
+    public void sequenceChange() throws Exception {
+        InstanceExpansionCache cache = new InstanceExpansionCache(10, 1000);
+        cache.expand(acct.getId(), 1, 5, 5, recur, START, START + 7 * DAY);
+        Assert.assertEquals(1, cache.size());
+
+        // a different modified sequence replaces the window rather than extending it
+        List<Instance> instances = cache.expand(acct.getId(), 1, 6, 5, recur, START + 100 * DAY, START + 107 * DAY);
+        Assert.assertEquals(Recurrence.expandInstances(recur, 1, START + 100 * DAY, START + 107 * DAY), instances);
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void maxInstances() throws Exception {
+        InstanceExpansionCache cache = new InstanceExpansionCache(10, 5);
+        List<Instance> instances = cache.expand(acct.getId(), 1, 5, 5, recur, START, START + 31 * DAY);
+        Assert.assertTrue(instances.size() > 5);
+        Assert.assertEquals(0, cache.size());
+    }
+}
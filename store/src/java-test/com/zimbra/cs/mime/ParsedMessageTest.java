@@ -17,14 +17,20 @@
 package com.zimbra.cs.mime;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+
+import javax.mail.util.ByteArrayDataSource;
 
 import org.apache.lucene.document.Document;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.google.common.base.Strings;
 import com.google.common.io.ByteStreams;
+import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.util.L10nUtil;
 import com.zimbra.common.util.Pair;
 import com.zimbra.common.util.ZimbraLog;
@@ -33,6 +39,7 @@ import com.zimbra.cs.account.Provisioning;
 import com.zimbra.cs.index.IndexDocument;
 import com.zimbra.cs.index.LuceneFields;
 import com.zimbra.cs.index.analysis.RFC822AddressTokenStream;
+import com.zimbra.cs.mime.handler.TextPlainHandler;
 
 /**
  * Unit test for {@link ParsedMessage}.
@@ -152,4 +159,56 @@ public final class ParsedMessageTest {
         pm = new ParsedMessage(raw, false);
         Assert.assertFalse("normal message fragment", pm.getFragment(null).equals(msgWasEncrypted));
     }
+
+    @Test
+    public void oversizedAttachment() throws Exception {
+        String big = Strings.repeat("filler ", 200) + "tailword";
+        String raw =
+            "From: sender@zimbra.com\r\n" +
+            "To: rcpt@zimbra.com\r\n" +
+            "Subject: big\r\n" +
+            "Content-Type: multipart/mixed; boundary=\"BOUNDARY\"\r\n" +
+            "\r\n" +
+            "--BOUNDARY\r\n" +
+            "Content-Type: text/plain\r\n" +
+            "\r\n" +
+            "hello body\r\n" +
+            "--BOUNDARY\r\n" +
+            "Content-Type: text/plain; name=\"big.txt\"\r\n" +
+            "Content-Disposition: attachment; filename=\"big.txt\"\r\n" +
+            "\r\n" +
+            big + "\r\n" +
+            "--BOUNDARY\r\n" +
+            "Content-Type: text/plain; name=\"late.txt\"\r\n" +
+            "Content-Disposition: attachment; filename=\"late.txt\"\r\n" +
+            "\r\n" +
+            "lateword\r\n" +
+            "--BOUNDARY--\r\n";
+
+        String max = LC.zimbra_index_max_toplevel_text_length.value();
+        LC.zimbra_index_max_toplevel_text_length.setDefault(100);
+        try {
+            Map<String, String> content = new HashMap<String, String>();
+            for (IndexDocument doc : new ParsedMessage(raw.getBytes(), true).getLuceneDocuments()) {
+                content.put(doc.toDocument().get(LuceneFields.L_PARTNAME),
+                        doc.toDocument().getFieldable(LuceneFields.L_CONTENT).stringValue());
+            }
+            String toplevel = content.get(LuceneFields.L_PARTNAME_TOP);
+            Assert.assertTrue(toplevel, toplevel.startsWith("hello body filler"));
+            Assert.assertTrue(toplevel, toplevel.length() <= 101); // plus the separator after the body
+            Assert.assertFalse(toplevel, toplevel.contains("tailword"));
+            Assert.assertFalse(toplevel, toplevel.contains("lateword"));
+            // the attachments are still indexed in full on their own
+            Assert.assertTrue(content.get("2").trim().endsWith("tailword"));
+            Assert.assertEquals("lateword", content.get("3").trim());
+        } finally {
+            LC.zimbra_index_max_toplevel_text_length.setDefault(max);
+        }
+
+        // extraction itself stops at the limit, without keeping the shortened text as the content
+        TextPlainHandler handler = new TextPlainHandler();
+        handler.init(new ByteArrayDataSource(big.getBytes(), "text/plain"));
+        Assert.assertEquals("filler", handler.getContent(6));
+        Assert.assertEquals(big, handler.getContent());
+    }
 }
@@ -0,0 +1,155 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.redolog.logger;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.io.Files;
+import com.zimbra.common.util.FileUtil;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.redolog.RedoConfig;
+import com.zimbra.cs.redolog.RedoLogManager;
+import com.zimbra.cs.redolog.RolloverManager;
+import com.zimbra.cs.redolog.TransactionId;
+import com.zimbra.cs.redolog.op.RedoableOp;
+
+/**
+ * Unit test for {@link FileLogWriter}.
+ */
+public final class FileLogWriterTest {
+
+    private File dir;
+    private File archiveDir;
+    private RedoLogManager redoMgr;
+    private FileLogWriter writer;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initProvisioning();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDir();
+        archiveDir = new File(dir, "archive");
+        File logFile = new File(dir, "redo.log");
+        redoMgr = new RedoLogManager(logFile, archiveDir, false);
+        writer = new FileLogWriter(redoMgr, logFile, 0);
+        writer.open();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        writer.close();
+        setDeleteOnRollover(false);
+        FileUtil.deleteDir(dir);
+    }
+
+    private static void setDeleteOnRollover(boolean delete) throws Exception {
+        Provisioning prov = Provisioning.getInstance();
+        prov.modifyAttrs(prov.getLocalServer(), Collections.singletonMap(
+                Provisioning.A_zimbraRedoLogDeleteOnRollover, delete ? "TRUE" : "FALSE"));
+        RedoConfig.reload();
+    }
+
+    private File rollover() throws Exception {
+        return writer.rollover(new LinkedHashMap<TransactionId, RedoableOp>());
+    }
+
+    private static FileHeader readHeader(File file) throws Exception {
+        FileHeader header = new FileHeader();
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            header.read(raf);
+        } finally {
+            raf.close();
+        }
+        return header;
+    }
+
+    private String[] files(final String prefix) {
+        return dir.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File d, String name) {
+                return name.startsWith(prefix);
+            }
+        });
+    }
+
+    private String[] tempFiles() {
+        return files("~tmp-redo-");
+    }
+
+    @Test
+    public void archive() throws Exception {
+        File rolled = rollover();
+        writer.awaitArchive();
+        // readers of the archive must see it closed as soon as it's there
+        Assert.assertTrue(rolled.exists());
+        Assert.assertEquals(archiveDir, rolled.getParentFile());
+        Assert.assertFalse(readHeader(rolled).getOpen());
+        Assert.assertTrue(readHeader(new File(dir, "redo.log")).getOpen());
+        Assert.assertEquals(0, files("~arch-").length);
+    }
+
+    @Test
+    public void crashRecovery() throws Exception {
+        // a log moved aside by a rollover, still open when the process died
+        RolloverManager romgr = redoMgr.getRolloverManager();
+        File rolled = romgr.getRolloverFile(0);
+        Files.copy(new File(dir, "redo.log"), romgr.getPendingArchiveFile(rolled));
+        romgr.crashRecovery();
+        Assert.assertTrue(rolled.exists());
+        Assert.assertFalse(readHeader(rolled).getOpen());
+        Assert.assertEquals(0, files("~arch-").length);
+    }
+
+    @Test
+    public void deleteOnRollover() throws Exception {
+        setDeleteOnRollover(true);
+        File rolled = rollover();
+        writer.awaitArchive();
+        Assert.assertFalse(rolled.exists());
+        Assert.assertEquals(0, files("~arch-").length);
+        String[] archived = archiveDir.list();
+        Assert.assertTrue(archived == null || archived.length == 0);
+        Assert.assertTrue(new File(dir, "redo.log").exists());
+    }
+
+    @Test
+    public void spareFiles() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            rollover();
+        }
+        // at most the spare of the last rollover is around, and none once closed
+        Assert.assertTrue(tempFiles().length <= 1);
+        writer.close();
+        Assert.assertEquals(0, tempFiles().length);
+        Assert.assertEquals(5, archiveDir.list().length);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.redolog.op;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.DeliveryOptions;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.mailbox.Message;
+import com.zimbra.cs.store.MailboxBlob.MailboxBlobInfo;
+
+/**
+ * Unit test for {@link SetBlobLocators}.
+ */
+public final class SetBlobLocatorsTest {
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+        Provisioning.getInstance().createAccount("test@zimbra.com", "secret", new HashMap<String, Object>());
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+    }
+
+    @Test
+    public void redo() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        Message moved = mbox.addMessage(null, MailboxTestUtil.generateMessage("moved"),
+                new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX), null);
+        Message changed = mbox.addMessage(null, MailboxTestUtil.generateMessage("changed"),
+                new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX), null);
+        String locator = moved.getLocator();
+
+        SetBlobLocators op = new SetBlobLocators(mbox.getId(), Arrays.asList(
+                new MailboxBlobInfo(null, mbox.getId(), moved.getId(), moved.getSavedSequence(), "42",
+                        moved.getDigest()),
+                // a stale revision, as when the content changed after the copy
+                new MailboxBlobInfo(null, mbox.getId(), changed.getId(), changed.getSavedSequence() + 1, "42",
+                        changed.getDigest())));
+
+        // serialize, deserialize, and redo
+        byte[] data = op.testSerialize();
+        op = new SetBlobLocators();
+        op.setMailboxId(mbox.getId());
+        op.testDeserialize(data);
+        op.redo();
+
+        Assert.assertEquals("42", mbox.getMessageById(null, moved.getId()).getLocator());
+        Assert.assertEquals(locator, mbox.getMessageById(null, changed.getId()).getLocator());
+    }
+}
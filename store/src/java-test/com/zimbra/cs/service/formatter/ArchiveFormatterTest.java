@@ -16,18 +16,41 @@
  */
 package com.zimbra.cs.service.formatter;
 
+import java.io.ByteArrayOutputStream;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.zimbra.common.account.Key.AccountBy;
+import com.zimbra.common.service.ServiceException;
 import com.zimbra.cs.account.Account;
 import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.index.SortBy;
+import com.zimbra.cs.index.ZimbraQueryResults;
+import com.zimbra.cs.mailbox.DeliveryOptions;
+import com.zimbra.cs.mailbox.Flag;
+import com.zimbra.cs.mailbox.MailItem;
 import com.zimbra.cs.mailbox.Mailbox;
 import com.zimbra.cs.mailbox.MailboxManager;
 import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.mailbox.Message;
+import com.zimbra.cs.mailbox.OperationContext;
+import com.zimbra.cs.mime.ParsedMessage;
+import com.zimbra.cs.service.MockHttpServletRequest;
+import com.zimbra.cs.service.UserServletContext;
+import com.zimbra.cs.service.formatter.ArchiveFormatter.ArchiveOutputEntry;
 import com.zimbra.cs.service.util.ItemData;
 
 public class ArchiveFormatterTest {
@@ -80,4 +103,172 @@ public class ArchiveFormatterTest {
         Assert.assertEquals("Tags starting with numerics", "1-Tag:2-Tag", id.tags);
         Assert.assertArrayEquals("Tags starting with numerics", tags, ArchiveFormatter.getTagNames(id));
     }
+
+    @Test
+    public void since() throws Exception {
+        Assert.assertEquals("", ArchiveFormatter.getChangedSinceQuery(null));
+        Assert.assertEquals(" modseq:>42", ArchiveFormatter.getChangedSinceQuery("42"));
+        try {
+            ArchiveFormatter.getChangedSinceQuery("x");
+            Assert.fail();
+        } catch (ServiceException e) {
+            Assert.assertEquals(ServiceException.INVALID_REQUEST, e.getCode());
+        }
+
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccount(
+                Provisioning.getInstance().get(AccountBy.name, "test@zimbra.com"));
+        DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX);
+        mbox.addMessage(null, new ParsedMessage("Subject: old".getBytes(), false), dopt, null);
+        int changeId = mbox.getLastChangeID();
+        Message msg = mbox.addMessage(null, new ParsedMessage("Subject: new".getBytes(), false), dopt, null);
+
+        ZimbraQueryResults results = mbox.index.search(new OperationContext(mbox),
+                "in:inbox" + ArchiveFormatter.getChangedSinceQuery(Integer.toString(changeId)),
+                EnumSet.of(MailItem.Type.MESSAGE), SortBy.NONE, 10);
+        try {
+            Assert.assertTrue(results.hasNext());
+            Assert.assertEquals(msg.getId(), results.getNext().getItemId());
+            Assert.assertFalse(results.hasNext());
+        } finally {
+            results.close();
+        }
+    }
+
+    @Test
+    public void resume() throws Exception {
+        Assert.assertNull(ArchiveFormatter.ResumePoint.parse(null));
+        ArchiveFormatter.ResumePoint point = ArchiveFormatter.ResumePoint.parse("42:257");
+        Assert.assertEquals(42, point.changeId);
+        Assert.assertEquals(257, point.itemId);
+        for (String invalid : new String[] { "42", ":257", "42:x" }) {
+            try {
+                ArchiveFormatter.ResumePoint.parse(invalid);
+                Assert.fail(invalid);
+            } catch (ServiceException e) {
+                Assert.assertEquals(ServiceException.INVALID_REQUEST, e.getCode());
+            }
+        }
+
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccount(
+                Provisioning.getInstance().get(AccountBy.name, "test@zimbra.com"));
+        DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX);
+        int[] ids = new int[3];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = mbox.addMessage(null, new ParsedMessage(("Subject: msg" + i).getBytes(), false), dopt,
+                    null).getId();
+        }
+        Map<Set<MailItem.Type>, String> searches = new HashMap<Set<MailItem.Type>, String>();
+        searches.put(EnumSet.of(MailItem.Type.MESSAGE), "in:inbox");
+        OperationContext octxt = new OperationContext(mbox);
+        Assert.assertEquals(Arrays.asList(ids[0], ids[1], ids[2]),
+                ArchiveFormatter.getExportIds(mbox, octxt, searches, "", null));
+
+        // interrupted after the second message
+        point = new ArchiveFormatter.ResumePoint(mbox.getLastChangeID(), ids[1]);
+        Assert.assertEquals(Arrays.asList(ids[2]), ArchiveFormatter.getExportIds(mbox, octxt, searches, "", point));
+        // the first one changed since
+        mbox.alterTag(null, ids[0], MailItem.Type.MESSAGE, Flag.FlagInfo.FLAGGED, true, null);
+        Assert.assertEquals(Arrays.asList(ids[0], ids[2]),
+                ArchiveFormatter.getExportIds(mbox, octxt, searches, "", point));
+    }
+
+    @Test
+    public void bulkImport() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccount(
+                Provisioning.getInstance().get(AccountBy.name, "test@zimbra.com"));
+        DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX)
+                .setFlags(Flag.BITMASK_FLAGGED).setTags(new String[] { "foo" });
+        ByteArrayOutputStream tgz = new ByteArrayOutputStream();
+        TarArchiveOutputStream tar = new TarArchiveOutputStream(tgz, "UTF-8");
+        for (int i = 0; i < 3; i++) {
+            Message msg = mbox.addMessage(null, new ParsedMessage(("Subject: msg" + i).getBytes(), false), dopt, null);
+            mbox.setColor(null, msg.getId(), MailItem.Type.MESSAGE, (byte) i);
+            msg = mbox.getMessageById(null, msg.getId());
+            writeEntry(tar, "Inbox/msg" + i + ".eml.meta", msg, new ItemData(msg).encode());
+            writeEntry(tar, "Inbox/msg" + i + ".eml", msg, msg.getContent());
+        }
+        tar.close();
+
+        Map<String, String> inline = importArchive(tgz.toByteArray(), false);
+        Assert.assertEquals(3, inline.size());
+        Assert.assertEquals(inline, importArchive(tgz.toByteArray(), true));
+    }
+
+    @Test
+    public void bulkImportOrder() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccount(
+                Provisioning.getInstance().get(AccountBy.name, "test@zimbra.com"));
+        DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX);
+        List<Integer> ids = Lists.newArrayList();
+        for (int i = 0; i < 5; i++) {
+            String mime = "Message-ID: <thread" + i + "@zimbra.com>\r\n" +
+                    (i == 0 ? "Subject: thread\r\n" : "In-Reply-To: <thread" + (i - 1) + "@zimbra.com>\r\n" +
+                            "References: <thread0@zimbra.com>\r\nSubject: Re: thread\r\n") +
+                    "\r\nmessage " + i;
+            ids.add(mbox.addMessage(null, new ParsedMessage(mime.getBytes(), false), dopt, null).getId());
+        }
+        ByteArrayOutputStream tgz = new ByteArrayOutputStream();
+        TarArchiveOutputStream tar = new TarArchiveOutputStream(tgz, "UTF-8");
+        for (int i = 0; i < ids.size(); i++) {
+            Message msg = mbox.getMessageById(null, ids.get(i));
+            writeEntry(tar, "Inbox/msg" + i + ".eml.meta", msg, new ItemData(msg).encode());
+            writeEntry(tar, "Inbox/msg" + i + ".eml", msg, msg.getContent());
+        }
+        tar.close();
+
+        importArchive(tgz.toByteArray(), true);
+        mbox = MailboxManager.getInstance().getMailboxByAccount(
+                Provisioning.getInstance().get(AccountBy.name, "test@zimbra.com"));
+        List<Integer> imported = Lists.newArrayList(
+                mbox.getItemIds(null, Mailbox.ID_FOLDER_INBOX).getIds(MailItem.Type.MESSAGE));
+        Collections.sort(imported);
+        Assert.assertEquals(5, imported.size());
+        // messages of one conversation are added in archive order, into one conversation
+        int conv = mbox.getMessageById(null, imported.get(0)).getConversationId();
+        for (int i = 0; i < imported.size(); i++) {
+            Message msg = mbox.getMessageById(null, imported.get(i));
+            Assert.assertEquals("message " + i, msg.getFragment());
+            Assert.assertEquals(conv, msg.getConversationId());
+        }
+    }
+
+    private static void writeEntry(TarArchiveOutputStream tar, String path, MailItem mi, byte[] data)
+            throws Exception {
+        ArchiveOutputEntry aoe = tar.newOutputEntry(path, mi.getType().toString(), mi.getType().toByte(), mi.getDate());
+        aoe.setSize(data.length);
+        tar.putNextEntry(aoe);
+        tar.write(data);
+        tar.closeEntry();
+    }
+
+    /**
+     * Imports the archive into an empty mailbox, and describes the resulting messages in the inbox by subject.
+     */
+    private static Map<String, String> importArchive(byte[] archive, boolean bulk) throws Exception {
+        MailboxTestUtil.clearData();
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccount(
+                Provisioning.getInstance().get(AccountBy.name, "test@zimbra.com"));
+        String query = ArchiveFormatter.PARAM_BULK + (bulk ? "=1" : "=0");
+        MockHttpServletRequest req = new MockHttpServletRequest(archive,
+                new URL("http://localhost/service/home/test@zimbra.com/?" + query), "application/x-tar",
+                0, null, new HashMap<String, String>()) {
+            @Override
+            public String getPathInfo() {
+                return "/test@zimbra.com/";
+            }
+        };
+        UserServletContext context = new UserServletContext(req, null, null);
+        context.targetMailbox = mbox;
+        context.opContext = new OperationContext(mbox);
+        new TarFormatter().saveCallback(context, "application/x-tar",
+                mbox.getFolderById(null, Mailbox.ID_FOLDER_USER_ROOT), null);
+
+        Map<String, String> result = new HashMap<String, String>();
+        for (int id : mbox.getItemIds(null, Mailbox.ID_FOLDER_INBOX).getIds(MailItem.Type.MESSAGE)) {
+            Message msg = mbox.getMessageById(null, id);
+            result.put(msg.getSubject(), msg.getDate() + "," + msg.getColor() + "," + msg.getFlagString() + "," +
+                    ItemData.getTagString(msg.getTags()));
+        }
+        return result;
+    }
 }
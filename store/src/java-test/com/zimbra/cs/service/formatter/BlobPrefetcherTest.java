@@ -0,0 +1,105 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.service.formatter;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+import com.zimbra.common.util.ByteUtil;
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.DeliveryOptions;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.mailbox.Message;
+import com.zimbra.cs.mime.ParsedMessage;
+
+/**
+ * Unit test for {@link BlobPrefetcher}.
+ */
+public final class BlobPrefetcherTest {
+    private List<Message> msgs;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+        Provisioning prov = Provisioning.getInstance();
+        prov.createAccount("test@zimbra.com", "secret", Maps.<String, Object>newHashMap());
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX);
+        msgs = new ArrayList<Message>();
+        for (int i = 0; i < 5; i++) {
+            String raw = "From: test" + i + "@zimbra.com\r\nSubject: test " + i + "\r\n\r\nbody " + i;
+            msgs.add(mbox.addMessage(null, new ParsedMessage(raw.getBytes(), false), dopt, null));
+        }
+    }
+
+    private static byte[] read(InputStream in) throws Exception {
+        try {
+            return ByteUtil.getContent(in, -1);
+        } finally {
+            ByteUtil.closeStream(in);
+        }
+    }
+
+    @Test
+    public void inOrder() throws Exception {
+        BlobPrefetcher prefetcher = new BlobPrefetcher();
+        try {
+            for (Message msg : msgs) {
+                prefetcher.add(msg);
+            }
+            for (Message msg : msgs) {
+                Assert.assertArrayEquals(msg.getContent(), read(prefetcher.getContentStream(msg)));
+            }
+        } finally {
+            prefetcher.close();
+        }
+    }
+
+    @Test
+    public void skipAndOutOfOrder() throws Exception {
+        BlobPrefetcher prefetcher = new BlobPrefetcher();
+        try {
+            for (Message msg : msgs) {
+                prefetcher.add(msg);
+            }
+            // the first items are skipped by the export
+            Assert.assertArrayEquals(msgs.get(2).getContent(), read(prefetcher.getContentStream(msgs.get(2))));
+            // an item dropped from the window is read directly
+            Assert.assertArrayEquals(msgs.get(0).getContent(), read(prefetcher.getContentStream(msgs.get(0))));
+            Assert.assertArrayEquals(msgs.get(4).getContent(), read(prefetcher.getContentStream(msgs.get(4))));
+        } finally {
+            prefetcher.close();
+        }
+        // still readable after close
+        Assert.assertArrayEquals(msgs.get(3).getContent(), read(prefetcher.getContentStream(msgs.get(3))));
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.service.formatter;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.zimbra.common.account.Key.AccountBy;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.Pair;
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.DeliveryOptions;
+import com.zimbra.cs.mailbox.Flag;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.MailServiceException;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.mailbox.Message;
+import com.zimbra.cs.mime.ParsedMessage;
+import com.zimbra.cs.service.util.ItemData;
+
+/**
+ * Unit test for {@link BulkMessageLoader}.
+ */
+public final class BulkMessageLoaderTest {
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+        Provisioning prov = Provisioning.getInstance();
+        prov.createAccount("test@zimbra.com", "secret", Maps.<String, Object>newHashMap());
+        prov.createAccount("quota@zimbra.com", "secret", Maps.<String, Object>newHashMap());
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+    }
+
+    private static Mailbox getMailbox(String name) throws Exception {
+        Account acct = Provisioning.getInstance().get(AccountBy.name, name);
+        return MailboxManager.getInstance().getMailboxByAccount(acct);
+    }
+
+    private static Message addMessage(Mailbox mbox, String subject) throws Exception {
+        DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX)
+                .setFlags(Flag.BITMASK_UNREAD | Flag.BITMASK_FLAGGED).setTags(new String[] { "foo", "bar" });
+        Message msg = mbox.addMessage(null, new ParsedMessage(("Subject: " + subject).getBytes(), false), dopt, null);
+        mbox.setColor(null, msg.getId(), MailItem.Type.MESSAGE, (byte) 3);
+        return mbox.getMessageById(null, msg.getId());
+    }
+
+    private static void add(BulkMessageLoader bulk, Mailbox mbox, Message msg, int folderId) throws Exception {
+        DeliveryOptions opt = new DeliveryOptions().setFolderId(folderId).setNoICal(true);
+        bulk.add(mbox, null, msg, new ItemData(msg), msg.getContent(), opt, msg.getSubject());
+    }
+
+    @Test
+    public void add() throws Exception {
+        Mailbox mbox = getMailbox("test@zimbra.com");
+        Message msg = addMessage(mbox, "bulk");
+
+        BulkMessageLoader bulk = new BulkMessageLoader();
+        Assert.assertTrue(bulk.accepts(msg.getSize()));
+        Assert.assertFalse(bulk.accepts(0));
+        add(bulk, mbox, msg, Mailbox.ID_FOLDER_SENT);
+        Assert.assertTrue(bulk.finish().isEmpty());
+
+        List<Integer> ids = mbox.getItemIds(null, Mailbox.ID_FOLDER_SENT).getIds(MailItem.Type.MESSAGE);
+        Assert.assertEquals(1, ids.size());
+        Message copy = mbox.getMessageById(null, ids.get(0));
+        Assert.assertEquals(msg.getSubject(), copy.getSubject());
+        Assert.assertEquals(msg.getDate(), copy.getDate());
+        Assert.assertEquals(msg.getColor(), copy.getColor());
+        Assert.assertEquals(msg.getFlagString(), copy.getFlagString());
+        Assert.assertEquals(Sets.newHashSet(msg.getTags()), Sets.newHashSet(copy.getTags()));
+    }
+
+    @Test
+    public void failures() throws Exception {
+        Mailbox mbox = getMailbox("test@zimbra.com");
+        Message msg = addMessage(mbox, "missing folder");
+
+        BulkMessageLoader bulk = new BulkMessageLoader();
+        add(bulk, mbox, msg, 9999);
+        add(bulk, mbox, msg, Mailbox.ID_FOLDER_SENT);
+        List<Pair<String, Exception>> failures = bulk.finish();
+        Assert.assertEquals(1, failures.size());
+        Assert.assertEquals("missing folder", failures.get(0).getFirst());
+        Assert.assertEquals(MailServiceException.NO_SUCH_FOLDER,
+                ((MailServiceException) failures.get(0).getSecond()).getCode());
+        Assert.assertEquals(1, mbox.getItemIds(null, Mailbox.ID_FOLDER_SENT).getIds(MailItem.Type.MESSAGE).size());
+        Assert.assertTrue("failures are only returned once", bulk.finish().isEmpty());
+
+        // an ordinary failure does not stop the import
+        add(bulk, mbox, msg, Mailbox.ID_FOLDER_SENT);
+        Assert.assertTrue(bulk.finish().isEmpty());
+    }
+
+    @Test
+    public void quota() throws Exception {
+        Mailbox mbox = getMailbox("quota@zimbra.com");
+        Message msg = addMessage(mbox, Strings.repeat("x", 2048));
+        mbox.getAccount().setMailQuota(msg.getSize() + 100);
+
+        BulkMessageLoader bulk = new BulkMessageLoader();
+        add(bulk, mbox, msg, Mailbox.ID_FOLDER_SENT);
+        List<Pair<String, Exception>> failures = bulk.finish();
+        Assert.assertEquals(1, failures.size());
+        Assert.assertEquals(MailServiceException.QUOTA_EXCEEDED,
+                ((MailServiceException) failures.get(0).getSecond()).getCode());
+
+        try {
+            add(bulk, mbox, msg, Mailbox.ID_FOLDER_SENT);
+            Assert.fail();
+        } catch (ServiceException e) {
+            Assert.assertEquals(MailServiceException.QUOTA_EXCEEDED, e.getCode());
+        }
+        Assert.assertTrue(bulk.finish().isEmpty());
+        Assert.assertTrue(mbox.getItemIds(null, Mailbox.ID_FOLDER_SENT).getIds(MailItem.Type.MESSAGE).isEmpty());
+    }
+}
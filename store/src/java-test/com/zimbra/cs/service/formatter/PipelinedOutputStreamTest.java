@@ -0,0 +1,72 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+
+package com.zimbra.cs.service.formatter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zimbra.common.util.ByteUtil;
+
+/**
+ * Unit test for {@link PipelinedOutputStream}.
+ */
+public final class PipelinedOutputStreamTest {
+
+    @Test
+    public void write() throws Exception {
+        byte[] data = new byte[1024 * 1024 + 17];
+        new Random(1).nextBytes(data);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = new PipelinedOutputStream(new GZIPOutputStream(bytes));
+        out.write(data[0]);
+        for (int off = 1; off < data.length; off += 1000) {
+            out.write(data, off, Math.min(1000, data.length - off));
+        }
+        out.close();
+        Assert.assertArrayEquals(data,
+                ByteUtil.getContent(new GZIPInputStream(new ByteArrayInputStream(bytes.toByteArray())), -1));
+    }
+
+    @Test
+    public void failure() throws Exception {
+        OutputStream out = new PipelinedOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("closed");
+            }
+        });
+        try {
+            byte[] data = new byte[64 * 1024];
+            for (int i = 0; i < 100; i++) {
+                out.write(data);
+            }
+            out.close();
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertEquals("closed", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+
+package com.zimbra.cs.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.util.ByteUtil;
+
+/**
+ * Unit test for {@link BlockCompression}.
+ */
+public final class BlockCompressionTest {
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("block", ".msg");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private byte[] write(int size) throws IOException {
+        byte[] data = new byte[size];
+        Random random = new Random(size);
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) ('a' + random.nextInt(4)); // compressible
+        }
+        OutputStream out = BlockCompression.newOutputStream(new FileOutputStream(file));
+        out.write(data, 0, size / 3);
+        out.write(data, size / 3, size - size / 3);
+        out.close();
+        return data;
+    }
+
+    @Test
+    public void gzipCompatible() throws Exception {
+        byte[] data = write(200 * 1024 + 17);
+        Assert.assertTrue(file.length() < data.length);
+        byte[] content = ByteUtil.getContent(new GZIPInputStream(new ByteArrayInputStream(ByteUtil.getContent(file))), -1);
+        Assert.assertArrayEquals(data, content);
+    }
+
+    @Test
+    public void randomRead() throws Exception {
+        int blockSize = BlockCompression.getBlockSize();
+        byte[] data = write(blockSize * 3 + 100);
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            BlockCompression.Index index = BlockCompression.readIndex(raf);
+            Assert.assertNotNull(index);
+            Assert.assertEquals(4, index.getBlockCount());
+            Assert.assertEquals(data.length, index.rawSize);
+
+            BlockCompression.Reader reader = new BlockCompression.Reader(index);
+            byte[] buf = new byte[blockSize + 50];
+            // spans the end of the second block and the start of the third one
+            long pos = blockSize * 2L - 25;
+            Assert.assertEquals(buf.length, reader.read(raf, pos, buf, 0, buf.length));
+            Assert.assertArrayEquals(Arrays.copyOfRange(data, (int) pos, (int) pos + buf.length), buf);
+            // short read at the end
+            Assert.assertEquals(100, reader.read(raf, blockSize * 3L, buf, 0, buf.length));
+            Assert.assertEquals(-1, reader.read(raf, data.length, buf, 0, buf.length));
+            reader.close();
+            Assert.assertEquals(10, reader.read(raf, 5, buf, 0, 10));
+            Assert.assertArrayEquals(Arrays.copyOfRange(data, 5, 15), Arrays.copyOf(buf, 10));
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void notBlockCompressed() throws Exception {
+        byte[] data = "plain text message".getBytes();
+        OutputStream out = new java.util.zip.GZIPOutputStream(new FileOutputStream(file));
+        out.write(data);
+        out.close();
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            Assert.assertNull(BlockCompression.readIndex(raf));
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void unknownAvailable() throws Exception {
+        byte[] data = write(BlockCompression.getBlockSize() * 3 + 100);
+        // like redo log data, never tells how many bytes are left, and reads short so that no member is buffered
+        InputStream in = new FilterInputStream(new ByteArrayInputStream(ByteUtil.getContent(file))) {
+            @Override
+            public int available() {
+                return 0;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+        Assert.assertArrayEquals(data, ByteUtil.getContent(BlockCompression.newInputStream(in), -1));
+    }
+
+    @Test
+    public void enabledVolumes() throws Exception {
+        String format = LC.zimbra_blob_compression_format.value();
+        String volumes = LC.zimbra_blob_compression_block_volumes.value();
+        try {
+            LC.zimbra_blob_compression_format.setDefault("gzip");
+            LC.zimbra_blob_compression_block_volumes.setDefault("");
+            Assert.assertFalse(BlockCompression.isEnabled());
+            Assert.assertFalse(BlockCompression.isEnabled((short) 1));
+
+            LC.zimbra_blob_compression_format.setDefault("block");
+            Assert.assertTrue(BlockCompression.isEnabled());
+            Assert.assertTrue(BlockCompression.isEnabled((short) 1));
+
+            LC.zimbra_blob_compression_block_volumes.setDefault("2, 3");
+            Assert.assertFalse(BlockCompression.isEnabled());
+            Assert.assertFalse(BlockCompression.isEnabled((short) 1));
+            Assert.assertTrue(BlockCompression.isEnabled((short) 3));
+        } finally {
+            LC.zimbra_blob_compression_format.setDefault(format);
+            LC.zimbra_blob_compression_block_volumes.setDefault(volumes);
+        }
+    }
+}
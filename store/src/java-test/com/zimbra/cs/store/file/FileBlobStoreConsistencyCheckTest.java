@@ -23,14 +23,21 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
 
+import junit.framework.Assert;
+
+import org.junit.Test;
+
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.FileUtil;
 import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.mailbox.DeliveryOptions;
 import com.zimbra.cs.mailbox.Mailbox;
 import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mime.ParsedMessage;
 import com.zimbra.cs.store.AbstractBlobConsistencyCheckTest;
 import com.zimbra.cs.store.MailboxBlob;
 import com.zimbra.cs.store.StoreManager;
+import com.zimbra.cs.store.file.BlobConsistencyChecker.Results;
 import com.zimbra.cs.volume.Volume;
 import com.zimbra.cs.volume.VolumeManager;
 
@@ -78,6 +85,34 @@ public class FileBlobStoreConsistencyCheckTest extends AbstractBlobConsistencyCh
         return file.getCanonicalPath();
     }
 
+    @Test
+    public void incremental() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX);
+        int msgs = 5;
+        for (int i = 0; i < msgs; i++) {
+            mbox.addMessage(null, new ParsedMessage("From: test1-1@sub1.zimbra.com".getBytes(), false), dopt, null);
+        }
+
+        // the first incremental check covers everything
+        Results results = getChecker().check(getVolumeIds(), mbox.getId(), true, false, true);
+        Assert.assertFalse(results.hasInconsistency());
+        Assert.assertEquals(msgs, results.itemCount);
+
+        deleteAllBlobs();
+        createUnexpectedBlob(0);
+        mbox.addMessage(null, new ParsedMessage("From: test1-1@sub1.zimbra.com".getBytes(), false), dopt, null);
+
+        results = getChecker().check(getVolumeIds(), mbox.getId(), true, false, true);
+        Assert.assertFalse(results.hasInconsistency());
+        Assert.assertEquals(1, results.itemCount);
+        Assert.assertEquals(1, results.fileCount);
+
+        results = getChecker().check(getVolumeIds(), mbox.getId(), true, false);
+        Assert.assertEquals(msgs, results.missingBlobs.size());
+        Assert.assertEquals(1, results.unexpectedBlobs.size());
+    }
+
     @Override
     protected StoreManager getStoreManager() {
         return new FileBlobStore();
@@ -0,0 +1,145 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.store.file;
+
+import java.io.File;
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.DeliveryOptions;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.mailbox.Message;
+import com.zimbra.cs.mime.ParsedMessage;
+import com.zimbra.cs.store.StoreManager;
+import com.zimbra.cs.volume.Volume;
+import com.zimbra.cs.volume.VolumeManager;
+import com.zimbra.znative.IO;
+import com.zimbra.znative.Util;
+
+/**
+ * Unit test for {@link SingleInstanceDirectory}. Hard links and link counts need the native library.
+ */
+public final class SingleInstanceDirectoryTest {
+
+    private static final byte[] CONTENT = "From: from@zimbra.com\r\nTo: to@zimbra.com\r\nSubject: same\r\n\r\nsame".getBytes();
+
+    private StoreManager originalStoreManager;
+    private String originalEnabled;
+    private String originalInterval;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+        Provisioning.getInstance().createAccount("test@zimbra.com", "secret", new HashMap<String, Object>());
+        System.setProperty("zimbra.native.required", "false");
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue(Util.haveNativeCode());
+        originalEnabled = LC.zimbra_store_single_instance_enabled.value();
+        originalInterval = LC.zimbra_store_single_instance_sweep_interval.value();
+        LC.zimbra_store_single_instance_enabled.setDefault(true);
+        LC.zimbra_store_single_instance_sweep_interval.setDefault(0); // no background sweeps
+        MailboxTestUtil.clearData();
+        originalStoreManager = StoreManager.getInstance();
+        StoreManager.setInstance(new FileBlobStore());
+        StoreManager.getInstance().startup();
+        SingleInstanceDirectory.sweep();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (originalStoreManager == null) { // skipped
+            return;
+        }
+        SingleInstanceDirectory.sweep();
+        StoreManager.getInstance().shutdown();
+        StoreManager.setInstance(originalStoreManager);
+        LC.zimbra_store_single_instance_enabled.setDefault(originalEnabled);
+        LC.zimbra_store_single_instance_sweep_interval.setDefault(originalInterval);
+    }
+
+    private static Message deliver(Mailbox mbox) throws Exception {
+        return mbox.addMessage(null, new ParsedMessage(CONTENT, false),
+                new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX), null);
+    }
+
+    private static int links(Message msg) throws Exception {
+        return IO.linkCount(msg.getBlob().getLocalBlob().getFile().getPath());
+    }
+
+    @Test
+    public void link() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        Message msg1 = deliver(mbox);
+        Assert.assertEquals(2, links(msg1)); // the blob and the directory
+        Message msg2 = deliver(mbox);
+        Assert.assertEquals(3, links(msg1));
+        Assert.assertEquals(3, links(msg2));
+        Assert.assertEquals("same", msg2.getSubject());
+    }
+
+    @Test
+    public void unlink() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        Message msg1 = deliver(mbox);
+        Message msg2 = deliver(mbox);
+
+        mbox.delete(null, msg1.getId(), MailItem.Type.MESSAGE);
+        Assert.assertEquals(2, links(msg2));
+        // still linked from a mailbox
+        Assert.assertEquals(0, SingleInstanceDirectory.sweepChanged());
+
+        File last = msg2.getBlob().getLocalBlob().getFile();
+        mbox.delete(null, msg2.getId(), MailItem.Type.MESSAGE);
+        Assert.assertFalse(last.exists());
+        Assert.assertEquals(1, SingleInstanceDirectory.sweepChanged());
+        Assert.assertEquals(0, SingleInstanceDirectory.sweep());
+
+        // a later delivery stores the content again
+        Assert.assertEquals(2, links(deliver(mbox)));
+    }
+
+    @Test
+    public void sweepChangedOnly() throws Exception {
+        Volume volume = VolumeManager.getInstance().getCurrentMessageVolume();
+        File orphan = new File(volume.getRootPath() + File.separator + "sis" + File.separator + "ab" + File.separator +
+                "abcdef");
+        orphan.getParentFile().mkdirs();
+        Assert.assertTrue(orphan.createNewFile());
+
+        // nothing was deleted, so the volume isn't rescanned
+        Assert.assertEquals(0, SingleInstanceDirectory.sweepChanged());
+        Assert.assertTrue(orphan.exists());
+
+        Assert.assertEquals(1, SingleInstanceDirectory.sweep());
+        Assert.assertFalse(orphan.exists());
+    }
+}
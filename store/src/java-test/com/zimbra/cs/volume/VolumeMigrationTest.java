@@ -0,0 +1,186 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.volume;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.util.FileUtil;
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.db.Db;
+import com.zimbra.cs.db.HSQLDB;
+import com.zimbra.cs.mailbox.DeliveryOptions;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.mailbox.Message;
+import com.zimbra.cs.mime.ParsedMessage;
+import com.zimbra.cs.store.StoreManager;
+import com.zimbra.cs.store.file.BlobConsistencyChecker;
+import com.zimbra.cs.store.file.BlobConsistencyChecker.Results;
+import com.zimbra.cs.store.file.FileBlobStore;
+import com.zimbra.cs.util.Config;
+
+/**
+ * Unit test for {@link VolumeMigration}.
+ */
+public final class VolumeMigrationTest {
+
+    private StoreManager originalStoreManager;
+    private Volume source;
+    private Volume dest;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+        Provisioning.getInstance().createAccount("test@zimbra.com", "secret", new HashMap<String, Object>());
+        System.setProperty("zimbra.native.required", "false");
+        //need MVCC since the VolumeManager code creates connections internally
+        ((HSQLDB) Db.getInstance()).useMVCC(null);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+        originalStoreManager = StoreManager.getInstance();
+        LC.zimbra_tmp_directory.setDefault(System.getProperty("user.dir") + "/build/tmp");
+        StoreManager.setInstance(new FileBlobStore());
+        StoreManager.getInstance().startup();
+
+        source = VolumeManager.getInstance().getCurrentMessageVolume();
+        File root = new File(source.getRootPath().replace("store", "store2"));
+        FileUtil.deleteDir(root);
+        root.mkdirs();
+        dest = VolumeManager.getInstance().create(Volume.builder().setPath(root.getAbsolutePath(), true)
+                .setType(Volume.TYPE_MESSAGE).setName("volume2").build());
+        Config.setString(VolumeMigration.KEY_PROGRESS, "");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        VolumeManager.getInstance().delete(dest.getId());
+        FileUtil.deleteDir(new File(dest.getRootPath()));
+        StoreManager.getInstance().shutdown();
+        StoreManager.setInstance(originalStoreManager);
+    }
+
+    private Message addMessage(Mailbox mbox, String subject) throws Exception {
+        return mbox.addMessage(null, MailboxTestUtil.generateMessage(subject),
+                new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX), null);
+    }
+
+    private static int now() {
+        return (int) (System.currentTimeMillis() / 1000L);
+    }
+
+    @Test
+    public void move() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        Message msg1 = addMessage(mbox, "one");
+        Message msg2 = addMessage(mbox, "two");
+        File old1 = msg1.getBlob().getLocalBlob().getFile();
+        File old2 = msg2.getBlob().getLocalBlob().getFile();
+
+        VolumeMigration migration = new VolumeMigration(source, dest, now() + 60, 0);
+        migration.run();
+        Assert.assertFalse(migration.isRunning());
+        Assert.assertEquals(2, migration.getBlobCount());
+        Assert.assertEquals(0, migration.getErrorCount());
+
+        for (int id : new int[] { msg1.getId(), msg2.getId() }) {
+            Message msg = mbox.getMessageById(null, id);
+            Assert.assertEquals(Short.toString(dest.getId()), msg.getLocator());
+            Assert.assertTrue(msg.getBlob().getLocalBlob().getFile().exists());
+        }
+        Assert.assertEquals("one", mbox.getMessageById(null, msg1.getId()).getSubject());
+        Assert.assertFalse(old1.exists());
+        Assert.assertFalse(old2.exists());
+    }
+
+    @Test
+    public void incrementalCheckAfterMove() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        addMessage(mbox, "one");
+        addMessage(mbox, "two");
+        List<Short> volumeIds = Arrays.asList(source.getId(), dest.getId());
+        Results results = new BlobConsistencyChecker().check(volumeIds, mbox.getId(), true, false, true);
+        Assert.assertEquals(2, results.itemCount);
+        results = new BlobConsistencyChecker().check(volumeIds, mbox.getId(), true, false, true);
+        Assert.assertEquals(0, results.itemCount);
+
+        new VolumeMigration(source, dest, now() + 60, 0).run();
+
+        // the moved blobs are checked again in their new place
+        results = new BlobConsistencyChecker().check(volumeIds, mbox.getId(), true, false, true);
+        Assert.assertFalse(results.hasInconsistency());
+        Assert.assertEquals(2, results.itemCount);
+        Assert.assertEquals(2, results.fileCount);
+    }
+
+    @Test
+    public void filters() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        Message msg = addMessage(mbox, "new");
+
+        // too new
+        VolumeMigration migration = new VolumeMigration(source, dest, (int) (msg.getDate() / 1000) - 60, 0);
+        migration.run();
+        Assert.assertEquals(0, migration.getBlobCount());
+
+        // too small
+        migration = new VolumeMigration(source, dest, now() + 60, msg.getSize() + 1);
+        migration.run();
+        Assert.assertEquals(0, migration.getBlobCount());
+
+        Assert.assertEquals(Short.toString(source.getId()), mbox.getMessageById(null, msg.getId()).getLocator());
+    }
+
+    @Test
+    public void failedCopy() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        Message msg = addMessage(mbox, "stuck");
+        File old = msg.getBlob().getLocalBlob().getFile();
+
+        // a plain file where the mailbox's message directory should be makes every copy fail
+        File blocker = new File(dest.getMailboxDir(mbox.getId(), Volume.TYPE_MESSAGE));
+        blocker.getParentFile().mkdirs();
+        Assert.assertTrue(blocker.createNewFile());
+
+        VolumeMigration migration = new VolumeMigration(source, dest, now() + 60, 0);
+        migration.run();
+        Assert.assertEquals(0, migration.getBlobCount());
+        Assert.assertEquals(1, migration.getErrorCount());
+
+        // the item stays on the source volume, and nothing is left behind on the destination
+        msg = mbox.getMessageById(null, msg.getId());
+        Assert.assertEquals(Short.toString(source.getId()), msg.getLocator());
+        Assert.assertTrue(old.exists());
+        Assert.assertEquals("stuck", msg.getSubject());
+        Assert.assertTrue(blocker.delete());
+        Assert.assertFalse(blocker.exists());
+    }
+}
@@ -442,6 +442,7 @@ public class DataSourceManager {
         throws ServiceException {
         ScheduledTaskManager.cancel(DataSourceTask.class.getName(), dsId, mbox.getId(), false);
         DbScheduledTask.deleteTask(DataSourceTask.class.getName(), dsId);
+        DataSourceScheduler.reset(dsId);
     }
 
     public static DataSourceTask getTask(Mailbox mbox, String dsId) {
@@ -490,6 +491,7 @@ public class DataSourceManager {
         }
         String accountId = account.getId();
         ZimbraLog.datasource.debug("Updating schedule for account %s, data source %s", accountId, dsId);
+        DataSourceScheduler.reset(dsId);
 
         int mboxId = MailboxManager.getInstance().lookupMailboxId(account.getId());
         if (mboxId == -1)
@@ -0,0 +1,371 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+
+package com.zimbra.cs.datasource;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.stats.RealtimeStatsCallback;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.account.DataSource;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.stats.ZimbraPerf;
+import com.zimbra.soap.admin.type.DataSourceType;
+
+/**
+ * Runs scheduled data source polls on a bounded pool of worker threads.
+ * <p>
+ * {@link DataSourceTask} still keeps the per data source schedule in
+ * {@link com.zimbra.cs.mailbox.ScheduledTaskManager}, but instead of importing
+ * on the scheduler thread it hands the poll over to this class, which:
+ * <ul>
+ *   <li>delays each poll by a random fraction of its polling interval, so that
+ *       data sources sharing an interval do not all fire at once</li>
+ *   <li>keeps a queue per account and serves the accounts round robin, so an
+ *       account with many data sources cannot starve the others</li>
+ *   <li>skips polls for data sources that keep coming back without changes,
+ *       doubling the effective interval up to a configured multiple</li>
+ *   <li>drops a poll if the same data source is already queued, or if the
+ *       queue is full; the next scheduled poll picks it up again</li>
+ * </ul>
+ * Queue depth and lag (time spent queued) are reported per data source type
+ * in the realtime stats.
+ */
+public final class DataSourceScheduler implements RealtimeStatsCallback {
+
+    private static DataSourceScheduler sInstance;
+
+    private final ExecutorService workers;
+    private final ScheduledExecutorService timer;
+    private final int maxQueued;
+    private final int jitterPercent;
+    private final int backoffThreshold;
+    private final int maxBackoff;
+    private final Random random = new Random();
+
+    private final FairQueue<Poll> queue = new FairQueue<Poll>();
+    private final ConcurrentHashMap<String, PollState> states = new ConcurrentHashMap<String, PollState>();
+    private final Map<DataSourceType, AtomicInteger> queueDepth =
+        new EnumMap<DataSourceType, AtomicInteger>(DataSourceType.class);
+    private final Map<DataSourceType, AtomicLong> maxLag =
+        new EnumMap<DataSourceType, AtomicLong>(DataSourceType.class);
+
+    private DataSourceScheduler() {
+        workers = Executors.newFixedThreadPool(LC.data_source_scheduler_threads.intValue(),
+            new ThreadFactoryBuilder().setNameFormat("DataSourcePoll-%d").setDaemon(true).build());
+        timer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("DataSourceJitter").setDaemon(true).build());
+        maxQueued = LC.data_source_scheduler_max_queued.intValue();
+        jitterPercent = Math.max(0, Math.min(100, LC.data_source_scheduler_jitter_percent.intValue()));
+        backoffThreshold = LC.data_source_backoff_threshold.intValue();
+        maxBackoff = LC.data_source_backoff_max_multiplier.intValue();
+
+        for (DataSourceType type : DataSourceType.values()) {
+            queueDepth.put(type, new AtomicInteger());
+            maxLag.put(type, new AtomicLong());
+            ZimbraPerf.addRealtimeStatName(getQueueColName(type),
+                "Number of " + type + " data source polls waiting for a worker thread");
+            ZimbraPerf.addRealtimeStatName(getLagColName(type),
+                "Longest time (ms) a " + type + " data source poll waited for a worker thread");
+        }
+        ZimbraPerf.addStatsCallback(this);
+    }
+
+    public static synchronized void startup() {
+        if (sInstance == null) {
+            sInstance = new DataSourceScheduler();
+            ZimbraLog.datasource.info("Started data source scheduler with %d threads",
+                LC.data_source_scheduler_threads.intValue());
+        }
+    }
+
+    public static synchronized void shutdown() {
+        if (sInstance != null) {
+            sInstance.timer.shutdownNow();
+            sInstance.workers.shutdownNow();
+            sInstance = null;
+        }
+    }
+
+    /**
+     * Returns the scheduler, or {@code null} if it has not been started, in
+     * which case scheduled polls run on the calling thread.
+     */
+    public static synchronized DataSourceScheduler getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Discards the backoff state of a data source, typically because it was
+     * modified or deleted.
+     */
+    public static void reset(String dataSourceId) {
+        DataSourceScheduler scheduler = getInstance();
+        if (scheduler != null) {
+            scheduler.states.remove(dataSourceId);
+        }
+    }
+
+    private static String getQueueColName(DataSourceType type) {
+        return "ds_" + type + "_queue";
+    }
+
+    private static String getLagColName(DataSourceType type) {
+        return "ds_" + type + "_lag_ms";
+    }
+
+    /**
+     * Queues a scheduled poll of the given data source.
+     */
+    public void schedule(Mailbox mbox, DataSource ds) throws ServiceException {
+        PollState state = getState(ds.getId());
+        if (state.skip()) {
+            ZimbraLog.datasource.debug("Skipping poll of %s, no changes in the last %d polls",
+                ds.getName(), state.getEmptyPolls());
+            return;
+        }
+        final Poll poll = new Poll(mbox, ds);
+        long jitter = ds.getPollingInterval() * jitterPercent / 100;
+        if (jitter > 0) {
+            long delay = (long) (random.nextDouble() * jitter);
+            timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    enqueue(poll);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } else {
+            enqueue(poll);
+        }
+    }
+
+    private PollState getState(String dataSourceId) {
+        PollState state = states.get(dataSourceId);
+        if (state == null) {
+            state = new PollState(backoffThreshold, maxBackoff);
+            PollState existing = states.putIfAbsent(dataSourceId, state);
+            if (existing != null) {
+                state = existing;
+            }
+        }
+        return state;
+    }
+
+    private void enqueue(Poll poll) {
+        poll.queuedAt = System.currentTimeMillis();
+        synchronized (queue) {
+            if (queue.size() >= maxQueued) {
+                ZimbraLog.datasource.warn("Data source poll queue is full (%d), dropping poll of %s",
+                    maxQueued, poll.ds.getName());
+                return;
+            }
+            if (!queue.add(poll.ds.getAccountId(), poll.ds.getId(), poll)) {
+                ZimbraLog.datasource.debug("Poll of %s is already queued", poll.ds.getName());
+                return;
+            }
+        }
+        queueDepth.get(poll.type).incrementAndGet();
+        try {
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runNext();
+                }
+            });
+        } catch (RuntimeException e) {
+            // Rejected during shutdown
+            synchronized (queue) {
+                queue.remove(poll.ds.getAccountId(), poll.ds.getId());
+            }
+            queueDepth.get(poll.type).decrementAndGet();
+        }
+    }
+
+    /*
+     * Each queued poll submits one of these, so there is always a worker for
+     * every queued poll. Which poll runs is decided here rather than by the
+     * order of submission, to keep the accounts fair.
+     */
+    private void runNext() {
+        Poll poll;
+        synchronized (queue) {
+            poll = queue.poll();
+        }
+        if (poll == null) {
+            return;
+        }
+        queueDepth.get(poll.type).decrementAndGet();
+        updateMax(maxLag.get(poll.type), System.currentTimeMillis() - poll.queuedAt);
+
+        ZimbraLog.clearContext();
+        ZimbraLog.addMboxToContext(poll.mbox.getId());
+        ZimbraLog.addDataSourceNameToContext(poll.ds.getName());
+        try {
+            ZimbraLog.addAccountNameToContext(poll.ds.getAccount().getName());
+            int changeId = poll.mbox.getLastChangeID();
+            DataSourceManager.importData(poll.ds);
+            getState(poll.ds.getId()).update(poll.mbox.getLastChangeID() != changeId);
+        } catch (Exception e) {
+            ZimbraLog.datasource.warn("Scheduled DataSource import failed.", e);
+        } finally {
+            ZimbraLog.clearContext();
+        }
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long cur = max.get();
+        while (value > cur && !max.compareAndSet(cur, value)) {
+            cur = max.get();
+        }
+    }
+
+    @Override
+    public Map<String, Object> getStatData() {
+        Map<String, Object> data = new HashMap<String, Object>();
+        for (DataSourceType type : DataSourceType.values()) {
+            data.put(getQueueColName(type), queueDepth.get(type).get());
+            data.put(getLagColName(type), maxLag.get(type).getAndSet(0));
+        }
+        return data;
+    }
+
+    private static final class Poll {
+        final Mailbox mbox;
+        final DataSource ds;
+        final DataSourceType type;
+        long queuedAt;
+
+        Poll(Mailbox mbox, DataSource ds) {
+            this.mbox = mbox;
+            this.ds = ds;
+            this.type = ds.getType();
+        }
+    }
+
+    /**
+     * Tracks how many polls in a row found no changes, and how many of the
+     * upcoming scheduled polls to skip because of that.
+     */
+    static final class PollState {
+        private final int threshold;
+        private final int maxMultiplier;
+        private int emptyPolls;
+        private int skipsLeft;
+
+        PollState(int threshold, int maxMultiplier) {
+            this.threshold = threshold;
+            this.maxMultiplier = maxMultiplier;
+        }
+
+        synchronized boolean skip() {
+            if (skipsLeft > 0) {
+                skipsLeft--;
+                return true;
+            }
+            return false;
+        }
+
+        synchronized void update(boolean changed) {
+            emptyPolls = changed ? 0 : emptyPolls + 1;
+            skipsLeft = getSkips();
+        }
+
+        synchronized int getEmptyPolls() {
+            return emptyPolls;
+        }
+
+        /*
+         * Once the threshold is reached, every further empty poll doubles the
+         * effective polling interval until the maximum multiplier is reached.
+         */
+        private int getSkips() {
+            if (threshold <= 0 || maxMultiplier <= 1 || emptyPolls < threshold) {
+                return 0;
+            }
+            int shift = Math.min(emptyPolls - threshold + 1, 30);
+            return (int) Math.min(1L << shift, maxMultiplier) - 1;
+        }
+    }
+
+    /**
+     * Per-account FIFO queues served round robin. Entries are keyed by id, and
+     * an id can only be queued once.
+     */
+    static final class FairQueue<E> {
+        private final LinkedHashMap<String, ArrayDeque<String>> accounts =
+            new LinkedHashMap<String, ArrayDeque<String>>();
+        private final Map<String, E> entries = new HashMap<String, E>();
+
+        boolean add(String accountId, String id, E entry) {
+            if (entries.containsKey(id)) {
+                return false;
+            }
+            ArrayDeque<String> ids = accounts.get(accountId);
+            if (ids == null) {
+                ids = new ArrayDeque<String>();
+                accounts.put(accountId, ids);
+            }
+            ids.add(id);
+            entries.put(id, entry);
+            return true;
+        }
+
+        E poll() {
+            Iterator<Map.Entry<String, ArrayDeque<String>>> it = accounts.entrySet().iterator();
+            if (!it.hasNext()) {
+                return null;
+            }
+            Map.Entry<String, ArrayDeque<String>> head = it.next();
+            ArrayDeque<String> ids = head.getValue();
+            String id = ids.poll();
+            // Move the account to the back of the line
+            it.remove();
+            if (!ids.isEmpty()) {
+                accounts.put(head.getKey(), ids);
+            }
+            return entries.remove(id);
+        }
+
+        E remove(String accountId, String id) {
+            ArrayDeque<String> ids = accounts.get(accountId);
+            if (ids != null && ids.remove(id) && ids.isEmpty()) {
+                accounts.remove(accountId);
+            }
+            return entries.remove(id);
+        }
+
+        int size() {
+            return entries.size();
+        }
+    }
+}
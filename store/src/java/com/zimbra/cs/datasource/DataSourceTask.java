@@ -79,8 +79,13 @@ public class DataSourceTask extends ScheduledTask {
                     return null;
                 }
                 
-                // Do the work
-                DataSourceManager.importData(ds);
+                // Do the work, on the data source scheduler's pool if running
+                DataSourceScheduler scheduler = DataSourceScheduler.getInstance();
+                if (scheduler != null) {
+                    scheduler.schedule(mbox, ds);
+                } else {
+                    DataSourceManager.importData(ds);
+                }
             } else {
                 ZimbraLog.datasource.info("DataSource %s was deleted.  Cancelling future tasks.",
                     getDataSourceId());
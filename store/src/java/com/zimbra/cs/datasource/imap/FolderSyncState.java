@@ -21,37 +21,37 @@ final class FolderSyncState {
     private long lastUidNext;
     private int lastChangeId;
 
-    public long getLastFetchedUid() {
+    public synchronized long getLastFetchedUid() {
         return lastFetchedUid;
     }
 
-    public long getLastUidNext() {
+    public synchronized long getLastUidNext() {
         return lastUidNext;
     }
 
-    public int getLastChangeId() {
+    public synchronized int getLastChangeId() {
         return lastChangeId;
     }
 
-    public void setLastFetchedUid(long uid) {
+    public synchronized void setLastFetchedUid(long uid) {
         lastFetchedUid = uid;
     }
 
-    public void setLastUidNext(long lastUidNext) {
+    public synchronized void setLastUidNext(long lastUidNext) {
         this.lastUidNext = lastUidNext;
     }
 
-    public void setLastChangeId(int lastChangeId) {
+    public synchronized void setLastChangeId(int lastChangeId) {
         this.lastChangeId = lastChangeId;
     }
 
-    public void updateLastFetchedUid(long uid) {
+    public synchronized void updateLastFetchedUid(long uid) {
         if (uid > lastFetchedUid) {
             lastFetchedUid = uid;
         }
     }
 
-    public String toString() {
+    public synchronized String toString() {
         return String.format(
             "{lastFetchedUid=%d,lastUidNext=%d,lastChangeId=%d}",
             lastFetchedUid, lastUidNext, lastChangeId);
@@ -33,31 +33,31 @@ public class ImapFolderCollection implements Iterable<ImapFolder> {
         mByRemotePath = new HashMap<String, ImapFolder>();
     }
 
-    public void add(ImapFolder imapFolder) {
+    public synchronized void add(ImapFolder imapFolder) {
         mByLocalPath.put(imapFolder.getLocalPath().toLowerCase(), imapFolder);
         mByRemotePath.put(imapFolder.getRemoteId(), imapFolder);
         mByItemId.put(imapFolder.getItemId(), imapFolder);
     }
     
-    public void remove(ImapFolder imapFolder) {
+    public synchronized void remove(ImapFolder imapFolder) {
         mByLocalPath.remove(imapFolder.getLocalPath().toLowerCase());
         mByRemotePath.remove(imapFolder.getRemoteId());
         mByItemId.remove(imapFolder.getItemId());
     }
     
-    public ImapFolder getByLocalPath(String localPath) {
+    public synchronized ImapFolder getByLocalPath(String localPath) {
         return mByLocalPath.get(localPath.toLowerCase());
     }
     
-    public ImapFolder getByRemotePath(String remotePath) {
+    public synchronized ImapFolder getByRemotePath(String remotePath) {
         return mByRemotePath.get(remotePath);
     }
     
-    public ImapFolder getByItemId(int itemId) {
+    public synchronized ImapFolder getByItemId(int itemId) {
         return mByItemId.get(itemId);
     }
     
-    public int size() {
+    public synchronized int size() {
         return mByItemId.size();
     }
 
@@ -30,6 +30,10 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.RemoteServiceException;
@@ -69,7 +73,7 @@ import com.zimbra.cs.util.Zimbra;
 
 class ImapFolderSync {
     private final ImapSync imapSync;
-    private final ImapConnection connection;
+    private ImapConnection connection;
     private ImapConnection refetchConnection;
     private final DataSource ds;
     private final Mailbox mailbox;
@@ -85,10 +89,12 @@ class ImapFolderSync {
     private List<Long> addedUids;
     private List<Long> deletedUids;
     private long maxUid;
+    private long fetchAfterUid;
     private boolean completed;
     private int totalErrors;
     private boolean fullSync;
     private boolean localDeleted;
+    private Future<?> pendingImport;
 
     private static final Log LOG = ZimbraLog.datasource;
 
@@ -118,6 +124,22 @@ class ImapFolderSync {
         this.fullSync = imapSync.isFullSync();
     }
 
+    /*
+     * Rebinds this folder sync to another connection to the same IMAP
+     * server, so that messages for several folders can be synchronized
+     * concurrently. The remote folder will be reselected on next use.
+     */
+    void setConnection(ImapConnection ic) {
+        connection = ic;
+        if (remoteFolder != null) {
+            remoteFolder = new RemoteFolder(ic, remoteFolder.getPath());
+        }
+    }
+
+    int getMessagesAddedLocally() {
+        return stats.msgsAddedLocally;
+    }
+
     /*
      * Synchronizes existing remote IMAP folder. Returns tracker if successful
      * otherwise returns null if local folder deleted or is not eligible for
@@ -268,11 +290,24 @@ class ImapFolderSync {
      * Synchronizes messages between local and remote folder.
      */
     public void syncMessages() throws ServiceException, IOException {
+        if (pushLocalChanges()) {
+            fetchRemoteChanges();
+        }
+    }
+
+    /*
+     * First half of message synchronization: pushes local flag changes,
+     * deletes and moves to the remote folder. Moves update the sync state of
+     * other folders, so this must run on the primary connection one folder at
+     * a time. Returns true if new messages still need to be fetched with
+     * fetchRemoteChanges().
+     */
+    boolean pushLocalChanges() throws ServiceException, IOException {
         localFolder.debug("Syncing messages for folder");
         if (!isSyncEnabled()) {
             localFolder.debug("Synchronization disabled for this folder");
             tracker = null;
-            return;
+            return false;
         }
 
         // Restore previously cached sync state or create new state
@@ -303,7 +338,7 @@ class ImapFolderSync {
             if (!changes.hasChanges() && mailboxInfo.getUidNext() == syncState.getLastUidNext()) {
                 syncState.setLastChangeId(changes.getLastChangeId());
                 imapSync.putSyncState(localFolder.getId(), syncState);
-                return;
+                return false;
             }
         }
 
@@ -349,8 +384,23 @@ class ImapFolderSync {
                 syncState.setLastChangeId(changes.getLastChangeId());
             }
         }
+        fetchAfterUid = lastFetchedUid;
+        return true;
+    }
 
-        // Fetch new messages
+    /*
+     * Second half of message synchronization: fetches messages added to the
+     * remote folder and expunges remote deletes. This only touches the state
+     * of this folder and may run concurrently with other folders, each over
+     * its own connection.
+     */
+    void fetchRemoteChanges() throws ServiceException, IOException {
+        if (!remoteFolder.isSelected()) {
+            // Moves into other folders may have selected a different mailbox
+            remoteFolder.select();
+        }
+        long uidNext = mailboxInfo.getUidNext();
+        long lastFetchedUid = fetchAfterUid;
         IOExceptionHandler.getInstance().resetSyncCounter(mailbox);
         maxUid = uidNext > 0 ? uidNext - 1 : 0;
         if (mailboxInfo.getExists() > 0 && (maxUid <= 0 || lastFetchedUid < maxUid)) {
@@ -381,6 +431,16 @@ class ImapFolderSync {
         completed = true;
     }
 
+    /*
+     * Closes the remote folder so that pending deletes are expunged before
+     * the connection is used to select another folder.
+     */
+    void closeRemoteFolder() throws IOException {
+        if (remoteFolder != null && remoteFolder.isSelected()) {
+            remoteFolder.close();
+        }
+    }
+
     private boolean isSyncEnabled() throws ServiceException {
         return tracker != null && tracker.getUidValidity() > 0 &&
                ds.isSyncEnabled(localFolder.getFolder());
@@ -771,6 +831,17 @@ class ImapFolderSync {
             imapSync.getInboxFolderSync() : null;
         removeSkippedUids(uids);
         Iterator<Long> it = uids.iterator();
+        boolean success = false;
+        try {
+            fetchMessages(it, lastCheckTime, inbox);
+            success = true;
+        } finally {
+            finishImport(success);
+        }
+    }
+
+    private void fetchMessages(Iterator<Long> it, long lastCheckTime, ImapFolderSync inbox)
+        throws ServiceException, IOException {
         while (it.hasNext()) {
             imapSync.checkIsEnabled();
             fetchMessages(nextFetchSeq(it));
@@ -780,6 +851,7 @@ class ImapFolderSync {
             long freq = ds.getSyncFrequency();
             if (maxUid > 0 && freq > 0 && time - lastCheckTime > freq) {
                 lastCheckTime = time;
+                waitForImport();
                 if (inbox != null && inbox.hasNewRemoteMessages()) {
                     // If there are new INBOX messages then go and fetch them
                     // before continuing to fetch messages from current folder.
@@ -807,6 +879,7 @@ class ImapFolderSync {
             do {
                 fetchMessages(nextFetchSeq(it));
             } while (it.hasNext());
+            waitForImport();
             maxUid = newUids.get(0);
         }
         syncState.setLastUidNext(mailboxInfo.getUidNext());
@@ -848,35 +921,50 @@ class ImapFolderSync {
         removeDeleted(flagsByUid);
         final Set<Long> uidSet = flagsByUid.keySet();
         if (uidSet.isEmpty()) return;
+        final ExecutorService importer = imapSync.getImportExecutor();
+        final List<MessageData> fetched = new ArrayList<MessageData>(uidSet.size());
         FetchResponseHandler handler = new FetchResponseHandler() {
             @Override
             public void handleFetchResponse(MessageData md) throws Exception {
-                long uid = md.getUid();
-                IOExceptionHandler.getInstance().trackSyncItem(mailbox, uid);
-                try {
-                    handleFetch(md, flagsByUid, true);
-                    clearError(uid);
-                } catch (OutOfMemoryError e) {
-                    Zimbra.halt("Out of memory", e);
-                } catch (Exception e) {
-                    if (!IOExceptionHandler.getInstance().isRecoverable(mailbox, uid, "Exception syncing UID "+uid+" in folder "+remoteFolder.getPath(), e)) {
-                        syncFailed("Fetch failed for uid " + uid, e);
-                        SyncErrorManager.incrementErrorCount(ds, remoteId(uid));
-                    }
+                if (importer != null) {
+                    // Content is imported while the next group is fetched
+                    fetched.add(md);
+                } else {
+                    importMessage(md, flagsByUid);
                 }
-                uidSet.remove(uid);
+                uidSet.remove(md.getUid());
             }
         };
-        // Try fetching group of messages first
-        LOG.debug("Fetching messages for sequence: " + seq);
+        boolean submitted = false;
         try {
-            connection.uidFetch(getSequence(uidSet), "BODY.PEEK[]", handler);
-        } catch (CommandFailedException e) {
-            String msg = "UID FETCH failed: " + e.toString();
-            checkCanContinue(msg, e);
-            LOG.warn(msg, e);
+            // Try fetching group of messages first
+            LOG.debug("Fetching messages for sequence: " + seq);
+            try {
+                connection.uidFetch(getSequence(uidSet), "BODY.PEEK[]", handler);
+            } catch (CommandFailedException e) {
+                String msg = "UID FETCH failed: " + e.toString();
+                checkCanContinue(msg, e);
+                LOG.warn(msg, e);
+            }
+            if (!uidSet.isEmpty()) {
+                fetchRemaining(uidSet, handler);
+            }
+            if (!fetched.isEmpty()) {
+                submitImport(importer, fetched, flagsByUid);
+            }
+            submitted = true;
+        } finally {
+            if (!submitted) {
+                // Fetch failed before the content was handed to the importer
+                for (MessageData md : fetched) {
+                    discardContent(md);
+                }
+            }
         }
-        if (uidSet.isEmpty()) return;
+    }
+
+    private void fetchRemaining(Set<Long> uidSet, FetchResponseHandler handler)
+        throws ServiceException, IOException {
         LOG.info("Fetching remaining messages one at a time for UIDs: " + uidSet);
         for (long uid : getOrderedUids(uidSet)) {
             try {
@@ -898,6 +986,94 @@ class ImapFolderSync {
         }
     }
 
+    private void importMessage(MessageData md, Map<Long, MessageData> flagsByUid)
+        throws ServiceException {
+        long uid = md.getUid();
+        IOExceptionHandler.getInstance().trackSyncItem(mailbox, uid);
+        try {
+            handleFetch(md, flagsByUid, true);
+            clearError(uid);
+        } catch (OutOfMemoryError e) {
+            Zimbra.halt("Out of memory", e);
+        } catch (Exception e) {
+            if (!IOExceptionHandler.getInstance().isRecoverable(mailbox, uid, "Exception syncing UID "+uid+" in folder "+remoteFolder.getPath(), e)) {
+                syncFailed("Fetch failed for uid " + uid, e);
+                SyncErrorManager.incrementErrorCount(ds, remoteId(uid));
+            }
+        }
+    }
+
+    /*
+     * Hands a group of fetched messages over to the import executor. At most
+     * one group per folder is in flight, so messages are still added in the
+     * order they were fetched while the next group is read from the server.
+     */
+    private void submitImport(ExecutorService importer, final List<MessageData> mds,
+                              final Map<Long, MessageData> flagsByUid) throws ServiceException {
+        waitForImport();
+        final Map<String, String> logContext = ZimbraLog.getContextMap();
+        pendingImport = importer.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws ServiceException {
+                ZimbraLog.setContext(logContext);
+                Iterator<MessageData> it = mds.iterator();
+                try {
+                    while (it.hasNext()) {
+                        importMessage(it.next(), flagsByUid);
+                    }
+                } finally {
+                    // Discard content of messages not imported due to an error
+                    while (it.hasNext()) {
+                        discardContent(it.next());
+                    }
+                    ZimbraLog.clearContext();
+                }
+                return null;
+            }
+        });
+    }
+
+    private void waitForImport() throws ServiceException {
+        Future<?> future = pendingImport;
+        if (future == null) return;
+        pendingImport = null;
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            throw ServiceException.INTERRUPTED("import of messages for folder " + localFolder.getPath());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ServiceException) {
+                throw (ServiceException) cause;
+            }
+            throw ServiceException.FAILURE("Import of messages failed for folder " + localFolder.getPath(), cause);
+        }
+    }
+
+    /*
+     * Waits for the last group of fetched messages to be imported. If the
+     * fetch itself failed then any import error is only logged so that the
+     * original error is reported.
+     */
+    private void finishImport(boolean success) throws ServiceException {
+        try {
+            waitForImport();
+        } catch (ServiceException e) {
+            if (success) {
+                throw e;
+            }
+            LOG.warn("Import of fetched messages failed for folder %s", localFolder.getPath(), e);
+        }
+    }
+
+    private static void discardContent(MessageData md) {
+        try {
+            getContent(md).cleanup();
+        } catch (Exception e) {
+            LOG.debug("Unable to discard content for uid %d", md.getUid(), e);
+        }
+    }
+
     // Discard messages that have been flagged \Deleted
     private void removeDeleted(Map<Long, MessageData> mds) {
         Iterator<MessageData> it = mds.values().iterator();
@@ -26,8 +26,18 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.RemoteServiceException;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.Log;
@@ -59,6 +69,10 @@ public class ImapSync extends MailItemImport {
     private boolean fullSync;
     private Authenticator authenticator;
     private boolean reuseConnections;
+    private ExecutorService importExecutor;
+
+    private static final int SYNC_THREADS = LC.data_source_imap_sync_threads.intValue();
+    private static final boolean PIPELINED_FETCH = LC.data_source_imap_pipelined_fetch.booleanValue();
 
     private static final Pattern ILLEGAL_FOLDER_CHARS = Pattern.compile("[:\\*\\?\"<>\\|]");
     private static final Log LOG = ZimbraLog.datasource;
@@ -330,20 +344,188 @@ public class ImapSync extends MailItemImport {
     private void syncMessages(Set<Integer> folderIds) throws ServiceException {
         // If folder ids specified, then only sync messages for specified
         // folders, otherwise sync messages for all folders.
+        List<ImapFolderSync> folders = new ArrayList<ImapFolderSync>(syncedFolders.size());
         for (ImapFolderSync ifs : syncedFolders.values()) {
-            checkIsEnabled();
-            LocalFolder folder = ifs.getLocalFolder();
-            int folderId = folder.getId();
-            try {
-                if (folderIds == null || folderIds.contains(folderId)) {
-                    ifs.syncMessages();
+            if (folderIds == null || folderIds.contains(ifs.getLocalFolder().getId())) {
+                folders.add(ifs);
+            }
+        }
+        long startTime = System.currentTimeMillis();
+        // ZDesktop interleaves INBOX checks with the sync of other folders,
+        // so only ZCS import fetches ahead and uses several connections.
+        int threads = dataSource.isOffline() ? 1 : Math.max(1, Math.min(SYNC_THREADS, folders.size()));
+        if (PIPELINED_FETCH && !dataSource.isOffline()) {
+            importExecutor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("ImapImport-" + dataSource.getId() + "-%d").setDaemon(true).build());
+        }
+        try {
+            if (threads > 1) {
+                syncMessagesInParallel(folders, threads);
+            } else {
+                for (ImapFolderSync ifs : folders) {
+                    syncMessages(ifs);
                 }
-            } catch (Exception e) {
-                syncFailed(folder.getPath(), e);
             }
+        } finally {
+            if (importExecutor != null) {
+                importExecutor.shutdown();
+                importExecutor = null;
+            }
+        }
+        logImportRate(folders, System.currentTimeMillis() - startTime);
+    }
+
+    private void syncMessages(ImapFolderSync ifs) throws ServiceException {
+        checkIsEnabled();
+        try {
+            ifs.syncMessages();
+        } catch (Exception e) {
+            syncFailed(ifs.getLocalFolder().getPath(), e);
         }
     }
 
+    /*
+     * Synchronizes messages for several folders at once, each over its own
+     * IMAP connection. INBOX is always synchronized first since filter rules
+     * may file its messages into any of the other folders. Local changes are
+     * then pushed one folder at a time on the primary connection, since moves
+     * update the state of the target folder, and only fetching new messages
+     * runs in parallel.
+     */
+    private void syncMessagesInParallel(List<ImapFolderSync> folders, int threads)
+        throws ServiceException {
+        ImapFolderSync inbox = getInboxFolderSync();
+        if (inbox != null && folders.contains(inbox)) {
+            syncMessages(inbox);
+        }
+        List<ImapFolderSync> fetches = new ArrayList<ImapFolderSync>(folders.size());
+        for (ImapFolderSync ifs : folders) {
+            if (ifs != inbox && pushLocalChanges(ifs)) {
+                fetches.add(ifs);
+            }
+        }
+        if (!fetches.isEmpty()) {
+            fetchInParallel(fetches, threads);
+        }
+    }
+
+    private boolean pushLocalChanges(ImapFolderSync ifs) throws ServiceException {
+        checkIsEnabled();
+        try {
+            boolean fetch = ifs.pushLocalChanges();
+            ifs.closeRemoteFolder();
+            return fetch;
+        } catch (Exception e) {
+            syncFailed(ifs.getLocalFolder().getPath(), e);
+            return false;
+        }
+    }
+
+    private void fetchRemoteChanges(ImapFolderSync ifs) throws ServiceException {
+        checkIsEnabled();
+        try {
+            ifs.fetchRemoteChanges();
+        } catch (Exception e) {
+            syncFailed(ifs.getLocalFolder().getPath(), e);
+        }
+    }
+
+    private void fetchInParallel(List<ImapFolderSync> folders, int threads)
+        throws ServiceException {
+        final BlockingQueue<ImapConnection> connections = new LinkedBlockingQueue<ImapConnection>();
+        connections.add(connection);
+        List<ImapConnection> extraConnections = new ArrayList<ImapConnection>(threads - 1);
+        ExecutorService executor = null;
+        try {
+            while (extraConnections.size() < threads - 1) {
+                ImapConnection ic;
+                try {
+                    ic = ConnectionManager.newConnection(dataSource, authenticator);
+                } catch (ServiceException e) {
+                    // Server may limit concurrent sessions, so carry on with what we have
+                    LOG.warn("Unable to open additional IMAP connection, syncing with %d connection(s)",
+                             connections.size(), e);
+                    break;
+                }
+                ic.getImapConfig().setMaxLiteralMemSize(dataSource.getMaxTraceSize());
+                extraConnections.add(ic);
+                connections.add(ic);
+            }
+            final AtomicBoolean aborted = new AtomicBoolean();
+            final String accountName = dataSource.getAccount().getName();
+            final String dataSourceName = dataSource.getName();
+            executor = Executors.newFixedThreadPool(connections.size(),
+                new ThreadFactoryBuilder().setNameFormat("ImapSync-" + dataSource.getId() + "-%d").setDaemon(true).build());
+            List<Future<Void>> futures = new ArrayList<Future<Void>>(folders.size());
+            for (final ImapFolderSync ifs : folders) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        if (aborted.get()) {
+                            return null;
+                        }
+                        ZimbraLog.addAccountNameToContext(accountName);
+                        ZimbraLog.addDataSourceNameToContext(dataSourceName);
+                        ImapConnection ic = connections.take();
+                        try {
+                            ifs.setConnection(ic);
+                            fetchRemoteChanges(ifs);
+                        } catch (Exception e) {
+                            aborted.set(true);
+                            throw e;
+                        } finally {
+                            // finishSync() runs later on the primary connection
+                            ifs.setConnection(connection);
+                            connections.add(ic);
+                            ZimbraLog.clearContext();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            ServiceException error = null;
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    aborted.set(true);
+                    throw ServiceException.INTERRUPTED("sync of data source " + dataSourceName);
+                } catch (ExecutionException e) {
+                    if (error == null) {
+                        Throwable cause = e.getCause();
+                        error = cause instanceof ServiceException ? (ServiceException) cause :
+                            ServiceException.FAILURE("Folder sync failed", cause);
+                    }
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+            for (ImapConnection ic : extraConnections) {
+                ic.close();
+            }
+        }
+    }
+
+    private void logImportRate(List<ImapFolderSync> folders, long elapsed) {
+        int added = 0;
+        for (ImapFolderSync ifs : folders) {
+            added += ifs.getMessagesAddedLocally();
+        }
+        if (added > 0) {
+            LOG.info("Imported %d message(s) from %d folder(s) in %d ms (%.1f msgs/sec)",
+                     added, folders.size(), elapsed, added * 1000.0 / Math.max(elapsed, 1));
+        }
+    }
+
+    ExecutorService getImportExecutor() {
+        return importExecutor;
+    }
+
     public FolderSyncState getFolderSyncState(int folderId) {
         if (syncState != null) {
             FolderSyncState ss = syncState.getFolderSyncState(folderId);
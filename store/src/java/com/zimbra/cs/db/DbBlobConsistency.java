@@ -43,6 +43,15 @@ public class DbBlobConsistency {
      */
     public static Collection<BlobInfo> getBlobInfo(DbConnection conn, Mailbox mbox, int minId, int maxId, short volumeId)
     throws ServiceException {
+        return getBlobInfo(conn, mbox, minId, maxId, volumeId, 0);
+    }
+
+    /**
+     * Returns blob info for items in the specified id range whose content changed after the given change.
+     */
+    public static Collection<BlobInfo> getBlobInfo(DbConnection conn, Mailbox mbox, int minId, int maxId, short volumeId,
+            int changedSince) throws ServiceException {
+        String changed = changedSince > 0 ? " AND mod_content > " + changedSince : "";
         PreparedStatement stmt = null;
         ResultSet rs = null;
         List<BlobInfo> blobs = new ArrayList<BlobInfo>();
@@ -54,28 +63,28 @@ public class DbBlobConsistency {
                 " WHERE " + DbMailItem.IN_THIS_MAILBOX_AND +
                 " id BETWEEN " + minId + " AND " + maxId +
                 " AND blob_digest IS NOT NULL " +
-                "AND locator = " + volumeId +
+                "AND locator = " + volumeId + changed +
                 " UNION " +
                 "SELECT id, mod_content, 0, size " +
                 "FROM " + DbMailItem.getMailItemTableName(mbox, true) +
                 " WHERE " + DbMailItem.IN_THIS_MAILBOX_AND +
                 " id BETWEEN " + minId + " AND " + maxId +
                 " AND blob_digest IS NOT NULL " +
-                "AND locator = " + volumeId +
+                "AND locator = " + volumeId + changed +
                 " UNION " +
                 "SELECT item_id, mod_content, version, size " +
                 "FROM " + DbMailItem.getRevisionTableName(mbox, false) +
                 " WHERE " + DbMailItem.IN_THIS_MAILBOX_AND +
                 " item_id BETWEEN " + minId + " AND " + maxId +
                 " AND blob_digest IS NOT NULL " +
-                "AND locator = " + volumeId +
+                "AND locator = " + volumeId + changed +
                 " UNION " +
                 "SELECT item_id, mod_content, version, size " +
                 "FROM " + DbMailItem.getRevisionTableName(mbox, true) +
                 " WHERE " + DbMailItem.IN_THIS_MAILBOX_AND +
                 " item_id BETWEEN " + minId + " AND " + maxId +
                 " AND blob_digest IS NOT NULL " +
-                "AND locator = " + volumeId);
+                "AND locator = " + volumeId + changed);
             if (!DebugConfig.disableMailboxGroups) {
                 stmt.setInt(1, mbox.getId());
                 stmt.setInt(2, mbox.getId());
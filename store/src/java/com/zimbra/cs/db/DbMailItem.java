@@ -2362,6 +2362,52 @@ public class DbMailItem {
         }
     }
 
+    /**
+     * Returns the children of all the given items, e.g. the messages of several conversations, in one query per
+     * {@link Db#getINClauseBatchSize()} parents. The rows come back in no particular order.
+     */
+    public static List<UnderlyingData> getByParents(Mailbox mbox, Collection<Integer> parentIds)
+            throws ServiceException {
+        List<UnderlyingData> result = new ArrayList<UnderlyingData>();
+        if (parentIds.isEmpty()) {
+            return result;
+        }
+
+        DbConnection conn = mbox.getOperationConnection();
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        Iterator<Integer> it = parentIds.iterator();
+        for (int i = 0; i < parentIds.size(); i += Db.getINClauseBatchSize()) {
+            try {
+                int count = Math.min(Db.getINClauseBatchSize(), parentIds.size() - i);
+                stmt = conn.prepareStatement("SELECT " + DB_FIELDS +
+                            " FROM " + getMailItemTableName(mbox, "mi") +
+                            " WHERE " + IN_THIS_MAILBOX_AND + DbUtil.whereIn("parent_id", count));
+                int pos = 1;
+                pos = setMailboxId(stmt, mbox, pos);
+                for (int index = i; index < i + count; index++) {
+                    stmt.setInt(pos++, it.next());
+                }
+
+                rs = stmt.executeQuery();
+                while (rs.next()) {
+                    UnderlyingData data = constructItem(rs);
+                    if (Mailbox.isCachedType(MailItem.Type.of(data.type))) {
+                        throw ServiceException.INVALID_REQUEST("folders and tags must be retrieved from cache", null);
+                    }
+                    result.add(data);
+                }
+            } catch (SQLException e) {
+                throw ServiceException.FAILURE("fetching children of " + parentIds.size() + " items: " +
+                        getIdListForLogging(parentIds), e);
+            } finally {
+                DbPool.closeResults(rs);
+                DbPool.closeStatement(stmt);
+            }
+        }
+        return result;
+    }
+
     public static List<UnderlyingData> getUnreadMessages(MailItem relativeTo) throws ServiceException {
         if (relativeTo instanceof Tag) {
             return DbTag.getUnreadMessages((Tag) relativeTo);
@@ -3739,6 +3785,50 @@ public class DbMailItem {
         }
     }
 
+    /**
+     * Returns up to {@code limit} blobs of the mailbox's items on a volume, in item ID order starting after
+     * {@code afterId}, skipping items dated {@code date} or later and items smaller than {@code minSize}.
+     * <p>
+     * Takes the mailbox's row rather than a loaded {@link Mailbox}, so that mailboxes with nothing to move never get
+     * loaded. No index covers the locator, date and size, so this walks the primary key from {@code afterId} and
+     * filters each row: a page costs the rows up to its last match, and a mailbox with no candidates is scanned once
+     * in full. Indexing {@code (mailbox_id, locator, date)} would need a schema upgrade for a background job that
+     * visits each mailbox once, and would slow every item insert and locator update.
+     */
+    public static List<MailboxBlob.MailboxBlobInfo> getBlobsToMove(DbConnection conn, Mailbox.MailboxData mbd,
+            short volumeId, int date, long minSize, int afterId, int limit) throws ServiceException {
+        List<MailboxBlob.MailboxBlobInfo> result = new ArrayList<MailboxBlob.MailboxBlobInfo>();
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            StringBuilder sql = new StringBuilder("SELECT id, mod_content, locator, blob_digest FROM ")
+                .append(getMailItemTableName(mbd.schemaGroupId, false))
+                .append(" WHERE ").append(IN_THIS_MAILBOX_AND).append("id > ? AND locator = ? AND date < ? AND size >= ?")
+                .append(" AND blob_digest IS NOT NULL ORDER BY id");
+            if (Db.supports(Db.Capability.LIMIT_CLAUSE)) {
+                sql.append(" ").append(Db.getInstance().limit(limit));
+            }
+            stmt = conn.prepareStatement(sql.toString());
+            int pos = 1;
+            pos = setMailboxId(stmt, mbd.id, pos);
+            stmt.setInt(pos++, afterId);
+            stmt.setString(pos++, Short.toString(volumeId));
+            stmt.setInt(pos++, date);
+            stmt.setLong(pos++, minSize);
+            rs = stmt.executeQuery();
+            while (rs.next() && result.size() < limit) {
+                result.add(new MailboxBlob.MailboxBlobInfo(mbd.accountId, mbd.id, rs.getInt(1), rs.getInt(2),
+                        rs.getString(3), rs.getString(4)));
+            }
+            return result;
+        } catch (SQLException e) {
+            throw ServiceException.FAILURE("fetching blobs to move for mailbox " + mbd.id, e);
+        } finally {
+            DbPool.closeResults(rs);
+            DbPool.closeStatement(stmt);
+        }
+    }
+
     private static void getAllBlobs(PreparedStatement stmt, int volumeId, int lastSyncDate, int currentSyncDate,
             SpoolingCache<MailboxBlob.MailboxBlobInfo> blobs) throws ServiceException, SQLException, IOException {
         ResultSet rs = null;
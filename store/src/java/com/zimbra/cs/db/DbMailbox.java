@@ -28,6 +28,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -832,16 +833,16 @@ public final class DbMailbox {
     }
 
     /**
-     * Returns IDs of mailboxes on which the last purge was run before the given time.
+     * Returns IDs of mailboxes on which the last purge was run before the given time, ordered by
+     * <code>last_purge_at</code> so that the least recently purged mailboxes come first.
      *
      * @param conn An open database connection.
      * @param time Cut-off time in milliseconds.
-     * @return A <code>Set</code> of mailbox IDs.
+     * @return A <code>Set</code> of mailbox IDs, in iteration order.
      * @throws ServiceException
      */
-
     public static Set<Integer> listPurgePendingMailboxes(DbConnection conn, long time) throws ServiceException {
-        Set<Integer> result = new HashSet<Integer>();
+        Set<Integer> result = new LinkedHashSet<Integer>();
         if (DebugConfig.externalMailboxDirectory) {
             return result;
         }
@@ -849,7 +850,7 @@ public final class DbMailbox {
         PreparedStatement stmt = null;
         ResultSet rs = null;
         try {
-            stmt = conn.prepareStatement("SELECT id FROM mailbox WHERE last_purge_at < ?");
+            stmt = conn.prepareStatement("SELECT id FROM mailbox WHERE last_purge_at < ? ORDER BY last_purge_at");
             int pos = 1;
             stmt.setInt(pos++, (int) (time / 1000));
             rs = stmt.executeQuery();
@@ -0,0 +1,325 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+
+package com.zimbra.cs.fb;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.fb.FreeBusy.FBInstance;
+import com.zimbra.cs.mailbox.CalendarItem;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.MailItem.Type;
+import com.zimbra.cs.mailbox.MailServiceException;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxListener;
+import com.zimbra.cs.mailbox.calendar.cache.CalSummaryCache;
+import com.zimbra.cs.mailbox.calendar.cache.CalendarItemData;
+import com.zimbra.cs.session.PendingModifications;
+import com.zimbra.cs.session.PendingModifications.Change;
+import com.zimbra.cs.session.PendingModifications.ModificationKey;
+
+/**
+ * Per-mailbox index of busy blocks, used by {@link LocalFreeBusyProvider} to answer free/busy
+ * queries without expanding and scanning every appointment.
+ * <p>
+ * Each indexed mailbox keeps a timeline covering a fixed window around the current day
+ * (<tt>freebusy_index_days_back</tt> days back, <tt>freebusy_index_days</tt> days in total).
+ * Appointments changed after the timeline was built are recorded by {@link Listener} and
+ * re-expanded on the next query, so the timeline never has to be rebuilt for ordinary changes.
+ * Queries for ranges outside the window return null and the caller falls back to the calendar
+ * summary path.
+ */
+public final class FreeBusyIndex {
+
+    private static final long MSEC_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private static final FreeBusyIndex sInstance = new FreeBusyIndex(LC.freebusy_index_lru_size.intValue());
+
+    public static FreeBusyIndex getInstance() {
+        return sInstance;
+    }
+
+    /** Busy blocks of one calendar folder, ordered by start time. */
+    static final class FolderTimeline {
+        private final TreeMap<Long, List<FBInstance>> mByStart = new TreeMap<Long, List<FBInstance>>();
+        private long mMaxDuration = 0;
+
+        void add(FBInstance inst) {
+            List<FBInstance> list = mByStart.get(inst.getStartTime());
+            if (list == null) {
+                list = new ArrayList<FBInstance>(1);
+                mByStart.put(inst.getStartTime(), list);
+            }
+            list.add(inst);
+            mMaxDuration = Math.max(mMaxDuration, inst.getEndTime() - inst.getStartTime());
+        }
+
+        void remove(FBInstance inst) {
+            List<FBInstance> list = mByStart.get(inst.getStartTime());
+            if (list != null) {
+                list.remove(inst);
+                if (list.isEmpty())
+                    mByStart.remove(inst.getStartTime());
+            }
+        }
+
+        /** Adds the blocks that overlap [start, end) to <tt>result</tt>. */
+        void collect(long start, long end, List<FBInstance> result) {
+            // No block is longer than mMaxDuration, so anything starting earlier can't reach start.
+            long from = start - mMaxDuration;
+            for (List<FBInstance> list : mByStart.subMap(from, true, end, false).values()) {
+                for (FBInstance inst : list) {
+                    if (inst.getEndTime() > start)
+                        result.add(inst);
+                }
+            }
+        }
+
+        boolean isEmpty() {
+            return mByStart.isEmpty();
+        }
+    }
+
+    static final class MailboxTimeline {
+        final long mRangeStart;
+        final long mRangeEnd;
+        private final Map<Integer /* folder id */, FolderTimeline> mFolders = new HashMap<Integer, FolderTimeline>();
+        private final Map<Integer /* appt id */, Integer /* folder id */> mApptFolder = new HashMap<Integer, Integer>();
+        private final Map<Integer /* appt id */, List<FBInstance>> mApptBlocks = new HashMap<Integer, List<FBInstance>>();
+        private final Set<Integer> mStaleAppts = new HashSet<Integer>();
+        private boolean mInvalid = false;
+
+        MailboxTimeline(long rangeStart, long rangeEnd) {
+            mRangeStart = rangeStart;
+            mRangeEnd = rangeEnd;
+        }
+
+        void put(int apptId, int folderId, List<FBInstance> blocks) {
+            remove(apptId);
+            if (blocks.isEmpty())
+                return;
+            FolderTimeline timeline = mFolders.get(folderId);
+            if (timeline == null) {
+                timeline = new FolderTimeline();
+                mFolders.put(folderId, timeline);
+            }
+            for (FBInstance inst : blocks) {
+                timeline.add(inst);
+            }
+            mApptFolder.put(apptId, folderId);
+            mApptBlocks.put(apptId, blocks);
+        }
+
+        void remove(int apptId) {
+            Integer folderId = mApptFolder.remove(apptId);
+            List<FBInstance> blocks = mApptBlocks.remove(apptId);
+            if (folderId == null || blocks == null)
+                return;
+            FolderTimeline timeline = mFolders.get(folderId);
+            if (timeline != null) {
+                for (FBInstance inst : blocks) {
+                    timeline.remove(inst);
+                }
+                if (timeline.isEmpty())
+                    mFolders.remove(folderId);
+            }
+        }
+
+        void markStale(int apptId) {
+            if (mStaleAppts.size() >= LC.freebusy_index_max_stale_items.intValue()) {
+                mInvalid = true;
+            } else {
+                mStaleAppts.add(apptId);
+            }
+        }
+
+        Map<Integer, List<FBInstance>> collect(long start, long end, int folderId) {
+            Map<Integer, List<FBInstance>> result = new HashMap<Integer, List<FBInstance>>();
+            for (Map.Entry<Integer, FolderTimeline> entry : mFolders.entrySet()) {
+                if (folderId != FreeBusyQuery.CALENDAR_FOLDER_ALL && folderId != entry.getKey())
+                    continue;
+                List<FBInstance> blocks = new ArrayList<FBInstance>();
+                entry.getValue().collect(start, end, blocks);
+                if (!blocks.isEmpty())
+                    result.put(entry.getKey(), blocks);
+            }
+            return result;
+        }
+    }
+
+    private final Map<String /* account id */, MailboxTimeline> mTimelines;
+    private final int mCapacity;
+
+    FreeBusyIndex(final int capacity) {
+        mCapacity = capacity;
+        mTimelines = new LinkedHashMap<String, MailboxTimeline>(Math.max(capacity, 1) + 1, 1.0f, true) {
+            private static final long serialVersionUID = -4133620585385009418L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MailboxTimeline> eldest) {
+                return size() > mCapacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the busy blocks overlapping [start, end), grouped by calendar folder id, or null if
+     * the index is disabled or doesn't cover the requested range.  The caller must hold the
+     * mailbox lock.  Folder-level filtering (trash, views, access) is left to the caller.
+     *
+     * @param folderId folder to look at, or {@link FreeBusyQuery#CALENDAR_FOLDER_ALL}
+     */
+    public Map<Integer, List<FBInstance>> getBusyInstances(Mailbox mbox, long start, long end, int folderId)
+    throws ServiceException {
+        if (mCapacity <= 0 || !LC.calendar_cache_enabled.booleanValue())
+            return null;
+
+        long rangeStart = (System.currentTimeMillis() / MSEC_PER_DAY - LC.freebusy_index_days_back.intValue()) *
+                MSEC_PER_DAY;
+        long rangeEnd = rangeStart + LC.freebusy_index_days.intValue() * MSEC_PER_DAY;
+        if (start < rangeStart || end > rangeEnd)
+            return null;
+
+        MailboxTimeline timeline = get(mbox.getAccountId());
+        if (timeline != null) {
+            synchronized (timeline) {
+                if (!timeline.mInvalid && timeline.mRangeStart == rangeStart) {
+                    if (!timeline.mStaleAppts.isEmpty())
+                        refresh(mbox, timeline);
+                    return timeline.collect(start, end, folderId);
+                }
+            }
+        }
+
+        // Commits need the mailbox write lock, so nothing can change underneath the build.
+        timeline = build(mbox, rangeStart, rangeEnd);
+        synchronized (mTimelines) {
+            mTimelines.put(mbox.getAccountId(), timeline);
+        }
+        synchronized (timeline) {
+            return timeline.collect(start, end, folderId);
+        }
+    }
+
+    private MailboxTimeline build(Mailbox mbox, long rangeStart, long rangeEnd) throws ServiceException {
+        long startTime = System.currentTimeMillis();
+        MailboxTimeline timeline = new MailboxTimeline(rangeStart, rangeEnd);
+        List<CalendarItem> calItems = mbox.getCalendarItemsForRange(null, MailItem.Type.APPOINTMENT,
+                rangeStart, rangeEnd, Mailbox.ID_AUTO_INCREMENT, null);
+        for (CalendarItem calItem : calItems) {
+            index(timeline, calItem);
+        }
+        ZimbraLog.fb.debug("built free/busy index for mailbox %d: %d appointments in %dms",
+                mbox.getId(), calItems.size(), System.currentTimeMillis() - startTime);
+        return timeline;
+    }
+
+    private void refresh(Mailbox mbox, MailboxTimeline timeline) throws ServiceException {
+        for (int apptId : timeline.mStaleAppts) {
+            timeline.remove(apptId);
+            try {
+                CalendarItem calItem = mbox.getCalendarItemById(null, apptId);
+                if (calItem.getType() == MailItem.Type.APPOINTMENT && calItem.inMailbox())
+                    index(timeline, calItem);
+            } catch (MailServiceException.NoSuchItemException e) {
+                // deleted since it was marked stale
+            }
+        }
+        timeline.mStaleAppts.clear();
+    }
+
+    private static void index(MailboxTimeline timeline, CalendarItem calItem) throws ServiceException {
+        CalendarItemData data = CalSummaryCache.reloadCalendarItemOverRange(calItem, timeline.mRangeStart,
+                timeline.mRangeEnd);
+        if (data == null)
+            return;
+        List<FBInstance> blocks = new ArrayList<FBInstance>();
+        LocalFreeBusyProvider.collectBusyInstances(data, timeline.mRangeEnd, blocks);
+        timeline.put(calItem.getId(), calItem.getFolderId(), blocks);
+    }
+
+    private MailboxTimeline get(String accountId) {
+        synchronized (mTimelines) {
+            return mTimelines.get(accountId);
+        }
+    }
+
+    public void purgeMailbox(Mailbox mbox) {
+        synchronized (mTimelines) {
+            mTimelines.remove(mbox.getAccountId());
+        }
+    }
+
+    int size() {
+        synchronized (mTimelines) {
+            return mTimelines.size();
+        }
+    }
+
+    /**
+     * Marks appointments created, changed or deleted in committed transactions as stale in the
+     * timeline of their mailbox.  Re-expansion is left to the next query, off the commit path.
+     */
+    public static class Listener extends MailboxListener {
+
+        private static final Set<Type> TYPES = EnumSet.of(MailItem.Type.APPOINTMENT);
+
+        @Override
+        public void notify(ChangeNotification notification) {
+            MailboxTimeline timeline = getInstance().get(notification.mailboxAccount.getId());
+            if (timeline == null)
+                return;
+            PendingModifications mods = notification.mods;
+            synchronized (timeline) {
+                if (mods.created != null) {
+                    for (MailItem item : mods.created.values()) {
+                        if (item instanceof CalendarItem)
+                            timeline.markStale(item.getId());
+                    }
+                }
+                if (mods.modified != null) {
+                    for (Map.Entry<ModificationKey, Change> entry : mods.modified.entrySet()) {
+                        if (entry.getValue().what instanceof CalendarItem)
+                            timeline.markStale(entry.getKey().getItemId());
+                    }
+                }
+                if (mods.deleted != null) {
+                    for (Map.Entry<ModificationKey, Change> entry : mods.deleted.entrySet()) {
+                        if (entry.getValue().what == MailItem.Type.APPOINTMENT)
+                            timeline.markStale(entry.getKey().getItemId());
+                    }
+                }
+            }
+        }
+
+        @Override
+        public Set<Type> registerForItemTypes() {
+            return TYPES;
+        }
+    }
+}
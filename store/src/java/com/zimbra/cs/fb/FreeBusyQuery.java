@@ -19,18 +19,18 @@ package com.zimbra.cs.fb;
 import java.util.Collection;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 
 import javax.servlet.http.HttpServletRequest;
 
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.soap.Element;
+import com.zimbra.common.util.Pair;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.account.Account;
 import com.zimbra.cs.account.GuestAccount;
 import com.zimbra.cs.account.Provisioning;
 import com.zimbra.common.account.Key.AccountBy;
-import com.zimbra.cs.mailbox.Appointment;
-import com.zimbra.cs.mailbox.CalendarItem;
 import com.zimbra.cs.mailbox.Mailbox;
 import com.zimbra.cs.mailbox.MailboxManager;
 import com.zimbra.cs.mailbox.OperationContext;
@@ -113,6 +113,8 @@ public class FreeBusyQuery {
     }
     
     private void prepareRequests(ArrayList<FreeBusy> local, RemoteFreeBusyProvider remote, ArrayList<String> external) {
+        // Local targets are collected and answered in one batch with a shared operation context.
+        LinkedHashMap<String, Pair<Mailbox, Integer>> localTargets = new LinkedHashMap<String, Pair<Mailbox, Integer>>();
     	for (String id : mTargets.keySet()) {
     		Account acct = mTargets.get(id);
     		try {
@@ -125,20 +127,7 @@ public class FreeBusyQuery {
     		
         		if (Provisioning.onLocalServer(acct)) {
         		    Mailbox mbox = MailboxManager.getInstance().getMailboxByAccount(acct);
-        		    OperationContext octxt = null;
-        		    if (mCtxt != null && mCtxt.getAuthToken() != null)
-        		        octxt = new OperationContext(mCtxt.getAuthToken());
-        		    else if (mRequestor != null)
-        		        octxt = new OperationContext(mRequestor);
-        		    else
-        		        octxt = new OperationContext(GuestAccount.ANONYMOUS_ACCT);
-                    Appointment exAppt = null;
-                    if (mExApptUid != null) {
-                        CalendarItem ci = mbox.getCalendarItemByUid(octxt, mExApptUid);
-                        if (ci instanceof Appointment)
-                            exAppt = (Appointment) ci;
-                    }
-        		    local.add(mbox.getFreeBusy(octxt, id, mStart, mEnd, folder, exAppt));
+        		    localTargets.put(id, new Pair<Mailbox, Integer>(mbox, folder));
         		} else {
         			remote.addFreeBusyRequest(mRequestor, acct, id, mStart, mEnd, folder);
         		}
@@ -146,6 +135,16 @@ public class FreeBusyQuery {
                 ZimbraLog.fb.error("cannot get free/busy for "+id, e);
     		}
     	}
+        if (!localTargets.isEmpty()) {
+            OperationContext octxt = null;
+            if (mCtxt != null && mCtxt.getAuthToken() != null)
+                octxt = new OperationContext(mCtxt.getAuthToken());
+            else if (mRequestor != null)
+                octxt = new OperationContext(mRequestor);
+            else
+                octxt = new OperationContext(GuestAccount.ANONYMOUS_ACCT);
+            local.addAll(LocalFreeBusyProvider.getFreeBusyLists(octxt, localTargets, mStart, mEnd, mExApptUid));
+        }
     }
     
     private int getHopcount() {        
@@ -17,11 +17,19 @@
 package com.zimbra.cs.fb;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.Pair;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.account.AccessManager;
 import com.zimbra.cs.account.Account;
@@ -29,6 +37,7 @@ import com.zimbra.cs.account.accesscontrol.Rights.User;
 import com.zimbra.cs.fb.FreeBusy.FBInstance;
 import com.zimbra.cs.fb.FreeBusy.Interval;
 import com.zimbra.cs.fb.FreeBusy.IntervalList;
+import com.zimbra.cs.index.SortBy;
 import com.zimbra.cs.mailbox.Appointment;
 import com.zimbra.cs.mailbox.CalendarItem;
 import com.zimbra.cs.mailbox.Flag;
@@ -36,6 +45,7 @@ import com.zimbra.cs.mailbox.Folder;
 import com.zimbra.cs.mailbox.MailItem;
 import com.zimbra.cs.mailbox.Mailbox;
 import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.OperationContext;
 import com.zimbra.cs.mailbox.calendar.IcalXmlStrMap;
 import com.zimbra.cs.mailbox.calendar.cache.CalSummaryCache.CalendarDataResult;
 import com.zimbra.cs.mailbox.calendar.cache.CalendarItemData;
@@ -57,89 +67,184 @@ public class LocalFreeBusyProvider {
      */
     public static FreeBusy getFreeBusyList(
             Account authAcct, boolean asAdmin, Mailbox mbox, String name, long start, long end, int folder, Appointment exAppt)
+    throws ServiceException {
+        return getFreeBusyLists(authAcct, asAdmin, mbox, Collections.singletonMap(name, folder), start, end,
+                exAppt).get(0);
+    }
+
+    /**
+     * Computes free/busy for several names backed by the same mailbox in one pass: the access check, the
+     * busy timeline lookup and the calendar summaries are shared by all of them.  The caller must hold the
+     * mailbox lock.
+     *
+     * @param folders map of name to the folder to run free/busy search on, or FreeBusyQuery.CALENDAR_FOLDER_ALL
+     * @param exAppt appointment to exclude, or null
+     * @return free/busy for each name, in the order of <tt>folders</tt>
+     */
+    public static List<FreeBusy> getFreeBusyLists(Account authAcct, boolean asAdmin, Mailbox mbox,
+            Map<String, Integer> folders, long start, long end, Appointment exAppt)
     throws ServiceException {
         AccessManager accessMgr = AccessManager.getInstance();
         boolean accountAceAllowed = accessMgr.canDo(authAcct, mbox.getAccount(), User.R_viewFreeBusy, asAdmin);
-        int numAllowedFolders = 0;
-
         int exApptId = exAppt == null ? -1 : exAppt.getId();
+        List<FreeBusy> toRet = new ArrayList<FreeBusy>(folders.size());
 
-        IntervalList intervals = new IntervalList(start, end);
-
-        List<CalendarDataResult> calDataResultList;
-        if (folder == FreeBusyQuery.CALENDAR_FOLDER_ALL) {
-            calDataResultList = mbox.getAllCalendarsSummaryForRange(null, MailItem.Type.APPOINTMENT, start, end);
-        } else {
-            calDataResultList = new ArrayList<CalendarDataResult>(1);
-            calDataResultList.add(mbox.getCalendarSummaryForRange(null, folder, MailItem.Type.APPOINTMENT, start, end));
-        }
-        for (CalendarDataResult result : calDataResultList) {
-            int folderId = result.data.getFolderId();
-            Folder f = mbox.getFolderById(null, folderId);
-            if ((f.getFlagBitmask() & Flag.BITMASK_EXCLUDE_FREEBUSY) != 0) {
-                ZimbraLog.fb.debug("Calendar '%s' id=%s ignored - has EXCLUDE_FREEBUSY flag set", f.getName(), folderId);
-                continue;
+        // Answer from the busy timeline index when it covers the requested range.
+        Set<Integer> distinct = new HashSet<Integer>(folders.values());
+        int indexFolder = distinct.size() == 1 ? distinct.iterator().next() : FreeBusyQuery.CALENDAR_FOLDER_ALL;
+        Map<Integer, List<FBInstance>> indexed = FreeBusyIndex.getInstance().getBusyInstances(mbox, start, end,
+                indexFolder);
+        if (indexed != null) {
+            List<Folder> calendars = null;
+            for (Map.Entry<String, Integer> target : folders.entrySet()) {
+                int folder = target.getValue();
+                List<Folder> searched;
+                if (folder == FreeBusyQuery.CALENDAR_FOLDER_ALL) {
+                    if (calendars == null) {
+                        calendars = new ArrayList<Folder>();
+                        for (Folder f : mbox.getFolderList(null, SortBy.NONE)) {
+                            if (!f.inTrash() && !f.inSpam() && f.getDefaultView() == MailItem.Type.APPOINTMENT)
+                                calendars.add(f);
+                        }
+                    }
+                    searched = calendars;
+                } else {
+                    searched = Collections.singletonList(mbox.getFolderById(null, folder));
+                }
+                IntervalList intervals = new IntervalList(start, end);
+                int numAllowedFolders = 0;
+                for (Folder f : searched) {
+                    Boolean allowed = isFolderIncluded(f, authAcct, asAdmin, accountAceAllowed);
+                    if (allowed == null)
+                        continue;
+                    if (allowed)
+                        ++numAllowedFolders;
+                    List<FBInstance> busy = indexed.get(f.getId());
+                    if (busy == null)
+                        continue;
+                    for (FBInstance fbInst : busy) {
+                        if (fbInst.getApptId() != exApptId)
+                            intervals.addInterval(new Interval(fbInst.getStartTime(), fbInst.getEndTime(),
+                                    fbInst.getFreeBusy(), fbInst));
+                    }
+                }
+                toRet.add(finish(target.getKey(), intervals, start, end, accountAceAllowed, numAllowedFolders));
             }
-            // Free/busy must be allowed by folder or at account-level.
-            boolean folderFBAllowed = CalendarItem.allowFreeBusyAccess(f, authAcct, asAdmin);
-            if (folderFBAllowed)
-                ++numAllowedFolders;
-            if (!folderFBAllowed && !accountAceAllowed) {
-                ZimbraLog.fb.debug("Calendar '%s' id=%s ignored - folderFBAllowed=%s accountAceAllowed=%s",
-                        f.getName(), folderId, folderFBAllowed, accountAceAllowed);
-                continue;
+            return toRet;
+        }
+
+        Map<Integer, List<CalendarDataResult>> summaries = new HashMap<Integer, List<CalendarDataResult>>();
+        List<FBInstance> busy = new ArrayList<FBInstance>();
+        for (Map.Entry<String, Integer> target : folders.entrySet()) {
+            int folder = target.getValue();
+            List<CalendarDataResult> calDataResultList = summaries.get(folder);
+            if (calDataResultList == null) {
+                if (folder == FreeBusyQuery.CALENDAR_FOLDER_ALL) {
+                    calDataResultList = mbox.getAllCalendarsSummaryForRange(null, MailItem.Type.APPOINTMENT, start, end);
+                } else {
+                    calDataResultList = new ArrayList<CalendarDataResult>(1);
+                    calDataResultList.add(mbox.getCalendarSummaryForRange(null, folder, MailItem.Type.APPOINTMENT,
+                            start, end));
+                }
+                summaries.put(folder, calDataResultList);
             }
-            for (Iterator<CalendarItemData> iter = result.data.calendarItemIterator(); iter.hasNext(); ) {
-                CalendarItemData appt = iter.next();
-                int apptId = appt.getCalItemId();
-                if (apptId == exApptId)
-                    continue;
-                FullInstanceData defaultInstance = appt.getDefaultData();
-                if (defaultInstance == null)
+            IntervalList intervals = new IntervalList(start, end);
+            int numAllowedFolders = 0;
+            for (CalendarDataResult result : calDataResultList) {
+                int folderId = result.data.getFolderId();
+                Folder f = mbox.getFolderById(null, folderId);
+                Boolean allowed = isFolderIncluded(f, authAcct, asAdmin, accountAceAllowed);
+                if (allowed == null)
                     continue;
-                boolean isTransparent = false;
-                String transp = defaultInstance.getTransparency();
-                isTransparent = IcalXmlStrMap.TRANSP_TRANSPARENT.equals(transp);
-                long defaultDuration = 0;
-                if (defaultInstance.getDuration() != null)
-                    defaultDuration = defaultInstance.getDuration().longValue();
-                String defaultFreeBusy = defaultInstance.getFreeBusyActual();
-                for (Iterator<InstanceData> instIter = appt.instanceIterator(); instIter.hasNext(); ) {
-                    InstanceData instance = instIter.next();
-                    long instStart = instance.getDtStart() != null ? instance.getDtStart().longValue() : 0;
-                    // Skip instances that are outside the time range but were returned due to alarm being in range.
-                    if (instStart >= end)
-                        continue;
-                    long dur = defaultDuration;
-                    if (instance.getDuration() != null)
-                        dur = instance.getDuration().longValue();
-                    if (dur <= 0)  // Only consider instances with non-zero, positive duration.
-                        continue;
-                    long instEnd = instStart + dur;
-
-                    long recurIdDt = 0;
-                    // Skip if instance is TRANSPARENT to free/busy searches.
-                    if (instance instanceof FullInstanceData) {
-                        FullInstanceData fullInst = (FullInstanceData) instance;
-                        String transpInst = fullInst.getTransparency();
-                        recurIdDt = fullInst.getRecurrenceId();
-                        if (IcalXmlStrMap.TRANSP_TRANSPARENT.equals(transpInst))
-                            continue;
-                    } else if (isTransparent) {
+                if (allowed)
+                    ++numAllowedFolders;
+                for (Iterator<CalendarItemData> iter = result.data.calendarItemIterator(); iter.hasNext(); ) {
+                    CalendarItemData appt = iter.next();
+                    if (appt.getCalItemId() == exApptId)
                         continue;
+                    busy.clear();
+                    collectBusyInstances(appt, end, busy);
+                    for (FBInstance fbInst : busy) {
+                        intervals.addInterval(new Interval(fbInst.getStartTime(), fbInst.getEndTime(),
+                                fbInst.getFreeBusy(), fbInst));
                     }
+                }
+            }
+            toRet.add(finish(target.getKey(), intervals, start, end, accountAceAllowed, numAllowedFolders));
+        }
+        return toRet;
+    }
 
-                    String freeBusy = instance.getFreeBusyActual();
-                    if (freeBusy == null)
-                        freeBusy = defaultFreeBusy;
-                    if (!IcalXmlStrMap.FBTYPE_FREE.equals(freeBusy)) {
-                        FBInstance fbInst = new FBInstance(freeBusy, instStart, instEnd, apptId, recurIdDt);
-                        Interval ival = new Interval(instStart, instEnd, freeBusy, fbInst);
-                        intervals.addInterval(ival);
-                    }
+    /**
+     * Computes free/busy for several local mailboxes, sharing the requestor's access context.  The
+     * targets are grouped by mailbox, so that each mailbox is locked and read once no matter how many
+     * targets it backs.  Targets whose free/busy can't be computed are logged and left out.
+     *
+     * @param targets map of target name to (mailbox, calendar folder id)
+     * @param exApptUid UID of the appointment to exclude in each mailbox, or null
+     */
+    public static List<FreeBusy> getFreeBusyLists(OperationContext octxt, Map<String, Pair<Mailbox, Integer>> targets,
+            long start, long end, String exApptUid) {
+        Map<Mailbox, Map<String, Integer>> byMailbox = new LinkedHashMap<Mailbox, Map<String, Integer>>();
+        for (Map.Entry<String, Pair<Mailbox, Integer>> entry : targets.entrySet()) {
+            Mailbox mbox = entry.getValue().getFirst();
+            Map<String, Integer> folders = byMailbox.get(mbox);
+            if (folders == null) {
+                folders = new LinkedHashMap<String, Integer>();
+                byMailbox.put(mbox, folders);
+            }
+            folders.put(entry.getKey(), entry.getValue().getSecond());
+        }
+
+        Map<String, FreeBusy> results = new HashMap<String, FreeBusy>(targets.size() * 2);
+        for (Map.Entry<Mailbox, Map<String, Integer>> entry : byMailbox.entrySet()) {
+            Mailbox mbox = entry.getKey();
+            try {
+                Appointment exAppt = null;
+                if (exApptUid != null) {
+                    CalendarItem ci = mbox.getCalendarItemByUid(octxt, exApptUid);
+                    if (ci instanceof Appointment)
+                        exAppt = (Appointment) ci;
+                }
+                for (FreeBusy fb : mbox.getFreeBusy(octxt, entry.getValue(), start, end, exAppt)) {
+                    results.put(fb.getName(), fb);
                 }
+            } catch (ServiceException e) {
+                ZimbraLog.fb.error("cannot get free/busy for " + entry.getValue().keySet(), e);
             }
         }
+
+        List<FreeBusy> toRet = new ArrayList<FreeBusy>(results.size());
+        for (String name : targets.keySet()) {
+            FreeBusy fb = results.get(name);
+            if (fb != null)
+                toRet.add(fb);
+        }
+        return toRet;
+    }
+
+    /**
+     * Returns null if the folder must be ignored for free/busy, otherwise whether free/busy is
+     * allowed by the folder itself (as opposed to the account-level right).
+     */
+    private static Boolean isFolderIncluded(Folder f, Account authAcct, boolean asAdmin, boolean accountAceAllowed) {
+        int folderId = f.getId();
+        if ((f.getFlagBitmask() & Flag.BITMASK_EXCLUDE_FREEBUSY) != 0) {
+            ZimbraLog.fb.debug("Calendar '%s' id=%s ignored - has EXCLUDE_FREEBUSY flag set", f.getName(), folderId);
+            return null;
+        }
+        // Free/busy must be allowed by folder or at account-level.
+        boolean folderFBAllowed = CalendarItem.allowFreeBusyAccess(f, authAcct, asAdmin);
+        if (!folderFBAllowed && !accountAceAllowed) {
+            ZimbraLog.fb.debug("Calendar '%s' id=%s ignored - folderFBAllowed=%s accountAceAllowed=%s",
+                    f.getName(), folderId, folderFBAllowed, accountAceAllowed);
+            return null;
+        }
+        return folderFBAllowed;
+    }
+
+    private static FreeBusy finish(String name, IntervalList intervals, long start, long end,
+            boolean accountAceAllowed, int numAllowedFolders) {
         if (!accountAceAllowed && numAllowedFolders == 0 && !LC.freebusy_disable_nodata_status.booleanValue()) {
             Interval nodata = new Interval(start, end, IcalXmlStrMap.FBTYPE_NODATA);
             intervals.addInterval(nodata);
@@ -147,6 +252,55 @@ public class LocalFreeBusyProvider {
         return new FreeBusy(name, intervals, start, end);
     }
 
+    /**
+     * Adds the busy (non-free, non-transparent, positive duration) instances of an appointment
+     * that start before <tt>end</tt> to <tt>busy</tt>.
+     */
+    static void collectBusyInstances(CalendarItemData appt, long end, Collection<FBInstance> busy) {
+        int apptId = appt.getCalItemId();
+        FullInstanceData defaultInstance = appt.getDefaultData();
+        if (defaultInstance == null)
+            return;
+        boolean isTransparent = false;
+        String transp = defaultInstance.getTransparency();
+        isTransparent = IcalXmlStrMap.TRANSP_TRANSPARENT.equals(transp);
+        long defaultDuration = 0;
+        if (defaultInstance.getDuration() != null)
+            defaultDuration = defaultInstance.getDuration().longValue();
+        String defaultFreeBusy = defaultInstance.getFreeBusyActual();
+        for (Iterator<InstanceData> instIter = appt.instanceIterator(); instIter.hasNext(); ) {
+            InstanceData instance = instIter.next();
+            long instStart = instance.getDtStart() != null ? instance.getDtStart().longValue() : 0;
+            // Skip instances that are outside the time range but were returned due to alarm being in range.
+            if (instStart >= end)
+                continue;
+            long dur = defaultDuration;
+            if (instance.getDuration() != null)
+                dur = instance.getDuration().longValue();
+            if (dur <= 0)  // Only consider instances with non-zero, positive duration.
+                continue;
+            long instEnd = instStart + dur;
+
+            long recurIdDt = 0;
+            // Skip if instance is TRANSPARENT to free/busy searches.
+            if (instance instanceof FullInstanceData) {
+                FullInstanceData fullInst = (FullInstanceData) instance;
+                String transpInst = fullInst.getTransparency();
+                recurIdDt = fullInst.getRecurrenceId();
+                if (IcalXmlStrMap.TRANSP_TRANSPARENT.equals(transpInst))
+                    continue;
+            } else if (isTransparent) {
+                continue;
+            }
+
+            String freeBusy = instance.getFreeBusyActual();
+            if (freeBusy == null)
+                freeBusy = defaultFreeBusy;
+            if (!IcalXmlStrMap.FBTYPE_FREE.equals(freeBusy))
+                busy.add(new FBInstance(freeBusy, instStart, instEnd, apptId, recurIdDt));
+        }
+    }
+
     public static void main(String[] args) {
         IntervalList l = new IntervalList(0, 100);
         Interval toAdd;
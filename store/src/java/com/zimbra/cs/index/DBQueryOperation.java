@@ -33,6 +33,7 @@ import org.apache.lucene.index.Term;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.Closeables;
+import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.db.Db;
@@ -57,6 +58,7 @@ import com.zimbra.cs.service.util.ItemId;
  */
 public class DBQueryOperation extends QueryOperation {
     private static final int MAX_HITS_PER_CHUNK = 2000;
+    private static final boolean INDEX_RANGE_FILTER = LC.search_index_range_filter_enabled.booleanValue();
 
     private DbSearchConstraints constraints = new DbSearchConstraints.Leaf();
     private int hitsOffset = 0; // this is the logical offset of the end of the mDBHits buffer
@@ -515,6 +517,9 @@ public class DBQueryOperation extends QueryOperation {
                             executeMode = QueryExecuteMode.DB_FIRST;
                         } else {
                             executeMode = QueryExecuteMode.LUCENE_FIRST;
+                            if (INDEX_RANGE_FILTER) {
+                                addIndexRangeFilters();
+                            }
                         }
                     }
 
@@ -761,6 +766,34 @@ public class DBQueryOperation extends QueryOperation {
         } while (dbHits.size() ==0 && !endOfHits);
     }
 
+    /**
+     * Pushes the top level size constraints down into the index search, so that index hits which the DB join would
+     * throw away anyway never make it into the IN clause. Every index document carries its item's size (see
+     * {@link IndexStore#setFields}), and the top leaf is ANDed with the rest of the constraints, so its positive
+     * ranges are necessary conditions. The DB join still applies them; this only shrinks the candidate set. Date,
+     * folder, tag and flag constraints are left to the DB since those change without the item being re-indexed.
+     */
+    private void addIndexRangeFilters() {
+        DbSearchConstraints.Leaf top = getTopLeafConstraint();
+        for (DbSearchConstraints.Range r : top.ranges.get(DbSearchConstraints.RangeType.SIZE)) {
+            DbSearchConstraints.NumericRange range = (DbSearchConstraints.NumericRange) r;
+            if (!range.bool) {
+                continue;
+            }
+            Long min = null;
+            Long max = null;
+            if (range.min >= 0) {
+                min = range.minInclusive ? range.min : range.min + 1;
+            }
+            if (range.max >= 0) {
+                max = range.maxInclusive ? range.max : range.max - 1;
+            }
+            if (min != null || max != null) {
+                luceneOp.addSizeRangeFilter(min, max);
+            }
+        }
+    }
+
     private void luceneFirstGetNextChunk(SortBy sort) throws ServiceException {
         // do the Lucene op first, pass results to DB op
         do {
@@ -18,16 +18,22 @@
 package com.zimbra.cs.index;
 
 import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.mailbox.Conversation;
 import com.zimbra.cs.mailbox.Mailbox;
 import com.zimbra.cs.mailbox.OperationContext;
 import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.stats.ZimbraPerf;
+
+import java.io.IOException;
 import java.util.*;
 
 /**
  * This Grouper buffers a "chunk" of hits, pre-loading their MailItem objects from the DB.
  *
  * This is done so that we can lower the number of SELECT calls to the DB by batch-fetching the Message objects from the
- * store.
+ * store. For conversation hits, the messages of all the conversations in the chunk are loaded in one batch as well,
+ * as encoding a conversation hit lists its messages.
  *
  * @author tim
  */
@@ -36,6 +42,10 @@ final class ItemPreloadingGrouper extends BufferingResultsGrouper {
     private final int chunkSize;
     private final boolean inDumpster;
     private final OperationContext opContext;
+    private int itemBatches = 0;
+    private int items = 0;
+    private int convBatches = 0;
+    private int convs = 0;
 
     ItemPreloadingGrouper(ZimbraQueryResults results, int chunkSize, Mailbox mbox, boolean inDumpster) {
         super(results);
@@ -101,6 +111,33 @@ final class ItemPreloadingGrouper extends BufferingResultsGrouper {
                     hits.get(i).setItem(items[i]);
                 }
             }
+            ZimbraPerf.COUNTER_SEARCH_HYDRATE.increment(numToLoad);
+            itemBatches++;
+            this.items += numToLoad;
+        }
+
+        if (!inDumpster) {
+            List<Conversation> toPrefetch = new ArrayList<Conversation>();
+            for (ZimbraHit hit : hits) {
+                if (hit instanceof ConversationHit && hit.itemIsLoaded()) {
+                    toPrefetch.add(((ConversationHit) hit).getConversation());
+                }
+            }
+            if (!toPrefetch.isEmpty()) {
+                int loaded = mbox.prefetchMessagesByConversation(opContext, toPrefetch);
+                if (loaded > 0) {
+                    ZimbraPerf.COUNTER_SEARCH_CONV_PREFETCH.increment(loaded);
+                    convBatches++;
+                    convs += loaded;
+                }
+            }
         }
     }
+
+    @Override
+    public void close() throws IOException {
+        ZimbraLog.search.debug("SearchHydrate batches=%d,items=%d,convBatches=%d,convs=%d",
+                itemBatches, items, convBatches, convs);
+        super.close();
+    }
 }
@@ -0,0 +1,251 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+
+package com.zimbra.cs.index;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TopFieldDocs;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.util.ZimbraLog;
+
+/**
+ * Searches a mailbox index segment by segment in date order, treating each segment as a time shard.
+ * <p>
+ * New items are flushed into small new segments, and merges combine older segments into bigger ones, so the segments
+ * of a mailbox index already partition it by time: a small hot segment for recent mail and large sealed ones for
+ * older mail. The date span of each segment comes from the {@link FieldCache} entry that sorting by date loads anyway,
+ * and is kept as long as the segment is. A date sorted search visits the segments newest (or oldest) first, and stops
+ * once it has enough hits that no remaining segment can beat.
+ * <p>
+ * Segments are never skipped for a date range: the indexed date goes stale when an item's date changes without a
+ * reindex, so date constraints are left to the database.
+ * <p>
+ * When a search stops early, the total hit count includes the document count of each unvisited segment, so it is an
+ * upper bound rather than exact, and is marked {@link ZimbraTopDocs#isTotalHitsEstimated() estimated}. Callers that
+ * page further must stop at the end of the returned hits, and callers that need the exact count must count it.
+ */
+final class LuceneDateShards {
+    private static final Cache<Object, Span> SPANS = CacheBuilder.newBuilder().weakKeys().build();
+
+    private LuceneDateShards() {
+    }
+
+    /**
+     * Returns true if the search can be run shard by shard.
+     */
+    static boolean isApplicable(IndexSearcher searcher, Sort sort) {
+        if (!LC.zimbra_index_lucene_date_shards_enabled.booleanValue() || sort == null) {
+            return false;
+        }
+        SortField[] fields = sort.getSort();
+        return fields.length == 1 && fields[0].getType() == SortField.STRING &&
+                LuceneFields.L_SORT_DATE.equals(fields[0].getField()) && searcher.getSubReaders().length > 1;
+    }
+
+    /**
+     * Same as {@link IndexSearcher#search(Query, Filter, int, Sort)}, except that the total hit count is an upper bound
+     * if the search stopped early.
+     */
+    static ZimbraTopFieldDocs search(IndexSearcher searcher, Query query, Filter filter, int n, Sort sort)
+            throws IOException {
+        SortField field = sort.getSort()[0];
+        boolean reverse = field.getReverse();
+        IndexReader[] readers = searcher.getSubReaders();
+        List<Shard> shards = Lists.newArrayListWithCapacity(readers.length);
+        int docBase = 0;
+        for (IndexReader reader : readers) {
+            shards.add(new Shard(reader, docBase, getSpan(reader)));
+            docBase += reader.maxDoc();
+        }
+        Collections.sort(shards, reverse ? Shard.NEWEST_FIRST : Shard.OLDEST_FIRST);
+
+        Comparator<FieldDoc> order = new HitOrder(reverse);
+        List<FieldDoc> hits = Lists.newArrayList();
+        long total = 0;
+        int visited = 0;
+        for (Shard shard : shards) {
+            if (hits.size() >= n && !shard.span.canBeat(hits.get(n - 1), reverse)) {
+                break;
+            }
+            TopFieldDocs docs = new IndexSearcher(shard.reader).search(query, filter, n, sort);
+            total += docs.totalHits;
+            for (ScoreDoc doc : docs.scoreDocs) {
+                doc.doc += shard.docBase;
+                hits.add((FieldDoc) doc);
+            }
+            Collections.sort(hits, order);
+            if (hits.size() > n) {
+                hits.subList(n, hits.size()).clear();
+            }
+            visited++;
+        }
+        for (Shard shard : shards.subList(visited, shards.size())) {
+            total += shard.reader.numDocs();
+        }
+        ZimbraLog.search.debug("LuceneDateShards n=%d,segments=%d,visited=%d", n, readers.length, visited);
+        List<ZimbraScoreDoc> scoreDocs =
+                ZimbraScoreDoc.listFromLuceneScoreDocs(hits.toArray(new ScoreDoc[hits.size()]));
+        int totalHits = (int) Math.min(total, Integer.MAX_VALUE);
+        return visited < shards.size() ?
+                ZimbraTopFieldDocs.createEstimated(totalHits, scoreDocs, Arrays.asList(sort.getSort())) :
+                ZimbraTopFieldDocs.create(totalHits, scoreDocs, Arrays.asList(sort.getSort()));
+    }
+
+    private static Span getSpan(final IndexReader reader) throws IOException {
+        try {
+            return SPANS.get(reader.getCoreCacheKey(), new Callable<Span>() {
+                @Override
+                public Span call() throws IOException {
+                    return Span.of(FieldCache.DEFAULT.getStringIndex(reader, LuceneFields.L_SORT_DATE));
+                }
+            });
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Date span of a segment.
+     */
+    @VisibleForTesting
+    static final class Span {
+        final String min;
+        final String max;
+        /** whether some documents in the segment have no date, which sort before any date */
+        final boolean undated;
+
+        Span(String min, String max, boolean undated) {
+            this.min = min;
+            this.max = max;
+            this.undated = undated;
+        }
+
+        static Span of(FieldCache.StringIndex index) {
+            boolean undated = false;
+            for (int ord : index.order) {
+                if (ord == 0) {
+                    undated = true;
+                    break;
+                }
+            }
+            // lookup[0] is the null placeholder for documents without a date
+            return index.lookup.length > 1 ?
+                    new Span(index.lookup[1], index.lookup[index.lookup.length - 1], undated) :
+                    new Span(null, null, undated);
+        }
+
+        /**
+         * Returns true if a document of the segment might sort ahead of (or tie with) the given hit.
+         */
+        boolean canBeat(FieldDoc last, boolean reverse) {
+            String date = (String) last.fields[0];
+            if (date == null) { // only ties on document ID are left
+                return reverse || undated;
+            } else if (reverse) {
+                return max != null && max.compareTo(date) >= 0;
+            } else {
+                return undated || (min != null && min.compareTo(date) <= 0);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this).add("min", min).add("max", max).add("undated", undated).toString();
+        }
+    }
+
+    private static final class Shard {
+        static final Comparator<Shard> NEWEST_FIRST = new Comparator<Shard>() {
+            @Override
+            public int compare(Shard lhs, Shard rhs) {
+                return -compareDates(lhs.span.max, rhs.span.max);
+            }
+        };
+        static final Comparator<Shard> OLDEST_FIRST = new Comparator<Shard>() {
+            @Override
+            public int compare(Shard lhs, Shard rhs) {
+                if (lhs.span.undated != rhs.span.undated) {
+                    return lhs.span.undated ? -1 : 1;
+                }
+                return compareDates(lhs.span.min, rhs.span.min);
+            }
+        };
+
+        final IndexReader reader;
+        final int docBase;
+        final Span span;
+
+        Shard(IndexReader reader, int docBase, Span span) {
+            this.reader = reader;
+            this.docBase = docBase;
+            this.span = span;
+        }
+    }
+
+    /**
+     * Same order as Lucene's: by date with missing dates lowest, then by document ID.
+     */
+    @VisibleForTesting
+    static final class HitOrder implements Comparator<FieldDoc> {
+        private final boolean reverse;
+
+        HitOrder(boolean reverse) {
+            this.reverse = reverse;
+        }
+
+        @Override
+        public int compare(FieldDoc lhs, FieldDoc rhs) {
+            int result = compareDates((String) lhs.fields[0], (String) rhs.fields[0]);
+            if (reverse) {
+                result = -result;
+            }
+            return result != 0 ? result : lhs.doc - rhs.doc;
+        }
+    }
+
+    private static int compareDates(String lhs, String rhs) {
+        if (lhs == null) {
+            return rhs == null ? 0 : -1;
+        }
+        return rhs == null ? 1 : lhs.compareTo(rhs);
+    }
+}
@@ -135,7 +135,7 @@ public final class LuceneDirectory extends Directory {
 
     @Override
     public IndexOutput createOutput(String name) throws IOException {
-        return new LuceneIndexOutput(directory.createOutput(name));
+        return new LuceneIndexOutput(directory.createOutput(name), LuceneMergeScheduler.getPacing());
     }
 
     @Override
@@ -254,10 +254,12 @@ public final class LuceneDirectory extends Directory {
 
     private static final class LuceneIndexOutput extends IndexOutput {
         private final IndexOutput output;
+        private final LuceneMergeScheduler.Pacer.Account pacing; // null unless written by a merge
         private boolean disableCounters = LC.zimbra_index_disable_perf_counters.booleanValue();
 
-        LuceneIndexOutput(IndexOutput out) {
+        LuceneIndexOutput(IndexOutput out, LuceneMergeScheduler.Pacer.Account pacing) {
             output = out;
+            this.pacing = pacing;
         }
 
         @Override
@@ -265,6 +267,9 @@ public final class LuceneDirectory extends Directory {
             if (!disableCounters) {
                 ZimbraPerf.COUNTER_IDX_BYTES_WRITTEN.increment(1);
             }
+            if (pacing != null) {
+                pacing.written(1);
+            }
             output.writeByte(b);
         }
 
@@ -273,6 +278,9 @@ public final class LuceneDirectory extends Directory {
             if (!disableCounters) {
                 ZimbraPerf.COUNTER_IDX_BYTES_WRITTEN.increment(len);
             }
+            if (pacing != null) {
+                pacing.written(len);
+            }
             output.writeBytes(b, len);
         }
 
@@ -281,6 +289,9 @@ public final class LuceneDirectory extends Directory {
             if (!disableCounters) {
                 ZimbraPerf.COUNTER_IDX_BYTES_WRITTEN.increment(len);
             }
+            if (pacing != null) {
+                pacing.written(len);
+            }
             output.writeBytes(b, offset, len);
         }
 
@@ -39,10 +39,12 @@ import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.LogByteSizeMergePolicy;
 import org.apache.lucene.index.LogDocMergePolicy;
-import org.apache.lucene.index.SerialMergeScheduler;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.TermEnum;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.FieldCacheRangeFilter;
+import org.apache.lucene.search.FilteredQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.Sort;
@@ -518,10 +520,10 @@ public final class LuceneIndex extends IndexStore {
                 repair(e);
                 throw e; // fail to commit regardless of the repair
             }
-            mailbox.index.submit(task); // merge must run in background
+            LuceneMergeScheduler.submit(task); // merge must run in background
             success = true;
         } catch (RejectedExecutionException e) {
-            ZimbraLog.index.warn("Skipping merge because all index threads are busy");
+            ZimbraLog.index.warn("Skipping merge because too many merges are pending");
         } finally {
             if (!success) {
                 writerInfo.getWriterRef().dec();
@@ -581,56 +583,6 @@ public final class LuceneIndex extends IndexStore {
         return status.clean;
     }
 
-    /**
-     * Only one background thread that holds the lock may process a merge for the given writer. Other concurrent
-     * attempts simply skip the merge.
-     */
-    private static final class MergeScheduler extends SerialMergeScheduler {
-        private final ReentrantLock lock = new ReentrantLock();
-
-        /**
-         * Acquires the lock.
-         */
-        void lock() {
-            lock.lock();
-        }
-
-        /**
-         * Try to hold the lock.
-         *
-         * @return true if the lock is held, false the lock is currently held by the other thread.
-         */
-        boolean tryLock() {
-            return lock.tryLock();
-        }
-
-        void release() {
-            try {
-                lock.unlock();
-            } catch (IllegalMonitorStateException ignore) {
-            }
-        }
-
-        /**
-         * Skip the merge unless the lock is held.
-         */
-        @Override
-        public void merge(IndexWriter writer) throws CorruptIndexException, IOException {
-            if (lock.isHeldByCurrentThread()) {
-                super.merge(writer);
-            }
-        }
-
-        /**
-         * Removes the Thread-to-IndexWriter reference.
-         */
-        @Override
-        public void close() {
-            super.close();
-            release();
-        }
-    }
-
     /**
      * In order to minimize delay caused by merges, merges are processed only in background threads. Writers triggered
      * by batch threshold or search commit the changes before processing merges, so that the changes are available to
@@ -648,7 +600,7 @@ public final class LuceneIndex extends IndexStore {
         @Override
         public void exec() throws IOException {
             IndexWriter writer = ref.get();
-            MergeScheduler scheduler = (MergeScheduler) writer.getConfig().getMergeScheduler();
+            LuceneMergeScheduler scheduler = (LuceneMergeScheduler) writer.getConfig().getMergeScheduler();
             try {
                 if (scheduler.tryLock()) {
                     writer.maybeMerge();
@@ -676,14 +628,31 @@ public final class LuceneIndex extends IndexStore {
         }
     }
 
+    /**
+     * Commits the index writer, which submits a {@link MergeTask} that picks up the merges deferred to the quiet hours.
+     */
+    private void resumeMerges() {
+        try {
+            openIndexer().close();
+        } catch (IOException e) {
+            ZimbraLog.index.warn("Failed to resume deferred merges", e);
+        }
+    }
+
     private IndexWriterConfig getWriterConfig() {
+        Runnable resumeMerges = new Runnable() {
+            @Override
+            public void run() {
+                resumeMerges();
+            }
+        };
         IndexWriterConfig config = new IndexWriterConfig(VERSION, mailbox.index.getAnalyzer());
-        config.setMergeScheduler(new MergeScheduler());
+        config.setMergeScheduler(new LuceneMergeScheduler(mailbox));
         config.setMaxBufferedDocs(LC.zimbra_index_lucene_max_buffered_docs.intValue());
         config.setRAMBufferSizeMB(LC.zimbra_index_lucene_ram_buffer_size_kb.intValue() / 1024.0);
         if (LC.zimbra_index_lucene_merge_policy.booleanValue()) {
             LogDocMergePolicy policy = new LogDocMergePolicy();
-            config.setMergePolicy(policy);
+            config.setMergePolicy(new LuceneMergeScheduler.DeferringMergePolicy(policy, mailbox.getId(), resumeMerges));
             policy.setUseCompoundFile(LC.zimbra_index_lucene_use_compound_file.booleanValue());
             policy.setMergeFactor(LC.zimbra_index_lucene_merge_factor.intValue());
             policy.setMinMergeDocs(LC.zimbra_index_lucene_min_merge.intValue());
@@ -692,7 +661,7 @@ public final class LuceneIndex extends IndexStore {
             }
         } else {
             LogByteSizeMergePolicy policy = new LogByteSizeMergePolicy();
-            config.setMergePolicy(policy);
+            config.setMergePolicy(new LuceneMergeScheduler.DeferringMergePolicy(policy, mailbox.getId(), resumeMerges));
             policy.setUseCompoundFile(LC.zimbra_index_lucene_use_compound_file.booleanValue());
             policy.setMergeFactor(LC.zimbra_index_lucene_merge_factor.intValue());
             policy.setMinMergeMB(LC.zimbra_index_lucene_min_merge.intValue() / 1024.0);
@@ -827,7 +796,7 @@ public final class LuceneIndex extends IndexStore {
 
         @Override
         public void compact() {
-            MergeScheduler scheduler = (MergeScheduler) writer.get().getConfig().getMergeScheduler();
+            LuceneMergeScheduler scheduler = (LuceneMergeScheduler) writer.get().getConfig().getMergeScheduler();
             scheduler.lock();
             try {
                 ZimbraLog.index.info("Force merge deletes %d", writer.get().maxDoc() - writer.get().numDocs());
@@ -994,14 +963,37 @@ public final class LuceneIndex extends IndexStore {
 
         @Override
         public ZimbraTopDocs search(Query query, ZimbraTermsFilter filter, int n) throws IOException {
-            TermsFilter luceneFilter = (filter == null) ? null : new TermsFilter(filter.getTerms());
-            return ZimbraTopDocs.create(luceneSearcher.search(query, luceneFilter, n));
+            TermsFilter luceneFilter = toTermsFilter(filter);
+            return ZimbraTopDocs.create(luceneSearcher.search(applyRanges(query, filter), luceneFilter, n));
         }
 
         @Override
         public ZimbraTopFieldDocs search(Query query, ZimbraTermsFilter filter, int n, Sort sort) throws IOException {
-            TermsFilter luceneFilter = (filter == null) ? null : new TermsFilter(filter.getTerms());
-            return ZimbraTopFieldDocs.create(luceneSearcher.search(query, luceneFilter, n, sort));
+            TermsFilter luceneFilter = toTermsFilter(filter);
+            if (LuceneDateShards.isApplicable(luceneSearcher, sort)) {
+                return LuceneDateShards.search(luceneSearcher, applyRanges(query, filter), luceneFilter, n, sort);
+            }
+            return ZimbraTopFieldDocs.create(
+                    luceneSearcher.search(applyRanges(query, filter), luceneFilter, n, sort));
+        }
+
+        private static TermsFilter toTermsFilter(ZimbraTermsFilter filter) {
+            return (filter == null || !filter.isRestrictTerms()) ? null : new TermsFilter(filter.getTerms());
+        }
+
+        /**
+         * Range restrictions are applied by wrapping the query, which keeps its scoring intact. They use the same
+         * {@link FieldCache} entries as sorting by that field does.
+         */
+        private static Query applyRanges(Query query, ZimbraTermsFilter filter) {
+            if (filter == null) {
+                return query;
+            }
+            for (ZimbraTermsFilter.Range range : filter.getRanges()) {
+                query = new FilteredQuery(query, FieldCacheRangeFilter.newLongRange(range.getField(),
+                        range.getMin(), range.getMax(), true, true));
+            }
+            return query;
         }
     }
 
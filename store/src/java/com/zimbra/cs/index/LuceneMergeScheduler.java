@@ -0,0 +1,478 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+
+package com.zimbra.cs.index;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TimerTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.MergeScheduler;
+import org.apache.lucene.index.SegmentInfo;
+import org.apache.lucene.index.SegmentInfos;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxIndex;
+import com.zimbra.cs.stats.ZimbraPerf;
+import com.zimbra.cs.util.Zimbra;
+
+/**
+ * Merge scheduler of a mailbox index writer, which runs its merges under a budget shared by all the mailboxes on the
+ * server.
+ * <p>
+ * Merges are started by {@link MailboxIndex.IndexTask}s {@link #submit(Runnable)}ted to a server-wide pool, and only
+ * the thread which holds the lock of the scheduler processes merges for the writer. At most
+ * {@code zimbra_index_lucene_merge_max_concurrent} merges run at once; the waiting ones are started in order of
+ * priority: merges of mailboxes with a session first, then smaller merges first. Index files written by merges are
+ * paced to {@code zimbra_index_lucene_merge_bytes_per_sec} in total. {@link DeferringMergePolicy} holds merges bigger
+ * than {@code zimbra_index_lucene_merge_defer_kb} back until the quiet hours, and the {@link Gate} resumes them once
+ * the quiet hours start.
+ */
+public final class LuceneMergeScheduler extends MergeScheduler {
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(
+            LC.zimbra_index_lucene_merge_threads.intValue(), LC.zimbra_index_lucene_merge_threads.intValue(),
+            Long.MAX_VALUE, TimeUnit.NANOSECONDS,
+            new LinkedBlockingQueue<Runnable>(Math.max(LC.zimbra_index_lucene_merge_max_pending.intValue(), 1)),
+            new ThreadFactoryBuilder().setNameFormat("IndexMerge-%d").setDaemon(true).build());
+    private static final Gate GATE = new Gate(Math.max(LC.zimbra_index_lucene_merge_max_concurrent.intValue(), 1));
+    private static final Pacer PACER = new Pacer(LC.zimbra_index_lucene_merge_bytes_per_sec.longValue());
+    private static final ThreadLocal<Pacer.Account> PACING = new ThreadLocal<Pacer.Account>();
+    private static final int[] QUIET_HOURS = parseHours(LC.zimbra_index_lucene_merge_quiet_hours.value());
+    private static final long QUIET_HOURS_CHECK_INTERVAL = 60 * 1000L;
+
+    static {
+        if (QUIET_HOURS != null) {
+            Zimbra.sTimer.schedule(new QuietHoursTask(), QUIET_HOURS_CHECK_INTERVAL, QUIET_HOURS_CHECK_INTERVAL);
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Mailbox mailbox;
+
+    LuceneMergeScheduler(Mailbox mbox) {
+        this.mailbox = mbox;
+    }
+
+    /**
+     * Runs a merge task on the server-wide merge pool.
+     *
+     * @throws RejectedExecutionException if too many merge tasks are pending
+     */
+    static void submit(Runnable task) {
+        EXECUTOR.execute(task);
+    }
+
+    /**
+     * Acquires the lock.
+     */
+    void lock() {
+        lock.lock();
+    }
+
+    /**
+     * Try to hold the lock.
+     *
+     * @return true if the lock is held, false the lock is currently held by the other thread.
+     */
+    boolean tryLock() {
+        return lock.tryLock();
+    }
+
+    void release() {
+        try {
+            lock.unlock();
+        } catch (IllegalMonitorStateException ignore) {
+        }
+    }
+
+    /**
+     * Processes the pending merges of the writer, one at a time. Skip the merge unless the lock is held.
+     */
+    @Override
+    public void merge(IndexWriter writer) throws CorruptIndexException, IOException {
+        if (!lock.isHeldByCurrentThread()) {
+            return;
+        }
+        while (true) {
+            MergePolicy.OneMerge merge = writer.getNextMerge();
+            if (merge == null) {
+                break;
+            }
+            // a merge taken from the writer must be run, so wait for the gate uninterruptibly
+            long bytes = merge.totalBytesSize();
+            GATE.acquire(bytes, !mailbox.getListeners(null).isEmpty());
+            long start = ZimbraPerf.STOPWATCH_IDX_MERGE.start();
+            PACING.set(PACER.newAccount());
+            try {
+                ZimbraLog.index.debug("Merging segments=%d,bytes=%d", merge.segments.size(), bytes);
+                writer.merge(merge);
+            } finally {
+                PACING.remove();
+                ZimbraPerf.STOPWATCH_IDX_MERGE.stop(start);
+                GATE.release();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        release();
+    }
+
+    /**
+     * Returns the pacing account of the current thread if it is running a merge, or null. Index outputs created by a
+     * merge report their writes to it.
+     */
+    static Pacer.Account getPacing() {
+        return PACING.get();
+    }
+
+    /**
+     * @return number of merge tasks waiting for a thread, and merges waiting for the gate
+     */
+    public static int getPendingCount() {
+        return EXECUTOR.getQueue().size() + GATE.getWaiting();
+    }
+
+    /**
+     * @return number of merges running
+     */
+    public static int getRunningCount() {
+        return GATE.getRunning();
+    }
+
+    /**
+     * Limits the number of merges running at once, and lets the waiting merges in by priority.
+     */
+    @VisibleForTesting
+    static final class Gate {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final PriorityQueue<Waiter> waiters = new PriorityQueue<Waiter>();
+        private final int permits;
+        private final Map<Integer, Runnable> deferred = new LinkedHashMap<Integer, Runnable>();
+        private boolean quiet = false;
+        private int running = 0;
+        private long seq = 0;
+
+        Gate(int permits) {
+            this.permits = permits;
+        }
+
+        void acquire(long bytes, boolean interactive) {
+            lock.lock();
+            try {
+                Waiter waiter = new Waiter(bytes, interactive, seq++, lock.newCondition());
+                waiters.add(waiter);
+                while (running >= permits || waiters.peek() != waiter) {
+                    waiter.condition.awaitUninterruptibly();
+                }
+                waiters.poll();
+                running++;
+                signalNext();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release() {
+            lock.lock();
+            try {
+                running--;
+                signalNext();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void signalNext() {
+            Waiter next = waiters.peek();
+            if (next != null && running < permits) {
+                next.condition.signal();
+            }
+        }
+
+        /**
+         * Remembers that merges of a mailbox were deferred to the quiet hours.
+         *
+         * @param resume starts the deferred merges of the mailbox again
+         */
+        void defer(int mailboxId, Runnable resume) {
+            lock.lock();
+            try {
+                deferred.put(mailboxId, resume);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Updates whether it is the quiet hours now.
+         *
+         * @return the merges to resume when the quiet hours just started, otherwise an empty list
+         */
+        List<Runnable> setQuiet(boolean value) {
+            lock.lock();
+            try {
+                List<Runnable> result = new ArrayList<Runnable>();
+                if (value && !quiet) {
+                    result.addAll(deferred.values());
+                    deferred.clear();
+                }
+                quiet = value;
+                return result;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int getWaiting() {
+            lock.lock();
+            try {
+                return waiters.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int getRunning() {
+            lock.lock();
+            try {
+                return running;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private static final class Waiter implements Comparable<Waiter> {
+            final long bytes;
+            final boolean interactive;
+            final long seq;
+            final Condition condition;
+
+            Waiter(long bytes, boolean interactive, long seq, Condition condition) {
+                this.bytes = bytes;
+                this.interactive = interactive;
+                this.seq = seq;
+                this.condition = condition;
+            }
+
+            @Override
+            public int compareTo(Waiter other) {
+                if (interactive != other.interactive) {
+                    return interactive ? -1 : 1;
+                }
+                if (bytes != other.bytes) {
+                    return bytes < other.bytes ? -1 : 1;
+                }
+                return seq < other.seq ? -1 : (seq == other.seq ? 0 : 1);
+            }
+        }
+    }
+
+    /**
+     * Resumes the merges deferred by {@link DeferringMergePolicy} once the quiet hours start, so that a mailbox which
+     * stopped committing still gets its merges.
+     */
+    private static final class QuietHoursTask extends TimerTask {
+        @Override
+        public void run() {
+            boolean quiet = isQuietHour(QUIET_HOURS, Calendar.getInstance().get(Calendar.HOUR_OF_DAY));
+            for (Runnable resume : GATE.setQuiet(quiet)) {
+                try {
+                    submit(resume);
+                } catch (RejectedExecutionException e) {
+                    ZimbraLog.index.warn("Skipping deferred merge because too many merges are pending");
+                }
+            }
+        }
+    }
+
+    /**
+     * Paces the bytes written by all the merges to a rate. Each merge thread accumulates its writes in its own
+     * {@link Account}, and only reserves time from the shared schedule every {@link #CHUNK} bytes.
+     */
+    @VisibleForTesting
+    static final class Pacer {
+        private static final long CHUNK = 64 * 1024;
+
+        private final long bytesPerSec;
+        private long next = 0; // nano time when the budget is free again
+
+        Pacer(long bytesPerSec) {
+            this.bytesPerSec = bytesPerSec;
+        }
+
+        Account newAccount() {
+            return bytesPerSec > 0 ? new Account() : null;
+        }
+
+        /**
+         * @return nanoseconds the caller has to wait before writing the bytes
+         */
+        @VisibleForTesting
+        synchronized long reserve(long bytes, long now) {
+            if (next < now) {
+                next = now;
+            }
+            long wait = next - now;
+            next += bytes * TimeUnit.SECONDS.toNanos(1) / bytesPerSec;
+            return wait;
+        }
+
+        final class Account {
+            private long unpaced = 0;
+
+            void written(long bytes) {
+                unpaced += bytes;
+                if (unpaced < CHUNK) {
+                    return;
+                }
+                long wait = reserve(unpaced, System.nanoTime());
+                unpaced = 0;
+                if (wait > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Holds the natural merges bigger than {@code zimbra_index_lucene_merge_defer_kb} back outside the quiet hours.
+     * The segments stay as they are, and the merge is proposed again by the next commit, or once the quiet hours
+     * start. Forced merges (compaction) are never deferred.
+     */
+    static final class DeferringMergePolicy extends MergePolicy {
+        private static final long DEFER_BYTES = LC.zimbra_index_lucene_merge_defer_kb.longValue() * 1024L;
+
+        private final MergePolicy policy;
+        private final int mailboxId;
+        private final Runnable resume;
+
+        /**
+         * @param resume starts the merges of the mailbox again, run on the merge pool when the quiet hours start
+         */
+        DeferringMergePolicy(MergePolicy policy, int mailboxId, Runnable resume) {
+            this.policy = policy;
+            this.mailboxId = mailboxId;
+            this.resume = resume;
+        }
+
+        @Override
+        public void setIndexWriter(IndexWriter writer) {
+            super.setIndexWriter(writer);
+            policy.setIndexWriter(writer);
+        }
+
+        @Override
+        public MergeSpecification findMerges(SegmentInfos infos) throws CorruptIndexException, IOException {
+            MergeSpecification spec = policy.findMerges(infos);
+            if (spec == null || QUIET_HOURS == null || DEFER_BYTES <= 0 ||
+                    isQuietHour(QUIET_HOURS, Calendar.getInstance().get(Calendar.HOUR_OF_DAY))) {
+                return spec;
+            }
+            MergeSpecification result = new MergeSpecification();
+            for (OneMerge merge : spec.merges) {
+                if (merge.totalBytesSize() > DEFER_BYTES) {
+                    ZimbraLog.index.debug("Deferring merge segments=%d,bytes=%d to quiet hours",
+                            merge.segments.size(), merge.totalBytesSize());
+                    ZimbraPerf.COUNTER_IDX_MERGE_DEFERRED.increment();
+                } else {
+                    result.add(merge);
+                }
+            }
+            if (result.merges.size() < spec.merges.size()) {
+                GATE.defer(mailboxId, resume);
+            }
+            return result.merges.isEmpty() ? null : result;
+        }
+
+        @Override
+        public MergeSpecification findForcedMerges(SegmentInfos infos, int maxSegmentCount,
+                Map<SegmentInfo, Boolean> segmentsToMerge) throws CorruptIndexException, IOException {
+            return policy.findForcedMerges(infos, maxSegmentCount, segmentsToMerge);
+        }
+
+        @Override
+        public MergeSpecification findForcedDeletesMerges(SegmentInfos infos)
+                throws CorruptIndexException, IOException {
+            return policy.findForcedDeletesMerges(infos);
+        }
+
+        @Override
+        public boolean useCompoundFile(SegmentInfos infos, SegmentInfo info) throws IOException {
+            return policy.useCompoundFile(infos, info);
+        }
+
+        @Override
+        public void close() {
+            policy.close();
+        }
+    }
+
+    /**
+     * @param value "start-end" hours of the day, the end is exclusive and may wrap around midnight
+     * @return start and end hour, or null if not configured or invalid
+     */
+    @VisibleForTesting
+    static int[] parseHours(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+        String[] hours = value.trim().split("-");
+        try {
+            if (hours.length == 2) {
+                int start = Integer.parseInt(hours[0].trim());
+                int end = Integer.parseInt(hours[1].trim());
+                if (start >= 0 && start < 24 && end >= 0 && end <= 24) {
+                    return new int[] { start, end };
+                }
+            }
+        } catch (NumberFormatException ignore) {
+        }
+        ZimbraLog.index.warn("Ignoring invalid zimbra_index_lucene_merge_quiet_hours %s", value);
+        return null;
+    }
+
+    @VisibleForTesting
+    static boolean isQuietHour(int[] hours, int hour) {
+        int start = hours[0];
+        int end = hours[1];
+        return start <= end ? hour >= start && hour < end : hour >= start || hour < end;
+    }
+}
@@ -77,6 +77,12 @@ public final class LuceneQueryOperation extends QueryOperation {
      */
     private List<Term> filterTerms;
 
+    /**
+     * Used for LUCENE_FIRST joins: range restrictions which the DB join is known to apply anyway, evaluated in the
+     * index so that fewer index IDs have to round-trip through the DB.
+     */
+    private ZimbraTermsFilter rangeFilter;
+
     /**
      * Because we don't store the real mail-item-id of documents, we ALWAYS need
      * a DBOp in order to properly get our results.
@@ -206,6 +212,22 @@ public final class LuceneQueryOperation extends QueryOperation {
         filterTerms = null;
     }
 
+    /**
+     * Restricts the index hits to {@code min <= l.size <= max} (inclusive), null meaning open ended.
+     */
+    void addSizeRangeFilter(Long min, Long max) {
+        getRangeFilter().addLongRange(LuceneFields.L_SORT_SIZE, min, max);
+    }
+
+    private ZimbraTermsFilter getRangeFilter() {
+        haveRunSearch = false;
+        curHitNo = 0;
+        if (rangeFilter == null) {
+            rangeFilter = new ZimbraTermsFilter();
+        }
+        return rangeFilter;
+    }
+
     /**
      * Sets the text query *representation* manually -- the thing that is output if we have to proxy this search
      * somewhere else -- used when dealing with wildcard searches.
@@ -320,6 +342,11 @@ public final class LuceneQueryOperation extends QueryOperation {
                     topDocsLen = luceneLen;
                 }
                 runSearch();
+                // a date sorted search that stopped early reports an upper bound
+                luceneLen = hits != null ? hits.getTotalHits() : 0;
+            }
+            if (hits == null || curHitNo >= hits.getScoreDocs().size()) {
+                break;
             }
 
             Document doc;
@@ -373,6 +400,17 @@ public final class LuceneQueryOperation extends QueryOperation {
         }
     }
 
+    private ZimbraTermsFilter getFilter() {
+        ZimbraTermsFilter filter = rangeFilter;
+        if (filterTerms != null) {
+            filter = new ZimbraTermsFilter(filterTerms);
+            if (rangeFilter != null) {
+                filter.addRanges(rangeFilter.getRanges());
+            }
+        }
+        return filter;
+    }
+
     /**
      * Execute the actual search via Lucene
      */
@@ -393,15 +431,16 @@ public final class LuceneQueryOperation extends QueryOperation {
                 hits = null;
                 return;
             }
-            ZimbraTermsFilter filter = (filterTerms != null) ? new ZimbraTermsFilter(filterTerms) : null;
+            ZimbraTermsFilter filter = getFilter();
             long start = System.currentTimeMillis();
             if (sort == null) {
                 hits = searcher.search(luceneQuery, filter, topDocsLen);
             } else {
                 hits = searcher.search(luceneQuery, filter, topDocsLen, sort);
             }
-            ZimbraLog.search.debug("LuceneSearch query=%s,n=%d,total=%d,elapsed=%d",
-                    luceneQuery, topDocsLen, hits.getTotalHits(), System.currentTimeMillis() - start);
+            ZimbraLog.search.debug("LuceneSearch query=%s,ranges=%s,n=%d,total=%d,elapsed=%d",
+                    luceneQuery, rangeFilter == null ? null : rangeFilter.getRanges(), topDocsLen,
+                    hits.getTotalHits(), System.currentTimeMillis() - start);
         } catch (IOException e) {
             ZimbraLog.search.error("Failed to search query=%s", luceneQuery, e);
             Closeables.closeQuietly(searcher);
@@ -509,6 +548,10 @@ public final class LuceneQueryOperation extends QueryOperation {
 
     /**
      * Must be called AFTER the first results chunk is fetched.
+     * <p>
+     * If a date sorted search stopped early, this is an upper bound rather than the exact count. The query plan only
+     * compares it to DB counts, so at worst it runs DB-first when Lucene-first would have been cheaper; counting exactly
+     * would search the whole index again.
      *
      * @return number of hits in this search
      */
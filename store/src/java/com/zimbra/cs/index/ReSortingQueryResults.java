@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
 
 import com.zimbra.common.localconfig.DebugConfig;
 import com.zimbra.common.service.ServiceException;
@@ -28,6 +29,9 @@ import com.zimbra.common.service.ServiceException;
 /**
  * QueryResults wrapper that implements Re-Sorting. It does this by caching **ALL** hits and then sorting them. It is
  * used for the Task sorts as well as specially localized language sorts
+ * <p>
+ * When only a page of the results is needed (offset paging), only the best {@code offset + limit + 1} hits are kept,
+ * in a bounded heap, instead of buffering and sorting all of them.
  */
 public final class ReSortingQueryResults implements ZimbraQueryResults {
     private static final int MAX_BUFFERED_HITS = 10000;
@@ -202,6 +206,19 @@ public final class ReSortingQueryResults implements ZimbraQueryResults {
                 maxIfPresorted = maxIfPresorted + 1 + params.getOffset();
             }
         }
+        final Comparator<ZimbraHit> order = comp;
+        PriorityQueue<RankedHit> top = null;
+        if (!results.isPreSorted() && params != null && params.getCursor() == null && params.getLimit() > 0) {
+            // worst hit at the head; of equal ones, the one seen last, so that the order is the same as a stable sort
+            top = new PriorityQueue<RankedHit>(maxIfPresorted + 1, new Comparator<RankedHit>() {
+                @Override
+                public int compare(RankedHit lhs, RankedHit rhs) {
+                    int result = order.compare(rhs.hit, lhs.hit);
+                    return result != 0 ? result : rhs.seq - lhs.seq;
+                }
+            });
+        }
+        int added = 0;
         ZimbraHit cur;
         while ((cur = results.getNext()) != null) {
 
@@ -246,9 +263,17 @@ public final class ReSortingQueryResults implements ZimbraQueryResults {
             }
 
             if (!skipHit) {
-                mHitBuffer.add(cur);
+                added++;
+                if (top != null) {
+                    top.add(new RankedHit(cur, added));
+                    if (top.size() > maxIfPresorted) {
+                        top.poll();
+                    }
+                } else {
+                    mHitBuffer.add(cur);
+                }
             }
-            if (mHitBuffer.size() >= MAX_BUFFERED_HITS) {
+            if (added >= MAX_BUFFERED_HITS) {
                 break;
             }
             // If it turns out that the results were sorted remotely, we can bail out early.
@@ -257,9 +282,24 @@ public final class ReSortingQueryResults implements ZimbraQueryResults {
             }
         }
 
-        if (!results.isPreSorted()) {
+        if (top != null) {
+            while (!top.isEmpty()) {
+                mHitBuffer.add(top.poll().hit);
+            }
+            Collections.reverse(mHitBuffer);
+        } else if (!results.isPreSorted()) {
             Collections.sort(mHitBuffer, comp);
         }
     }
 
+    private static final class RankedHit {
+        final ZimbraHit hit;
+        final int seq;
+
+        RankedHit(ZimbraHit hit, int seq) {
+            this.hit = hit;
+            this.seq = seq;
+        }
+    }
+
 }
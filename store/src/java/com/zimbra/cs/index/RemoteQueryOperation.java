@@ -17,17 +17,27 @@
 package com.zimbra.cs.index;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.zimbra.cs.account.Account;
 import com.zimbra.cs.account.AccountServiceException;
 import com.zimbra.cs.account.AuthToken;
 import com.zimbra.cs.account.Provisioning;
 import com.zimbra.cs.account.Server;
 import com.zimbra.common.account.Key.AccountBy;
+import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.common.soap.SoapProtocol;
@@ -37,6 +47,11 @@ import com.zimbra.common.soap.SoapProtocol;
  */
 final class RemoteQueryOperation extends FilterQueryOperation {
 
+    // Shared by all the searches on this server, so that one search over many mountpoints can't tie up the server.
+    private static final ExecutorService FANOUT_EXECUTOR = LC.search_remote_fanout_threads.intValue() <= 1 ?
+            null : Executors.newFixedThreadPool(LC.search_remote_fanout_threads.intValue(),
+                    new ThreadFactoryBuilder().setNameFormat("RemoteSearch-%d").setDaemon(true).build());
+
     private ProxiedQueryResults results = null;
     private QueryTarget queryTarget = null;
 
@@ -99,6 +114,56 @@ final class RemoteQueryOperation extends FilterQueryOperation {
                 remoteServer.getName(), params, queryString, params.getFetchMode());
     }
 
+    /**
+     * Fetches the first chunk of hits of the remote searches at the same time, instead of one server after the other
+     * as the merge asks for them. Later chunks are fetched lazily as the merge consumes the hits.
+     */
+    static void prefetch(List<RemoteQueryOperation> ops) throws ServiceException {
+        prefetch(ops, FANOUT_EXECUTOR);
+    }
+
+    @VisibleForTesting
+    static void prefetch(List<? extends QueryOperation> ops, ExecutorService executor) throws ServiceException {
+        List<Future<ZimbraHit>> futures = new ArrayList<Future<ZimbraHit>>(ops.size());
+        if (executor != null && ops.size() > 1) {
+            final Map<String, String> logContext = ZimbraLog.getContextMap();
+            // the first one runs on this thread
+            for (final QueryOperation op : ops.subList(1, ops.size())) {
+                futures.add(executor.submit(new Callable<ZimbraHit>() {
+                    @Override
+                    public ZimbraHit call() throws ServiceException {
+                        ZimbraLog.setContext(logContext);
+                        try {
+                            return op.peekNext();
+                        } finally {
+                            ZimbraLog.clearContext();
+                        }
+                    }
+                }));
+            }
+        }
+        try {
+            if (!ops.isEmpty()) {
+                ops.get(0).peekNext();
+            }
+            for (Future<ZimbraHit> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw ServiceException.INTERRUPTED("remote search");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ServiceException) {
+                throw (ServiceException) e.getCause();
+            }
+            throw ServiceException.FAILURE("remote search failed", e.getCause());
+        } finally {
+            for (Future<ZimbraHit> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+
     @Override
     public void resetIterator() throws ServiceException {
         if (results != null) {
@@ -0,0 +1,543 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+
+package com.zimbra.cs.index;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.soap.SoapProtocol;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxListener;
+import com.zimbra.cs.mailbox.OperationContext;
+
+/**
+ * Caches the sorted hit list of recent searches so that paging through a large result set doesn't re-run the query
+ * and re-scan all the preceding hits for every page.
+ * <p>
+ * Entries are keyed by mailbox, requester and everything in {@link SearchParams} that affects which hits are returned
+ * in which order, and are only valid for the mailbox change ID they were recorded at. Any committed change to the
+ * mailbox drops its entries. An entry holds the IDs, types and sort values of a contiguous prefix of the results,
+ * recorded as a normal search pages through them, plus some read-ahead which doubles each time the prefix has to be
+ * extended; so scrolling to page N runs the real query O(log N) times. Pages inside the prefix are served from it,
+ * by offset or by cursor, with hits whose items are loaded lazily. The cache is bounded by the estimated size of the
+ * entries, server wide.
+ * <p>
+ * Conversation searches, searches with a cursor range end, and proxied or part hits are not cached.
+ */
+public final class SearchResultsCache {
+
+    private static final SearchResultsCache INSTANCE = new SearchResultsCache(
+            LC.search_results_cache_max_bytes.longValue(), LC.search_results_cache_max_hits.intValue(),
+            LC.search_results_cache_read_ahead_pages.intValue());
+
+    private final Cache<Key, Entry> cache;
+    // number of cached entries per account, so that change notifications for other accounts are cheap
+    private final ConcurrentMap<String, AtomicInteger> accounts = new ConcurrentHashMap<String, AtomicInteger>();
+    private final int maxHits;
+    private final int readAheadPages;
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+
+    @VisibleForTesting
+    SearchResultsCache(long maxBytes, int maxHits, int readAheadPages) {
+        this.maxHits = maxHits;
+        this.readAheadPages = Math.max(readAheadPages, 1);
+        cache = CacheBuilder.newBuilder()
+            .maximumWeight(Math.max(maxBytes, 0))
+            .weigher(new Weigher<Key, Entry>() {
+                @Override
+                public int weigh(Key key, Entry entry) {
+                    return entry.estimatedSize;
+                }
+            })
+            .removalListener(new RemovalListener<Key, Entry>() {
+                @Override
+                public void onRemoval(RemovalNotification<Key, Entry> notification) {
+                    AtomicInteger count = accounts.get(notification.getKey().accountId);
+                    if (count != null && count.decrementAndGet() <= 0) {
+                        accounts.remove(notification.getKey().accountId, count);
+                    }
+                }
+            })
+            .build();
+    }
+
+    public static SearchResultsCache getInstance() {
+        return INSTANCE;
+    }
+
+    boolean isEnabled() {
+        return maxHits > 0 && LC.search_results_cache_max_bytes.longValue() > 0;
+    }
+
+    /**
+     * Same as {@link com.zimbra.cs.mailbox.MailboxIndex#search(SoapProtocol, OperationContext, SearchParams)}, but
+     * serves the requested page from the cache if it can, and otherwise records the results for later pages.
+     */
+    public ZimbraQueryResults search(Mailbox mbox, SoapProtocol proto, OperationContext octxt, SearchParams params)
+            throws ServiceException {
+        if (!isEnabled() || !isCacheable(params)) {
+            return mbox.index.search(proto, octxt, params);
+        }
+        // read before searching, so that a change made while the search runs invalidates what it records
+        int changeId = mbox.getLastChangeID();
+        Key key = new Key(mbox, octxt, params);
+        Entry entry = cache.getIfPresent(key);
+        if (entry != null && entry.changeId != changeId) {
+            cache.invalidate(key);
+            entry = null;
+        }
+        if (entry != null && entry.covers(params)) {
+            hitCount.incrementAndGet();
+            ZimbraLog.search.debug("serving page offset=%d,limit=%d from cached results %s",
+                    params.getOffset(), params.getLimit(), entry);
+            return new CachedQueryResults(mbox, params, entry);
+        }
+        missCount.incrementAndGet();
+        ZimbraQueryResults results = mbox.index.search(proto, octxt, params);
+        if (params.getCursor() != null) {
+            return results; // can't tell where in the full result list a cursor query starts
+        }
+        if (entry == null && params.getOffset() > 0) {
+            return results; // the prefix would have a gap
+        }
+        if (entry == null) {
+            entry = new Entry(changeId, results.getSortBy(), results.getResultInfo());
+        }
+        if (entry.complete || entry.sortBy != results.getSortBy() || params.getOffset() > entry.size()) {
+            return results;
+        }
+        int target = Math.max(params.getOffset() + params.getLimit() * readAheadPages, entry.size() * 2);
+        return new RecordingQueryResults(this, key, entry, results, Math.min(target, maxHits));
+    }
+
+    @VisibleForTesting
+    static boolean isCacheable(SearchParams params) {
+        if (params.getTypes().contains(MailItem.Type.CONVERSATION) || params.fullConversation()) {
+            return false;
+        }
+        switch (params.getSortBy()) {
+            case NAME_LOCALIZED_ASC:
+            case NAME_LOCALIZED_DESC:
+                // ReSortingQueryResults keeps only offset + limit + 1 hits, so the end of those isn't the end
+                return false;
+        }
+        if (params.getCursor() != null && params.getCursor().getEndSortValue() != null) {
+            return false;
+        }
+        return params.getLimit() > 0;
+    }
+
+    void put(Key key, Entry entry) {
+        AtomicInteger count = accounts.get(key.accountId);
+        if (count == null) {
+            AtomicInteger existing = accounts.putIfAbsent(key.accountId, count = new AtomicInteger());
+            if (existing != null) {
+                count = existing;
+            }
+        }
+        count.incrementAndGet();
+        cache.put(key, entry);
+    }
+
+    /**
+     * Drops all the entries of the account.
+     */
+    public void invalidate(String accountId) {
+        if (!accounts.containsKey(accountId)) {
+            return;
+        }
+        for (Key key : cache.asMap().keySet()) {
+            if (key.accountId.equals(accountId)) {
+                cache.invalidate(key);
+            }
+        }
+    }
+
+    @VisibleForTesting
+    long size() {
+        return cache.size();
+    }
+
+    public int getHitCount() {
+        return hitCount.get();
+    }
+
+    public int getMissCount() {
+        return missCount.get();
+    }
+
+    static final class Key {
+        final String accountId;
+        private final Object[] values;
+
+        Key(Mailbox mbox, OperationContext octxt, SearchParams params) {
+            accountId = mbox.getAccountId();
+            values = new Object[] {
+                    octxt == null || octxt.getAuthenticatedUser() == null ? null :
+                        octxt.getAuthenticatedUser().getId(),
+                    octxt != null && octxt.isUsingAdminPrivileges(),
+                    params.getQueryString(), params.getDefaultField(), ImmutableSet.copyOf(params.getTypes()),
+                    params.getSortBy(), params.inDumpster(), params.getIncludeTagDeleted(),
+                    params.getIncludeTagMuted(), params.getAllowableTaskStatuses(),
+                    params.getTimeZone() == null ? null : params.getTimeZone().getID(),
+                    params.getLocale() == null ? null : params.getLocale().toString(),
+                    params.getCalItemExpandStart(), params.getCalItemExpandEnd(), params.getFetchMode(),
+                    params.isQuick() // parses the query differently and skips indexing deferred items
+            };
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof Key) {
+                Key other = (Key) obj;
+                return accountId.equals(other.accountId) && Arrays.equals(values, other.values);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return accountId.hashCode() * 31 + Arrays.hashCode(values);
+        }
+    }
+
+    /**
+     * Immutable prefix of a result list.
+     */
+    static final class Entry {
+        final int changeId;
+        final SortBy sortBy;
+        final List<QueryInfo> info;
+        final int[] ids;
+        final MailItem.Type[] types;
+        final Object[] sortValues;
+        final boolean complete;
+        final int estimatedSize;
+
+        Entry(int changeId, SortBy sortBy, List<QueryInfo> info) {
+            this(changeId, sortBy, info, new int[0], new MailItem.Type[0], new Object[0], false);
+        }
+
+        Entry(int changeId, SortBy sortBy, List<QueryInfo> info, int[] ids, MailItem.Type[] types,
+                Object[] sortValues, boolean complete) {
+            this.changeId = changeId;
+            this.sortBy = sortBy;
+            this.info = info == null ? ImmutableList.<QueryInfo>of() : ImmutableList.copyOf(info);
+            this.ids = ids;
+            this.types = types;
+            this.sortValues = sortValues;
+            this.complete = complete;
+            int bytes = 128 + ids.length * 16;
+            for (Object value : sortValues) {
+                bytes += value instanceof String ? 40 + ((String) value).length() * 2 : 24;
+            }
+            this.estimatedSize = bytes;
+        }
+
+        int size() {
+            return ids.length;
+        }
+
+        /**
+         * @return true if the page and whether there are more hits after it can be told from this prefix
+         */
+        boolean covers(SearchParams params) {
+            int start = params.getOffset();
+            if (params.getCursor() != null) {
+                start = indexOf(params.getCursor().getItemId().getId());
+                if (start < 0) {
+                    return false;
+                }
+                start++;
+            }
+            return complete || start + params.getLimit() < size();
+        }
+
+        private int indexOf(int id) {
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this)
+                .add("change", changeId)
+                .add("sort", sortBy)
+                .add("size", size())
+                .add("complete", complete)
+                .toString();
+        }
+    }
+
+    /**
+     * Serves hits from an {@link Entry}.
+     */
+    static final class CachedQueryResults extends ZimbraQueryResultsImpl {
+        private final Mailbox mailbox;
+        private final Entry entry;
+        private int next = 0;
+
+        CachedQueryResults(Mailbox mbox, SearchParams params, Entry entry) {
+            super(params.getTypes(), entry.sortBy, params.getFetchMode());
+            this.mailbox = mbox;
+            this.entry = entry;
+        }
+
+        @Override
+        public void resetIterator() {
+            next = 0;
+        }
+
+        @Override
+        public ZimbraHit getNext() {
+            ZimbraHit hit = peekNext();
+            if (hit != null) {
+                next++;
+            }
+            return hit;
+        }
+
+        @Override
+        public ZimbraHit peekNext() {
+            return next < entry.size() ? getHit(next) : null;
+        }
+
+        @Override
+        public ZimbraHit skipToHit(int hitNo) {
+            next = Math.max(hitNo, 0);
+            return getNext();
+        }
+
+        private ZimbraHit getHit(int index) {
+            int id = entry.ids[index];
+            Object sortValue = entry.sortValues[index];
+            switch (entry.types[index]) {
+                case CONTACT:
+                    return getContactHit(mailbox, id, null, sortValue);
+                case NOTE:
+                    return getNoteHit(mailbox, id, null, sortValue);
+                case APPOINTMENT:
+                    return getAppointmentHit(mailbox, id, null, sortValue);
+                case TASK:
+                    return getTaskHit(mailbox, id, null, sortValue);
+                case DOCUMENT:
+                    return getDocumentHit(mailbox, id, null, null, sortValue);
+                case MESSAGE:
+                default:
+                    return getMessageHit(mailbox, id, null, null, sortValue);
+            }
+        }
+
+        @Override
+        public List<QueryInfo> getResultInfo() {
+            return entry.info;
+        }
+
+        @Override
+        public long getCursorOffset() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Passes through the results of a real search, appending the hits which extend the cached prefix, and reads ahead
+     * up to a target size on close.
+     */
+    static final class RecordingQueryResults implements ZimbraQueryResults {
+        private final SearchResultsCache owner;
+        private final Key key;
+        private final Entry base;
+        private final ZimbraQueryResults results;
+        private final int target;
+        private final List<Integer> ids;
+        private final List<MailItem.Type> types;
+        private final List<Object> sortValues;
+        private int position = 0;
+        private boolean broken = false;
+        private boolean complete = false;
+
+        RecordingQueryResults(SearchResultsCache owner, Key key, Entry base, ZimbraQueryResults results, int target) {
+            this.owner = owner;
+            this.key = key;
+            this.base = base;
+            this.results = results;
+            this.target = target;
+            ids = new ArrayList<Integer>(target);
+            types = new ArrayList<MailItem.Type>(target);
+            sortValues = new ArrayList<Object>(target);
+            for (int i = 0; i < base.size(); i++) {
+                ids.add(base.ids[i]);
+                types.add(base.types[i]);
+                sortValues.add(base.sortValues[i]);
+            }
+        }
+
+        private void record(ZimbraHit hit) throws ServiceException {
+            int pos = position++;
+            if (broken) {
+                return;
+            }
+            if (hit == null) {
+                complete = pos <= ids.size();
+                return;
+            }
+            if (pos < ids.size()) {
+                if (ids.get(pos) != hit.getItemId()) { // the order isn't what we recorded before
+                    broken = true;
+                }
+            } else if (pos == ids.size() && ids.size() < target) {
+                MailItem.Type type = getType(hit);
+                if (type == null) {
+                    broken = true;
+                } else {
+                    ids.add(hit.getItemId());
+                    types.add(type);
+                    sortValues.add(hit.sortValue);
+                }
+            }
+        }
+
+        private static MailItem.Type getType(ZimbraHit hit) {
+            if (hit instanceof MessageHit) {
+                return MailItem.Type.MESSAGE;
+            } else if (hit instanceof ContactHit) {
+                return MailItem.Type.CONTACT;
+            } else if (hit instanceof NoteHit) {
+                return MailItem.Type.NOTE;
+            } else if (hit instanceof TaskHit) {
+                return MailItem.Type.TASK;
+            } else if (hit instanceof CalendarItemHit) {
+                return MailItem.Type.APPOINTMENT;
+            } else if (hit instanceof DocumentHit) {
+                return MailItem.Type.DOCUMENT;
+            }
+            return null; // proxied, conversation or part hits
+        }
+
+        @Override
+        public void resetIterator() throws ServiceException {
+            results.resetIterator();
+            position = 0;
+        }
+
+        @Override
+        public ZimbraHit getNext() throws ServiceException {
+            ZimbraHit hit = results.getNext();
+            record(hit);
+            return hit;
+        }
+
+        @Override
+        public ZimbraHit peekNext() throws ServiceException {
+            return results.peekNext();
+        }
+
+        @Override
+        public ZimbraHit skipToHit(int hitNo) throws ServiceException {
+            ZimbraHit hit = results.skipToHit(hitNo);
+            position = hitNo;
+            record(hit);
+            return hit;
+        }
+
+        @Override
+        public boolean hasNext() throws ServiceException {
+            return results.hasNext();
+        }
+
+        @Override
+        public SortBy getSortBy() {
+            return results.getSortBy();
+        }
+
+        @Override
+        public List<QueryInfo> getResultInfo() {
+            return results.getResultInfo();
+        }
+
+        @Override
+        public long getCursorOffset() {
+            return results.getCursorOffset();
+        }
+
+        @Override
+        public boolean isPreSorted() {
+            return results.isPreSorted();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                // read ahead, only the IDs and sort values are kept
+                while (!broken && !complete && position == ids.size() && ids.size() < target) {
+                    getNext();
+                }
+                if (!broken && (ids.size() > base.size() || complete)) {
+                    int size = ids.size();
+                    int[] idArray = new int[size];
+                    for (int i = 0; i < size; i++) {
+                        idArray[i] = ids.get(i);
+                    }
+                    owner.put(key, new Entry(base.changeId, base.sortBy, base.info, idArray,
+                            types.toArray(new MailItem.Type[size]), sortValues.toArray(), complete));
+                }
+            } catch (ServiceException e) {
+                ZimbraLog.search.warn("Failed to read ahead search results for the cache", e);
+            } finally {
+                results.close();
+            }
+        }
+    }
+
+    /**
+     * Drops the cached results of a mailbox once a change to it is committed.
+     */
+    public static final class Listener extends MailboxListener {
+        @Override
+        public void notify(ChangeNotification notification) {
+            getInstance().invalidate(notification.mailboxAccount.getId());
+        }
+    }
+}
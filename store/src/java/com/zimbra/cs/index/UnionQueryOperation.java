@@ -37,6 +37,9 @@ public final class UnionQueryOperation extends CombiningQueryOperation {
 
     private boolean atStart = true; // don't re-fill buffer twice if they call hasNext() then reset() w/o actually getting next
     private ZimbraHit cachedNextHit = null;
+    // indexes of the operations which have more hits, as a min-heap on their next hit; null until the merge starts
+    private int[] heap = null;
+    private int heapSize = 0;
 
     @Override
     public long getCursorOffset() {
@@ -60,6 +63,7 @@ public final class UnionQueryOperation extends CombiningQueryOperation {
                 q.resetIterator();
             }
             cachedNextHit = null;
+            heap = null;
             internalGetNext();
         }
     }
@@ -94,34 +98,77 @@ public final class UnionQueryOperation extends CombiningQueryOperation {
                 // no more results!
 
             } else {
-                // mergesort: loop through QueryOperations and find the "best" hit
-                int currentBestHitOffset = -1;
-                ZimbraHit currentBestHit = null;
-                for (int i = 0; i < operations.size(); i++) {
-                    QueryOperation op = operations.get(i);
-                    if (op.hasNext()) {
-                        if (currentBestHitOffset == -1) {
-                            currentBestHitOffset = i;
-                            currentBestHit = op.peekNext();
-                        } else {
-                            ZimbraHit opNext = op.peekNext();
-                            int result = opNext.compareTo(context.getResults().getSortBy(), currentBestHit);
-                            if (result < 0) {
-                                // "before"
-                                currentBestHitOffset = i;
-                                currentBestHit = opNext;
-                            }
-                        }
-                    }
+                // k-way merge: take the best hit off the top of the heap, then move its operation down
+                if (heap == null) {
+                    buildHeap();
                 }
-                if (currentBestHitOffset > -1) {
-                    cachedNextHit = operations.get(currentBestHitOffset).getNext();
-                    assert(cachedNextHit == currentBestHit);
+                if (heapSize > 0) {
+                    QueryOperation op = operations.get(heap[0]);
+                    cachedNextHit = op.getNext();
+                    if (!op.hasNext()) {
+                        heap[0] = heap[--heapSize];
+                    }
+                    siftDown(0);
                 }
             }
         }
     }
 
+    private void buildHeap() throws ServiceException {
+        heap = new int[operations.size()];
+        heapSize = 0;
+        for (int i = 0; i < operations.size(); i++) {
+            if (operations.get(i).hasNext()) {
+                heap[heapSize] = i;
+                siftUp(heapSize++);
+            }
+        }
+    }
+
+    private void siftUp(int pos) throws ServiceException {
+        while (pos > 0) {
+            int parent = (pos - 1) / 2;
+            if (!before(heap[pos], heap[parent])) {
+                break;
+            }
+            swap(pos, parent);
+            pos = parent;
+        }
+    }
+
+    private void siftDown(int pos) throws ServiceException {
+        while (true) {
+            int best = pos;
+            int left = pos * 2 + 1;
+            if (left < heapSize && before(heap[left], heap[best])) {
+                best = left;
+            }
+            if (left + 1 < heapSize && before(heap[left + 1], heap[best])) {
+                best = left + 1;
+            }
+            if (best == pos) {
+                break;
+            }
+            swap(pos, best);
+            pos = best;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int tmp = heap[i];
+        heap[i] = heap[j];
+        heap[j] = tmp;
+    }
+
+    /**
+     * @return true if the next hit of the operation at {@code lhs} sorts before the one at {@code rhs}; ties go to
+     * the operation added first
+     */
+    private boolean before(int lhs, int rhs) throws ServiceException {
+        int result = operations.get(lhs).peekNext().compareTo(context.getResults().getSortBy(),
+                operations.get(rhs).peekNext());
+        return result < 0 || (result == 0 && lhs < rhs);
+    }
 
     @Override
     public void close() throws IOException {
@@ -303,6 +350,7 @@ public final class UnionQueryOperation extends CombiningQueryOperation {
     public Object clone() {
         assert(cachedNextHit == null);
         UnionQueryOperation result = (UnionQueryOperation) super.clone();
+        result.heap = null;
         result.operations = new ArrayList<QueryOperation>(operations.size());
         for (QueryOperation op : operations) {
             result.operations.add((QueryOperation) op.clone());
@@ -323,11 +371,17 @@ public final class UnionQueryOperation extends CombiningQueryOperation {
     protected void begin(QueryContext ctx) throws ServiceException {
         assert(context == null);
         context = ctx;
+        List<RemoteQueryOperation> remotes = new ArrayList<RemoteQueryOperation>();
         for (QueryOperation op : operations) {
             ZimbraLog.search.debug("Executing: %s", op);
             // add 1 to chunk size b/c we buffer
             op.begin(new QueryContext(ctx.getMailbox(), ctx.getResults(), ctx.getParams(), ctx.getChunkSize() + 1));
+            if (op instanceof RemoteQueryOperation) {
+                remotes.add((RemoteQueryOperation) op);
+            }
         }
+        // the merge needs the first hit of every operation, fetch those of the remote ones at the same time
+        RemoteQueryOperation.prefetch(remotes);
         internalGetNext();
     }
 
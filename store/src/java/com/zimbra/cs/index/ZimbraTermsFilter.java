@@ -17,9 +17,12 @@
 package com.zimbra.cs.index;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.lucene.index.Term;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
 /**
@@ -27,19 +30,87 @@ import com.google.common.collect.Sets;
  * This can be used for filtering on multiple terms that are not necessarily in a sequence.
  * An example might be a collection of primary keys from a database query result or perhaps
  * a choice of "category" labels picked by the end user.
+ * <p>
+ * Optionally also restricts docs to inclusive ranges of long values on single-valued fields (e.g. the size that
+ * {@link IndexStore#setFields} writes on every document). Range restrictions are advisory; an index store which
+ * can't evaluate them may ignore them, as the database join still applies the same constraints.
  */
 public class ZimbraTermsFilter {
 
     private final Set<Term> terms=Sets.newTreeSet();
+    private final List<Range> ranges = Lists.newArrayListWithCapacity(0);
+    private final boolean restrictTerms;
 
     /**
      * @param terms is the list of acceptable terms
      */
     public ZimbraTermsFilter(Collection<Term> terms) {
         this.terms.addAll(terms);
+        restrictTerms = true;
+    }
+
+    /**
+     * Doesn't restrict terms, only the ranges added later.
+     */
+    public ZimbraTermsFilter() {
+        restrictTerms = false;
     }
 
     public Collection<Term> getTerms() {
         return terms;
     }
+
+    /**
+     * @return false if docs are only restricted by ranges, in which case {@link #getTerms()} is meaningless
+     */
+    public boolean isRestrictTerms() {
+        return restrictTerms;
+    }
+
+    /**
+     * Restricts to docs whose {@code field} parses as a long between {@code min} and {@code max}, both inclusive.
+     * Either bound may be null meaning open ended.
+     */
+    public ZimbraTermsFilter addLongRange(String field, Long min, Long max) {
+        ranges.add(new Range(field, min, max));
+        return this;
+    }
+
+    public ZimbraTermsFilter addRanges(Collection<Range> ranges) {
+        this.ranges.addAll(ranges);
+        return this;
+    }
+
+    public List<Range> getRanges() {
+        return Collections.unmodifiableList(ranges);
+    }
+
+    public static final class Range {
+        private final String field;
+        private final Long min;
+        private final Long max;
+
+        private Range(String field, Long min, Long max) {
+            this.field = field;
+            this.min = min;
+            this.max = max;
+        }
+
+        public String getField() {
+            return field;
+        }
+
+        public Long getMin() {
+            return min;
+        }
+
+        public Long getMax() {
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return field + ":[" + (min == null ? "*" : min) + " TO " + (max == null ? "*" : max) + "]";
+        }
+    }
 }
@@ -69,6 +69,13 @@ public class ZimbraTopDocs {
         return totalHits;
     }
 
+    /**
+     * Returns true if {@link #getTotalHits()} is an upper bound rather than the exact number of hits.
+     */
+    public boolean isTotalHitsEstimated() {
+        return false;
+    }
+
     /**
      * Returns top hits for the query.
      */
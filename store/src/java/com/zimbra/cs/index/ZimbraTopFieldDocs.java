@@ -29,6 +29,7 @@ import com.google.common.base.Objects;
  */
 public class ZimbraTopFieldDocs extends ZimbraTopDocs {
     private final List<SortField> sortFields;
+    private final boolean totalHitsEstimated;
 
     /**
      * @param totalHits Total number of hits for the query.
@@ -38,8 +39,14 @@ public class ZimbraTopFieldDocs extends ZimbraTopDocs {
      */
     protected ZimbraTopFieldDocs(int totalHits, List<ZimbraScoreDoc> scoreDocs, float maxScore,
             List<SortField> sortFields) {
+        this(totalHits, scoreDocs, maxScore, sortFields, false);
+    }
+
+    private ZimbraTopFieldDocs(int totalHits, List<ZimbraScoreDoc> scoreDocs, float maxScore,
+            List<SortField> sortFields, boolean totalHitsEstimated) {
         super(totalHits, scoreDocs, maxScore);
         this.sortFields = sortFields;
+        this.totalHitsEstimated = totalHitsEstimated;
     }
 
     public static ZimbraTopFieldDocs create(int totalHits, List<ZimbraScoreDoc> scoreDocs,
@@ -54,6 +61,15 @@ public class ZimbraTopFieldDocs extends ZimbraTopDocs {
         return new ZimbraTopFieldDocs(totalHits, scoreDocs, Float.NaN, sortFields);
     }
 
+    /**
+     * Create a ZimbraTopFieldDocs object for search results where scores are not tracked, and totalHits is only an
+     * upper bound.
+     */
+    public static ZimbraTopFieldDocs createEstimated(int totalHits, List<ZimbraScoreDoc> scoreDocs,
+            List<SortField> sortFields) {
+        return new ZimbraTopFieldDocs(totalHits, scoreDocs, Float.NaN, sortFields, true);
+    }
+
     /**
      * Create equivalent ZimbraTopFieldDocs object to a Lucene TopFieldDocs object
      */
@@ -63,6 +79,11 @@ public class ZimbraTopFieldDocs extends ZimbraTopDocs {
                 luceneTopFieldDocs.getMaxScore(), Arrays.asList(luceneTopFieldDocs.fields));
     }
 
+    @Override
+    public boolean isTotalHitsEstimated() {
+        return totalHitsEstimated;
+    }
+
     /**
      * Returns the sort criteria used to find the top hits.
      */
@@ -0,0 +1,101 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.index.analysis;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.analysis.TokenStream;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Manual benchmark of {@link UniversalAnalyzer}, kept out of the unit tests since it only reports timings.
+ * <p>
+ * Tokenizes the given text files through one reused token stream, the way indexing does, and prints the throughput
+ * and, where the JVM can tell, the bytes allocated per token. The stop words come from provisioning, so run it on a
+ * server. Usage: {@code AnalyzerPerfTest <rounds> <file>...}.
+ */
+public final class AnalyzerPerfTest {
+    private final int rounds;
+    private final List<String> docs = new ArrayList<String>();
+    private final UniversalAnalyzer analyzer = new UniversalAnalyzer();
+
+    public AnalyzerPerfTest(int rounds, List<File> files) throws IOException {
+        this.rounds = rounds;
+        for (File file : files) {
+            docs.add(Files.toString(file, Charsets.UTF_8));
+        }
+    }
+
+    public void run() throws IOException {
+        long chars = 0;
+        for (String doc : docs) {
+            chars += doc.length();
+        }
+        for (int round = 0; round < rounds; round++) {
+            long before = allocatedBytes();
+            long start = System.nanoTime();
+            long tokens = 0;
+            for (String doc : docs) {
+                TokenStream stream = analyzer.reusableTokenStream(null, new StringReader(doc));
+                stream.reset();
+                while (stream.incrementToken()) {
+                    tokens++;
+                }
+                stream.end();
+            }
+            long elapsed = Math.max(System.nanoTime() - start, 1);
+            long allocated = before < 0 ? -1 : allocatedBytes() - before;
+            p("round %d: %d chars, %d tokens in %d ms, %.0f chars/sec, %.1f bytes allocated/token", round, chars,
+                    tokens, elapsed / 1000000, chars * 1e9 / elapsed,
+                    allocated < 0 || tokens == 0 ? Double.NaN : (double) allocated / tokens);
+        }
+    }
+
+    /**
+     * Returns the bytes allocated by this thread so far, or -1 if the JVM doesn't track it.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static void p(String fmt, Object... args) {
+        System.out.println(String.format(fmt, args));
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            p("Usage: AnalyzerPerfTest <rounds> <file>...");
+            return;
+        }
+        List<File> files = new ArrayList<File>();
+        for (int i = 1; i < args.length; i++) {
+            files.add(new File(args[i]));
+        }
+        new AnalyzerPerfTest(Integer.parseInt(args[0]), files).run();
+    }
+}
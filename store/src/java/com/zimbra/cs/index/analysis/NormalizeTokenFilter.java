@@ -47,8 +47,13 @@ public final class NormalizeTokenFilter extends CharFilter {
     @Override
     public int read(char[] buf, int offset, int len) throws IOException {
         int result = super.read(buf, offset, len);
-        for (int i = 0; i < result; i++) {
-            buf[offset + i] = (char) normalize(buf[offset + i]);
+        for (int i = offset, end = offset + result; i < end; i++) {
+            char c = buf[i];
+            if (c >= 0x80) {
+                buf[i] = (char) normalize(c);
+            } else if (c >= 'A' && c <= 'Z') {
+                buf[i] = (char) (c + ('a' - 'A'));
+            }
         }
         return result;
     }
@@ -63,6 +68,9 @@ public final class NormalizeTokenFilter extends CharFilter {
      * @param p the character which follows the param c.
      */
     public static int normalize(int c, int p) {
+        if (c < 0x80) { // fast path: none of the mappings below is for ASCII
+            return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+        }
         switch (c) {
             case '\u00C0': // [LATIN CAPITAL LETTER A WITH GRAVE]
             case '\u00C1': // [LATIN CAPITAL LETTER A WITH ACUTE]
@@ -1400,7 +1408,7 @@ public final class NormalizeTokenFilter extends CharFilter {
     }
 
     public static String normalize(String value) {
-        StringBuilder result = new StringBuilder();
+        StringBuilder result = new StringBuilder(value.length());
         for (int i = 0; i < value.length(); i++)
             result.append((char) NormalizeTokenFilter.normalize(value.charAt(i), i + 1 < value.length() ? value.charAt(i + 1) : 0));
 
@@ -19,10 +19,10 @@ package com.zimbra.cs.index.analysis;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
@@ -33,6 +33,9 @@ import org.apache.lucene.analysis.Tokenizer;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 
 import com.google.common.base.Strings;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.net.InternetDomainName;
 import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.mime.InternetAddress;
@@ -61,11 +64,29 @@ import com.zimbra.common.mime.InternetAddress;
  * @author ysasaki
  */
 public final class RFC822AddressTokenStream extends TokenStream {
-    private final List<String> tokens = new LinkedList<String>();
+    /**
+     * Tokens derived from a domain, shared by all the addresses in it. Looking up the top private domain in the
+     * public suffix list is the most expensive part of tokenizing an address, and a server sees the same domains over
+     * and over.
+     */
+    private static final LoadingCache<String, DomainTokens> DOMAINS = CacheBuilder.newBuilder()
+        .maximumSize(LC.zimbra_index_rfc822address_domain_cache_size.intValue())
+        .build(new CacheLoader<String, DomainTokens>() {
+            @Override
+            public DomainTokens load(String domain) {
+                return new DomainTokens(domain);
+            }
+        });
+
+    private final List<String> tokens = new ArrayList<String>();
     private Iterator<String> itr;
     private final CharTermAttribute termAttr = addAttribute(CharTermAttribute.class);
+    private final int maxTokenLength;
+    private final int maxTokenCount;
 
     public RFC822AddressTokenStream(String raw) {
+        maxTokenLength = LC.zimbra_index_rfc822address_max_token_length.intValue();
+        maxTokenCount = LC.zimbra_index_rfc822address_max_token_count.intValue();
         if (Strings.isNullOrEmpty(raw)) {
             return;
         }
@@ -102,6 +123,8 @@ public final class RFC822AddressTokenStream extends TokenStream {
     }
 
     public RFC822AddressTokenStream(RFC822AddressTokenStream stream) {
+        maxTokenLength = stream.maxTokenLength;
+        maxTokenCount = stream.maxTokenCount;
         tokens.addAll(stream.tokens);
         itr = tokens.iterator();
     }
@@ -128,17 +151,13 @@ public final class RFC822AddressTokenStream extends TokenStream {
         if (src.endsWith("@")) { // no domain
             return;
         }
-        String domain = src.substring(at + 1);
-        add("@" + domain);
-        add(domain);
-
-        try {
-            String top = InternetDomainName.fromLenient(domain).topPrivateDomain().parts().get(0);
-            add(top);
-            add("@" + top); // for backward compatibility
-        } catch (IllegalArgumentException ignore) {
-        } catch (IllegalStateException ignore) {
-            // skip unless it's a valid domain
+        String name = src.substring(at + 1);
+        DomainTokens domain = name.length() <= maxTokenLength ? DOMAINS.getUnchecked(name) : new DomainTokens(name);
+        add(domain.atDomain);
+        add(domain.domain);
+        if (domain.top != null) {
+            add(domain.top);
+            add(domain.atTop); // for backward compatibility
         }
     }
 
@@ -160,8 +179,7 @@ public final class RFC822AddressTokenStream extends TokenStream {
     }
 
     private void add(String token) {
-        if (token.length() <= LC.zimbra_index_rfc822address_max_token_length.intValue() &&
-                tokens.size() < LC.zimbra_index_rfc822address_max_token_count.intValue()) {
+        if (token.length() <= maxTokenLength && tokens.size() < maxTokenCount) {
             tokens.add(token);
         }
     }
@@ -190,4 +208,24 @@ public final class RFC822AddressTokenStream extends TokenStream {
         return Collections.unmodifiableList(tokens);
     }
 
+    private static final class DomainTokens {
+        final String domain;
+        final String atDomain;
+        final String top;
+        final String atTop;
+
+        DomainTokens(String domain) {
+            this.domain = domain;
+            atDomain = "@" + domain;
+            String top = null;
+            try {
+                top = InternetDomainName.fromLenient(domain).topPrivateDomain().parts().get(0);
+            } catch (IllegalArgumentException ignore) {
+            } catch (IllegalStateException ignore) {
+                // skip unless it's a valid domain
+            }
+            this.top = top;
+            atTop = top == null ? null : "@" + top;
+        }
+    }
 }
@@ -30,7 +30,6 @@ import org.apache.lucene.analysis.Tokenizer;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
 
-import com.google.common.base.CharMatcher;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.account.Provisioning;
@@ -110,9 +109,15 @@ public final class UniversalAnalyzer extends Analyzer {
                     termAttr.setLength(len - 2);
                 }
             } else if (type == UniversalTokenizer.TokenType.ACRONYM.name()) {
-                // remove dots from acronyms
-                String replace = CharMatcher.is('.').removeFrom(termAttr);
-                termAttr.setEmpty().append(replace);
+                // remove dots from acronyms, in place
+                char[] buf = termAttr.buffer();
+                int len = 0;
+                for (int i = 0; i < termAttr.length(); i++) {
+                    if (buf[i] != '.') {
+                        buf[len++] = buf[i];
+                    }
+                }
+                termAttr.setLength(len);
             }
 
             return true;
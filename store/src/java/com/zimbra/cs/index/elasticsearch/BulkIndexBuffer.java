@@ -0,0 +1,402 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+
+package com.zimbra.cs.index.elasticsearch;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TimerTask;
+import java.util.concurrent.Semaphore;
+
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.NameValuePair;
+import org.apache.commons.httpclient.methods.DeleteMethod;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.mime.MimeConstants;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.index.LuceneFields;
+import com.zimbra.cs.util.Zimbra;
+
+/**
+ * Buffers index documents for one ElasticSearch index and sends them in {@code _bulk} requests instead of one HTTP
+ * request per document.
+ * <p>
+ * The buffer is sent once it holds {@code maxActions} documents or {@code maxBytes} of UTF-8 encoded JSON, by a timer
+ * once the oldest buffered document is {@code maxDelay} ms old, and on {@link #flush()}. Deletes are by item ID rather
+ * than by document ID, so they can't go into {@code _bulk}; they are collected and sent as delete-by-query requests
+ * covering many IDs ahead of the buffered documents. Documents buffered for an item before it is deleted are dropped.
+ * <p>
+ * Documents the server rejects with a temporary status (or the whole request, if it fails) are retried up to
+ * {@code maxRetries} times with a growing delay. Failed deletes are logged, like documents that can't be indexed. The
+ * number of bulk requests in flight is bounded server wide. Each {@link com.zimbra.cs.index.Indexer} has its own
+ * buffer, which is only shared with the timer.
+ */
+class BulkIndexBuffer {
+    private static final Semaphore IN_FLIGHT = new Semaphore(
+            Math.max(LC.zimbra_index_elasticsearch_bulk_max_inflight.intValue(), 1), true);
+    private static final int DELETE_BATCH_SIZE = 100;
+    private static final long RETRY_DELAY = 500L;
+
+    private final String typeUrl;
+    private final int maxActions;
+    private final long maxBytes;
+    private final long maxDelay;
+    private final int maxRetries;
+    private final List<Action> actions = Lists.newArrayList();
+    private final Set<Integer> deletes = Sets.newLinkedHashSet();
+    private long bytes = 0;
+    private long oldest = -1;
+    private TimerTask ageFlush;
+    private int indexed = 0;
+    private int failed = 0;
+    private long elapsed = 0;
+
+    BulkIndexBuffer(String indexUrl, String indexType) {
+        this(indexUrl, indexType, LC.zimbra_index_elasticsearch_bulk_max_docs.intValue(),
+                LC.zimbra_index_elasticsearch_bulk_max_bytes.longValue(),
+                LC.zimbra_index_elasticsearch_bulk_max_delay.longValue(),
+                LC.zimbra_index_elasticsearch_bulk_max_retries.intValue());
+    }
+
+    /**
+     * @param indexUrl URL of the index, e.g. {@code http://localhost:9200/<account-id>/}
+     */
+    BulkIndexBuffer(String indexUrl, String indexType, int maxActions, long maxBytes, long maxDelay,
+            int maxRetries) {
+        this.typeUrl = String.format("%s%s/", indexUrl, indexType);
+        this.maxActions = Math.max(maxActions, 1);
+        this.maxBytes = maxBytes;
+        this.maxDelay = maxDelay;
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * Buffers a document for the item, sending the buffer if it is full.
+     */
+    synchronized void index(int itemId, JSONObject doc) throws IOException {
+        Action action = new Action(itemId, "{\"index\":{}}\n" + doc.toString() + "\n");
+        if (actions.isEmpty()) {
+            oldest = System.currentTimeMillis();
+            scheduleAgeFlush();
+        }
+        actions.add(action);
+        bytes += action.bytes;
+        if (actions.size() >= maxActions || bytes >= maxBytes || System.currentTimeMillis() - oldest >= maxDelay) {
+            flush();
+        }
+    }
+
+    /**
+     * Deletes all the documents of the items when the buffer is next sent.
+     */
+    synchronized void delete(Collection<Integer> itemIds) {
+        if (isEmpty()) {
+            scheduleAgeFlush();
+        }
+        deletes.addAll(itemIds);
+        for (Iterator<Action> itr = actions.iterator(); itr.hasNext();) {
+            Action action = itr.next();
+            if (itemIds.contains(action.itemId)) {
+                itr.remove();
+                bytes -= action.bytes;
+            }
+        }
+    }
+
+    synchronized boolean isEmpty() {
+        return actions.isEmpty() && deletes.isEmpty();
+    }
+
+    /**
+     * Sends what is buffered {@code maxDelay} ms from now, unless it is sent before.
+     */
+    private void scheduleAgeFlush() {
+        if (ageFlush != null || maxDelay <= 0 || maxDelay > Integer.MAX_VALUE) {
+            return;
+        }
+        ageFlush = new TimerTask() {
+            @Override
+            public void run() {
+                synchronized (BulkIndexBuffer.this) {
+                    if (ageFlush != this) {
+                        return;
+                    }
+                    ageFlush = null;
+                    try {
+                        flush();
+                    } catch (IOException e) {
+                        ZimbraLog.index.warn("Problem sending buffered index documents", e);
+                    }
+                }
+            }
+        };
+        Zimbra.sTimer.schedule(ageFlush, maxDelay);
+    }
+
+    /**
+     * Sends pending deletes and buffered documents.
+     */
+    synchronized void flush() throws IOException {
+        if (ageFlush != null) {
+            ageFlush.cancel();
+            ageFlush = null;
+        }
+        if (!deletes.isEmpty()) {
+            List<Integer> ids = Lists.newArrayList(deletes);
+            deletes.clear();
+            for (List<Integer> batch : Lists.partition(ids, DELETE_BATCH_SIZE)) {
+                try {
+                    deleteByQuery(batch);
+                } catch (IOException e) {
+                    ZimbraLog.index.error("Problem deleting documents with ids=%s", batch, e);
+                }
+            }
+        }
+        if (actions.isEmpty()) {
+            return;
+        }
+        List<Action> pending = Lists.newArrayList(actions);
+        actions.clear();
+        bytes = 0;
+        oldest = -1;
+
+        long start = System.currentTimeMillis();
+        int total = pending.size();
+        for (int attempt = 0; !pending.isEmpty(); attempt++) {
+            if (attempt > maxRetries) {
+                for (Action action : pending) {
+                    ZimbraLog.index.error("Giving up indexing document with id=%d after %d attempts",
+                            action.itemId, attempt);
+                }
+                failed += pending.size();
+                break;
+            }
+            if (attempt > 0) {
+                try {
+                    Thread.sleep(RETRY_DELAY * attempt);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while retrying bulk index request");
+                }
+            }
+            pending = send(pending);
+        }
+        long time = System.currentTimeMillis() - start;
+        elapsed += time;
+        ZimbraLog.index.debug("Bulk indexed docs=%d,elapsed=%d,docs/s=%d",
+                total, time, total * 1000L / Math.max(time, 1));
+    }
+
+    /**
+     * Sends whatever is still buffered, and logs the throughput so far.
+     */
+    synchronized void close() throws IOException {
+        flush();
+        if (indexed + failed > 0) {
+            ZimbraLog.index.debug("Bulk index totals indexed=%d,failed=%d,elapsed=%d,docs/s=%d",
+                    indexed, failed, elapsed, indexed * 1000L / Math.max(elapsed, 1));
+        }
+    }
+
+    /**
+     * @return actions which should be retried
+     */
+    private List<Action> send(List<Action> batch) {
+        StringBuilder body = new StringBuilder();
+        for (Action action : batch) {
+            body.append(action.source);
+        }
+        Response response;
+        IN_FLIGHT.acquireUninterruptibly();
+        try {
+            response = execute(String.format("%s_bulk", typeUrl), body.toString());
+        } catch (IOException e) {
+            ZimbraLog.index.warn("Problem sending bulk index request docs=%d", batch.size(), e);
+            return batch;
+        } finally {
+            IN_FLIGHT.release();
+        }
+
+        if (isTemporary(response.status)) {
+            ZimbraLog.index.warn("Bulk index request rejected docs=%d httpstatus=%d", batch.size(), response.status);
+            return batch;
+        } else if (response.status != HttpStatus.SC_OK) {
+            ZimbraLog.index.error("Problem bulk indexing docs=%d httpstatus=%d", batch.size(), response.status);
+            failed += batch.size();
+            return Lists.newArrayListWithCapacity(0);
+        }
+
+        List<Action> retry = Lists.newArrayList();
+        JSONArray items;
+        try {
+            items = new JSONObject(response.body).getJSONArray("items");
+        } catch (JSONException e) {
+            ZimbraLog.index.error("Problem processing bulk index response docs=%d", batch.size(), e);
+            failed += batch.size();
+            return retry;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            Action action = batch.get(i);
+            JSONObject result = null;
+            if (i < items.length()) {
+                JSONObject item = items.optJSONObject(i);
+                if (item != null && item.length() == 1) {
+                    result = item.optJSONObject((String) item.keys().next());
+                }
+            }
+            if (result == null) {
+                ZimbraLog.index.error("Missing bulk index result for document with id=%d", action.itemId);
+                failed++;
+                continue;
+            }
+            int status = result.optInt("status", result.has("error") ? HttpStatus.SC_INTERNAL_SERVER_ERROR :
+                    HttpStatus.SC_CREATED);
+            if (status < 300 && !result.has("error")) {
+                indexed++;
+            } else if (isTemporary(status)) {
+                retry.add(action);
+            } else {
+                ZimbraLog.index.error("Problem indexing document with id=%d httpstatus=%d error=%s",
+                        action.itemId, status, result.opt("error"));
+                failed++;
+            }
+        }
+        return retry;
+    }
+
+    private void deleteByQuery(List<Integer> ids) throws IOException {
+        StringBuilder query = new StringBuilder(LuceneFields.L_MAILBOX_BLOB_ID).append(":(");
+        for (int i = 0; i < ids.size(); i++) {
+            if (i > 0) {
+                query.append(" OR ");
+            }
+            query.append(ids.get(i));
+        }
+        query.append(')');
+        executeDelete(query.toString(), ids);
+    }
+
+    private static boolean isTemporary(int status) {
+        return status == 429 || status == HttpStatus.SC_SERVICE_UNAVAILABLE;
+    }
+
+    /**
+     * Sends a {@code _bulk} request. Overridden by tests to stand in for the server.
+     */
+    @VisibleForTesting
+    Response execute(String url, String body) throws IOException {
+        PostMethod method = new PostMethod(ElasticSearchConnector.actualUrl(url));
+        method.setRequestEntity(new StringRequestEntity(body, MimeConstants.CT_APPLICATION_JSON,
+                MimeConstants.P_CHARSET_UTF8));
+        ElasticSearchConnector connector = new ElasticSearchConnector();
+        int status = connector.executeMethod(method);
+        return new Response(status, method.getResponseBodyAsString());
+    }
+
+    /**
+     * Sends a delete-by-query request. Overridden by tests to stand in for the server.
+     */
+    @VisibleForTesting
+    void executeDelete(String query, List<Integer> ids) throws IOException {
+        // delete-by-query deletes through the index writer, so unrefreshed documents are deleted as well
+        DeleteMethod method = new DeleteMethod(ElasticSearchConnector.actualUrl(String.format("%s_query", typeUrl)));
+        method.setQueryString(new NameValuePair[] { new NameValuePair("q", query) });
+        ElasticSearchConnector connector = new ElasticSearchConnector();
+        int status = connector.executeMethod(method);
+        if (status == HttpStatus.SC_OK) {
+            ZimbraLog.index.debug("Deleted documents with ids=%s", ids);
+        } else {
+            ZimbraLog.index.error("Problem deleting documents with ids=%s httpstatus=%d", ids, status);
+        }
+    }
+
+    synchronized int getIndexed() {
+        return indexed;
+    }
+
+    synchronized int getFailed() {
+        return failed;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return Objects.toStringHelper(this)
+            .add("buffered", actions.size())
+            .add("deletes", deletes.size())
+            .add("indexed", indexed)
+            .add("failed", failed)
+            .toString();
+    }
+
+    private static final class Action {
+        final int itemId;
+        final String source;
+        final int bytes;
+
+        Action(int itemId, String source) {
+            this.itemId = itemId;
+            this.source = source;
+            this.bytes = utf8Length(source);
+        }
+    }
+
+    /**
+     * Returns the length of the string encoded in UTF-8, without encoding it.
+     */
+    @VisibleForTesting
+    static int utf8Length(String str) {
+        int len = 0;
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                len++;
+            } else if (c < 0x800) {
+                len += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < str.length() &&
+                    Character.isLowSurrogate(str.charAt(i + 1))) {
+                len += 4;
+                i++;
+            } else {
+                len += 3;
+            }
+        }
+        return len;
+    }
+
+    static final class Response {
+        final int status;
+        final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+}
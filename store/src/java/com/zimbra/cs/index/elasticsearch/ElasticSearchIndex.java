@@ -30,7 +30,6 @@ import java.util.Queue;
 import org.apache.commons.httpclient.HttpException;
 import org.apache.commons.httpclient.HttpMethod;
 import org.apache.commons.httpclient.HttpStatus;
-import org.apache.commons.httpclient.NameValuePair;
 import org.apache.commons.httpclient.methods.DeleteMethod;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
@@ -441,9 +440,14 @@ public final class ElasticSearchIndex extends IndexStore {
     }
 
     private final class ElasticSearchIndexer implements Indexer {
+        private final BulkIndexBuffer buffer = new BulkIndexBuffer(indexUrl, indexType);
 
+        /**
+         * Sends whatever is still buffered.
+         */
         @Override
-        public void close() {
+        public void close() throws IOException {
+            buffer.close();
         }
 
         @Override
@@ -565,9 +569,7 @@ public final class ElasticSearchIndex extends IndexStore {
             switch (item.getIndexStatus()) {
                 case STALE:
                 case DONE: // for partial re-index
-                    List<Integer> ids = Lists.newArrayListWithCapacity(1);
-                    ids.add(new Integer(item.getId()));
-                    deleteDocument(ids);
+                    buffer.delete(Collections.singletonList(item.getId()));
                     break;
                 case DEFERRED:
                     break;
@@ -577,8 +579,6 @@ public final class ElasticSearchIndex extends IndexStore {
 
             for (IndexDocument doc : docs) {
                 // Note: using automatic ID generation
-                String url = String.format("%s%s/", indexUrl, indexType);
-                PostMethod method = new PostMethod(ElasticSearchConnector.actualUrl(url));
                 JSONObject jsonObj = new JSONObject();
                 // doc can be shared by multiple threads if multiple mailboxes are referenced in a single email
                 synchronized (doc) {
@@ -588,50 +588,17 @@ public final class ElasticSearchIndex extends IndexStore {
                         addFieldToDocument(jsonObj, field);
                     }
                 }
-                try {
-                    method.setRequestEntity(new StringRequestEntity(jsonObj.toString(),
-                            MimeConstants.CT_APPLICATION_JSON, MimeConstants.P_CHARSET_UTF8));
-                    ElasticSearchConnector connector = new ElasticSearchConnector();
-                    int statusCode = connector.executeMethod(method);
-                    if (statusCode != HttpStatus.SC_CREATED) {
-                        ZimbraLog.index.error("Problem indexing document with id=%d httpstatus=%d",
-                                item.getId(), statusCode);
-                    }
-                } catch (HttpException e) {
-                    ZimbraLog.index.error("Problem indexing document with id=%d", item.getId());
-                } catch (IOException e) {
-                    ZimbraLog.index.error("Problem indexing document with id=%d", item.getId());
-                }
+                buffer.index(item.getId(), jsonObj);
             }
         }
 
         /**
-         * Delete all documents associated with each mailbox blob ID in the provided list.
+         * Delete all documents associated with each mailbox blob ID in the provided list. The deletes are sent
+         * together with any buffered documents, at the latest when the indexer is closed.
          */
         @Override
         public void deleteDocument(List<Integer> ids) {
-            refreshIndexIfNecessary();
-            String url = String.format("%s%s/_query", indexUrl, indexType);
-            for (Integer id : ids) {
-                DeleteMethod method = new DeleteMethod(ElasticSearchConnector.actualUrl(url));
-                NameValuePair[] querys = new NameValuePair[1];
-                String query = String.format("%s:%s", LuceneFields.L_MAILBOX_BLOB_ID, id.toString());
-                querys[0] = new NameValuePair("q", query);
-                method.setQueryString(querys);
-                try {
-                    ElasticSearchConnector connector = new ElasticSearchConnector();
-                    int statusCode = connector.executeMethod(method);
-                    if (statusCode == HttpStatus.SC_OK) {
-                        ZimbraLog.index.debug("Deleted documents with id=%d", id);
-                    } else {
-                        ZimbraLog.index.error("Problem deleting documents with id=%d httpstatus=%d", id, statusCode);
-                    }
-                } catch (HttpException e) {
-                    ZimbraLog.index.error("Problem deleting documents with id=%d", id);
-                } catch (IOException e) {
-                    ZimbraLog.index.error("Problem deleting documents with id=%d", id);
-                }
-            }
+            buffer.delete(ids);
         }
     }
 
@@ -1203,7 +1170,8 @@ public final class ElasticSearchIndex extends IndexStore {
          * e.g. { "terms" : { "l.mbox_blob_id" : ["258", "312"]}
          */
         private JSONObject FilterToJSON(ZimbraTermsFilter filter) throws JSONException {
-            if (filter == null) {
+            // range restrictions are advisory, the DB join applies them anyway
+            if (filter == null || !filter.isRestrictTerms()) {
                 return null;
             }
             JSONObject filtersO = new JSONObject();
@@ -109,7 +109,10 @@ import org.apache.lucene.analysis.Analyzer;
 
 import com.google.common.base.Objects;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
+import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.index.LuceneFields;
@@ -142,6 +145,7 @@ import com.zimbra.cs.mailbox.MailItem;
 import com.zimbra.cs.mailbox.MailServiceException;
 import com.zimbra.cs.mailbox.Mailbox;
 import com.zimbra.cs.service.util.ItemId;
+import com.zimbra.cs.stats.ZimbraPerf;
 
 /**
  * Parser for search query.
@@ -213,6 +217,15 @@ public final class QueryParser {
         .put(ITEM, "ITEMID")
         .build();
 
+    /**
+     * Syntax trees of recently parsed query strings. A syntax tree only depends on the query string, and isn't
+     * modified once built, so it is shared by all the mailboxes and threads searching for the same string, and only
+     * needs to be bound to the mailbox, analyzer and the search parameters (default field, types, etc) each time.
+     */
+    private static final Cache<String, SimpleNode> PLANS = CacheBuilder.newBuilder()
+        .maximumSize(Math.max(LC.search_query_plan_cache_size.intValue(), 0))
+        .build();
+
     private static Pattern FIELD_REGEX = Pattern.compile("field\\[(.+)\\]:|#(.+):", Pattern.CASE_INSENSITIVE);
 
     private final Mailbox mailbox;
@@ -297,9 +310,16 @@ public final class QueryParser {
         if (Strings.isNullOrEmpty(src)) {
             throw MailServiceException.QUERY_PARSE_ERROR(src, null, "", 0, "Empty query string not allowed");
         }
-        Parser parser = new Parser(new StringReader(src));
+        long start = ZimbraPerf.STOPWATCH_SEARCH_PARSE.start();
         try {
-            SimpleNode node = parser.parse();
+            SimpleNode node = PLANS.getIfPresent(src);
+            if (node == null) {
+                ZimbraPerf.COUNTER_SEARCH_PLAN_CACHE.increment(0);
+                node = new Parser(new StringReader(src)).parse();
+                PLANS.put(src, node);
+            } else {
+                ZimbraPerf.COUNTER_SEARCH_PLAN_CACHE.increment(100);
+            }
             assert(node.id == JJTROOT);
             assert(node.jjtGetNumChildren() == 1);
             return toQuery((SimpleNode) node.jjtGetChild(0));
@@ -316,6 +336,8 @@ public final class QueryParser {
                 throw MailServiceException.QUERY_PARSE_ERROR(src, e,
                         e.currentToken.image, e.currentToken.beginColumn, e.getMessage());
             }
+        } finally {
+            ZimbraPerf.STOPWATCH_SEARCH_PARSE.stop(start);
         }
     }
 
@@ -93,6 +93,7 @@ import com.zimbra.cs.mailbox.calendar.ZAttendee;
 import com.zimbra.cs.mailbox.calendar.ZOrganizer;
 import com.zimbra.cs.mailbox.calendar.ZRecur;
 import com.zimbra.cs.mailbox.calendar.ZRecur.Frequency;
+import com.zimbra.cs.mailbox.calendar.cache.InstanceExpansionCache;
 import com.zimbra.cs.mime.Mime;
 import com.zimbra.cs.mime.Mime.FixedMimeMessage;
 import com.zimbra.cs.mime.ParsedAddress;
@@ -969,7 +970,7 @@ public abstract class CalendarItem extends MailItem {
         List<Instance> instances = new ArrayList<Instance>();
         if (mRecurrence != null) {
             long startTime = System.currentTimeMillis();
-            instances = Recurrence.expandInstances(mRecurrence, getId(), start, endAdjusted);
+            instances = InstanceExpansionCache.getInstance().expand(this, mRecurrence, start, endAdjusted);
             if (ZimbraLog.calendar.isDebugEnabled()) {
                 long elapsed = System.currentTimeMillis() - startTime;
                 ZimbraLog.calendar.debug(
@@ -19,6 +19,7 @@ package com.zimbra.cs.mailbox;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -44,6 +45,7 @@ import com.zimbra.cs.session.Session;
 public class Conversation extends MailItem {
     private   String     mEncodedSenders;
     protected SenderList mSenderList;
+    private volatile PrefetchedMessages mPrefetched;
 
     Conversation(Mailbox mbox, UnderlyingData data) throws ServiceException {
         this(mbox, data, false);
@@ -204,13 +206,78 @@ public class Conversation extends MailItem {
      */
     List<Message> getMessages(SortBy sort, int limit) throws ServiceException {
         List<Message> msgs = new ArrayList<Message>(getMessageCount());
-        List<UnderlyingData> listData = DbMailItem.getByParent(this, sort, limit, false);
+        List<UnderlyingData> listData = getPrefetchedMessages(sort, limit);
+        if (listData == null) {
+            listData = DbMailItem.getByParent(this, sort, limit, false);
+        }
         for (UnderlyingData data : listData) {
             msgs.add(mMailbox.getMessage(data));
         }
         return msgs;
     }
 
+    /** Remembers the rows of this conversation's messages, loaded together
+     *  with those of other conversations by {@link Mailbox#prefetchMessagesByConversation}.
+     *  They are used in place of a DB query until the mailbox next changes. */
+    void setPrefetchedMessages(List<UnderlyingData> listData) {
+        mPrefetched = new PrefetchedMessages(listData, mMailbox.getLastChangeID());
+    }
+
+    boolean hasPrefetchedMessages() {
+        PrefetchedMessages prefetched = mPrefetched;
+        return prefetched != null && prefetched.changeId == mMailbox.getLastChangeID();
+    }
+
+    /** Returns copies of the prefetched rows in the requested order, or
+     *  <tt>null</tt> if there are none or the mailbox has changed since. */
+    private List<UnderlyingData> getPrefetchedMessages(SortBy sort, int limit) {
+        PrefetchedMessages prefetched = mPrefetched;
+        if (prefetched == null) {
+            return null;
+        } else if (prefetched.changeId != mMailbox.getLastChangeID()) {
+            mPrefetched = null;
+            return null;
+        }
+        List<UnderlyingData> listData = new ArrayList<UnderlyingData>(prefetched.listData.size());
+        for (UnderlyingData data : prefetched.listData) {
+            listData.add(data.clone());
+        }
+        switch (sort.getKey()) {
+            case NONE:
+                break;
+            case DATE:
+                Collections.sort(listData, sort.getDirection() == SortBy.Direction.DESC ?
+                        Collections.reverseOrder(PrefetchedMessages.BY_DATE) : PrefetchedMessages.BY_DATE);
+                break;
+            default:
+                return null;
+        }
+        if (limit > 0 && listData.size() > limit) {
+            listData = listData.subList(0, limit);
+        }
+        return listData;
+    }
+
+    private static final class PrefetchedMessages {
+        static final Comparator<UnderlyingData> BY_DATE = new Comparator<UnderlyingData>() {
+            @Override
+            public int compare(UnderlyingData lhs, UnderlyingData rhs) {
+                if (lhs.date != rhs.date) {
+                    return lhs.date < rhs.date ? -1 : 1;
+                }
+                return lhs.id < rhs.id ? -1 : (lhs.id == rhs.id ? 0 : 1);
+            }
+        };
+
+        final List<UnderlyingData> listData;
+        final int changeId;
+
+        PrefetchedMessages(List<UnderlyingData> listData, int changeId) {
+            this.listData = listData;
+            this.changeId = changeId;
+        }
+    }
+
     @Override
     boolean canAccess(short rightsNeeded) {
         return true;
@@ -3252,7 +3252,7 @@ public abstract class MailItem implements Comparable<MailItem>, ScheduledTaskRes
 
         // write a deletion record for later sync
         if (writeTombstones && mbox.isTrackingSync() && !info.itemIds.isEmpty() && !fromDumpster) {
-            DbMailItem.writeTombstones(mbox, info.itemIds);
+            mbox.writeTombstones(info.itemIds);
         }
 
         // don't actually delete the blobs or index entries here; wait until after the commit
@@ -32,6 +32,7 @@ import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -204,6 +205,7 @@ import com.zimbra.cs.redolog.op.SaveChat;
 import com.zimbra.cs.redolog.op.SaveDocument;
 import com.zimbra.cs.redolog.op.SaveDraft;
 import com.zimbra.cs.redolog.op.SetActiveSyncDisabled;
+import com.zimbra.cs.redolog.op.SetBlobLocators;
 import com.zimbra.cs.redolog.op.SetCalendarItem;
 import com.zimbra.cs.redolog.op.SetConfig;
 import com.zimbra.cs.redolog.op.SetCustomData;
@@ -373,6 +375,7 @@ public class Mailbox {
         PendingModifications dirty = new PendingModifications();
         final List<Object> otherDirtyStuff = new LinkedList<Object>();
         PendingDelete deletes = null;
+        TypedIdList tombstones = null;
         private boolean writeChange;
 
         MailboxChange() {
@@ -483,6 +486,7 @@ public class Mailbox {
             this.sync = null;
             this.config = null;
             this.deletes = null;
+            this.tombstones = null;
             this.itemCache = null;
             this.indexItems.clear();
             this.dirty.clear();
@@ -735,11 +739,15 @@ public class Mailbox {
     private volatile boolean open = false;
     private boolean galSyncMailbox = false;
     private volatile boolean requiresWriteLock = true;
+    private final SyncJournal syncJournal;
 
     protected Mailbox(MailboxData data) {
         mId = data.id;
         mData = data;
         mData.lastChangeDate = System.currentTimeMillis();
+        // other servers of an always-on cluster change the mailbox too, and those changes aren't seen here
+        syncJournal = new SyncJournal(Zimbra.isAlwaysOn() ? 0 : LC.zimbra_mailbox_sync_journal_size.intValue(),
+                data.lastChangeId);
         index = new MailboxIndex(this);
         // version init done in open()
         // index init done in open()
@@ -3673,6 +3681,11 @@ public class Mailbox {
                 throw MailServiceException.TOMBSTONES_EXPIRED();
             }
 
+            TypedIdList journaled = syncJournal.getTombstones(lastSync, equalModSeq);
+            if (journaled != null) {
+                return journaled;
+            }
+
             boolean success = false;
             try {
                 beginReadTransaction("getTombstones", null);
@@ -3880,8 +3893,14 @@ public class Mailbox {
                 } else if (visible != null) {
                     folderIds = SetUtil.intersect(folderIds, visible);
                 }
-                Pair<List<Integer>, TypedIdList> dataList = DbMailItem
+                Pair<List<Integer>, TypedIdList> dataList = null;
+                if (type == MailItem.Type.UNKNOWN && limit <= 0) {
+                    dataList = getJournaledItems(lastSync, sinceDate, folderIds, lastDeleteSync);
+                }
+                if (dataList == null) {
+                    dataList = DbMailItem
                                 .getModifiedItems(this, type, lastSync, sinceDate, folderIds, lastDeleteSync, limit);
+                }
                 if (dataList == null) {
                     return null;
                 }
@@ -3895,6 +3914,58 @@ public class Mailbox {
         }
     }
 
+    /**
+     * Same as {@link DbMailItem#getModifiedItems} for all syncable types, but finds the items in the sync journal
+     * instead of scanning the database. Returns null if the journal doesn't go back to <tt>lastSync</tt>.
+     */
+    private Pair<List<Integer>, TypedIdList> getJournaledItems(int lastSync, int sinceDate, Set<Integer> folderIds,
+            int lastDeleteSync) throws ServiceException {
+        Set<Integer> ids = syncJournal.getModifiedIds(lastSync);
+        if (ids == null) {
+            return null;
+        }
+        MailItem[] items;
+        try {
+            items = getItemById(ids, MailItem.Type.UNKNOWN);
+        } catch (NoSuchItemException e) {
+            ZimbraLog.sync.warn("sync journal of mailbox %d is out of date; reading changes from the database", mId);
+            syncJournal.reset(getLastChangeID());
+            return null;
+        }
+        List<MailItem> changed = new ArrayList<MailItem>(items.length);
+        for (MailItem item : items) {
+            // same as the database query: only syncable types, modified since the sync and dated after the cutoff
+            if (item == null || item instanceof Folder || item instanceof Tag) {
+                continue;
+            }
+            if (item.getModifiedSequence() <= lastSync || (sinceDate > 0 && item.getDate() / 1000 <= sinceDate)) {
+                continue;
+            }
+            changed.add(item);
+        }
+        Collections.sort(changed, new Comparator<MailItem>() {
+            @Override
+            public int compare(MailItem lhs, MailItem rhs) {
+                int diff = lhs.getModifiedSequence() - rhs.getModifiedSequence();
+                return diff != 0 ? diff : lhs.getId() - rhs.getId();
+            }
+        });
+
+        List<Integer> modified = new ArrayList<Integer>(changed.size());
+        TypedIdList missed = new TypedIdList();
+        for (MailItem item : changed) {
+            if (folderIds == null || folderIds.contains(item.getFolderId())) {
+                modified.add(item.getId());
+            } else if (item.getModifiedSequence() > lastDeleteSync) {
+                missed.add(item.getType(), item.getId(), item.getUuid(), item.getModifiedSequence(),
+                        item.getPrevFolders());
+            }
+        }
+        ZimbraLog.sync.debug("answered changes since %d from the sync journal: %d modified, %d missed",
+                lastSync, modified.size(), missed.size());
+        return new Pair<List<Integer>, TypedIdList>(modified, missed);
+    }
+
     /**
      * Returns a list of all {@link Folder}s the authenticated user has {@link ACL#RIGHT_READ} access to. Returns
      * {@code null} if the authenticated user has read access to the entire Mailbox.
@@ -4390,6 +4461,84 @@ public class Mailbox {
         }
     }
 
+    /**
+     * Points items at copies of their blobs in one transaction, as when moving blobs to another volume.  An item is
+     * left alone if its content changed or it was deleted since the blob was copied.
+     *
+     * @param copies the copied blobs, with the locator of the volume they were copied to
+     * @return the copies now in use; the old blobs of these items may be deleted, and the other copies should be
+     *         deleted
+     */
+    public List<MailboxBlob.MailboxBlobInfo> setBlobLocators(OperationContext octxt,
+            List<MailboxBlob.MailboxBlobInfo> copies) throws ServiceException {
+        SetBlobLocators redoRecorder = new SetBlobLocators(mId, copies);
+
+        List<MailboxBlob.MailboxBlobInfo> updated = new ArrayList<MailboxBlob.MailboxBlobInfo>(copies.size());
+        boolean success = false;
+        try {
+            beginTransaction("setBlobLocators", octxt, redoRecorder);
+            DbConnection conn = getOperationConnection();
+            String table = DbMailItem.getMailItemTableName(this);
+            for (MailboxBlob.MailboxBlobInfo copy : copies) {
+                if (DbMailItem.updateLocatorAndDigest(conn, this, table, "id", copy.itemId, copy.revision,
+                        copy.locator, copy.digest) > 0) {
+                    // reloaded with the new locator on next access, or with the old one if this transaction fails
+                    if (getCachedItem(copy.itemId) != null) {
+                        uncacheItem(copy.itemId);
+                    }
+                    updated.add(copy);
+                }
+            }
+            success = true;
+        } finally {
+            endTransaction(success);
+        }
+        return updated;
+    }
+
+    /**
+     * Loads the messages of all the given conversations in one batch, so that a following
+     * {@link #getMessagesByConversation} for any of them doesn't need its own DB query as long as the mailbox doesn't
+     * change in between. Used to encode a page of conversation search hits.
+     *
+     * @return number of conversations whose messages were loaded
+     */
+    public int prefetchMessagesByConversation(OperationContext octxt, Collection<Conversation> convs)
+                    throws ServiceException {
+        Map<Integer, Conversation> toLoad = new LinkedHashMap<Integer, Conversation>();
+        for (Conversation conv : convs) {
+            if (conv.getMailbox() == this && !(conv instanceof VirtualConversation) && !conv.hasPrefetchedMessages()) {
+                toLoad.put(conv.getId(), conv);
+            }
+        }
+        if (toLoad.isEmpty()) {
+            return 0;
+        }
+
+        boolean success = false;
+        try {
+            beginReadTransaction("prefetchMessagesByConversation", octxt);
+            Map<Integer, List<MailItem.UnderlyingData>> children = new HashMap<Integer, List<MailItem.UnderlyingData>>();
+            for (MailItem.UnderlyingData data : DbMailItem.getByParents(this, toLoad.keySet())) {
+                List<MailItem.UnderlyingData> listData = children.get(data.parentId);
+                if (listData == null) {
+                    listData = new ArrayList<MailItem.UnderlyingData>();
+                    children.put(data.parentId, listData);
+                }
+                listData.add(data);
+            }
+            for (Conversation conv : toLoad.values()) {
+                List<MailItem.UnderlyingData> listData = children.get(conv.getId());
+                conv.setPrefetchedMessages(listData == null ?
+                        Collections.<MailItem.UnderlyingData>emptyList() : listData);
+            }
+            success = true;
+            return toLoad.size();
+        } finally {
+            endTransaction(success);
+        }
+    }
+
     public Conversation getConversationById(OperationContext octxt, int id) throws ServiceException {
         return (Conversation) getItemById(octxt, id, MailItem.Type.CONVERSATION);
     }
@@ -4910,6 +5059,30 @@ public class Mailbox {
         }
     }
 
+    /**
+     * Returns free/busy for several names backed by this mailbox, reading the mailbox once.
+     *
+     * @param folders map of name to calendar folder id, or {@link FreeBusyQuery#CALENDAR_FOLDER_ALL}
+     */
+    public List<FreeBusy> getFreeBusy(OperationContext octxt, Map<String, Integer> folders, long start, long end,
+            Appointment exAppt) throws ServiceException {
+        lock.lock(false);
+        try {
+            Account authAcct;
+            boolean asAdmin;
+            if (octxt != null) {
+                authAcct = octxt.getAuthenticatedUser();
+                asAdmin = octxt.isUsingAdminPrivileges();
+            } else {
+                authAcct = null;
+                asAdmin = false;
+            }
+            return LocalFreeBusyProvider.getFreeBusyLists(authAcct, asAdmin, this, folders, start, end, exAppt);
+        } finally {
+            lock.release();
+        }
+    }
+
     public static enum BrowseBy {
         attachments, domains, objects;
     }
@@ -7251,7 +7424,7 @@ public class Mailbox {
             // deletes have already been collected, so fetch the tombstones and write once
             TypedIdList tombstones = collectPendingTombstones();
             if (tombstones != null && !tombstones.isEmpty()) {
-                DbMailItem.writeTombstones(this, tombstones);
+                writeTombstones(tombstones);
             }
 
             success = true;
@@ -7292,6 +7465,26 @@ public class Mailbox {
         delete(octxt, itemIds, type, tcon, true /* useEmptyForFolders */, nonExistingItems);
     }
 
+    /**
+     * Writes deletion records for later sync, and keeps them for the sync journal.
+     */
+    void writeTombstones(TypedIdList tombstones) throws ServiceException {
+        DbMailItem.writeTombstones(this, tombstones);
+        MailboxChange change = currentChange();
+        if (change.tombstones == null) {
+            change.tombstones = new TypedIdList();
+        }
+        change.tombstones.addAll(tombstones);
+    }
+
+    /**
+     * Called when the current change alters items in the database without marking each of them modified, so the sync
+     * journal can't answer syncs from before it.
+     */
+    void resetSyncJournal() throws ServiceException {
+        syncJournal.reset(getOperationChangeID());
+    }
+
     TypedIdList collectPendingTombstones() {
         if (!isTrackingSync() || currentChange().deletes == null) {
             return null;
@@ -8703,7 +8896,7 @@ public class Mailbox {
             // deletes have already been collected, so fetch the tombstones and write once
             TypedIdList tombstones = collectPendingTombstones();
             if (tombstones != null && !tombstones.isEmpty()) {
-                DbMailItem.writeTombstones(this, tombstones);
+                writeTombstones(tombstones);
             }
 
             if (Threader.isHashPurgeAllowed(acct)) {
@@ -9570,6 +9763,9 @@ public class Mailbox {
                 mData.lastChangeId = change.changeId;
                 mData.lastChangeDate = change.timestamp;
             }
+            if (change.changeId != MailboxChange.NO_CHANGE) {
+                journalChange(change, dirty);
+            }
             if (change.accessed != MailboxChange.NO_CHANGE) {
                 mData.lastWriteDate = change.accessed;
             }
@@ -9661,6 +9857,47 @@ public class Mailbox {
         }
     }
 
+    /**
+     * Records the items a committed change modified and deleted in the sync journal.
+     */
+    private void journalChange(MailboxChange change, PendingModifications dirty) {
+        int changeId = change.changeId;
+        if (!isTrackingSync()) {
+            // deletes aren't tombstoned, so the journal would miss them
+            syncJournal.reset(changeId);
+            return;
+        }
+        if (dirty != null && dirty.created != null) {
+            for (MailItem item : dirty.created.values()) {
+                syncJournal.modified(changeId, item.getId(), item.getType());
+            }
+        }
+        if (dirty != null && dirty.modified != null) {
+            for (Change chg : dirty.modified.values()) {
+                if (chg.what instanceof MailItem) {
+                    MailItem item = (MailItem) chg.what;
+                    syncJournal.modified(changeId, item.getId(), item.getType());
+                }
+            }
+        }
+        // conversations that lost messages are only marked modified when there are listeners
+        if (change.deletes != null) {
+            for (int convId : change.deletes.modifiedIds) {
+                syncJournal.modified(changeId, convId, MailItem.Type.CONVERSATION);
+            }
+        }
+        if (change.tombstones != null) {
+            for (Map.Entry<MailItem.Type, List<TypedIdList.ItemInfo>> entry : change.tombstones) {
+                if (entry.getKey() == MailItem.Type.VIRTUAL_CONVERSATION) {
+                    continue;
+                }
+                for (TypedIdList.ItemInfo stone : entry.getValue()) {
+                    syncJournal.deleted(changeId, stone.getId(), entry.getKey(), stone.getUuid());
+                }
+            }
+        }
+    }
+
     private List<Object> rollbackCache(MailboxChange change) {
         if (change == null) {
             return null;
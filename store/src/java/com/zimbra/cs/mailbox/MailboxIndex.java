@@ -18,15 +18,21 @@ package com.zimbra.cs.mailbox;
 
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.SynchronousQueue;
@@ -96,6 +102,12 @@ public final class MailboxIndex {
     private static final ExecutorService REINDEX_EXECUTOR = new ThreadPoolExecutor(
             0, LC.zimbra_reindex_threads.intValue(), 0L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
             new ThreadFactoryBuilder().setNameFormat("ReIndex-%d").setDaemon(true).build());
+    // Generates index data for items being (re-)indexed by any mailbox, which caps the CPU spent on it server wide.
+    private static final ExecutorService TOKENIZE_EXECUTOR = LC.zimbra_index_tokenize_threads.intValue() <= 0 ?
+            null : Executors.newFixedThreadPool(LC.zimbra_index_tokenize_threads.intValue(),
+                    new ThreadFactoryBuilder().setNameFormat("Tokenize-%d").setDaemon(true).build());
+    // Items per mailbox handed to TOKENIZE_EXECUTOR and not yet added to a chunk.
+    private static final int TOKENIZE_WINDOW = Math.max(LC.zimbra_index_tokenize_threads.intValue() * 2, 0);
 
     private volatile long lastFailedTime = -1;
     // Only one thread may run index at a time.
@@ -714,6 +726,11 @@ public final class MailboxIndex {
      * Index a potentially very large list of {@link MailItem}s. Iterate through the list of items, fetch each one and
      * call generateIndexData(). Buffer the items, IndexData into a chunk and when the chunk gets sufficiently large,
      * run a Mailbox transaction to actually do the indexing
+     * <p>
+     * The calling thread only fetches items and commits chunks. generateIndexData(), which is where MIME parsing and
+     * text extraction happen, runs on {@link #TOKENIZE_EXECUTOR}, which is shared by all mailboxes and so caps the CPU
+     * spent tokenizing server wide. Up to {@link #TOKENIZE_WINDOW} items per mailbox are in flight; their results
+     * are consumed in fetch order, so chunks are committed in the same order as before.
      *
      * @param ids item IDs to index
      * @param status progress will be written to the status
@@ -729,83 +746,189 @@ public final class MailboxIndex {
 
         // we re-index 'chunks' of items -- up to a certain size or count
         List<Mailbox.IndexItemEntry> chunk = new ArrayList<Mailbox.IndexItemEntry>();
+        Deque<PendingIndexData> pending = new ArrayDeque<PendingIndexData>();
         long chunkByteSize = 0;
         int i = 0;
-        for (int id : ids) {
-            i++;
-            status.addProcessed(1);
-
-            // Fetch the item and generate the list of Lucene documents to index. Do this without holding the Mailbox
-            // lock. Once we've accumulated a "chunk" of items, do a mailbox transaction to actually add them to the
-            // index.
-            ZimbraLog.index.debug("Tokenizing id=%d", id);
-            MailItem item = null;
-            try {
-                mailbox.beginReadTransaction("IndexItemList-Fetch", null);
-                item = mailbox.getItemById(id, MailItem.Type.UNKNOWN, false);
-            } catch (MailServiceException.NoSuchItemException e) { // fallback to dumpster
-                try {
-                    item = mailbox.getItemById(id, MailItem.Type.UNKNOWN, true);
-                } catch (MailServiceException.NoSuchItemException again) { // The item has just been deleted.
-                    ZimbraLog.index.debug("deferred item no longer exist id=%d", id);
-                    removeDeferredId(id);
-                    continue;
+        try {
+            for (int id : ids) {
+                i++;
+                status.addProcessed(1);
+
+                // Fetch the item without holding the Mailbox lock and hand it off to be tokenized.
+                ZimbraLog.index.debug("Tokenizing id=%d", id);
+                MailItem item = fetchItem(id, status);
+                if (item != null) {
+                    pending.add(tokenize(item, TOKENIZE_EXECUTOR));
                 }
-            } catch (MailServiceException e) {
-                // fetch without metadata because reindex will regenerate metadata
-                if (MailServiceException.INVALID_METADATA.equals(e.getCode()) && isReIndexInProgress()) {
-                    UnderlyingData ud = DbMailItem.getById(mailbox, id, MailItem.Type.UNKNOWN, false);
-                    ud.metadata = null; // ignore corrupted metadata
-                    item = mailbox.getItem(ud);
-                } else {
-                    throw e;
+                boolean last = i == ids.size();
+                // Once we've accumulated a "chunk" of items, do a mailbox transaction to actually add them to the
+                // index.
+                while (!pending.isEmpty() && (last || pending.size() > TOKENIZE_WINDOW)) {
+                    Mailbox.IndexItemEntry entry = pending.remove().get(status);
+                    if (entry != null) {
+                        chunk.add(entry);
+                        chunkByteSize += entry.item.getSize();
+                    }
+                    if (chunkByteSize > MAX_TX_BYTES || chunk.size() >= MAX_TX_ITEMS) {
+                        commitChunk(chunk, status, i, ids.size());
+                        chunkByteSize = 0;
+                    }
                 }
-            } catch (Exception e) {
-                ZimbraLog.index.warn("Failed to fetch deferred item id=%d", id, e);
-                status.addFailed(1);
-                continue;
-            } finally {
-                mailbox.endTransaction(item != null);
+                if (last && !chunk.isEmpty()) {
+                    commitChunk(chunk, status, i, ids.size());
+                }
+            }
+        } finally {
+            for (PendingIndexData data : pending) {
+                data.cancel();
             }
+        }
+    }
+
+    private MailItem fetchItem(int id, BatchStatus status) throws ServiceException {
+        MailItem item = null;
+        try {
+            mailbox.beginReadTransaction("IndexItemList-Fetch", null);
+            item = mailbox.getItemById(id, MailItem.Type.UNKNOWN, false);
+        } catch (MailServiceException.NoSuchItemException e) { // fallback to dumpster
             try {
-                chunk.add(new Mailbox.IndexItemEntry(item, item.generateIndexData()));
-            } catch (MailItem.TemporaryIndexingException e) {
-                ZimbraLog.index.warn("Temporary index failure id=%d", id, e);
-                lastFailedTime = System.currentTimeMillis();
-                status.addFailed(1);
-                continue;
+                item = mailbox.getItemById(id, MailItem.Type.UNKNOWN, true);
+            } catch (MailServiceException.NoSuchItemException again) { // The item has just been deleted.
+                ZimbraLog.index.debug("deferred item no longer exist id=%d", id);
+                removeDeferredId(id);
+                return null;
+            }
+        } catch (MailServiceException e) {
+            // fetch without metadata because reindex will regenerate metadata
+            if (MailServiceException.INVALID_METADATA.equals(e.getCode()) && isReIndexInProgress()) {
+                UnderlyingData ud = DbMailItem.getById(mailbox, id, MailItem.Type.UNKNOWN, false);
+                ud.metadata = null; // ignore corrupted metadata
+                item = mailbox.getItem(ud);
+            } else {
+                throw e;
             }
-            chunkByteSize += item.getSize();
+        } catch (Exception e) {
+            ZimbraLog.index.warn("Failed to fetch deferred item id=%d", id, e);
+            status.addFailed(1);
+            return null;
+        } finally {
+            mailbox.endTransaction(item != null);
+        }
+        return item;
+    }
 
-            if (i == ids.size() || chunkByteSize > MAX_TX_BYTES || chunk.size() >= MAX_TX_ITEMS) {
-                // we have a chunk of items and their corresponding index data -- add them to the index
-                try {
-                    ZimbraLog.index.debug("Batch progress %d/%d", i, ids.size());
+    /**
+     * Adds a chunk of items and their corresponding index data to the index, then clears the chunk.
+     */
+    private void commitChunk(List<Mailbox.IndexItemEntry> chunk, BatchStatus status, int progress, int total)
+            throws ServiceException {
+        try {
+            ZimbraLog.index.debug("Batch progress %d/%d", progress, total);
 
-                    if (status.isCancelled()) {
-                        throw ServiceException.INTERRUPTED("cancelled");
-                    }
+            if (status.isCancelled()) {
+                throw ServiceException.INTERRUPTED("cancelled");
+            }
 
-                    try {
-                        boolean success = false;
-                        try {
-                            mailbox.beginTransaction("IndexItemList-Commit", null);
-                            for (Mailbox.IndexItemEntry entry : chunk) {
-                                mailbox.addIndexItemToCurrentChange(entry);
-                            }
-                            success = true;
-                        } finally {
-                            mailbox.endTransaction(success);
-                        }
-                    } catch (ServiceException e) {
-                        ZimbraLog.index.warn("Failed to index chunk=%s", chunk, e);
-                        status.addFailed(chunk.size());
+            try {
+                boolean success = false;
+                try {
+                    mailbox.beginTransaction("IndexItemList-Commit", null);
+                    for (Mailbox.IndexItemEntry entry : chunk) {
+                        mailbox.addIndexItemToCurrentChange(entry);
                     }
+                    success = true;
                 } finally {
-                    chunk.clear();
-                    chunkByteSize = 0;
+                    mailbox.endTransaction(success);
+                }
+                status.addIndexed(chunk.size());
+            } catch (ServiceException e) {
+                ZimbraLog.index.warn("Failed to index chunk=%s", chunk, e);
+                status.addFailed(chunk.size());
+            }
+        } finally {
+            chunk.clear();
+        }
+    }
+
+    /**
+     * Starts generating the index data of the item on the executor, or generates it in the calling thread if there is
+     * no executor or it is shutting down. The task is only submitted once it is fully constructed.
+     */
+    private PendingIndexData tokenize(MailItem item, ExecutorService executor) {
+        PendingIndexData data = new PendingIndexData(item);
+        if (executor != null) {
+            try {
+                data.future = executor.submit(data);
+                return data;
+            } catch (RejectedExecutionException e) { // shutting down, tokenize in the calling thread
+            }
+        }
+        try {
+            data.docs = item.generateIndexData();
+        } catch (Exception e) {
+            data.error = e;
+        }
+        return data;
+    }
+
+    /**
+     * Index data of an item being generated on {@link #TOKENIZE_EXECUTOR}, or inline if tokenizing is not offloaded.
+     */
+    private final class PendingIndexData implements Callable<List<IndexDocument>> {
+        private final MailItem item;
+        private Future<List<IndexDocument>> future;
+        private List<IndexDocument> docs;
+        private Exception error;
+
+        private PendingIndexData(MailItem item) {
+            this.item = item;
+        }
+
+        @Override
+        public List<IndexDocument> call() throws MailItem.TemporaryIndexingException {
+            ZimbraLog.addMboxToContext(mailbox.getId());
+            try {
+                return item.generateIndexData();
+            } finally {
+                ZimbraLog.clearContext();
+            }
+        }
+
+        /**
+         * Waits for the index data.
+         *
+         * @return the entry to index, or null if it failed, in which case the failure is counted in the status
+         */
+        Mailbox.IndexItemEntry get(BatchStatus status) throws ServiceException {
+            if (future != null) {
+                try {
+                    docs = future.get();
+                } catch (InterruptedException e) {
+                    throw ServiceException.INTERRUPTED("tokenize id=" + item.getId());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof OutOfMemoryError) {
+                        Zimbra.halt("out of memory", e.getCause());
+                    }
+                    error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
                 }
             }
+            if (error == null) {
+                return new Mailbox.IndexItemEntry(item, docs);
+            }
+            if (error instanceof MailItem.TemporaryIndexingException) {
+                ZimbraLog.index.warn("Temporary index failure id=%d", item.getId(), error);
+                lastFailedTime = System.currentTimeMillis();
+            } else {
+                ZimbraLog.index.warn("Failed to tokenize id=%d", item.getId(), error);
+            }
+            status.addFailed(1);
+            return null;
+        }
+
+        void cancel() {
+            if (future != null) {
+                future.cancel(false);
+            }
         }
     }
 
@@ -1312,9 +1435,12 @@ public final class MailboxIndex {
         private int total = -1;
         private int processed = 0;
         private int failed = 0;
+        private int indexed = 0;
+        private long startTime = System.currentTimeMillis();
 
         void setTotal(int value) {
             total = value;
+            startTime = System.currentTimeMillis();
         }
 
         void addProcessed(int delta) {
@@ -1325,6 +1451,10 @@ public final class MailboxIndex {
             failed += delta;
         }
 
+        void addIndexed(int delta) {
+            indexed += delta;
+        }
+
         public int getTotal() {
             return total;
         }
@@ -1337,6 +1467,25 @@ public final class MailboxIndex {
             return failed;
         }
 
+        /**
+         * @return number of items whose index data has been committed to the index
+         */
+        public int getIndexed() {
+            return indexed;
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+
+        /**
+         * @return committed items per second since {@link #setTotal(int)}
+         */
+        public double getThroughput() {
+            long elapsed = System.currentTimeMillis() - getStartTime();
+            return elapsed > 0 ? 1000.0 * getIndexed() / elapsed : 0.0;
+        }
+
         boolean isCancelled() {
             return false;
         }
@@ -1347,6 +1496,8 @@ public final class MailboxIndex {
                 .add("total", getTotal())
                 .add("processed", getProcessed())
                 .add("failed", getFailed())
+                .add("indexed", getIndexed())
+                .add("throughput", String.format("%.2f", getThroughput()))
                 .toString();
         }
     }
@@ -1358,6 +1509,8 @@ public final class MailboxIndex {
         private volatile int total = -1;
         private volatile int processed = 0;
         private volatile int failed = 0;
+        private volatile int indexed = 0;
+        private volatile long startTime = System.currentTimeMillis();
         private volatile boolean cancel = false;
 
         private ReIndexStatus() {
@@ -1366,13 +1519,14 @@ public final class MailboxIndex {
         @Override
         void setTotal(int value) {
             total = value;
+            startTime = System.currentTimeMillis();
         }
 
         @Override
         void addProcessed(int delta) {
             processed += delta;
             if (processed % 2000 == 0) {
-                ZimbraLog.index.info("Re-index progress %d/%d", processed, total);
+                ZimbraLog.index.info("Re-index progress %d/%d (%.2f items/sec)", processed, total, getThroughput());
             }
         }
 
@@ -1381,6 +1535,11 @@ public final class MailboxIndex {
             failed += delta;
         }
 
+        @Override
+        void addIndexed(int delta) {
+            indexed += delta;
+        }
+
         @Override
         public int getTotal() {
             return total;
@@ -1396,6 +1555,16 @@ public final class MailboxIndex {
             return failed;
         }
 
+        @Override
+        public int getIndexed() {
+            return indexed;
+        }
+
+        @Override
+        public long getStartTime() {
+            return startTime;
+        }
+
         void cancel() {
             cancel = true;
         }
@@ -25,8 +25,10 @@ import com.google.common.annotations.VisibleForTesting;
 import com.zimbra.common.localconfig.DebugConfig;
 import com.zimbra.cs.account.Account;
 import com.zimbra.cs.datasource.DataSourceFolderListener;
+import com.zimbra.cs.fb.FreeBusyIndex;
 import com.zimbra.cs.fb.FreeBusyProvider;
 import com.zimbra.cs.filter.FilterListener;
+import com.zimbra.cs.index.SearchResultsCache;
 import com.zimbra.cs.mailbox.MailItem.Type;
 import com.zimbra.cs.mailbox.acl.AclPushListener;
 import com.zimbra.cs.mailbox.acl.ShareExpirationListener;
@@ -94,6 +96,8 @@ public abstract class MailboxListener {
         register(new FilterListener());
         register(new MemcachedCacheManager());
         register(new FreeBusyProvider.Listener());
+        register(new FreeBusyIndex.Listener());
+        register(new SearchResultsCache.Listener());
         register(new DataSourceFolderListener());
         register(new ShareStartStopListener());
         if (application.supports(AclPushListener.class)) {
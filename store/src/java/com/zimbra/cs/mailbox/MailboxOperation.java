@@ -110,7 +110,8 @@ public enum MailboxOperation {
     ExpireAccess(90),
     SetDisableActiveSync(91),
     SetWebOfflineSyncDays(92),
-    DeleteConfig(93);
+    DeleteConfig(93),
+    SetBlobLocators(94);
 
     private MailboxOperation(int c) {
         code = c;
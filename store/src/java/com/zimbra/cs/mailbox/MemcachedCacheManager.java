@@ -18,6 +18,7 @@
 package com.zimbra.cs.mailbox;
 
 import com.zimbra.common.service.ServiceException;
+import com.zimbra.cs.fb.FreeBusyIndex;
 import com.zimbra.cs.mailbox.acl.EffectiveACLCache;
 import com.zimbra.cs.mailbox.calendar.cache.CalendarCacheManager;
 import com.zimbra.cs.memcached.MemcachedConnector;
@@ -29,6 +30,7 @@ public class MemcachedCacheManager extends MailboxListener {
         CalendarCacheManager.getInstance().purgeMailbox(mbox);
         EffectiveACLCache.getInstance().purgeMailbox(mbox);
         FoldersTagsCache.getInstance().purgeMailbox(mbox);
+        FreeBusyIndex.getInstance().purgeMailbox(mbox);
     }
 
     @Override
@@ -1392,13 +1392,14 @@ public class Message extends MailItem {
             ParsedMessage pm = getParsedMessage();
             pm.setDefaultCharset(getAccount().getPrefMailDefaultCharset());
 
+            // don't hold the lock while extracting text!  Analyzing before reanalyze() also computes the fragment
+            // in the same walk over the parts, rather than walking the body parts once for it and again here.
+            pm.analyzeFully();
+
             if (mMailbox.index.isReIndexInProgress()) {
                 getMailbox().reanalyze(getId(), getType(), pm, getSize());
             }
 
-            // don't hold the lock while extracting text!
-            pm.analyzeFully();
-
             if (pm.hasTemporaryAnalysisFailure()) {
                 throw new TemporaryIndexingException();
             }
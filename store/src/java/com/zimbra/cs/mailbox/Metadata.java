@@ -17,6 +17,7 @@
 
 package com.zimbra.cs.mailbox;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -125,7 +126,19 @@ public final class Metadata {
 
     private final Integer associatedItemId;
 
-    Map<Object, Object> map;
+    private Map<Object, Object> map;
+
+    /**
+     * Encoded dictionary this instance was created from, as long as nothing forced decoding all of it. The keys and
+     * the extent of each value in {@code encoded} are found up front; values are decoded as they are first read.
+     * Most readers only look at a few scalar fields, so lists and nested dictionaries they skip are never built.
+     */
+    private String encoded;
+    private String[] keys;
+    private int[] starts;
+    private int[] ends;
+    private Object[] values;
+    private int count;
 
     public Metadata() {
         associatedItemId = null;
@@ -147,6 +160,9 @@ public final class Metadata {
             map = new HashMap<Object, Object>();
             return;
         }
+        if (index(encoded)) {
+            return;
+        }
         try {
             try {
                 map = (Map) BEncoding.decode(encoded);
@@ -183,28 +199,186 @@ public final class Metadata {
         }
     }
 
+    /**
+     * Finds the top level keys and value extents of a well-formed encoded dictionary without decoding any values.
+     * Nested values are checked as thoroughly as {@link BEncoding#decode(String)} would, so that corrupt data fails
+     * here, in the constructor, rather than when the value is first read.
+     *
+     * @return false if {@code data} isn't a well-formed dictionary with string keys, leaving it to the full decoder
+     */
+    private boolean index(String data) {
+        if (data.charAt(0) != 'd') {
+            return false;
+        }
+        String[] k = new String[16];
+        int[] st = new int[16];
+        int[] en = new int[16];
+        int n = 0;
+        try {
+            int pos = 1;
+            while (data.charAt(pos) != 'e') {
+                if (!Character.isDigit(data.charAt(pos))) {
+                    return false;
+                }
+                int keyEnd = skip(data, pos);
+                String key = data.substring(data.indexOf(':', pos) + 1, keyEnd);
+                int valueEnd = skip(data, keyEnd);
+                if (FN_MD_VERSION.equals(key)) {
+                    pos = valueEnd;
+                    continue;
+                }
+                if (n == k.length) {
+                    k = Arrays.copyOf(k, n * 2);
+                    st = Arrays.copyOf(st, n * 2);
+                    en = Arrays.copyOf(en, n * 2);
+                }
+                k[n] = key;
+                st[n] = keyEnd;
+                en[n] = valueEnd;
+                n++;
+                pos = valueEnd;
+            }
+            if (pos + 1 != data.length()) {
+                return false;
+            }
+        } catch (IndexOutOfBoundsException e) {
+            return false;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        encoded = data;
+        keys = k;
+        starts = st;
+        ends = en;
+        values = new Object[n];
+        count = n;
+        return true;
+    }
+
+    /**
+     * @return offset just past the encoded value starting at {@code pos}
+     * @throws IndexOutOfBoundsException or NumberFormatException if the value isn't well-formed
+     */
+    private static int skip(String data, int pos) {
+        char c = data.charAt(pos);
+        switch (c) {
+            case 'd':
+            case 'l': {
+                pos++;
+                int n = 0;
+                while (data.charAt(pos) != 'e') {
+                    pos = skip(data, pos);
+                    n++;
+                }
+                if (c == 'd' && n % 2 != 0) { // a key without a value
+                    throw new IndexOutOfBoundsException();
+                }
+                return pos + 1;
+            }
+            case 'i': {
+                int end = data.indexOf('e', pos);
+                if (end < 0) {
+                    throw new IndexOutOfBoundsException();
+                }
+                Long.parseLong(data.substring(pos + 1, end));
+                return end + 1;
+            }
+            default: {
+                int colon = data.indexOf(':', pos);
+                if (colon < 0) {
+                    throw new IndexOutOfBoundsException();
+                }
+                int len = Integer.parseInt(data.substring(pos, colon));
+                if (len < 0 || colon + 1 + len > data.length()) {
+                    throw new IndexOutOfBoundsException();
+                }
+                return colon + 1 + len;
+            }
+        }
+    }
+
+    /**
+     * @return index of the last occurrence of the key (a later duplicate wins, as with the full decoder), or -1
+     */
+    private int find(Object key) {
+        for (int i = count - 1; i >= 0; i--) {
+            if (keys[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private Object value(int i) {
+        Object value = values[i];
+        if (value == null) {
+            char c = encoded.charAt(starts[i]);
+            if (c == 'i') {
+                value = Long.valueOf(encoded.substring(starts[i] + 1, ends[i] - 1));
+            } else if (c == 'd' || c == 'l') {
+                try {
+                    value = BEncoding.decode(encoded.substring(starts[i], ends[i]));
+                } catch (BEncodingException e) {
+                    throw new IllegalStateException(e); // index() checked it as the decoder would
+                }
+            } else {
+                value = encoded.substring(encoded.indexOf(':', starts[i]) + 1, ends[i]);
+            }
+            values[i] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Returns the underlying map, decoding all the remaining values first if this instance is still lazily backed by
+     * its encoded form.
+     */
+    Map<Object, Object> map() {
+        if (encoded != null) {
+            Map<Object, Object> decoded = new HashMap<Object, Object>();
+            for (int i = 0; i < count; i++) {
+                decoded.put(keys[i], value(i));
+            }
+            map = decoded;
+            encoded = null;
+            keys = null;
+            starts = null;
+            ends = null;
+            values = null;
+        }
+        return map;
+    }
+
+    private Object lookup(Object key) {
+        if (encoded != null) {
+            int i = find(key);
+            return i < 0 ? null : value(i);
+        }
+        return map.get(key);
+    }
+
     public boolean containsKey(String key) {
-        return map.containsKey(key);
+        return encoded != null ? find(key) >= 0 : map.containsKey(key);
     }
 
     public int size() {
-        return map.size();
+        return map().size();
     }
 
     public boolean isEmpty() {
-        return map.isEmpty();
+        return encoded != null ? count == 0 : map.isEmpty();
     }
 
     public Metadata copy(Metadata source) {
         if (source != null) {
-            map.putAll(source.map);
+            map().putAll(source.map());
         }
         return this;
     }
 
     public Map<String, ?> asMap()  {
         Map<String, Object> result = new HashMap<String, Object>();
-        for (Map.Entry<Object, Object> entry : map.entrySet()) {
+        for (Map.Entry<Object, Object> entry : map().entrySet()) {
             Object key = entry.getKey();
             Object value = entry.getValue();
             if (key == null || value == null) {
@@ -221,48 +395,48 @@ public final class Metadata {
     }
 
     public Metadata remove(String key) {
-        map.remove(key);
+        map().remove(key);
         return this;
     }
 
     public Metadata put(String key, Object value) {
         if (key != null && value != null) {
-            map.put(key, value);
+            map().put(key, value);
         }
         return this;
     }
 
     public Metadata put(String key, long value) {
         if (key != null) {
-            map.put(key, Long.valueOf(value));
+            map().put(key, Long.valueOf(value));
         }
         return this;
     }
 
     public Metadata put(String key, double value) {
         if (key != null) {
-            map.put(key, new Double(value));
+            map().put(key, new Double(value));
         }
         return this;
     }
 
     public Metadata put(String key, boolean value) {
         if (key != null) {
-            map.put(key, new Boolean(value));
+            map().put(key, new Boolean(value));
         }
         return this;
     }
 
     public Metadata put(String key, Metadata value) {
         if (key != null && value != null) {
-            map.put(key, value.map);
+            map().put(key, value.map());
         }
         return this;
     }
 
     public Metadata put(String key, MetadataList value) {
         if (key != null && value != null) {
-            map.put(key, value.list);
+            map().put(key, value.list);
         }
         return this;
     }
@@ -284,7 +458,7 @@ public final class Metadata {
     }
 
     public String get(String key, String defaultValue) {
-        Object value = map.get(key);
+        Object value = lookup(key);
         return value == null ? defaultValue : value.toString();
     }
 
@@ -318,7 +492,7 @@ public final class Metadata {
     }
 
     public MetadataList getList(String key, boolean nullOK) throws ServiceException {
-        Object value = map.get(key);
+        Object value = lookup(key);
         if (nullOK && value == null) {
             return null;
         }
@@ -335,7 +509,7 @@ public final class Metadata {
     }
 
     public Metadata getMap(String key, boolean nullable) throws ServiceException {
-        Object value = map.get(key);
+        Object value = lookup(key);
         if (nullable && value == null) {
             return null;
         }
@@ -357,7 +531,7 @@ public final class Metadata {
 
     public String prettyPrint() {
         StringBuilder sb = new StringBuilder(2048);
-        prettyEncode(sb, map, 0);
+        prettyEncode(sb, map(), 0);
         sb.setLength(sb.length() - 1);  // Remove the last newline.
         return sb.toString();
     }
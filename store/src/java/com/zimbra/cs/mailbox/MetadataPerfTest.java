@@ -0,0 +1,83 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.util.Map;
+
+import com.zimbra.common.util.BEncoding;
+
+/**
+ * Manual benchmark of decoding {@link Metadata}, kept out of the unit tests since it only reports timings.
+ * <p>
+ * Compares reading a few scalar fields of message-like metadata lazily, as {@link Metadata} does, with decoding all of
+ * it up front, as it did before. Usage: {@code MetadataPerfTest [iterations]}.
+ */
+public final class MetadataPerfTest {
+    private final String encoded;
+    private final int iterations;
+    private long sink = 0;
+
+    public MetadataPerfTest(int iterations) {
+        this.iterations = iterations;
+        Metadata meta = new Metadata();
+        meta.put(Metadata.FN_VERSION, 1).put("sz", 7596456L).put(Metadata.FN_VIEW, 5).put("mseq", 628);
+        meta.put(Metadata.FN_FRAGMENT, "Hi all, the minutes of today's meeting are attached, please review them before");
+        MetadataList recipients = new MetadataList();
+        for (int i = 0; i < 20; i++) {
+            recipients.add(new Metadata().put("a", "user" + i + "@example.com").put("p", "User " + i).put("t", "t"));
+        }
+        meta.put("rcpt", recipients);
+        Metadata mime = new Metadata();
+        for (int i = 0; i < 10; i++) {
+            mime.put("part" + i, new Metadata().put("ct", "text/plain").put("s", 1024 * i).put("cs", "utf-8"));
+        }
+        meta.put("mime", mime);
+        encoded = meta.toString();
+    }
+
+    public void run() throws Exception {
+        for (int round = 0; round < 3; round++) { // the first rounds warm up the JIT
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                Metadata meta = new Metadata(encoded);
+                sink += meta.getInt(Metadata.FN_VIEW, 0) + meta.getLong("sz") + meta.get(Metadata.FN_FRAGMENT).length();
+            }
+            long lazy = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                Map<String, Object> map = BEncoding.decode(encoded);
+                sink += ((Long) map.get(Metadata.FN_VIEW)) + ((Long) map.get("sz")) +
+                        ((String) map.get(Metadata.FN_FRAGMENT)).length();
+            }
+            long eager = System.nanoTime() - start;
+
+            p("round %d: %d bytes, lazy %d ns/op, eager %d ns/op", round, encoded.length(), lazy / iterations,
+                    eager / iterations);
+        }
+        p("(%d)", sink);
+    }
+
+    private static void p(String fmt, Object... args) {
+        System.out.println(String.format(fmt, args));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        new MetadataPerfTest(iterations).run();
+    }
+}
@@ -18,23 +18,34 @@ package com.zimbra.cs.mailbox;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.account.Account;
 import com.zimbra.cs.account.Provisioning;
 import com.zimbra.cs.account.Server;
+import com.zimbra.cs.db.DbMailbox;
 import com.zimbra.cs.util.Config;
 import com.zimbra.cs.util.Zimbra;
 
 /**
- * Iterates all the mailboxes in the system, purges them one at a time
- * and sleeps between purges for a time interval specified by
- * {@link Provisioning#A_zimbraMailPurgeSleepInterval}.
+ * Iterates all the mailboxes in the system, purges them on a pool of
+ * {@link LC#purge_worker_threads} workers and sleeps between purges for a
+ * time interval specified by {@link Provisioning#A_zimbraMailPurgeSleepInterval}.
+ * At most {@link LC#purge_max_mailboxes_per_db_group} of the mailboxes being
+ * purged at once share a mailbox group database.
  *
  * @author bburtin
  */
@@ -43,7 +54,7 @@ extends Thread {
 
     private static volatile PurgeThread sPurgeThread = null;
     private static Object THREAD_CONTROL_LOCK = new Object();
-    private boolean mShutdownRequested = false;
+    private volatile boolean mShutdownRequested = false;
 
     private PurgeThread() {
         setName("MailboxPurge");
@@ -111,7 +122,7 @@ extends Thread {
     }
 
     /**
-     * Iterates all mailboxes, purging one at a time and sleeping
+     * Iterates all mailboxes, purging up to {@link LC#purge_worker_threads} at a time and sleeping
      * between purges.
      */
     @Override public void run() {
@@ -128,80 +139,206 @@ extends Thread {
             return;
         }
 
-        Set<Integer> purgePendingMailboxes = new HashSet<Integer>();
-        while (true) {
-            List<Integer> mailboxIds = getMailboxIds();
-            boolean slept = false;
+        int numWorkers = Math.max(1, LC.purge_worker_threads.intValue());
+        ExecutorService workers = Executors.newFixedThreadPool(numWorkers,
+                new ThreadFactoryBuilder().setNameFormat("MailboxPurge-%d").setDaemon(true).build());
+        Semaphore idleWorkers = new Semaphore(numWorkers);
+        ZimbraLog.purge.info("Purging with %d worker threads.", numWorkers);
 
-            for (int i = 0; i < mailboxIds.size(); i++) {
-                int mailboxId = mailboxIds.get(i);
-                if (mShutdownRequested) {
-                    ZimbraLog.purge.info("Shutting down purge thread.");
-                    sPurgeThread = null;
-                    return;
-                }
-                ZimbraLog.addMboxToContext(mailboxId);
+        Set<Integer> purgePendingMailboxes = new LinkedHashSet<Integer>();
+        try {
+            while (!mShutdownRequested) {
+                List<Integer> mailboxIds = getMailboxIds();
+                Progress progress = new Progress(mailboxIds);
+                List<Integer> unfinished = Collections.synchronizedList(new ArrayList<Integer>());
+                boolean purged = false;
 
-                // Purge the next mailbox
-                boolean attemptedPurge = false;
-                try {
-                    MailboxManager mm = MailboxManager.getInstance();
-                    if (mm.isMailboxLoadedAndAvailable(mailboxId) || purgePendingMailboxes.contains(mailboxId)) {
-                        attemptedPurge = true;
-                        Mailbox mbox = mm.getMailboxById(mailboxId);
-                        Account account = mbox.getAccount();
-                        Provisioning prov = Provisioning.getInstance();
-                        if (!Provisioning.ACCOUNT_STATUS_MAINTENANCE.equals(account.getAccountStatus(prov)) &&
-                                !account.isIsExternalVirtualAccount()) {
-                            ZimbraLog.addAccountNameToContext(account.getName());
-                            boolean purgedAll = mbox.purgeMessages(null);
-                            if (!purgedAll) {
-                                ZimbraLog.purge.info("Not all messages were purged.  Scheduling mailbox to be purged again.");
-                                mailboxIds.add(mailboxId);
-                            }
-                            Config.setInt(Config.KEY_PURGE_LAST_MAILBOX_ID, mbox.getId());
-                        } else {
-                            ZimbraLog.purge.debug("Skipping mailbox %d because the account is in maintenance status or is an external virtual account.", mailboxId);
+                // Mailboxes that are furthest behind go first, then the rest in round-robin order.
+                for (List<Integer> batch = schedule(mailboxIds, purgePendingMailboxes); !batch.isEmpty();
+                        batch = new ArrayList<Integer>(unfinished)) {
+                    unfinished.clear();
+                    for (int mailboxId : batch) {
+                        if (mShutdownRequested) {
+                            break;
                         }
-                    } else {
-                        ZimbraLog.purge.debug("Skipping mailbox %d because it is not loaded into memory.", mailboxId);
-                    }
-                } catch (ServiceException se) {
-                    if (ServiceException.WRONG_HOST.equals(se.getCode())) {
-                        if (ZimbraLog.purge.isDebugEnabled()) {
-                            ZimbraLog.purge.debug("not purging mailbox moved to other host ", se);
-                        } else {
-                            ZimbraLog.purge.info("not purging mailbox %d; account moved to another host", mailboxId);
+                        if (!MailboxManager.getInstance().isMailboxLoadedAndAvailable(mailboxId) &&
+                                !purgePendingMailboxes.contains(mailboxId)) {
+                            ZimbraLog.purge.debug("Skipping mailbox %d because it is not loaded into memory.", mailboxId);
+                            progress.done(mailboxId);
+                            continue;
                         }
-                    } else {
-                        ZimbraLog.purge.warn("Unable to purge mailbox %d", mailboxId, se);
+                        Semaphore group = getGroupPermits(DbMailbox.calculateMailboxGroupId(mailboxId));
+                        idleWorkers.acquire();
+                        group.acquire();
+                        workers.execute(new Purge(mailboxId, progress, unfinished, idleWorkers, group));
+                        purged = true;
                     }
-                } catch (OutOfMemoryError oome) {
-                    Zimbra.halt("Ran out of memory while purging mailboxes", oome);
-                } catch (Throwable t) {
-                    ZimbraLog.purge.warn("Unable to purge mailbox %d", mailboxId, t);
+                    // wait for this batch to finish before retrying the mailboxes it didn't finish
+                    idleWorkers.acquire(numWorkers);
+                    idleWorkers.release(numWorkers);
                 }
 
-                ZimbraLog.clearContext();
-                if (attemptedPurge) {
-                    // Sleep after every purge attempt.
+                // If nothing's getting purged, sleep to avoid a tight loop
+                if (!purged) {
                     sleep();
-                    slept = true;
                 }
-           }
 
-            // If nothing's getting purged, sleep to avoid a tight loop
-            if (!slept) {
-                sleep();
+                try {
+                    long lastPurgeMaxDuration = Provisioning.getInstance().getLocalServer().getLastPurgeMaxDuration();
+                    purgePendingMailboxes = MailboxManager.getInstance().getPurgePendingMailboxes(System.currentTimeMillis() - lastPurgeMaxDuration);
+                } catch (ServiceException e) {
+                    ZimbraLog.purge.warn("Unable to get purge pending mailboxes ", e);
+                }
             }
+        } catch (InterruptedException e) {
+            ZimbraLog.purge.debug("Purge thread was interrupted.");
+        } finally {
+            // let running purges finish their transactions; they skip their sleep once shutdown is requested
+            workers.shutdown();
+            ZimbraLog.purge.info("Shutting down purge thread.");
+            sPurgeThread = null;
+        }
+    }
 
+    private final Map<Integer, Semaphore> mGroupPermits = new HashMap<Integer, Semaphore>();
+
+    /**
+     * Returns the permits limiting how many mailboxes of a mailbox group database are purged at once, so that
+     * concurrent purges are spread across databases.
+     */
+    private Semaphore getGroupPermits(int groupId) {
+        Semaphore permits = mGroupPermits.get(groupId);
+        if (permits == null) {
+            permits = new Semaphore(Math.max(1, LC.purge_max_mailboxes_per_db_group.intValue()));
+            mGroupPermits.put(groupId, permits);
+        }
+        return permits;
+    }
+
+    /**
+     * Purges one mailbox on a worker thread, then sleeps before giving the worker back.
+     */
+    private final class Purge implements Runnable {
+        private final int mMailboxId;
+        private final Progress mProgress;
+        private final List<Integer> mUnfinished;
+        private final Semaphore mIdleWorkers;
+        private final Semaphore mGroup;
+
+        Purge(int mailboxId, Progress progress, List<Integer> unfinished, Semaphore idleWorkers, Semaphore group) {
+            mMailboxId = mailboxId;
+            mProgress = progress;
+            mUnfinished = unfinished;
+            mIdleWorkers = idleWorkers;
+            mGroup = group;
+        }
+
+        @Override
+        public void run() {
+            ZimbraLog.addMboxToContext(mMailboxId);
             try {
-                long lastPurgeMaxDuration = Provisioning.getInstance().getLocalServer().getLastPurgeMaxDuration();
-                purgePendingMailboxes = MailboxManager.getInstance().getPurgePendingMailboxes(System.currentTimeMillis() - lastPurgeMaxDuration);
-            } catch (ServiceException e) {
-                ZimbraLog.purge.warn("Unable to get purge pending mailboxes ", e);
+                purge();
+            } finally {
+                mGroup.release();
+                ZimbraLog.clearContext();
+                // Sleep after every purge attempt.
+                PurgeThread.this.sleep();
+                mIdleWorkers.release();
+            }
+        }
+
+        private void purge() {
+            try {
+                Mailbox mbox = MailboxManager.getInstance().getMailboxById(mMailboxId);
+                Account account = mbox.getAccount();
+                Provisioning prov = Provisioning.getInstance();
+                if (!Provisioning.ACCOUNT_STATUS_MAINTENANCE.equals(account.getAccountStatus(prov)) &&
+                        !account.isIsExternalVirtualAccount()) {
+                    ZimbraLog.addAccountNameToContext(account.getName());
+                    boolean purgedAll = mbox.purgeMessages(null);
+                    if (!purgedAll) {
+                        ZimbraLog.purge.info("Not all messages were purged.  Scheduling mailbox to be purged again.");
+                        mUnfinished.add(mMailboxId);
+                    }
+                } else {
+                    ZimbraLog.purge.debug("Skipping mailbox %d because the account is in maintenance status or is an external virtual account.", mMailboxId);
+                }
+            } catch (ServiceException se) {
+                if (ServiceException.WRONG_HOST.equals(se.getCode())) {
+                    if (ZimbraLog.purge.isDebugEnabled()) {
+                        ZimbraLog.purge.debug("not purging mailbox moved to other host ", se);
+                    } else {
+                        ZimbraLog.purge.info("not purging mailbox %d; account moved to another host", mMailboxId);
+                    }
+                } else {
+                    ZimbraLog.purge.warn("Unable to purge mailbox %d", mMailboxId, se);
+                }
+            } catch (OutOfMemoryError oome) {
+                Zimbra.halt("Ran out of memory while purging mailboxes", oome);
+            } catch (Throwable t) {
+                ZimbraLog.purge.warn("Unable to purge mailbox %d", mMailboxId, t);
+            }
+
+            // saved under the lock so that a slower worker can't overwrite a later position
+            synchronized (mProgress) {
+                int lastId = mProgress.done(mMailboxId);
+                if (lastId > 0) {
+                    try {
+                        Config.setInt(Config.KEY_PURGE_LAST_MAILBOX_ID, lastId);
+                    } catch (ServiceException e) {
+                        ZimbraLog.purge.warn("Unable to save purge progress", e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the mailboxes to purge in order: purge pending mailboxes, least recently purged first, followed by
+     * the other mailboxes in round-robin order.
+     */
+    @VisibleForTesting
+    static List<Integer> schedule(List<Integer> mailboxIds, Set<Integer> purgePendingMailboxes) {
+        List<Integer> result = new ArrayList<Integer>(mailboxIds.size());
+        Set<Integer> known = new HashSet<Integer>(mailboxIds);
+        for (int id : purgePendingMailboxes) {
+            if (known.contains(id)) {
+                result.add(id);
+            }
+        }
+        for (int id : mailboxIds) {
+            if (!purgePendingMailboxes.contains(id)) {
+                result.add(id);
             }
         }
+        return result;
+    }
+
+    /**
+     * Tracks how far along the round-robin order a purge cycle has got, so that a restart resumes after the last
+     * mailbox before which every mailbox has been visited, even though mailboxes finish out of order.
+     */
+    @VisibleForTesting
+    static final class Progress {
+        private final List<Integer> mOrder;
+        private final Set<Integer> mDone = new HashSet<Integer>();
+        private int mNext = 0;
+
+        Progress(List<Integer> order) {
+            mOrder = order;
+        }
+
+        /**
+         * Marks the mailbox as visited, and returns the new last mailbox ID to resume after, or -1 if it's unchanged.
+         */
+        synchronized int done(int mailboxId) {
+            mDone.add(mailboxId);
+            int last = -1;
+            while (mNext < mOrder.size() && mDone.remove(mOrder.get(mNext))) {
+                last = mOrder.get(mNext++);
+            }
+            return last;
+        }
     }
 
     /**
@@ -209,6 +346,9 @@ extends Thread {
      * If sleep is interrupted, sets {@link #mShutdownRequested} to <tt>true</tt>.
      */
     private void sleep() {
+        if (mShutdownRequested) {
+            return;
+        }
         long interval = getSleepInterval();
         ZimbraLog.purge.debug("Sleeping for %d milliseconds.", interval);
 
@@ -0,0 +1,135 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+
+package com.zimbra.cs.mailbox;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import com.zimbra.cs.mailbox.util.TypedIdList;
+
+/**
+ * In-memory journal of the recent changes to a mailbox, used to answer delta syncs without scanning the database.
+ * <p>
+ * A ring buffer of (change ID, item ID, type) entries records the items each committed change modified or deleted,
+ * deletes with the UUID their tombstone carries. The journal can answer any sync whose token is at or after its
+ * floor: the change ID after which it has seen every change. The floor starts at the last change ID when the mailbox
+ * is loaded, and moves up as old entries are overwritten, or when a change can't be journaled.
+ */
+final class SyncJournal {
+    private final int[] changeIds;
+    private final int[] itemIds;
+    private final MailItem.Type[] types;
+    private final String[] uuids;
+    private final boolean[] deletes;
+    private int head;   // next slot to write
+    private int count;
+    private int floor;
+
+    /**
+     * @param capacity number of entries kept, or 0 to journal nothing
+     * @param changeId last change ID of the mailbox
+     */
+    SyncJournal(int capacity, int changeId) {
+        capacity = Math.max(capacity, 0);
+        changeIds = new int[capacity];
+        itemIds = new int[capacity];
+        types = new MailItem.Type[capacity];
+        uuids = new String[capacity];
+        deletes = new boolean[capacity];
+        floor = changeId;
+    }
+
+    synchronized void modified(int changeId, int itemId, MailItem.Type type) {
+        if (itemId <= 0) { // virtual conversations aren't synced
+            return;
+        }
+        append(changeId, itemId, type, null, false);
+    }
+
+    synchronized void deleted(int changeId, int itemId, MailItem.Type type, String uuid) {
+        append(changeId, itemId, type, uuid, true);
+    }
+
+    /**
+     * Drops everything up to and including the given change, after items were changed without being journaled.
+     */
+    synchronized void reset(int changeId) {
+        count = 0;
+        floor = Math.max(floor, changeId);
+    }
+
+    private void append(int changeId, int itemId, MailItem.Type type, String uuid, boolean delete) {
+        if (changeIds.length == 0 || changeId <= floor) {
+            return;
+        }
+        if (count == changeIds.length) {
+            // overwriting the oldest entry, so changes up to it are no longer complete
+            floor = Math.max(floor, changeIds[head]);
+        } else {
+            count++;
+        }
+        changeIds[head] = changeId;
+        itemIds[head] = itemId;
+        types[head] = type;
+        uuids[head] = uuid;
+        deletes[head] = delete;
+        head = (head + 1) % changeIds.length;
+    }
+
+    /**
+     * Returns the IDs of the items modified after the given change and not deleted since, in the order they were first
+     * modified, or null if the journal doesn't go back that far.
+     */
+    synchronized Set<Integer> getModifiedIds(int lastSync) {
+        if (changeIds.length == 0 || lastSync < floor) {
+            return null;
+        }
+        Set<Integer> ids = new LinkedHashSet<Integer>();
+        for (int i = 0, slot = oldest(); i < count; i++, slot = (slot + 1) % changeIds.length) {
+            if (changeIds[slot] <= lastSync) {
+                continue;
+            } else if (deletes[slot]) {
+                ids.remove(itemIds[slot]);
+            } else {
+                ids.add(itemIds[slot]);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Same as {@link com.zimbra.cs.db.DbMailItem#readTombstones(Mailbox, long, boolean)}, or null if the journal
+     * doesn't go back that far.
+     */
+    synchronized TypedIdList getTombstones(int lastSync, boolean equalModSeq) {
+        if (changeIds.length == 0 || lastSync < floor || (equalModSeq && lastSync == floor)) {
+            return null;
+        }
+        TypedIdList tombstones = new TypedIdList();
+        for (int i = 0, slot = oldest(); i < count; i++, slot = (slot + 1) % changeIds.length) {
+            if (deletes[slot] && (changeIds[slot] > lastSync || (equalModSeq && changeIds[slot] == lastSync))) {
+                tombstones.add(types[slot], itemIds[slot], uuids[slot], changeIds[slot]);
+            }
+        }
+        return tombstones;
+    }
+
+    private int oldest() {
+        return (head - count + changeIds.length) % changeIds.length;
+    }
+}
@@ -331,6 +331,7 @@ public class Tag extends MailItem {
         mData.name = newName;
         contentChanged();
         DbTag.renameTag(this);
+        mMailbox.resetSyncJournal();
         // dump entire item cache because tag names on cached items are now stale
         mMailbox.purge(Type.MESSAGE);
         // any folder that contains items might have seen some of its contents change
@@ -342,6 +343,7 @@ public class Tag extends MailItem {
         ZimbraLog.mailop.debug("Removing %s from all items.", getMailopContext(this));
         // remove the tag from all items in the database
         DbTag.deleteTag(this);
+        mMailbox.resetSyncJournal();
         // any folder that contains items might have seen some of its contents change
         touchAllFolders();
         // dump entire item cache because tag names on cached items are now stale
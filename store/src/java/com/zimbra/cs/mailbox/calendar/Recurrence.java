@@ -1619,10 +1619,15 @@ public class Recurrence
     public static List<Instance> expandInstances(IRecurrence recur, int calItemId, long start, long end)
     throws ServiceException {
         List<Instance> list = recur.expandInstances(calItemId, start, end);
+        return removeDuplicateInstances(list);
+    }
 
-        // Eliminate duplicate instances.  For example, an instance may be mentioned both as
-        // a RDATE and an exception VEVENT.  Outlook seems to generate this type of data upon
-        // update of series.  Always prefer exception VEVENT over RDATE.
+    /**
+     * Eliminate duplicate instances from a sorted instance list.  For example, an instance may be
+     * mentioned both as a RDATE and an exception VEVENT.  Outlook seems to generate this type of
+     * data upon update of series.  Always prefer exception VEVENT over RDATE.
+     */
+    public static List<Instance> removeDuplicateInstances(List<Instance> list) {
         List<Instance> toRet = new ArrayList<Instance>(list.size());
         Instance prev = null;
         for (Instance inst : list) {
@@ -34,6 +34,9 @@ public class CalendarCacheManager {
     private boolean mSummaryCacheEnabled;
     private CalSummaryCache mSummaryCache;
 
+    // for recurrence expansion shared by summaries, free/busy and CalDAV
+    private InstanceExpansionCache mInstanceCache;
+
     // for CalDAV ctag caching
     private CalListCache mCalListCache;
     private CtagInfoCache mCtagCache;
@@ -53,11 +56,13 @@ public class CalendarCacheManager {
         if (mSummaryCacheEnabled)
             summaryLRUSize = LC.calendar_cache_lru_size.intValue();
         mSummaryCache = new CalSummaryCache(summaryLRUSize);
+        mInstanceCache = InstanceExpansionCache.newInstance();
     }
 
     public void notifyCommittedChanges(PendingModifications mods, int changeId) {
         if (mSummaryCacheEnabled)
             mSummaryCache.notifyCommittedChanges(mods, changeId);
+        mInstanceCache.notifyCommittedChanges(mods, changeId);
         if (MemcachedConnector.isConnected()) {
             mCalListCache.notifyCommittedChanges(mods, changeId);
             mCtagCache.notifyCommittedChanges(mods, changeId);
@@ -66,6 +71,7 @@ public class CalendarCacheManager {
 
     public void purgeMailbox(Mailbox mbox) throws ServiceException {
         mSummaryCache.purgeMailbox(mbox);
+        mInstanceCache.purgeMailbox(mbox);
         if (MemcachedConnector.isConnected()) {
             mCalListCache.purgeMailbox(mbox);
             mCtagCache.purgeMailbox(mbox);
@@ -74,6 +80,7 @@ public class CalendarCacheManager {
 
     CtagInfoCache getCtagCache() { return mCtagCache; }
     public CalSummaryCache getSummaryCache() { return mSummaryCache; }
+    public InstanceExpansionCache getInstanceExpansionCache() { return mInstanceCache; }
     public CtagResponseCache getCtagResponseCache() { return mCtagResponseCache; }
 
     public AccountCtags getCtags(AccountKey key) throws ServiceException {
@@ -0,0 +1,343 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+
+package com.zimbra.cs.mailbox.calendar.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.zimbra.common.calendar.ICalTimeZone;
+import com.zimbra.common.calendar.ParsedDateTime;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.mailbox.CalendarItem;
+import com.zimbra.cs.mailbox.CalendarItem.Instance;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.calendar.Recurrence;
+import com.zimbra.cs.mailbox.calendar.Recurrence.IRecurrence;
+import com.zimbra.cs.session.PendingModifications;
+import com.zimbra.cs.session.PendingModifications.Change;
+import com.zimbra.cs.session.PendingModifications.ModificationKey;
+import com.zimbra.cs.stats.ZimbraPerf;
+
+/**
+ * In-memory cache of recurrence expansions, one expanded time window per calendar item.
+ * <p>
+ * A window is valid only for the (modified sequence, saved sequence, timezone) of the calendar
+ * item it was computed from.  When a request falls inside the cached window the instances are
+ * sliced out of it without touching the RRULE.  When the requested range overlaps or touches the
+ * window, only the missing edges are expanded and merged in, so month/week views, free/busy and
+ * CalDAV queries all grow and share the same window.
+ */
+public class InstanceExpansionCache {
+
+    static final class ExpansionKey {
+        private final String mAccountId;
+        private final int mItemId;
+
+        ExpansionKey(String accountId, int itemId) {
+            mAccountId = accountId;
+            mItemId = itemId;
+        }
+
+        String getAccountId() { return mAccountId; }
+
+        @Override
+        public boolean equals(Object other) {
+            if (other instanceof ExpansionKey) {
+                ExpansionKey otherKey = (ExpansionKey) other;
+                return mItemId == otherKey.mItemId && mAccountId.equals(otherKey.mAccountId);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return mAccountId.hashCode() * 31 + mItemId;
+        }
+
+        @Override
+        public String toString() {
+            return mAccountId + ":" + mItemId;
+        }
+    }
+
+    static final class ExpandedWindow {
+        private final int mModSeq;
+        private final int mSavedSeq;
+        private final String mTzId;
+        private final long mStart;
+        private final long mEnd;
+        private final List<Instance> mInstances;  // sorted and de-duplicated
+
+        ExpandedWindow(int modSeq, int savedSeq, String tzId, long start, long end, List<Instance> instances) {
+            mModSeq = modSeq;
+            mSavedSeq = savedSeq;
+            mTzId = tzId;
+            mStart = start;
+            mEnd = end;
+            mInstances = instances;
+        }
+
+        boolean isValidFor(int modSeq, int savedSeq, String tzId) {
+            return mModSeq == modSeq && mSavedSeq == savedSeq &&
+                    (mTzId == null ? tzId == null : mTzId.equals(tzId));
+        }
+
+        boolean covers(long start, long end) {
+            return mStart <= start && end <= mEnd;
+        }
+
+        boolean isContiguousWith(long start, long end) {
+            return start <= mEnd && end >= mStart;
+        }
+
+        long getStart() { return mStart; }
+        long getEnd() { return mEnd; }
+        int size() { return mInstances.size(); }
+
+        /**
+         * Returns a new list of the instances that overlap [start, end), using the same boundary
+         * rules as recurrence expansion.
+         */
+        List<Instance> slice(long start, long end) {
+            List<Instance> toRet = new ArrayList<Instance>();
+            for (Instance inst : mInstances) {
+                if (!inst.hasStart() || !inst.hasEnd() || (inst.getEnd() >= start && inst.getStart() < end)) {
+                    toRet.add(inst);
+                }
+            }
+            return toRet;
+        }
+    }
+
+    private static class ExpansionLRU extends LinkedHashMap<ExpansionKey, ExpandedWindow> {
+        private static final long serialVersionUID = 2594174231576484367L;
+        private final int mMaxAllowed;
+
+        // item ids cached for each account, so a mailbox purge doesn't have to scan the whole LRU
+        private final Map<String /* account id */, Set<Integer> /* item ids */> mAccountItems;
+
+        private ExpansionLRU(int capacity) {
+            super(capacity + 1, 1.0f, true);
+            mMaxAllowed = Math.max(capacity, 1);
+            mAccountItems = new HashMap<String, Set<Integer>>();
+        }
+
+        @Override
+        public void clear() {
+            super.clear();
+            mAccountItems.clear();
+        }
+
+        @Override
+        public ExpandedWindow put(ExpansionKey key, ExpandedWindow value) {
+            ExpandedWindow prevVal = super.put(key, value);
+            if (prevVal == null)
+                registerWithAccount(key);
+            return prevVal;
+        }
+
+        @Override
+        public ExpandedWindow remove(Object key) {
+            ExpandedWindow prevVal = super.remove(key);
+            if (prevVal != null && key instanceof ExpansionKey)
+                deregisterFromAccount((ExpansionKey) key);
+            return prevVal;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ExpansionKey, ExpandedWindow> eldest) {
+            boolean remove = size() > mMaxAllowed;
+            if (remove)
+                deregisterFromAccount(eldest.getKey());
+            return remove;
+        }
+
+        private void registerWithAccount(ExpansionKey key) {
+            Set<Integer> items = mAccountItems.get(key.getAccountId());
+            if (items == null) {
+                items = new HashSet<Integer>();
+                mAccountItems.put(key.getAccountId(), items);
+            }
+            items.add(key.mItemId);
+        }
+
+        private void deregisterFromAccount(ExpansionKey key) {
+            Set<Integer> items = mAccountItems.get(key.getAccountId());
+            if (items != null) {
+                items.remove(key.mItemId);
+                if (items.isEmpty())
+                    mAccountItems.remove(key.getAccountId());
+            }
+        }
+
+        public void removeAccount(String accountId) {
+            Set<Integer> items = mAccountItems.get(accountId);
+            if (items != null) {
+                Integer[] ids = items.toArray(new Integer[0]);
+                for (int itemId : ids) {
+                    remove(new ExpansionKey(accountId, itemId));
+                }
+            }
+        }
+    }
+
+    private final ExpansionLRU mCache;
+    private final int mLRUCapacity;
+    private final int mMaxInstances;
+
+    InstanceExpansionCache(int capacity, int maxInstancesPerItem) {
+        mLRUCapacity = capacity;
+        mMaxInstances = maxInstancesPerItem;
+        mCache = new ExpansionLRU(capacity);
+    }
+
+    public static InstanceExpansionCache getInstance() {
+        return CalendarCacheManager.getInstance().getInstanceExpansionCache();
+    }
+
+    static InstanceExpansionCache newInstance() {
+        int capacity = LC.calendar_cache_enabled.booleanValue() ? LC.calendar_instance_cache_lru_size.intValue() : 0;
+        return new InstanceExpansionCache(capacity, LC.calendar_instance_cache_max_instances.intValue());
+    }
+
+    /**
+     * Expands the recurrence of a calendar item over [start, end), reusing the item's cached
+     * window when possible.  Expansions performed while the mailbox is write-locked may reflect
+     * uncommitted state, so they bypass the cache.
+     */
+    public List<Instance> expand(CalendarItem calItem, IRecurrence recur, long start, long end)
+    throws ServiceException {
+        Mailbox mbox = calItem.getMailbox();
+        if (mLRUCapacity <= 0 || mbox.lock.isWriteLockedByCurrentThread()) {
+            return Recurrence.expandInstances(recur, calItem.getId(), start, end);
+        }
+        return expand(mbox.getAccountId(), calItem.getId(), calItem.getModifiedSequence(),
+                calItem.getSavedSequence(), recur, start, end);
+    }
+
+    List<Instance> expand(String accountId, int calItemId, int modSeq, int savedSeq, IRecurrence recur,
+            long start, long end) throws ServiceException {
+        ExpansionKey key = new ExpansionKey(accountId, calItemId);
+        String tzId = getTimeZoneId(recur);
+        ExpandedWindow window;
+        synchronized (mCache) {
+            window = mCache.get(key);
+        }
+        if (window != null && !window.isValidFor(modSeq, savedSeq, tzId)) {
+            window = null;
+        }
+
+        if (window != null && window.covers(start, end)) {
+            ZimbraPerf.COUNTER_CALENDAR_INSTANCE_CACHE_HIT.increment(1);
+            return window.slice(start, end);
+        }
+        ZimbraPerf.COUNTER_CALENDAR_INSTANCE_CACHE_HIT.increment(0);
+
+        ExpandedWindow newWindow;
+        if (window != null && window.isContiguousWith(start, end)) {
+            // Expand only the edges that the cached window doesn't cover yet.
+            List<Instance> merged = new ArrayList<Instance>(window.mInstances);
+            long newStart = Math.min(start, window.getStart());
+            long newEnd = Math.max(end, window.getEnd());
+            if (newStart < window.getStart()) {
+                merged.addAll(Recurrence.expandInstances(recur, calItemId, newStart, window.getStart()));
+            }
+            if (newEnd > window.getEnd()) {
+                merged.addAll(Recurrence.expandInstances(recur, calItemId, window.getEnd(), newEnd));
+            }
+            Collections.sort(merged);
+            newWindow = new ExpandedWindow(modSeq, savedSeq, tzId, newStart, newEnd,
+                    Recurrence.removeDuplicateInstances(merged));
+            if (ZimbraLog.calendar.isDebugEnabled()) {
+                ZimbraLog.calendar.debug("extended cached expansion of calendar item %s from [%d, %d) to [%d, %d)",
+                        key, window.getStart(), window.getEnd(), newStart, newEnd);
+            }
+        } else {
+            newWindow = new ExpandedWindow(modSeq, savedSeq, tzId, start, end,
+                    Recurrence.expandInstances(recur, calItemId, start, end));
+        }
+
+        if (newWindow.size() <= mMaxInstances) {
+            synchronized (mCache) {
+                mCache.put(key, newWindow);
+            }
+        } else {
+            // Too big to keep around; don't let a stale smaller window linger either.
+            invalidate(key);
+        }
+        return newWindow.slice(start, end);
+    }
+
+    private static String getTimeZoneId(IRecurrence recur) {
+        ParsedDateTime dtStart = recur.getStartTime();
+        if (dtStart == null)
+            return null;
+        ICalTimeZone tz = dtStart.getTimeZone();
+        return tz != null ? tz.getID() : null;
+    }
+
+    private void invalidate(ExpansionKey key) {
+        synchronized (mCache) {
+            mCache.remove(key);
+        }
+    }
+
+    int size() {
+        synchronized (mCache) {
+            return mCache.size();
+        }
+    }
+
+    void notifyCommittedChanges(PendingModifications mods, int changeId) {
+        // Windows of modified items are invalidated by their sequence numbers anyway; dropping them
+        // here just frees the memory early.
+        if (mods.modified != null) {
+            for (Map.Entry<ModificationKey, Change> entry : mods.modified.entrySet()) {
+                if (entry.getValue().what instanceof CalendarItem) {
+                    ModificationKey mkey = entry.getKey();
+                    invalidate(new ExpansionKey(mkey.getAccountId(), mkey.getItemId()));
+                }
+            }
+        }
+        if (mods.deleted != null) {
+            for (Map.Entry<ModificationKey, Change> entry : mods.deleted.entrySet()) {
+                MailItem.Type type = (MailItem.Type) entry.getValue().what;
+                if (type == MailItem.Type.APPOINTMENT || type == MailItem.Type.TASK) {
+                    ModificationKey mkey = entry.getKey();
+                    if (mkey.getAccountId() != null)
+                        invalidate(new ExpansionKey(mkey.getAccountId(), mkey.getItemId()));
+                }
+            }
+        }
+    }
+
+    void purgeMailbox(Mailbox mbox) {
+        synchronized (mCache) {
+            mCache.removeAccount(mbox.getAccountId());
+        }
+    }
+}
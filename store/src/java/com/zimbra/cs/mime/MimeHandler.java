@@ -208,6 +208,28 @@ public abstract class MimeHandler {
     private boolean mDrainedContent = false;
     private static byte[] sDrainBuffer = new byte[4096];
 
+    /**
+     * Gets at most {@code maxLength} characters of the text content of the document.
+     */
+    public final String getContent(int maxLength) throws MimeHandlerException {
+        if (DebugConfig.disableMimePartExtraction) {
+            return getContent();
+        }
+        String toRet = getContentImpl(maxLength);
+        if (toRet == null) {
+            return "";
+        }
+        return toRet.length() > maxLength ? toRet.substring(0, maxLength) : toRet;
+    }
+
+    /**
+     * Returns the content for this MIME part, of which only the first {@code maxLength} characters are used.
+     * Subclasses that can stop extracting early should override; the default extracts all of it.
+     */
+    protected String getContentImpl(int maxLength) throws MimeHandlerException {
+        return getContentImpl();
+    }
+
     /**
      * Returns the content for this MIME part.  Length of content returned
      * cannot exceed the value returned by {@link MimeHandlerManager#getMaxContentLength}.
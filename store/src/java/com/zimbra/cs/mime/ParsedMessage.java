@@ -33,7 +33,6 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.zip.GZIPInputStream;
 
 import javax.mail.Address;
 import javax.mail.Header;
@@ -88,6 +87,7 @@ import com.zimbra.cs.mailbox.Threader;
 import com.zimbra.cs.object.ObjectHandlerException;
 import com.zimbra.cs.store.Blob;
 import com.zimbra.cs.store.BlobInputStream;
+import com.zimbra.cs.store.BlockCompression;
 import com.zimbra.cs.store.StoreManager;
 import com.zimbra.cs.util.JMSession;
 
@@ -228,7 +228,7 @@ public final class ParsedMessage {
 
         long size;
         if (FileUtil.isGzipped(file)) {
-            size = ByteUtil.getDataLength(new GZIPInputStream(new FileInputStream(file)));
+            size = ByteUtil.getDataLength(BlockCompression.newInputStream(new FileInputStream(file)));
         } else {
             size = file.length();
         }
@@ -380,39 +380,7 @@ public final class ParsedMessage {
         if (analyzedBodyParts) {
             return;
         }
-
-        analyzedBodyParts = true;
-        if (DebugConfig.disableMessageAnalysis) {
-            return;
-        }
-
-        parse();
-
-        try {
-            Set<MPartInfo> mpiBodies = Mime.getBody(messageParts, false);
-
-            // extract text from the "body" parts
-            StringBuilder body = new StringBuilder();
-            for (MPartInfo mpi : messageParts) {
-                if (mpiBodies.contains(mpi)) {
-                    String toplevelText = analyzePart(true, mpi);
-                    if (toplevelText.length() > 0) {
-                        appendToContent(body, toplevelText);
-                    }
-                }
-                if (ENCRYPTED_PART_TYPES.contains(mpi.mContentType)) {
-                    encrypted = true;
-                }
-            }
-
-            // calculate the fragment -- requires body content
-            bodyContent = body.toString().trim();
-            fragment = Fragment.getFragment(bodyContent, hasTextCalendarPart);
-        } catch (ServiceException e) {
-            throw e;
-        } catch (Exception e) {
-            LOG.warn("exception while analyzing message; message will be partially indexed", e);
-        }
+        analyzeParts(false);
     }
 
     /**
@@ -422,40 +390,79 @@ public final class ParsedMessage {
         if (analyzedNonBodyParts) {
             return;
         }
+        analyzeParts(true);
+    }
 
-        analyzedNonBodyParts = true;
+    /**
+     * Extracts text from the message parts in a single walk over the MIME tree.  Body parts are
+     * analyzed unless that was already done, attachments only if {@code includeAttachments} is set,
+     * so the fragment comes from the same walk as the attachments when {@link #analyzeFully()} is
+     * called before {@link #getFragment(Locale)}.
+     * Text added to the toplevel document stops at {@link LC#zimbra_index_max_toplevel_text_length}
+     * characters, and no more than that is extracted for it; past that point attachments are only
+     * indexed as their own documents.
+     */
+    private void analyzeParts(boolean includeAttachments) throws ServiceException {
+        boolean includeBody = !analyzedBodyParts;
+        analyzedBodyParts = true;
+        analyzedNonBodyParts |= includeAttachments;
         if (DebugConfig.disableMessageAnalysis) {
             return;
         }
 
-        analyzeBodyParts();
+        parse();
 
+        int maxToplevel = LC.zimbra_index_max_toplevel_text_length.intValue();
         try {
             Set<MPartInfo> mpiBodies = Mime.getBody(messageParts, false);
 
-            // extract text from the "non-body" parts
-            StringBuilder fullContent = new StringBuilder(bodyContent);
-            {
-                for (MPartInfo mpi : messageParts) {
-                    boolean isMainBody = mpiBodies.contains(mpi);
-                    if (!isMainBody) {
-                        String toplevelText = analyzePart(isMainBody, mpi);
-                        if (toplevelText.length() > 0) {
-                            appendToContent(fullContent, toplevelText);
-                        }
+            StringBuilder body = includeBody ? new StringBuilder() : null;
+            StringBuilder fullContent = null;
+            if (includeAttachments) {
+                fullContent = new StringBuilder(includeBody ? "" : bodyContent);
+            }
+            for (MPartInfo mpi : messageParts) {
+                boolean isMainBody = mpiBodies.contains(mpi);
+                if (isMainBody && includeBody) {
+                    String toplevelText = analyzePart(true, mpi, Integer.MAX_VALUE);
+                    if (toplevelText.length() > 0) {
+                        appendToContent(body, toplevelText);
+                    }
+                } else if (!isMainBody && includeAttachments) {
+                    int remaining = maxToplevel - fullContent.length() - (body == null ? 0 : body.length());
+                    String toplevelText = analyzePart(false, mpi, Math.max(remaining, 0));
+                    if (remaining > 0 && toplevelText.length() >= remaining) {
+                        LOG.debug("toplevel text limit reached at part %s", mpi.getPartName());
+                    }
+                    if (toplevelText.length() > 0) {
+                        appendToContent(fullContent, toplevelText);
                     }
                 }
+                if (includeBody && ENCRYPTED_PART_TYPES.contains(mpi.mContentType)) {
+                    encrypted = true;
+                }
+            }
+
+            if (includeBody) {
+                // calculate the fragment -- requires body content
+                bodyContent = body.toString().trim();
+                fragment = Fragment.getFragment(bodyContent, hasTextCalendarPart);
             }
+            if (includeAttachments) {
+                if (includeBody && bodyContent.length() > 0) {
+                    fullContent.insert(0, fullContent.length() > 0 ? bodyContent + ' ' : bodyContent);
+                }
 
-            // requires FULL content (all parts)
-            luceneDocuments.add(getMainBodyLuceneDocument(fullContent));
+                // requires FULL content (all parts)
+                luceneDocuments.add(getMainBodyLuceneDocument(fullContent));
 
-            // we're done with the body content (saved from analyzeBodyParts()) now
-            bodyContent = "";
+                // we're done with the body content now
+                bodyContent = "";
 
-            if (numParseErrors > 0) {
-                LOG.warn("Message had analysis errors in %d parts (Message-Id: %s, Subject: %s)",
-                        numParseErrors, getMessageID(), getSubject());
+                if (numParseErrors > 0) {
+                    LOG.warn("Message had analysis errors in %d parts (Message-Id: %s, Subject: %s)",
+                            numParseErrors, getMessageID(), getSubject());
+                }
             }
         } catch (ServiceException e) {
             throw e;
@@ -1026,7 +1033,7 @@ public final class ParsedMessage {
             appendToContent(contentPrepend, fn); // also add the non-tokenized form, so full-filename searches match
         }
 
-        String text = contentPrepend.toString() + " " + fullContent.toString();
+        String text = contentPrepend.append(' ').append(fullContent).toString();
         doc.addContent(text);
 
         try {
@@ -1094,9 +1101,11 @@ public final class ParsedMessage {
     }
 
     /**
+     * @param maxToplevel maximum length of the toplevel text to extract, 0 for none
      * @return Extracted toplevel text (any text that should go into the toplevel indexed document)
      */
-    private String analyzePart(boolean isMainBody, MPartInfo mpi) throws MessagingException, ServiceException {
+    private String analyzePart(boolean isMainBody, MPartInfo mpi, int maxToplevel)
+            throws MessagingException, ServiceException {
 
         boolean ignoreCalendar;
         if (calendarPartInfo == null) {
@@ -1147,11 +1156,10 @@ public final class ParsedMessage {
                 //     - the 'main body' and a local mime handler
                 //     - the 'main body' and IndexAttachments was set in the constructor
                 //     - IndexAttachments was set and !disableIndexingAttachmentsTogether
-                if ((isMainBody && (!handler.runsExternally() || indexAttachments)) ||
-                            (indexAttachments && !DebugConfig.disableIndexingAttachmentsTogether)) {
-                    toRet = handler.getContent();
-                }
-
+                //
+                // Only as much as still fits is extracted for the toplevel.  The separate document
+                // below extracts the whole part anyway, so it goes first and the toplevel text is
+                // cut from that.
                 if (indexAttachments && !DebugConfig.disableIndexingAttachmentsSeparately) {
                     // Each non-text MIME part is also indexed as a separate
                     // Lucene document.  This is necessary so that we can tell the
@@ -1166,6 +1174,11 @@ public final class ParsedMessage {
                     doc.addSortSize(mpi.getMimePart().getSize());
                     luceneDocuments.add(setLuceneHeadersFromContainer(doc));
                 }
+
+                if (maxToplevel > 0 && ((isMainBody && (!handler.runsExternally() || indexAttachments)) ||
+                            (indexAttachments && !DebugConfig.disableIndexingAttachmentsTogether))) {
+                    toRet = handler.getContent(maxToplevel);
+                }
             }
 
             // make sure we've got the text/calendar handler installed
@@ -56,25 +56,38 @@ public class TextHtmlHandler extends MimeHandler {
     @Override
     protected String getContentImpl() throws MimeHandlerException {
         if (content == null) {
-            DataSource source = getDataSource();
-            if (source != null) {
-                InputStream is = null;
-                try {
-                    Reader reader = getReader(is = source.getInputStream(), source.getContentType());
-                    content = HtmlTextExtractor.extract(reader, MimeHandlerManager.getIndexedTextLimit());
-                } catch (Exception e) {
-                    throw new MimeHandlerException(e);
-                } finally {
-                    ByteUtil.closeStream(is);
-                }
-            }
-        }
-        if (content == null) {
-            content = "";
+            content = extract(MimeHandlerManager.getIndexedTextLimit());
         }
         return content;
     }
 
+    @Override
+    protected String getContentImpl(int maxLength) throws MimeHandlerException {
+        int limit = MimeHandlerManager.getIndexedTextLimit();
+        if (content != null || maxLength >= limit) {
+            return getContentImpl();
+        }
+        // only the beginning is wanted, so it isn't kept as the content
+        return extract(maxLength);
+    }
+
+    private String extract(int limit) throws MimeHandlerException {
+        DataSource source = getDataSource();
+        if (source == null) {
+            return "";
+        }
+        InputStream is = null;
+        try {
+            Reader reader = getReader(is = source.getInputStream(), source.getContentType());
+            String text = HtmlTextExtractor.extract(reader, limit);
+            return text == null ? "" : text;
+        } catch (Exception e) {
+            throw new MimeHandlerException(e);
+        } finally {
+            ByteUtil.closeStream(is);
+        }
+    }
+
     protected Reader getReader(InputStream is, String ctype) throws IOException {
         return Mime.getTextReader(is, ctype, getDefaultCharset());
     }
@@ -54,26 +54,38 @@ public class TextPlainHandler extends MimeHandler {
     @Override
     protected String getContentImpl() throws MimeHandlerException {
         if (content == null) {
-            DataSource source = getDataSource();
-            if (source != null) {
-                String ctype = source.getContentType();
-                InputStream is = null;
-                try {
-                    Reader reader = Mime.getTextReader(is = source.getInputStream(), ctype, getDefaultCharset());
-                    content = ByteUtil.getContent(reader, MimeHandlerManager.getIndexedTextLimit(), false);
-                } catch (IOException e) {
-                    throw new MimeHandlerException(e);
-                } finally {
-                    ByteUtil.closeStream(is);
-                }
-            }
-        }
-        if (content == null) {
-            content = "";
+            content = read(MimeHandlerManager.getIndexedTextLimit());
         }
         return content;
     }
 
+    @Override
+    protected String getContentImpl(int maxLength) throws MimeHandlerException {
+        int limit = MimeHandlerManager.getIndexedTextLimit();
+        if (content != null || maxLength >= limit) {
+            return getContentImpl();
+        }
+        // only the beginning is wanted, so it isn't kept as the content
+        return read(maxLength);
+    }
+
+    private String read(int limit) throws MimeHandlerException {
+        DataSource source = getDataSource();
+        if (source == null) {
+            return "";
+        }
+        String ctype = source.getContentType();
+        InputStream is = null;
+        try {
+            Reader reader = Mime.getTextReader(is = source.getInputStream(), ctype, getDefaultCharset());
+            return ByteUtil.getContent(reader, limit, false);
+        } catch (IOException e) {
+            throw new MimeHandlerException(e);
+        } finally {
+            ByteUtil.closeStream(is);
+        }
+    }
+
     /** No need to convert plain text document ever. */
     @Override
     public boolean doConversion() {
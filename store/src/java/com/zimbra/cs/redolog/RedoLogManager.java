@@ -635,8 +635,14 @@ public class RedoLogManager {
         return forceRollover(false);
     }
 
+    /**
+     * Rolls over the log if it's non-empty, and waits until the rolled over log is archived.
+     */
     public File forceRollover(boolean skipCheckpoint) {
-        return rollover(true, skipCheckpoint);
+        File rolledOverFile = rollover(true, skipCheckpoint);
+        if (rolledOverFile != null)
+            mLogWriter.awaitArchive();
+        return rolledOverFile;
     }
 
     public RolloverManager getRolloverManager() {
@@ -695,6 +701,9 @@ public class RedoLogManager {
      * @throws IOException
      */
     public File[] getArchivedLogsFromSequence(long seq) throws IOException {
+        LogWriter logWriter = mLogWriter;
+        if (logWriter != null)
+            logWriter.awaitArchive();
         return RolloverManager.getArchiveLogs(mArchiveDir, seq);
     }
 
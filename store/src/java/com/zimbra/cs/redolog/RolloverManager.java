@@ -29,15 +29,18 @@ import java.io.IOException;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.List;
 import java.util.TimeZone;
 
 import com.zimbra.common.util.Log;
 import com.zimbra.common.util.LogFactory;
 
 import com.zimbra.common.util.FileUtil;
+import com.zimbra.cs.redolog.logger.FileLogWriter;
 
 /**
  * @author jhahm
@@ -68,7 +71,18 @@ public class RolloverManager {
 	 * RolloverManager.rollover().
 	 */
 	public void crashRecovery() throws IOException {
+		archivePendingLogs();
+
 		File logs[] = mRedoLogFile.getParentFile().listFiles(new TempLogFilenameFilter());
+		// Empty temp logs were created ahead of a rollover that never happened.
+		List<File> nonEmpty = new ArrayList<File>(logs.length);
+		for (File log : logs) {
+			if (log.length() > 0)
+				nonEmpty.add(log);
+			else if (log.delete())
+				mLog.info("Deleted unused " + log.getName());
+		}
+		logs = nonEmpty.toArray(new File[nonEmpty.size()]);
 		if (logs.length > 0) {
 			FileUtil.sortFilesByModifiedTime(logs);
 
@@ -112,6 +126,33 @@ public class RolloverManager {
 	}
 
 
+	/**
+	 * Finishes archiving the logs that rollovers moved aside, or deletes them
+	 * if rolled over logs aren't kept.
+	 */
+	private void archivePendingLogs() throws IOException {
+		File logs[] = mRedoLogFile.getParentFile().listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.startsWith(PENDING_FILENAME_PREFIX);
+			}
+		});
+		if (logs == null)
+			return;
+		boolean delete = RedoConfig.redoLogDeleteOnRollover();
+		for (File log : logs) {
+			if (delete) {
+				if (!log.delete())
+					throw new IOException("Unable to delete " + log.getName());
+				mLog.info("Deleted rolled over " + log.getName());
+			} else {
+				File dest = new File(mRedoLogMgr.getRolloverDestDir(),
+						log.getName().substring(PENDING_FILENAME_PREFIX.length()));
+				FileLogWriter.archive(log, dest);
+				mLog.info("Archived " + log.getName() + " to " + dest.getAbsolutePath());
+			}
+		}
+	}
+
 	/**
 	 * Returns the archive log files in the specified directory, sorted
 	 * by the sequence number encoded in the filename.
@@ -223,6 +264,7 @@ public class RolloverManager {
 
 	private static final String ARCH_FILENAME_PREFIX = "redo-";
 	private static final String TEMP_FILENAME_PREFIX = "~tmp-redo-";
+	private static final String PENDING_FILENAME_PREFIX = "~arch-";
 	private static final String SEQUENCE_PREFIX = "-seq";
 	private static final String FILENAME_SUFFIX = ".log";
 	private static final String TIMESTAMP_FORMAT = "yyyyMMdd.HHmmss.SSS";
@@ -250,6 +292,15 @@ public class RolloverManager {
 		return new File(destDir, fname);
 	}
 
+	/**
+	 * Returns the file a rolled over log is kept in, next to the current log,
+	 * until it is renamed to rolloverFile in the archive.
+	 */
+	public File getPendingArchiveFile(File rolloverFile) {
+		// "~arch-redo-<yyyyMMdd.HHmmss>-s<seq>.log"
+		return new File(mRedoLogFile.getParentFile(), PENDING_FILENAME_PREFIX + rolloverFile.getName());
+	}
+
 	public String getTempFilename(long seq) {
         StringBuilder fname = new StringBuilder(TEMP_FILENAME_PREFIX);
         DateFormat fmt = new SimpleDateFormat(TIMESTAMP_FORMAT);
@@ -31,6 +31,12 @@ import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import com.zimbra.common.util.Constants;
 import com.zimbra.common.util.ZimbraLog;
@@ -97,6 +103,18 @@ public class FileLogWriter implements LogWriter {
 
     private CommitNotifyQueue mCommitNotifyQueue;
 
+    // Archives the log rolled over and creates the file for the next log after each rollover, one at a time and in
+    // order.
+    private static final ExecutorService sRolloverWorker = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("RedoLogRollover").setDaemon(true).build());
+
+    // Synchronizes access to mSpareFile and mRolloverCount.
+    private final Object mSpareLock = new Object();
+    private File mSpareFile;                // empty file for the next log, created after the last rollover
+    private long mRolloverCount;            // a spare is only kept if no rollover happened since it was asked for
+    private volatile Future<?> mLastSpare;
+    private volatile Future<?> mLastArchive;
+
     public FileLogWriter(RedoLogManager redoLogMgr,
                          File logfile,
                          long fsyncIntervalMS) {
@@ -226,6 +244,16 @@ public class FileLogWriter implements LogWriter {
      */
     @Override public synchronized void close() throws IOException {
         stopFsyncThread();
+        awaitArchive();
+        awaitSpare();
+        File spare;
+        synchronized (mSpareLock) {
+            spare = mSpareFile;
+            mSpareFile = null;
+            mRolloverCount++;
+        }
+        if (spare != null && spare.length() == 0)
+            spare.delete();
 
         synchronized (mLock) {
             if (mRAF != null) {
@@ -366,6 +394,17 @@ public class FileLogWriter implements LogWriter {
     	mNoStat = b;
     }
 
+    /**
+     * Switches to a new log and returns the file the current log is archived to.
+     * <p>
+     * Loggers only wait for the current log to be fsynced, for the active operations to be written to the next log,
+     * and for two renames: the current log is moved aside under the name from
+     * {@link RolloverManager#getPendingArchiveFile(File)}, and the next log, in a file created ahead of time, takes its
+     * place. Closing the header of the old log, the fsync that puts it on disk and its rename into the archive, or its
+     * deletion if {@link RedoConfig#redoLogDeleteOnRollover()}, happen in the background; use {@link #awaitArchive()}
+     * before going by the returned file. A log left aside by a crash is archived by
+     * {@link RolloverManager#crashRecovery()}.
+     */
     @SuppressWarnings("unchecked")
     @Override public synchronized File rollover(LinkedHashMap /*<TxnId, RedoableOp>*/ activeOps)
     throws IOException {
@@ -373,16 +412,32 @@ public class FileLogWriter implements LogWriter {
 
         long lastSeq = getSequence();
 
-        // Close current log, so it's impossible for its content to change.
-        noStat(true);
-        close();
+        // Everything logged so far must be on disk before the log is switched.  Commits
+        // have normally been fsynced already, so this is cheap.
+        stopFsyncThread();
+        fsync();
+
+        // Take the current log away from loggers, but leave it open.
+        final RandomAccessFile lastRAF;
+        final FileHeader lastHeader;
+        final long lastOpTstamp;
+        synchronized (mLock) {
+            if (mRAF == null)
+                throw new IOException("Redolog file closed");
+            lastRAF = mRAF;
+            lastHeader = mHeader;
+            lastOpTstamp = mLastOpTstamp;
+            mRAF = null;
+            mHeader = new FileHeader(sServerId);
+            mFirstOpTstamp = mLastOpTstamp = 0;
+        }
 
         romgr.incrementSequence();
-        
+
         String currentPath = mFile.getAbsolutePath();
 
-        // Open a temporary logger.
-        File tempLogfile = new File(mFile.getParentFile(), romgr.getTempFilename(lastSeq + 1));
+        // Open a temporary logger on the file created ahead of time.
+        File tempLogfile = takeSpareFile(romgr, lastSeq + 1);
         FileLogWriter tempLogger =
             new FileLogWriter(mRedoLogMgr, tempLogfile, 0);
         tempLogger.open();
@@ -398,19 +453,12 @@ public class FileLogWriter implements LogWriter {
         }
         tempLogger.close();
 
-        // Rename the current log to rolled-over name.
-        File rolloverFile = romgr.getRolloverFile(lastSeq);
-        if (RedoConfig.redoLogDeleteOnRollover()) {
-            // Delete the current log.  We don't need to hold on to the
-            // indexing-only log files after rollover.
-            if (!mFile.delete())
-                throw new IOException("Unable to delete current redo log " + mFile.getAbsolutePath());
-        } else {
-            File destDir = rolloverFile.getParentFile();
-            if (destDir != null && !destDir.exists())
-                destDir.mkdirs();
-            if (!mFile.renameTo(rolloverFile))
-                throw new IOException("Unable to rename current redo log to " + rolloverFile.getAbsolutePath());
+        // Move the current log aside, still open, to be archived in the background.
+        final File rolloverFile = romgr.getRolloverFile(lastSeq);
+        final File pendingFile = romgr.getPendingArchiveFile(rolloverFile);
+        if (!mFile.renameTo(pendingFile)) {
+            lastRAF.close();
+            throw new IOException("Unable to rename current redo log to " + pendingFile.getAbsolutePath());
         }
 
         // Rename the temporary logger to current logfile name.
@@ -423,9 +471,138 @@ public class FileLogWriter implements LogWriter {
         open();
         noStat(false);
 
+        final boolean delete = RedoConfig.redoLogDeleteOnRollover();
+        mLastArchive = sRolloverWorker.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (delete) {
+                        // We don't need to hold on to the indexing-only log files after rollover.
+                        lastRAF.close();
+                        if (!pendingFile.delete())
+                            throw new IOException("Unable to delete " + pendingFile.getAbsolutePath());
+                    } else {
+                        if (lastOpTstamp != 0)
+                            lastHeader.setLastOpTstamp(lastOpTstamp);
+                        archive(lastRAF, lastHeader, pendingFile, rolloverFile);
+                    }
+                } catch (IOException e) {
+                    // left for crash recovery to archive at the next startup
+                    ZimbraLog.redolog.error("Unable to archive %s", pendingFile.getAbsolutePath(), e);
+                }
+            }
+        });
+
+        final File spareFile = new File(mFile.getParentFile(), romgr.getTempFilename(lastSeq + 2));
+        final long rollovers;
+        synchronized (mSpareLock) {
+            rollovers = mRolloverCount;
+        }
+        mLastSpare = sRolloverWorker.submit(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mSpareLock) {
+                    // a later rollover or close already went ahead without it
+                    if (mRolloverCount != rollovers)
+                        return;
+                    try {
+                        if (spareFile.createNewFile())
+                            mSpareFile = spareFile;
+                    } catch (IOException e) {
+                        ZimbraLog.redolog.debug("Unable to create %s", spareFile.getAbsolutePath(), e);
+                    }
+                }
+            }
+        });
+
         return rolloverFile;
     }
 
+    /**
+     * Closes the header of a log moved aside by a rollover and renames the log into the archive once the header is on
+     * disk, since readers of the archive go by it.
+     */
+    private static void archive(RandomAccessFile raf, FileHeader header, File pendingFile, File rolloverFile)
+    throws IOException {
+        try {
+            header.setOpen(false);
+            header.setFileSize(raf.length());
+            header.write(raf);
+            // the rest of the file was fsynced before the rollover
+            raf.getChannel().force(false);
+        } finally {
+            raf.close();
+        }
+        File destDir = rolloverFile.getParentFile();
+        if (destDir != null && !destDir.exists())
+            destDir.mkdirs();
+        if (!pendingFile.renameTo(rolloverFile))
+            throw new IOException("Unable to rename " + pendingFile.getAbsolutePath() + " to " +
+                    rolloverFile.getAbsolutePath());
+    }
+
+    /**
+     * Archives a log that a crash left aside in the middle of a rollover, going by the header in the file.
+     */
+    public static void archive(File pendingFile, File rolloverFile) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(pendingFile, "rw");
+        FileHeader header = new FileHeader();
+        try {
+            header.read(raf);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+        archive(raf, header, pendingFile, rolloverFile);
+    }
+
+    /**
+     * Waits until the logs rolled over so far are archived, or deleted.
+     */
+    @Override public void awaitArchive() {
+        Future<?> archive = mLastArchive;
+        if (archive == null)
+            return;
+        try {
+            archive.get();
+        } catch (InterruptedException e) {
+            ZimbraLog.redolog.warn("Interrupted while waiting for the last redo log to be archived");
+        } catch (ExecutionException e) {
+            ZimbraLog.redolog.warn("Unable to archive the last redo log", e.getCause());
+        }
+    }
+
+    /**
+     * Returns the empty file created for the next log after the last rollover, or a new name if there is none.
+     */
+    private File takeSpareFile(RolloverManager romgr, long seq) {
+        File spare;
+        synchronized (mSpareLock) {
+            spare = mSpareFile;
+            mSpareFile = null;
+            mRolloverCount++;
+        }
+        if (spare != null && spare.length() == 0)
+            return spare;
+        return new File(mFile.getParentFile(), romgr.getTempFilename(seq));
+    }
+
+    /**
+     * Waits until the file for the next log is created.
+     */
+    private void awaitSpare() {
+        Future<?> spare = mLastSpare;
+        if (spare == null)
+            return;
+        try {
+            spare.get();
+        } catch (InterruptedException e) {
+            ZimbraLog.redolog.warn("Interrupted while waiting for the next redo log file");
+        } catch (ExecutionException e) {
+            ZimbraLog.redolog.warn("Unable to create the next redo log file", e.getCause());
+        }
+    }
+
     public synchronized void enableFsync() throws IOException {
         startFsyncThread();
         fsync();
@@ -135,6 +135,12 @@ public interface LogWriter {
     public File rollover(LinkedHashMap /*<TxnId, RedoableOp>*/ activeOps)
     throws IOException;
 
+    /**
+     * Waits until the logs rolled over so far are in place.  Log writers
+     * that don't archive in the background return right away.
+     */
+    public void awaitArchive();
+
     /**
      * Returns the sequence number of redolog.  Only file-based log writers
      * will return a meaningful number.  Others return 0.
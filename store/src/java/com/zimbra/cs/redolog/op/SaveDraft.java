@@ -22,7 +22,6 @@ package com.zimbra.cs.redolog.op;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.zip.GZIPInputStream;
 
 import com.zimbra.common.util.ByteUtil;
 import com.zimbra.cs.mailbox.Mailbox;
@@ -32,6 +31,7 @@ import com.zimbra.cs.mime.ParsedMessage;
 import com.zimbra.cs.redolog.RedoLogInput;
 import com.zimbra.cs.redolog.RedoLogOutput;
 import com.zimbra.cs.store.Blob;
+import com.zimbra.cs.store.BlockCompression;
 import com.zimbra.cs.store.StoreManager;
 
 public class SaveDraft extends CreateMessage {
@@ -79,7 +79,7 @@ public class SaveDraft extends CreateMessage {
         try {
             in = mData.getInputStream();
             if (mData.getLength() != mMsgSize)
-                in = new GZIPInputStream(in);
+                in = BlockCompression.newInputStream(in);
 
             blob = sm.storeIncoming(in);
             ParsedMessage pm = new ParsedMessage(blob.getFile(), getTimestamp(), mbox.attachmentsIndexingEnabled());
@@ -0,0 +1,98 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.redolog.op;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxOperation;
+import com.zimbra.cs.redolog.RedoLogInput;
+import com.zimbra.cs.redolog.RedoLogOutput;
+import com.zimbra.cs.store.MailboxBlob.MailboxBlobInfo;
+
+/**
+ * Points items at copies of their blobs, as when blobs are moved to another volume.
+ */
+public class SetBlobLocators extends RedoableOp {
+
+    private List<MailboxBlobInfo> copies = new ArrayList<MailboxBlobInfo>();
+
+    public SetBlobLocators() {
+        super(MailboxOperation.SetBlobLocators);
+    }
+
+    public SetBlobLocators(int mailboxId, List<MailboxBlobInfo> copies) {
+        this();
+        setMailboxId(mailboxId);
+        this.copies = copies;
+    }
+
+    @Override
+    protected String getPrintableData() {
+        StringBuilder sb = new StringBuilder();
+        for (MailboxBlobInfo copy : copies) {
+            sb.append(sb.length() == 0 ? "" : ", ").append(copy.itemId).append('-').append(copy.revision)
+                .append('=').append(copy.locator);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    protected void serializeData(RedoLogOutput out) throws IOException {
+        out.writeInt(copies.size());
+        for (MailboxBlobInfo copy : copies) {
+            out.writeInt(copy.itemId);
+            out.writeInt(copy.revision);
+            out.writeUTF(copy.locator);
+            out.writeUTF(copy.digest);
+        }
+    }
+
+    @Override
+    protected void deserializeData(RedoLogInput in) throws IOException {
+        int count = in.readInt();
+        copies = new ArrayList<MailboxBlobInfo>(count);
+        for (int i = 0; i < count; i++) {
+            int itemId = in.readInt();
+            int revision = in.readInt();
+            copies.add(new MailboxBlobInfo(null, getMailboxId(), itemId, revision, in.readUTF(), in.readUTF()));
+        }
+    }
+
+    @Override
+    public void redo() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxById(getMailboxId());
+        mbox.setBlobLocators(getOperationContext(), copies);
+    }
+
+    /* Unit test methods */
+
+    byte[] testSerialize() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializeData(new RedoLogOutput(out));
+        return out.toByteArray();
+    }
+
+    void testDeserialize(byte[] data) throws IOException {
+        deserializeData(new RedoLogInput(new ByteArrayInputStream(data)));
+    }
+}
@@ -78,6 +78,7 @@ import com.zimbra.cs.mailbox.MailboxManager;
 import com.zimbra.cs.mailbox.Mountpoint;
 import com.zimbra.cs.mailbox.OperationContext;
 import com.zimbra.cs.service.admin.AdminAccessControl;
+import com.zimbra.cs.service.formatter.ArchiveFormatter;
 import com.zimbra.cs.service.formatter.Formatter;
 import com.zimbra.cs.service.formatter.FormatterFactory;
 import com.zimbra.cs.service.formatter.FormatterFactory.FormatType;
@@ -222,6 +223,12 @@ public class UserServlet extends ZimbraServlet {
      */
     public static final String QP_META = "meta";
 
+    /**
+     * Used by {@link ArchiveFormatter} for an incremental export of the items changed after the given change ID, such
+     * as the one returned in the {@link ArchiveFormatter#CHANGE_ID_HEADER} header of an earlier export.
+     */
+    public static final String QP_SINCE = "since";
+
     /**
      * Used by {@link IfbFormatter} to specify the UID of calendar item to exclude when computing free/busy.
      */
@@ -20,10 +20,18 @@ package com.zimbra.cs.service.admin;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.soap.AdminConstants;
 import com.zimbra.common.soap.Element;
+import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.account.accesscontrol.AdminRight;
 import com.zimbra.cs.mailbox.Mailbox;
 import com.zimbra.cs.mailbox.MailboxManager;
@@ -62,6 +70,7 @@ public final class CheckBlobConsistency extends AdminDocumentHandler {
 
         boolean checkSize = request.getAttributeBool(AdminConstants.A_CHECK_SIZE, true);
         boolean reportUsedBlobs = request.getAttributeBool(AdminConstants.A_REPORT_USED_BLOBS, false);
+        boolean incremental = request.getAttributeBool(AdminConstants.A_INCREMENTAL, false);
 
         // Check blobs and assemble response.
         Element response = zsc.createElement(AdminConstants.CHECK_BLOB_CONSISTENCY_RESPONSE);
@@ -105,14 +114,30 @@ public final class CheckBlobConsistency extends AdminDocumentHandler {
                 }
             }
 
-            for (int mboxId : mailboxIds) {
-                BlobConsistencyChecker checker = new BlobConsistencyChecker();
-                BlobConsistencyChecker.Results results = checker.check(volumeIds, mboxId, checkSize, reportUsedBlobs);
+            long start = System.currentTimeMillis();
+            List<BlobConsistencyChecker.Results> resultsList =
+                check(volumeIds, mailboxIds, checkSize, reportUsedBlobs, incremental);
+            int items = 0;
+            int files = 0;
+            long bytes = 0;
+            for (BlobConsistencyChecker.Results results : resultsList) {
                 if (results.hasInconsistency() || reportUsedBlobs) {
-                    Element mboxEl = response.addElement(AdminConstants.E_MAILBOX).addAttribute(AdminConstants.A_ID, mboxId);
+                    Element mboxEl = response.addElement(AdminConstants.E_MAILBOX).addAttribute(AdminConstants.A_ID, results.mboxId);
                     results.toElement(mboxEl);
                 }
+                items += results.itemCount;
+                files += results.fileCount;
+                bytes += results.byteCount;
             }
+            long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+            response.addElement(AdminConstants.E_STATS)
+                .addAttribute(AdminConstants.A_NUM_MAILBOXES, resultsList.size())
+                .addAttribute(AdminConstants.A_NUM_ITEMS, items)
+                .addAttribute(AdminConstants.A_NUM_FILES, files)
+                .addAttribute(AdminConstants.A_NUM_BYTES, bytes)
+                .addAttribute(AdminConstants.A_DURATION, elapsed)
+                .addAttribute(AdminConstants.A_ITEMS_PER_SEC, items * 1000L / elapsed)
+                .addAttribute(AdminConstants.A_BYTES_PER_SEC, bytes * 1000L / elapsed);
         } else {
             //neither ExternalStoreManager nor FileBlobStore..some third type we haven't coded for
             throw ServiceException.INVALID_REQUEST(sm.getClass().getName() + " is not supported", null);
@@ -120,6 +145,50 @@ public final class CheckBlobConsistency extends AdminDocumentHandler {
         return response;
     }
 
+    /**
+     * Checks the mailboxes on {@link LC#zimbra_blob_consistency_check_threads} threads, and returns the results in the
+     * order of the mailboxes.
+     */
+    private static List<BlobConsistencyChecker.Results> check(final List<Short> volumeIds, List<Integer> mailboxIds,
+            final boolean checkSize, final boolean reportUsedBlobs, final boolean incremental) throws ServiceException {
+        int numThreads = Math.max(1, Math.min(LC.zimbra_blob_consistency_check_threads.intValue(), mailboxIds.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads,
+            new ThreadFactoryBuilder().setNameFormat("BlobConsistencyChecker-%d").setDaemon(true).build());
+        try {
+            List<Future<BlobConsistencyChecker.Results>> futures = new ArrayList<Future<BlobConsistencyChecker.Results>>();
+            for (final int mboxId : mailboxIds) {
+                futures.add(executor.submit(new Callable<BlobConsistencyChecker.Results>() {
+                    @Override
+                    public BlobConsistencyChecker.Results call() throws ServiceException {
+                        ZimbraLog.addMboxToContext(mboxId);
+                        try {
+                            return new BlobConsistencyChecker().check(volumeIds, mboxId, checkSize, reportUsedBlobs,
+                                incremental);
+                        } finally {
+                            ZimbraLog.clearContext();
+                        }
+                    }
+                }));
+            }
+            List<BlobConsistencyChecker.Results> resultsList = new ArrayList<BlobConsistencyChecker.Results>();
+            for (Future<BlobConsistencyChecker.Results> future : futures) {
+                try {
+                    resultsList.add(future.get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof ServiceException) {
+                        throw (ServiceException) e.getCause();
+                    }
+                    throw ServiceException.FAILURE("Unable to check blob consistency", e.getCause());
+                } catch (InterruptedException e) {
+                    throw ServiceException.INTERRUPTED("blob consistency check");
+                }
+            }
+            return resultsList;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     @Override
     public void docRights(List<AdminRight> relatedRights, List<String> notes) {
         notes.add(AdminRightCheckPoint.Notes.SYSTEM_ADMINS_ONLY);
@@ -0,0 +1,88 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.service.admin;
+
+import java.util.List;
+import java.util.Map;
+
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.soap.Element;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.account.accesscontrol.AdminRight;
+import com.zimbra.cs.account.accesscontrol.Rights.Admin;
+import com.zimbra.cs.volume.VolumeManager;
+import com.zimbra.cs.volume.VolumeMigration;
+import com.zimbra.soap.JaxbUtil;
+import com.zimbra.soap.ZimbraSoapContext;
+import com.zimbra.soap.admin.message.MigrateVolumeRequest;
+import com.zimbra.soap.admin.message.MigrateVolumeResponse;
+
+public final class MigrateVolume extends AdminDocumentHandler {
+
+    @Override
+    public Element handle(Element req, Map<String, Object> ctx) throws ServiceException {
+        ZimbraSoapContext zsc = getZimbraSoapContext(ctx);
+        return zsc.jaxbToElement(handle((MigrateVolumeRequest) JaxbUtil.elementToJaxb(req), ctx));
+    }
+
+    private MigrateVolumeResponse handle(MigrateVolumeRequest req, Map<String, Object> ctx)
+            throws ServiceException {
+        ZimbraSoapContext zsc = getZimbraSoapContext(ctx);
+        checkRight(zsc, ctx, Provisioning.getInstance().getLocalServer(), Admin.R_manageVolume);
+
+        VolumeManager mgr = VolumeManager.getInstance();
+        if (req.getAction() == null) {
+            throw ServiceException.INVALID_REQUEST("missing action", null);
+        }
+        switch (req.getAction()) {
+            case start:
+                if (req.getSourceVolumeId() == null || req.getDestVolumeId() == null) {
+                    throw ServiceException.INVALID_REQUEST("source and destination volumes are required", null);
+                }
+                int maxDate = req.getMaxDate() != null ? req.getMaxDate() :
+                    (int) (System.currentTimeMillis() / 1000);
+                long minSize = req.getMinSize() != null ? req.getMinSize() : 0;
+                mgr.startMigration(req.getSourceVolumeId(), req.getDestVolumeId(), maxDate, minSize);
+                break;
+            case stop:
+                mgr.stopMigration();
+                break;
+            case status:
+                break;
+        }
+
+        MigrateVolumeResponse resp = new MigrateVolumeResponse();
+        VolumeMigration migration = mgr.getMigration();
+        if (migration != null) {
+            resp.setStatus(migration.isRunning() ? MigrateVolumeResponse.Status.running :
+                MigrateVolumeResponse.Status.stopped);
+            resp.setSourceVolumeId(migration.getSourceVolumeId());
+            resp.setDestVolumeId(migration.getDestVolumeId());
+            resp.setMailboxes(migration.getMailboxCount());
+            resp.setFiles(migration.getBlobCount());
+            resp.setBytes(migration.getByteCount());
+            resp.setErrors(migration.getErrorCount());
+            resp.setLastMailboxId(migration.getLastMailboxId());
+        }
+        return resp;
+    }
+
+    @Override
+    public void docRights(List<AdminRight> relatedRights, List<String> notes) {
+        relatedRights.add(Admin.R_manageVolume);
+    }
+}
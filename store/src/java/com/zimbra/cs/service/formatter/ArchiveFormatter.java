@@ -27,12 +27,14 @@ import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.Deque;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -69,6 +71,7 @@ import com.zimbra.common.util.ByteUtil;
 import com.zimbra.common.util.Constants;
 import com.zimbra.common.util.HttpUtil;
 import com.zimbra.common.util.HttpUtil.Browser;
+import com.zimbra.common.util.Pair;
 import com.zimbra.common.util.StringUtil;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.account.Provisioning;
@@ -124,6 +127,20 @@ public abstract class ArchiveFormatter extends Formatter {
     private final Map<Integer, List<Contact>> contacts = new HashMap<Integer, List<Contact>>();
     public static enum Resolve { Modify, Replace, Reset, Skip }
     public static final String PARAM_RESOLVE = "resolve";
+    /** set to 1 to import messages in parallel, see {@link BulkMessageLoader} */
+    public static final String PARAM_BULK = "bulk";
+    /**
+     * response header with the last change included in an export, to pass as {@link UserServlet#QP_SINCE} to a later
+     * incremental export, or in {@link #PARAM_RESUME} to resume this one
+     */
+    public static final String CHANGE_ID_HEADER = "X-Zimbra-Change-Id";
+    /**
+     * "&lt;changeId&gt;:&lt;itemId&gt;" to resume an interrupted export, where changeId is its {@link #CHANGE_ID_HEADER}
+     * and itemId the ID in the metadata of the last item it wrote in full. Search based exports write items in ID
+     * order, so the resumed export only writes the items after that one, and the earlier ones that changed since.
+     */
+    public static final String PARAM_RESUME = "resume";
+    private static final int READ_AHEAD_ITEMS = 256;
 
     /* Black Listed Extensions */
     private static final Set<String> BLE = Collections.unmodifiableSet(Sets.newHashSet("TAR", "ZIP", "TGZ", "A6P","AC","AS","ACR","ACTION","AIR","APP","APP","AWK","BAT","CGI","CMD","COM","CSH",
@@ -283,7 +300,6 @@ public abstract class ArchiveFormatter extends Formatter {
                     warn(e);
                 }
             } else {
-                ZimbraQueryResults results = null;
                 boolean saveTargetFolder = false;
 
                 if (context.target instanceof Folder) {
@@ -306,6 +322,10 @@ public abstract class ArchiveFormatter extends Formatter {
                         throw new ExportPeriodTooLongException(requestDays, maxDays);
                     }
                 }
+                // incremental export: only what changed after the given change
+                String changedSince = getChangedSinceQuery(context.params.get(UserServlet.QP_SINCE));
+                ResumePoint resume = ResumePoint.parse(context.params.get(PARAM_RESUME));
+                context.resp.setHeader(CHANGE_ID_HEADER, Integer.toString(context.targetMailbox.getLastChangeID()));
                 String taskQuery = query;
                 if (query == null) {
                     query = "";
@@ -349,25 +369,33 @@ public abstract class ArchiveFormatter extends Formatter {
                         typesMap.put(taskTypes, (StringUtil.isNullOrEmpty(taskQuery)) ? "is:local" : taskQuery);
                     }
                 }
-                for (Map.Entry<Set<MailItem.Type>, String> entry : typesMap.entrySet()) {
-                    results = context.targetMailbox.index.search(context.opContext,
-                            entry.getValue(), entry.getKey(), SortBy.NONE,
-                            LC.zimbra_archive_formatter_search_chunk_size.intValue());
-                    try {
-                        while (results.hasNext()) {
-                            if (saveTargetFolder) {
-                                saveTargetFolder = false;
-                                aos = saveItem(context, context.target, fldrs, cnts, false, aos, encoder, names);
+                List<Integer> ids = getExportIds(context.targetMailbox, context.opContext, typesMap, changedSince,
+                        resume);
+                BlobPrefetcher prefetcher = new BlobPrefetcher();
+                try {
+                    // keep a window of upcoming items whose blobs are read while earlier ones are written
+                    Deque<MailItem> ahead = new ArrayDeque<MailItem>();
+                    int next = 0;
+                    while (next < ids.size() || !ahead.isEmpty()) {
+                        if (ahead.size() <= READ_AHEAD_ITEMS / 2 && next < ids.size()) {
+                            int end = Math.min(next + READ_AHEAD_ITEMS - ahead.size(), ids.size());
+                            for (MailItem mi : getItems(context, ids.subList(next, end))) {
+                                ahead.add(mi);
+                                prefetcher.add(mi);
                             }
-                            aos = saveItem(context, results.getNext().getMailItem(), fldrs, cnts, false, aos, encoder, names);
+                            next = end;
+                            continue;
                         }
-                        Closeables.closeQuietly(results);
-                        results = null;
-                    } catch (Exception e) {
-                        warn(e);
-                    } finally {
-                        Closeables.closeQuietly(results);
+                        if (saveTargetFolder) {
+                            saveTargetFolder = false;
+                            aos = saveItem(context, context.target, fldrs, cnts, false, aos, encoder, names);
+                        }
+                        aos = saveItem(context, ahead.poll(), fldrs, cnts, false, aos, encoder, names, prefetcher);
                     }
+                } catch (Exception e) {
+                    warn(e);
+                } finally {
+                    prefetcher.close();
                 }
             }
             if (aos == null) {
@@ -419,6 +447,13 @@ public abstract class ArchiveFormatter extends Formatter {
         Map<Integer, String> fldrs, Map<Integer, Integer> cnts,
         boolean version, ArchiveOutputStream aos,
         CharsetEncoder charsetEncoder, Set<String> names) throws ServiceException {
+        return saveItem(context, mi, fldrs, cnts, version, aos, charsetEncoder, names, null);
+    }
+
+    private ArchiveOutputStream saveItem(UserServletContext context, MailItem mi,
+        Map<Integer, String> fldrs, Map<Integer, Integer> cnts,
+        boolean version, ArchiveOutputStream aos,
+        CharsetEncoder charsetEncoder, Set<String> names, BlobPrefetcher prefetcher) throws ServiceException {
 
         String ext = null, name = null;
         String extra = null;
@@ -572,7 +607,7 @@ public abstract class ArchiveFormatter extends Formatter {
                 return aos;
             }
             try {
-                is = mi.getContentStream();
+                is = prefetcher != null ? prefetcher.getContentStream(mi) : mi.getContentStream();
             } catch (Exception e) {
                 ZimbraLog.misc.error("missing blob for item %d: expected %d", mi.getId(), miSize);
                 return aos;
@@ -852,6 +887,8 @@ public abstract class ArchiveFormatter extends Formatter {
         String subfolder = context.params.get("subfolder");
         String timestamp = context.params.get("timestamp");
         String timeout = context.params.get("timeout");
+        String bulkParam = context.params.get(PARAM_BULK);
+        BulkMessageLoader bulk = null;
 
         try {
             ArchiveInputStream ais;
@@ -937,6 +974,9 @@ public abstract class ArchiveFormatter extends Formatter {
                 fmap.put(f.getId(), f);
                 fmap.put(f.getPath(), f);
             }
+            if ("1".equals(bulkParam) || "true".equals(bulkParam)) {
+                bulk = new BulkMessageLoader();
+            }
             try {
                 ArchiveInputEntry aie;
                 Boolean meta = false;
@@ -953,7 +993,7 @@ public abstract class ArchiveFormatter extends Formatter {
                     } else if (aie.getName().endsWith(".meta")) {
                         meta = true;
                         if (id != null) {
-                            addItem(context, fldr, fmap, digestInfo, idMap, ids, searchTypes, r, id, ais, null, errs);
+                            addItem(context, fldr, fmap, digestInfo, idMap, ids, searchTypes, r, id, ais, null, errs, bulk);
                         }
                         try {
                             id = new ItemData(readArchiveEntry(ais, aie));
@@ -973,12 +1013,12 @@ public abstract class ArchiveFormatter extends Formatter {
                     } else if ((aie.getType() != 0 && id.ud.type != aie.getType()) || (id.ud.getBlobDigest() != null && aie.getSize() != -1 && id.ud.size != aie.getSize())) {
                         addError(errs, FormatterServiceException.MISMATCHED_META(aie.getName()));
                     } else {
-                        addItem(context, fldr, fmap, digestInfo, idMap, ids, searchTypes, r, id, ais, aie, errs);
+                        addItem(context, fldr, fmap, digestInfo, idMap, ids, searchTypes, r, id, ais, aie, errs, bulk);
                     }
                     id = null;
                 }
                 if (id != null) {
-                    addItem(context, fldr, fmap, digestInfo, idMap, ids, searchTypes, r, id, ais, null, errs);
+                    addItem(context, fldr, fmap, digestInfo, idMap, ids, searchTypes, r, id, ais, null, errs, bulk);
                 }
             } catch (Exception e) {
                 if (id == null) {
@@ -992,6 +1032,11 @@ public abstract class ArchiveFormatter extends Formatter {
                     ais.close();
                 }
                 contacts.clear();
+                if (bulk != null) {
+                    for (Pair<String, Exception> failure : bulk.finish()) {
+                        addError(errs, r, failure.getFirst(), failure.getSecond());
+                    }
+                }
             }
         } catch (Exception e) {
             ex = e;
@@ -1018,6 +1063,19 @@ public abstract class ArchiveFormatter extends Formatter {
         ZimbraLog.misc.warn("ArchiveFormatter addError:%s", s, ex);
     }
 
+    /**
+     * Same as the error handling of {@link #addItem}, for messages added by a {@link BulkMessageLoader}.
+     */
+    private void addError(List<ServiceException> errs, Resolve r, String path, Exception e) {
+        if (e instanceof MailServiceException) {
+            if (r != Resolve.Skip || ((MailServiceException) e).getCode() != MailServiceException.ALREADY_EXISTS) {
+                addError(errs, (MailServiceException) e);
+            }
+        } else {
+            addError(errs, FormatterServiceException.UNKNOWN_ERROR(path, e));
+        }
+    }
+
     private Folder createParent(UserServletContext context, Map<Object, Folder> fmap, String path, MailItem.Type view)
     throws ServiceException {
         String parent = path.substring(0, path.lastIndexOf('/'));
@@ -1048,6 +1106,128 @@ public abstract class ArchiveFormatter extends Formatter {
         return fldr;
     }
 
+    /**
+     * Returns the search term that restricts an incremental export to the items modified after the change ID in the
+     * {@link UserServlet#QP_SINCE} parameter. Items deleted since then are not part of such an export; an export that
+     * was interrupted is resumed with {@link #PARAM_RESUME}.
+     */
+    @VisibleForTesting
+    static String getChangedSinceQuery(String since) throws ServiceException {
+        if (Strings.isNullOrEmpty(since)) {
+            return "";
+        }
+        try {
+            return " modseq:>" + Integer.parseInt(since);
+        } catch (NumberFormatException e) {
+            throw ServiceException.INVALID_REQUEST("invalid " + UserServlet.QP_SINCE + ": " + since, e);
+        }
+    }
+
+    /**
+     * Where an interrupted export stopped, see {@link #PARAM_RESUME}.
+     */
+    @VisibleForTesting
+    static final class ResumePoint {
+        final int changeId;
+        final int itemId;
+
+        ResumePoint(int changeId, int itemId) {
+            this.changeId = changeId;
+            this.itemId = itemId;
+        }
+
+        /**
+         * @return the resume point, or null if not resuming
+         */
+        static ResumePoint parse(String value) throws ServiceException {
+            if (Strings.isNullOrEmpty(value)) {
+                return null;
+            }
+            int colon = value.indexOf(':');
+            try {
+                if (colon > 0) {
+                    return new ResumePoint(Integer.parseInt(value.substring(0, colon)),
+                            Integer.parseInt(value.substring(colon + 1)));
+                }
+            } catch (NumberFormatException e) {
+            }
+            throw ServiceException.INVALID_REQUEST("invalid " + PARAM_RESUME + ": " + value, null);
+        }
+    }
+
+    /**
+     * Runs the searches of an export, and returns the IDs of the items to write in ascending order. When resuming, the
+     * items up to the resume point are left out unless they changed since the interrupted export started.
+     *
+     * @param searches query by the types it searches for
+     * @param changedSince search term of an incremental export, see {@link #getChangedSinceQuery}
+     * @param resume where the interrupted export stopped, or null
+     */
+    @VisibleForTesting
+    static List<Integer> getExportIds(Mailbox mbox, OperationContext octxt, Map<Set<MailItem.Type>, String> searches,
+            String changedSince, ResumePoint resume) throws ServiceException {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (Map.Entry<Set<MailItem.Type>, String> entry : searches.entrySet()) {
+            String query = entry.getValue() + changedSince;
+            if (resume == null) {
+                addHits(mbox, octxt, query, entry.getKey(), Integer.MIN_VALUE, ids);
+            } else {
+                addHits(mbox, octxt, query, entry.getKey(), resume.itemId, ids);
+                List<Integer> changed = new ArrayList<Integer>();
+                addHits(mbox, octxt, query + " modseq:>" + resume.changeId, entry.getKey(), Integer.MIN_VALUE,
+                        changed);
+                for (int id : changed) {
+                    if (id <= resume.itemId) {
+                        ids.add(id);
+                    }
+                }
+            }
+        }
+        Collections.sort(ids);
+        // searches of different types don't overlap, but a hit may be returned more than once
+        List<Integer> result = new ArrayList<Integer>(ids.size());
+        for (int id : ids) {
+            if (result.isEmpty() || result.get(result.size() - 1) != id) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    private static void addHits(Mailbox mbox, OperationContext octxt, String query, Set<MailItem.Type> types,
+            int afterId, List<Integer> ids) throws ServiceException {
+        ZimbraQueryResults results = mbox.index.search(octxt, query, types, SortBy.NONE,
+                LC.zimbra_archive_formatter_search_chunk_size.intValue());
+        try {
+            while (results.hasNext()) {
+                int id = results.getNext().getItemId();
+                if (id > afterId) {
+                    ids.add(id);
+                }
+            }
+        } finally {
+            Closeables.closeQuietly(results);
+        }
+    }
+
+    /**
+     * Fetches the items, leaving out those deleted since the search.
+     */
+    private static List<MailItem> getItems(UserServletContext context, List<Integer> ids) throws ServiceException {
+        try {
+            return Arrays.asList(context.targetMailbox.getItemById(context.opContext, ids, MailItem.Type.UNKNOWN));
+        } catch (NoSuchItemException e) {
+            List<MailItem> result = new ArrayList<MailItem>(ids.size());
+            for (int id : ids) {
+                try {
+                    result.add(context.targetMailbox.getItemById(context.opContext, id, MailItem.Type.UNKNOWN));
+                } catch (NoSuchItemException gone) {
+                }
+            }
+            return result;
+        }
+    }
+
     private static final String[] NO_TAGS = new String[0];
 
     @VisibleForTesting
@@ -1093,7 +1273,7 @@ public abstract class ArchiveFormatter extends Formatter {
     private void addItem(UserServletContext context, Folder fldr, Map<Object, Folder> fmap,
             FolderDigestInfo digestInfo,
             Map<Integer, Integer> idMap, int[] ids, Set<MailItem.Type> types, Resolve r, ItemData id,
-            ArchiveInputStream ais, ArchiveInputEntry aie, List<ServiceException> errs)
+            ArchiveInputStream ais, ArchiveInputEntry aie, List<ServiceException> errs, BulkMessageLoader bulk)
     throws ServiceException {
         try {
             Mailbox mbox = fldr.getMailbox();
@@ -1394,6 +1574,11 @@ public abstract class ArchiveFormatter extends Formatter {
                         setFolderId(fldr.getId()).setNoICal(true).
                         setFlags(msg.getFlagBitmask()).
                         setTags(msg.getTags());
+                        if (bulk != null && bulk.accepts(aie.getSize())) {
+                            // the loader also sets the color and tags
+                            bulk.add(mbox, octxt, mi, id, readArchiveEntry(ais, aie), opt, aie.getName());
+                            return;
+                        }
                         newItem = mbox.addMessage(octxt, ais.getInputStream(), (int) aie.getSize(),
                                 msg.getDate(), opt, null, id);
                     }
@@ -0,0 +1,136 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+
+package com.zimbra.cs.service.formatter;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.ByteUtil;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.mailbox.MailItem;
+
+/**
+ * Reads the blobs of the items an export is about to write ahead of time, on a small pool of threads shared by all
+ * exports, so that the export thread rarely waits on the disk.
+ * <p>
+ * Items are added in the order they will be asked for. Up to {@link LC#zimbra_archive_formatter_readahead_kb} of their
+ * blobs are held in memory at a time; bigger blobs, and items asked for out of order, are read directly. Not thread
+ * safe.
+ */
+final class BlobPrefetcher implements Closeable {
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(
+            Math.max(1, LC.zimbra_archive_formatter_io_threads.intValue()),
+            new ThreadFactoryBuilder().setNameFormat("ArchiveReader-%d").setDaemon(true).build());
+
+    private final long budget = LC.zimbra_archive_formatter_readahead_kb.longValue() * 1024;
+    /** items not asked for yet in order, with their reads once started */
+    private final Map<MailItem, Future<byte[]>> window = Maps.newLinkedHashMap();
+    private long reading = 0;
+
+    /**
+     * Queues an item the export will ask for after the ones already added.
+     */
+    void add(MailItem item) {
+        if (item != null && item.getDigest() != null && item.getSize() > 0 && item.getSize() <= budget) {
+            window.put(item, null);
+            fill();
+        }
+    }
+
+    /**
+     * Same as {@link MailItem#getContentStream()}, except that the content may have been read already.  Items queued
+     * before this one are assumed to have been skipped by the export.
+     */
+    InputStream getContentStream(MailItem item) throws ServiceException {
+        if (!window.containsKey(item)) {
+            return item.getContentStream();
+        }
+        Future<byte[]> read = null;
+        for (Iterator<Map.Entry<MailItem, Future<byte[]>>> it = window.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<MailItem, Future<byte[]>> entry = it.next();
+            it.remove();
+            if (entry.getValue() != null) {
+                reading -= entry.getKey().getSize();
+            }
+            if (entry.getKey() == item) {
+                read = entry.getValue();
+                break;
+            } else if (entry.getValue() != null) {
+                entry.getValue().cancel(false);
+            }
+        }
+        fill();
+        if (read != null) {
+            try {
+                return new ByteArrayInputStream(read.get());
+            } catch (ExecutionException e) {
+                ZimbraLog.misc.debug("Unable to read ahead blob of item %d", item.getId(), e.getCause());
+            } catch (InterruptedException e) {
+                throw ServiceException.INTERRUPTED("reading blob of item " + item.getId());
+            }
+        }
+        return item.getContentStream();
+    }
+
+    private void fill() {
+        for (Map.Entry<MailItem, Future<byte[]>> entry : window.entrySet()) {
+            if (entry.getValue() != null) {
+                continue;
+            }
+            final MailItem item = entry.getKey();
+            if (reading + item.getSize() > budget) {
+                break;
+            }
+            reading += item.getSize();
+            entry.setValue(POOL.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    InputStream in = item.getContentStream();
+                    try {
+                        return ByteUtil.getContent(in, (int) item.getSize());
+                    } finally {
+                        ByteUtil.closeStream(in);
+                    }
+                }
+            }));
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Future<byte[]> read : window.values()) {
+            if (read != null) {
+                read.cancel(false);
+            }
+        }
+        window.clear();
+        reading = 0;
+    }
+}
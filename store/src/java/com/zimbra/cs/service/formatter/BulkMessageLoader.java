@@ -0,0 +1,167 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+
+package com.zimbra.cs.service.formatter;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.Pair;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.mailbox.DeliveryOptions;
+import com.zimbra.cs.mailbox.Flag;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.MailServiceException;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.Message;
+import com.zimbra.cs.mailbox.OperationContext;
+import com.zimbra.cs.service.util.ItemData;
+
+/**
+ * Adds the messages of an archive import on threads shared by all imports, so that storing and parsing the blob of
+ * one message overlaps with reading the archive and with the transactions of the others.
+ * <p>
+ * Each message is still added in its own redo logged transaction, so the transactions themselves still take turns on
+ * the mailbox lock; indexing is deferred for the whole import by {@link Formatter#save}, and done in batches once it
+ * ends. Messages of the same conversation in the archive always go to the same thread, so they are added in archive
+ * order and thread the same way on every import; only messages of different conversations are added in parallel.
+ * <p>
+ * The import thread reads the message data out of the archive, so at most {@link LC#zimbra_archive_import_buffer_kb}
+ * of it is held in memory; bigger messages are added by the import thread directly. Failures are collected and
+ * returned by {@link #finish}, except for a quota failure, which is thrown by the next {@link #add} and reported by
+ * {@link #finish} only if no {@link #add} followed.
+ */
+final class BulkMessageLoader {
+    private static final ExecutorService[] LANES = new ExecutorService[Math.max(1,
+            LC.zimbra_archive_import_threads.intValue())];
+    static {
+        ThreadFactory factory = new ThreadFactoryBuilder().setNameFormat("ArchiveImport-%d").setDaemon(true).build();
+        for (int i = 0; i < LANES.length; i++) {
+            LANES[i] = Executors.newSingleThreadExecutor(factory);
+        }
+    }
+
+    private final int budget = (int) Math.min(LC.zimbra_archive_import_buffer_kb.longValue() * 1024, Integer.MAX_VALUE);
+    private final Semaphore buffer = new Semaphore(budget);
+    private final List<Pair<String, Exception>> failures = Lists.newArrayList();
+    private final long start = System.currentTimeMillis();
+    private volatile MailServiceException quotaExceeded;
+    private String quotaEntry;
+    private volatile boolean quotaThrown = false;
+    private int count = 0;
+    private long bytes = 0;
+
+    /**
+     * Returns true if a message of the given size can be added by {@link #add}.
+     */
+    boolean accepts(long size) {
+        return size > 0 && size <= budget;
+    }
+
+    /**
+     * Queues a message, waiting for earlier ones to free up enough buffer space.  Once a message exceeded the quota,
+     * that error is thrown instead.
+     *
+     * @param mi the message as described by the archive, whose color and tags are applied to the new one
+     * @param name archive entry name, for errors
+     */
+    void add(final Mailbox mbox, final OperationContext octxt, final MailItem mi, final ItemData id,
+            final byte[] data, final DeliveryOptions opt, final String name) throws ServiceException {
+        if (quotaExceeded != null) {
+            quotaThrown = true;
+            throw quotaExceeded;
+        }
+        try {
+            buffer.acquire(data.length);
+        } catch (InterruptedException e) {
+            throw ServiceException.INTERRUPTED("adding " + name);
+        }
+        count++;
+        bytes += data.length;
+        final Map<String, String> context = ZimbraLog.getContextMap();
+        // virtual conversations of a single message have a negative ID
+        int conv = mi.getParentId() > 0 ? mi.getParentId() : mi.getId();
+        LANES[Math.abs(conv % LANES.length)].execute(new Runnable() {
+            @Override
+            public void run() {
+                ZimbraLog.setContext(context);
+                try {
+                    Message msg = mbox.addMessage(octxt, new ByteArrayInputStream(data), data.length, mi.getDate(),
+                            opt, null, id);
+                    if (mi.getColor() != msg.getColor()) {
+                        mbox.setColor(octxt, msg.getId(), msg.getType(), mi.getColor());
+                    }
+                    if (!id.flags.equals(msg.getFlagString()) || !id.tagsEqual(msg)) {
+                        mbox.setTags(octxt, msg.getId(), msg.getType(), Flag.toBitmask(id.flags),
+                                ArchiveFormatter.getTagNames(id), null);
+                    }
+                } catch (Exception e) {
+                    if (e instanceof MailServiceException &&
+                            ((MailServiceException) e).getCode() == MailServiceException.QUOTA_EXCEEDED) {
+                        // the first one is reported once, by add() or finish(); the rest fail for the same reason
+                        synchronized (failures) {
+                            if (quotaExceeded == null) {
+                                quotaEntry = name;
+                                quotaExceeded = (MailServiceException) e;
+                            }
+                        }
+                        return;
+                    }
+                    synchronized (failures) {
+                        failures.add(new Pair<String, Exception>(name, e));
+                    }
+                } finally {
+                    buffer.release(data.length);
+                    ZimbraLog.clearContext();
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits for all the queued messages to be added, and returns the failures along with the entry names.
+     */
+    List<Pair<String, Exception>> finish() throws ServiceException {
+        try {
+            buffer.acquire(budget);
+        } catch (InterruptedException e) {
+            throw ServiceException.INTERRUPTED("waiting for archive import");
+        }
+        buffer.release(budget);
+        long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+        ZimbraLog.misc.info("Bulk import added=%d,bytes=%d,elapsed=%d (%.2f messages/sec)",
+                count, bytes, elapsed, 1000.0 * count / elapsed);
+        synchronized (failures) {
+            List<Pair<String, Exception>> result = Lists.newArrayList(failures);
+            failures.clear();
+            if (quotaExceeded != null && !quotaThrown) {
+                quotaThrown = true;
+                result.add(new Pair<String, Exception>(quotaEntry, quotaExceeded));
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+
+package com.zimbra.cs.service.formatter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zimbra.common.util.ByteUtil;
+
+/**
+ * Hands what is written to it over to another thread that writes it to the underlying stream, so that an expensive
+ * stream such as a {@code GZIPOutputStream} over the response runs in parallel with whatever produces the data.
+ * <p>
+ * Data is passed on in chunks through a small bounded queue.  A write error on the other thread is thrown by a later
+ * {@link #write} or by {@link #close}, which waits for everything to be written and closes the underlying stream.
+ * {@link #flush} only passes on the current chunk.
+ */
+final class PipelinedOutputStream extends OutputStream {
+    private static final ExecutorService POOL = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("ArchiveWriter-%d").setDaemon(true).build());
+    private static final byte[] EOF = new byte[0];
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int QUEUE_DEPTH = 8;
+
+    private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(QUEUE_DEPTH);
+    private final Future<Void> writer;
+    private byte[] chunk = new byte[CHUNK_SIZE];
+    private int count = 0;
+    private volatile IOException failure;
+    private boolean closed = false;
+
+    PipelinedOutputStream(final OutputStream out) {
+        writer = POOL.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws InterruptedException {
+                try {
+                    // keep draining after a failure, so that the producer never blocks
+                    for (byte[] b = queue.take(); b != EOF; b = queue.take()) {
+                        if (failure == null) {
+                            try {
+                                out.write(b);
+                            } catch (IOException e) {
+                                failure = e;
+                            }
+                        }
+                    }
+                    if (failure == null) {
+                        try {
+                            out.close();
+                        } catch (IOException e) {
+                            failure = e;
+                        }
+                    }
+                } finally {
+                    ByteUtil.closeStream(out);
+                }
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == chunk.length) {
+            pass();
+        }
+        chunk[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == chunk.length) {
+                pass();
+            }
+            int n = Math.min(len, chunk.length - count);
+            System.arraycopy(b, off, chunk, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (count > 0) {
+            pass();
+        }
+    }
+
+    private void pass() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        byte[] b = count == chunk.length ? chunk : Arrays.copyOf(chunk, count);
+        put(b);
+        chunk = new byte[CHUNK_SIZE];
+        count = 0;
+    }
+
+    private void put(byte[] b) throws IOException {
+        try {
+            queue.put(b);
+        } catch (InterruptedException e) {
+            writer.cancel(true);
+            throw new InterruptedIOException();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (count > 0 && failure == null) {
+                pass();
+            }
+        } finally {
+            put(EOF);
+        }
+        try {
+            writer.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
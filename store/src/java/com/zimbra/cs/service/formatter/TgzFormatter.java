@@ -43,7 +43,8 @@ public class TgzFormatter extends TarFormatter {
 
     protected ArchiveOutputStream getOutputStream(UserServletContext context, String
         charset) throws IOException {
-        return new TarArchiveOutputStream(new GZIPOutputStream(
-            context.resp.getOutputStream()), charset);
+        // compress on another thread while this one reads the items
+        return new TarArchiveOutputStream(new PipelinedOutputStream(new GZIPOutputStream(
+            context.resp.getOutputStream())), charset);
     }
 }
@@ -46,6 +46,7 @@ import com.zimbra.cs.index.QueryInfo;
 import com.zimbra.cs.index.ResultsPager;
 import com.zimbra.cs.index.SearchParams;
 import com.zimbra.cs.index.SearchParams.ExpandResults;
+import com.zimbra.cs.index.SearchResultsCache;
 import com.zimbra.cs.index.SortBy;
 import com.zimbra.cs.index.ZimbraHit;
 import com.zimbra.cs.index.ZimbraQueryResults;
@@ -103,7 +104,8 @@ public class Search extends MailDocumentHandler  {
             }
         }
 
-        ZimbraQueryResults results = mbox.index.search(zsc.getResponseProtocol(), octxt, params);
+        ZimbraQueryResults results = SearchResultsCache.getInstance().search(mbox, zsc.getResponseProtocol(), octxt,
+                params);
         try {
             // create the XML response Element
             Element response = zsc.createElement(MailConstants.SEARCH_RESPONSE);
@@ -24,6 +24,7 @@ import com.zimbra.common.stats.RealtimeStatsCallback;
 import com.zimbra.cs.account.Provisioning;
 import com.zimbra.cs.account.accesscontrol.PermissionCache;
 import com.zimbra.cs.account.ldap.LdapProv;
+import com.zimbra.cs.index.LuceneMergeScheduler;
 import com.zimbra.cs.mailbox.MessageCache;
 import com.zimbra.cs.store.BlobInputStream;
 import com.zimbra.cs.store.FileDescriptorCache;
@@ -41,6 +42,9 @@ public class ServerStatsCallback implements RealtimeStatsCallback {
         data.put(ZimbraPerf.RTS_FD_CACHE_HIT_RATE, fdc.getHitRate());
         
         data.put(ZimbraPerf.RTS_ACL_CACHE_HIT_RATE, PermissionCache.getHitRate());
+
+        data.put(ZimbraPerf.RTS_IDX_MERGE_PENDING, LuceneMergeScheduler.getPendingCount());
+        data.put(ZimbraPerf.RTS_IDX_MERGE_RUNNING, LuceneMergeScheduler.getRunningCount());
         
         Provisioning prov = Provisioning.getInstance();
         if (prov instanceof LdapProv) {
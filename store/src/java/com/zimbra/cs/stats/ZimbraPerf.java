@@ -176,6 +176,12 @@ public class ZimbraPerf {
     @Description("LDAP XMPP cache hit rate")
     public static final String RTS_XMPP_CACHE_HIT_RATE = "xmpp_cache_hit_rate";
 
+    @Description("Number of index merges waiting to run")
+    public static final String RTS_IDX_MERGE_PENDING = "idx_merge_pending";
+
+    @Description("Number of index merges running")
+    public static final String RTS_IDX_MERGE_RUNNING = "idx_merge_running";
+
     // Accumulators.  To add a new accumulator, create a static instance here and
     // add it to sAccumulators.
     public static final Counter COUNTER_LMTP_RCVD_MSGS = new Counter();
@@ -199,11 +205,18 @@ public class ZimbraPerf {
     public static final Counter COUNTER_CALENDAR_CACHE_HIT = new Counter();
     public static final Counter COUNTER_CALENDAR_CACHE_MEM_HIT = new Counter();
     public static final Counter COUNTER_CALENDAR_CACHE_LRU_SIZE = new Counter();
+    public static final Counter COUNTER_CALENDAR_INSTANCE_CACHE_HIT = new Counter();
     public static final Counter COUNTER_IDX_BYTES_WRITTEN = new Counter();
     public static final Counter COUNTER_IDX_BYTES_READ = new Counter();
     public static final Counter COUNTER_BLOB_INPUT_STREAM_READ = new Counter();
     public static final Counter COUNTER_BLOB_INPUT_STREAM_SEEK_RATE = new Counter();
     public static final StopWatch STOPWATCH_EWS = new StopWatch();
+    public static final StopWatch STOPWATCH_SEARCH_PARSE = new StopWatch();
+    public static final StopWatch STOPWATCH_IDX_MERGE = new StopWatch();
+    public static final Counter COUNTER_IDX_MERGE_DEFERRED = new Counter();
+    public static final Counter COUNTER_SEARCH_PLAN_CACHE = new Counter();
+    public static final Counter COUNTER_SEARCH_HYDRATE = new Counter();
+    public static final Counter COUNTER_SEARCH_CONV_PREFETCH = new Counter();
 
     public static final ActivityTracker SOAP_TRACKER = new ActivityTracker("soap.csv");
     public static final ActivityTracker IMAP_TRACKER = new ActivityTracker("imap.csv");
@@ -239,6 +252,7 @@ public class ZimbraPerf {
             RTS_ZIMLET_CACHE_SIZE, RTS_ZIMLET_CACHE_HIT_RATE,
             RTS_GROUP_CACHE_SIZE, RTS_GROUP_CACHE_HIT_RATE,
             RTS_XMPP_CACHE_SIZE, RTS_XMPP_CACHE_HIT_RATE,
+            RTS_IDX_MERGE_PENDING, RTS_IDX_MERGE_RUNNING,
             }
         );
 
@@ -344,6 +358,39 @@ public class ZimbraPerf {
     @Description("Number of calendars (folders) in the calendar summary cache LRU in Java heap")
     private static final String DC_CALCACHE_LRU_SIZE = "calcache_lru_size";
 
+    @Description("Hit rate of recurrence expansion cache, counting only requests fully inside a cached window")
+    private static final String DC_CALINST_CACHE_HIT = "calinst_cache_hit";
+
+    @Description("Number of index merges")
+    private static final String DC_IDX_MERGE_COUNT = "idx_merge_count";
+
+    @Description("Average time (ms) of an index merge")
+    private static final String DC_IDX_MERGE_MS_AVG = "idx_merge_ms_avg";
+
+    @Description("Accumulated number of large index merges deferred to the quiet hours")
+    private static final String DC_IDX_MERGE_DEFERRED = "idx_merge_deferred";
+
+    @Description("Number of search query strings parsed")
+    private static final String DC_SEARCH_PARSE_COUNT = "search_parse_count";
+
+    @Description("Average time (ms) of parsing a search query string and binding it to a mailbox")
+    private static final String DC_SEARCH_PARSE_MS_AVG = "search_parse_ms_avg";
+
+    @Description("Hit rate of the search query syntax tree cache")
+    private static final String DC_SEARCH_PLAN_CACHE = "search_plan_cache";
+
+    @Description("Number of batched DB loads of search hit items")
+    private static final String DC_SEARCH_HYDRATE_COUNT = "search_hydrate_count";
+
+    @Description("Average number of search hit items loaded per batch")
+    private static final String DC_SEARCH_HYDRATE_ITEMS_AVG = "search_hydrate_items_avg";
+
+    @Description("Number of batched DB loads of the messages of conversation search hits")
+    private static final String DC_SEARCH_CONV_PREFETCH_COUNT = "search_conv_prefetch_count";
+
+    @Description("Average number of conversations whose messages were loaded per batch")
+    private static final String DC_SEARCH_CONV_PREFETCH_AVG = "search_conv_prefetch_avg";
+
     private static CopyOnWriteArrayList<Accumulator> sAccumulators =
         new CopyOnWriteArrayList<Accumulator>(
                     new Accumulator[] {
@@ -368,10 +415,17 @@ public class ZimbraPerf {
                         new DeltaCalculator(COUNTER_CALENDAR_CACHE_HIT).setAverageName(DC_CALCACHE_HIT),
                         new DeltaCalculator(COUNTER_CALENDAR_CACHE_MEM_HIT).setAverageName(DC_CALCACHE_MEM_HIT),
                         new DeltaCalculator(COUNTER_CALENDAR_CACHE_LRU_SIZE).setAverageName(DC_CALCACHE_LRU_SIZE),
+                        new DeltaCalculator(COUNTER_CALENDAR_INSTANCE_CACHE_HIT).setAverageName(DC_CALINST_CACHE_HIT),
                         new DeltaCalculator(COUNTER_IDX_BYTES_WRITTEN).setTotalName(DC_IDX_BYTES_WRITTEN).setAverageName(DC_IDX_BYTES_WRITTTEN_AVG),
                         new DeltaCalculator(COUNTER_IDX_BYTES_READ).setTotalName(DC_IDX_BYTES_READ).setAverageName(DC_IDX_BYTES_READ_AVG),
                         new DeltaCalculator(COUNTER_BLOB_INPUT_STREAM_READ).setTotalName(DC_BIS_READ),
                         new DeltaCalculator(COUNTER_BLOB_INPUT_STREAM_SEEK_RATE).setAverageName(DC_BIS_SEEK_RATE),
+                        new DeltaCalculator(STOPWATCH_IDX_MERGE).setCountName(DC_IDX_MERGE_COUNT).setAverageName(DC_IDX_MERGE_MS_AVG),
+                        new DeltaCalculator(COUNTER_IDX_MERGE_DEFERRED).setTotalName(DC_IDX_MERGE_DEFERRED),
+                        new DeltaCalculator(STOPWATCH_SEARCH_PARSE).setCountName(DC_SEARCH_PARSE_COUNT).setAverageName(DC_SEARCH_PARSE_MS_AVG),
+                        new DeltaCalculator(COUNTER_SEARCH_PLAN_CACHE).setAverageName(DC_SEARCH_PLAN_CACHE),
+                        new DeltaCalculator(COUNTER_SEARCH_HYDRATE).setCountName(DC_SEARCH_HYDRATE_COUNT).setAverageName(DC_SEARCH_HYDRATE_ITEMS_AVG),
+                        new DeltaCalculator(COUNTER_SEARCH_CONV_PREFETCH).setCountName(DC_SEARCH_CONV_PREFETCH_COUNT).setAverageName(DC_SEARCH_CONV_PREFETCH_AVG),
                         realtimeStats
                     }
         );
@@ -25,7 +25,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.io.FileUtils;
 
@@ -74,7 +73,7 @@ public class Blob {
     public InputStream getInputStream() throws IOException {
         InputStream in = new ZSharedFileInputStream(file);
         if (isCompressed()) {
-            in = new GZIPInputStream(in);
+            in = BlockCompression.newInputStream(in);
         }
         return in;
     }
@@ -79,6 +79,13 @@ public class BlobBuilder {
         return 0;
     }
 
+    /**
+     * @return true to compress in the {@link BlockCompression} format rather than as a single gzip stream
+     */
+    protected boolean useBlockCompression() {
+        return BlockCompression.isEnabled();
+    }
+
     public BlobBuilder disableDigest(boolean disable) {
         this.disableDigest = disable;
         return this;
@@ -159,7 +166,7 @@ public class BlobBuilder {
 
             // This call exceeded compression threshold.  Compress the stream and
             // write everything that we've read so far.
-            out = new GZIPOutputStream(out);
+            out = useBlockCompression() ? BlockCompression.newOutputStream(out) : new GZIPOutputStream(out);
             writeToFile(buf, 0, bufLen);
             blob.setCompressed(true);
             compressionThresholdExceeded = true;
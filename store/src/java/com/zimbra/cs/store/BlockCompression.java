@@ -0,0 +1,521 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+
+package com.zimbra.cs.store;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.util.ByteUtil;
+import com.zimbra.common.util.FileUtil;
+import com.zimbra.common.util.ZimbraLog;
+
+/**
+ * Seekable, block compressed blob format.
+ * <p>
+ * The data is cut into fixed size blocks, and each block is written as a separate gzip member compressed at
+ * {@link Deflater#BEST_SPEED}. An empty member at the end carries the compressed length of every block in its extra
+ * field. Because a sequence of gzip members is itself a valid gzip stream, these blobs are read by everything that
+ * reads gzipped blobs, while {@link SharedFile} uses the index to decompress only the blocks a read touches instead of
+ * uncompressing the whole blob into the uncompressed file cache.
+ * <p>
+ * Layout of the index member's extra subfield ({@code 'Z', 'b'}), all big endian:
+ * <pre>
+ *   int  block size
+ *   int  block count
+ *   long raw size
+ *   int  compressed length of each block
+ *   int  length of the index member
+ *   "ZBLK"
+ * </pre>
+ * The member ends with an empty deflate block and a zero CRC and size, so the last 18 bytes of the file have a fixed
+ * form from which the index is found.
+ * <p>
+ * Writing this format is an opt-in: {@code zimbra_blob_compression_format} must be "block", and applies to the volumes
+ * in {@code zimbra_blob_compression_block_volumes}, or all volumes if that is empty.
+ */
+public final class BlockCompression {
+    private static final byte[] MAGIC = {'Z', 'B', 'L', 'K'};
+    private static final int HEADER_SIZE = 10;
+    private static final int TRAILER_SIZE = 8;
+    /** index member length, magic, empty deflate block, CRC and size */
+    private static final int FOOTER_SIZE = 4 + MAGIC.length + 2 + TRAILER_SIZE;
+    /** the extra field can't be longer than 64KB */
+    private static final int MAX_BLOCKS = (0xFFFF - 4 - 16 - 8) / 4;
+
+    private BlockCompression() {
+    }
+
+    /**
+     * Returns true if new compressed blobs that don't belong to a volume are written in this format rather than as a
+     * single gzip stream, which is only the case if the format isn't restricted to some volumes.
+     */
+    public static boolean isEnabled() {
+        return "block".equalsIgnoreCase(LC.zimbra_blob_compression_format.value()) &&
+                LC.zimbra_blob_compression_block_volumes.value().trim().isEmpty();
+    }
+
+    /**
+     * Returns true if new compressed blobs on the volume are written in this format rather than as a single gzip
+     * stream.
+     */
+    public static boolean isEnabled(short volumeId) {
+        if (!"block".equalsIgnoreCase(LC.zimbra_blob_compression_format.value())) {
+            return false;
+        }
+        String volumes = LC.zimbra_blob_compression_block_volumes.value().trim();
+        if (volumes.isEmpty()) {
+            return true;
+        }
+        for (String id : volumes.split(",")) {
+            try {
+                if (Short.parseShort(id.trim()) == volumeId) {
+                    return true;
+                }
+            } catch (NumberFormatException e) {
+                ZimbraLog.store.warn("Ignoring invalid volume ID in zimbra_blob_compression_block_volumes: %s", id);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns a stream that uncompresses a gzipped blob, in this format or not.
+     * <p>
+     * {@link GZIPInputStream} only goes on to the next member of a multi-member stream if the wrapped stream reports
+     * more bytes {@link InputStream#available()}, or if enough of them are left in its buffer. Streams that always
+     * report 0, such as some redo log data, would end a block compressed blob after any block, so the wrapped stream
+     * reports whether more data follows by reading ahead.
+     */
+    public static InputStream newInputStream(InputStream in) throws IOException {
+        return new GZIPInputStream(new LookAheadInputStream(in));
+    }
+
+    static int getBlockSize() {
+        return Math.max(LC.zimbra_blob_compression_block_size_kb.intValue(), 1) * 1024;
+    }
+
+    /**
+     * Returns a stream that block compresses everything written to it into {@code out}, and closes {@code out} when
+     * closed.
+     */
+    public static OutputStream newOutputStream(OutputStream out) {
+        return new BlockOutputStream(out, getBlockSize());
+    }
+
+    /**
+     * Compresses a file for a volume, like {@link FileUtil#compress(File, File, boolean)} does, in this format if it's
+     * enabled for the volume.
+     */
+    public static void compress(File src, File dest, boolean sync, short volumeId) throws IOException {
+        if (!isEnabled(volumeId)) {
+            FileUtil.compress(src, dest, sync);
+            return;
+        }
+        InputStream in = null;
+        FileOutputStream fout = null;
+        OutputStream out = null;
+        try {
+            in = new FileInputStream(src);
+            fout = new FileOutputStream(dest);
+            out = newOutputStream(fout);
+            ByteUtil.copy(in, false, out, false);
+            out.flush();
+            if (sync) {
+                fout.getChannel().force(true);
+            }
+        } finally {
+            ByteUtil.closeStream(in);
+            ByteUtil.closeStream(out);
+        }
+    }
+
+    /**
+     * Returns the block index of a file, or null if it isn't in this format.
+     */
+    static Index readIndex(RandomAccessFile file) throws IOException {
+        long length = file.length();
+        if (length < FOOTER_SIZE + HEADER_SIZE) {
+            return null;
+        }
+        byte[] footer = new byte[FOOTER_SIZE];
+        file.seek(length - FOOTER_SIZE);
+        file.readFully(footer);
+        ByteBuffer buf = ByteBuffer.wrap(footer);
+        int indexLength = buf.getInt();
+        for (byte b : MAGIC) {
+            if (buf.get() != b) {
+                return null;
+            }
+        }
+        if (buf.get() != 3 || buf.get() != 0 || buf.getLong() != 0 || indexLength < HEADER_SIZE + FOOTER_SIZE ||
+                indexLength > length) {
+            return null;
+        }
+
+        byte[] member = new byte[indexLength];
+        long indexOffset = length - indexLength;
+        file.seek(indexOffset);
+        file.readFully(member);
+        buf = ByteBuffer.wrap(member);
+        if ((buf.get() & 0xff) != 0x1f || (buf.get() & 0xff) != 0x8b || buf.get() != 8 || buf.get() != 4) {
+            return null;
+        }
+        buf.position(HEADER_SIZE + 2 + 4); // extra field and subfield lengths
+        int blockSize = buf.getInt();
+        int count = buf.getInt();
+        long rawSize = buf.getLong();
+        if (blockSize <= 0 || count < 0 || count > MAX_BLOCKS || buf.remaining() < count * 4 + FOOTER_SIZE ||
+                rawSize > (long) blockSize * count || rawSize <= (long) blockSize * (count - 1)) {
+            return null;
+        }
+        long[] offsets = new long[count + 1];
+        for (int i = 0; i < count; i++) {
+            offsets[i + 1] = offsets[i] + buf.getInt();
+        }
+        if (offsets[count] != indexOffset) {
+            return null;
+        }
+        return new Index(blockSize, rawSize, offsets);
+    }
+
+    /**
+     * Locations of the blocks of a file.
+     */
+    static final class Index {
+        final int blockSize;
+        final long rawSize;
+        /** offset of each block in the file, followed by the end of the last one */
+        private final long[] offsets;
+
+        Index(int blockSize, long rawSize, long[] offsets) {
+            this.blockSize = blockSize;
+            this.rawSize = rawSize;
+            this.offsets = offsets;
+        }
+
+        int getBlockCount() {
+            return offsets.length - 1;
+        }
+    }
+
+    /**
+     * Reads a block compressed file at random offsets, keeping the last decompressed block. Not thread safe; callers
+     * such as {@link SharedFile} synchronize.
+     */
+    static final class Reader {
+        private final Index index;
+        private Inflater inflater;
+        private byte[] compressed = new byte[0];
+        private final byte[] block;
+        private int blockNum = -1;
+        private int blockLength;
+
+        Reader(Index index) {
+            this.index = index;
+            this.block = new byte[index.blockSize];
+        }
+
+        /**
+         * Reads up to {@code len} bytes of uncompressed data starting at {@code pos}, and returns the number read, or
+         * -1 at the end of the data.
+         */
+        int read(RandomAccessFile file, long pos, byte[] b, int off, int len) throws IOException {
+            if (pos >= index.rawSize) {
+                return -1;
+            }
+            int total = 0;
+            while (len > 0 && pos < index.rawSize) {
+                int num = (int) (pos / index.blockSize);
+                load(file, num);
+                int start = (int) (pos - (long) num * index.blockSize);
+                int count = Math.min(len, blockLength - start);
+                System.arraycopy(block, start, b, off, count);
+                pos += count;
+                off += count;
+                len -= count;
+                total += count;
+            }
+            return total;
+        }
+
+        private void load(RandomAccessFile file, int num) throws IOException {
+            if (num == blockNum) {
+                return;
+            }
+            int length = (int) (index.offsets[num + 1] - index.offsets[num]);
+            if (compressed.length < length) {
+                compressed = new byte[length];
+            }
+            file.seek(index.offsets[num]);
+            file.readFully(compressed, 0, length);
+            blockNum = -1;
+            if (inflater == null) {
+                inflater = new Inflater(true);
+            } else {
+                inflater.reset();
+            }
+            inflater.setInput(compressed, HEADER_SIZE, length - HEADER_SIZE - TRAILER_SIZE);
+            int expected = (int) Math.min(index.blockSize, index.rawSize - (long) num * index.blockSize);
+            try {
+                blockLength = 0;
+                while (blockLength < expected && !inflater.finished()) {
+                    int n = inflater.inflate(block, blockLength, expected - blockLength);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    blockLength += n;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("corrupt block " + num, e);
+            }
+            if (blockLength != expected) {
+                throw new IOException("short block " + num + ": " + blockLength + " of " + expected + " bytes");
+            }
+            blockNum = num;
+        }
+
+        /**
+         * Releases the decompressor. The reader can still be used afterwards.
+         */
+        void close() {
+            if (inflater != null) {
+                inflater.end();
+                inflater = null;
+            }
+            blockNum = -1;
+        }
+    }
+
+    /**
+     * Reports a byte {@link #available()} if there is one, reading it ahead if the wrapped stream doesn't tell.
+     */
+    private static final class LookAheadInputStream extends FilterInputStream {
+        private int next = -2; // the byte read ahead, -1 at the end, -2 if none
+
+        LookAheadInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (next != -2) {
+                int b = next;
+                next = next == -1 ? -1 : -2;
+                return b;
+            }
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (next == -1) {
+                return -1;
+            } else if (next >= 0) {
+                b[off] = (byte) next;
+                next = -2;
+                return 1;
+            }
+            return in.read(b, off, len);
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (n <= 0 || next == -1) {
+                return 0;
+            } else if (next >= 0) {
+                next = -2;
+                return 1;
+            }
+            return in.skip(n);
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (next >= 0) {
+                return 1;
+            } else if (next == -1) {
+                return 0;
+            }
+            int n = in.available();
+            if (n > 0) {
+                return n;
+            }
+            next = in.read();
+            return next >= 0 ? 1 : 0;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void mark(int readlimit) {
+        }
+
+        @Override
+        public void reset() throws IOException {
+            throw new IOException("mark/reset not supported");
+        }
+    }
+
+    private static final class BlockOutputStream extends FilterOutputStream {
+        private final byte[] buf;
+        private int bufLength = 0;
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        private final byte[] deflated;
+        private final CRC32 crc = new CRC32();
+        private int[] lengths = new int[16];
+        private int count = 0;
+        private long rawSize = 0;
+        private boolean closed = false;
+
+        BlockOutputStream(OutputStream out, int blockSize) {
+            super(out);
+            buf = new byte[blockSize];
+            deflated = new byte[Math.max(blockSize / 2, 512)];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, buf.length - bufLength);
+                System.arraycopy(b, off, buf, bufLength, n);
+                bufLength += n;
+                off += n;
+                len -= n;
+                if (bufLength == buf.length) {
+                    writeBlock();
+                }
+            }
+        }
+
+        private void writeBlock() throws IOException {
+            writeHeader(out, false);
+            int length = HEADER_SIZE;
+            deflater.reset();
+            deflater.setInput(buf, 0, bufLength);
+            deflater.finish();
+            while (!deflater.finished()) {
+                int n = deflater.deflate(deflated);
+                out.write(deflated, 0, n);
+                length += n;
+            }
+            crc.reset();
+            crc.update(buf, 0, bufLength);
+            writeIntLE(out, (int) crc.getValue());
+            writeIntLE(out, bufLength);
+            length += TRAILER_SIZE;
+
+            if (count == lengths.length) {
+                int[] grown = new int[count * 2];
+                System.arraycopy(lengths, 0, grown, 0, count);
+                lengths = grown;
+            }
+            lengths[count++] = length;
+            rawSize += bufLength;
+            bufLength = 0;
+        }
+
+        private void writeIndex() throws IOException {
+            if (count > MAX_BLOCKS) {
+                return; // still a valid gzip stream, just not seekable
+            }
+            int dataLength = 16 + count * 4 + 4 + MAGIC.length;
+            int memberLength = HEADER_SIZE + 2 + 4 + dataLength + 2 + TRAILER_SIZE;
+            ByteBuffer index = ByteBuffer.allocate(memberLength);
+            writeHeader(index, true);
+            index.put((byte) (dataLength + 4)).put((byte) ((dataLength + 4) >> 8)); // XLEN
+            index.put((byte) 'Z').put((byte) 'b');
+            index.put((byte) dataLength).put((byte) (dataLength >> 8));
+            index.putInt(buf.length).putInt(count).putLong(rawSize);
+            for (int i = 0; i < count; i++) {
+                index.putInt(lengths[i]);
+            }
+            index.putInt(memberLength).put(MAGIC);
+            index.put((byte) 3).put((byte) 0); // empty final deflate block
+            index.putLong(0); // CRC and size of no data
+            out.write(index.array());
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (bufLength > 0 || count == 0) {
+                    writeBlock();
+                }
+                writeIndex();
+                out.flush();
+            } finally {
+                deflater.end();
+                out.close();
+            }
+        }
+    }
+
+    private static void writeHeader(OutputStream out, boolean extra) throws IOException {
+        out.write(header(extra));
+    }
+
+    private static void writeHeader(ByteBuffer out, boolean extra) {
+        out.put(header(extra));
+    }
+
+    private static byte[] header(boolean extra) {
+        // magic, deflate, flags, no mtime, fastest, unknown OS
+        return new byte[] {0x1f, (byte) 0x8b, 8, (byte) (extra ? 4 : 0), 0, 0, 0, 0, 4, (byte) 0xff};
+    }
+
+    private static void writeIntLE(OutputStream out, int v) throws IOException {
+        out.write(v);
+        out.write(v >> 8);
+        out.write(v >> 16);
+        out.write(v >> 24);
+    }
+}
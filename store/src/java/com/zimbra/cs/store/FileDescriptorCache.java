@@ -27,7 +27,6 @@ import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.zip.GZIPInputStream;
 
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.stats.Counter;
@@ -40,8 +39,9 @@ import com.zimbra.cs.account.Provisioning;
 import com.zimbra.cs.account.Server;
 
 /**
- * Caches file descriptors to blobs in the mail store.  If the blob is compressed,
- * uses a {@link FileCache} to access the uncompressed data.  Cache entries
+ * Caches file descriptors to blobs in the mail store.  If the blob is gzipped,
+ * uses a {@link FileCache} to access the uncompressed data.  Block compressed
+ * blobs are read in place (see {@link BlockCompression}).  Cache entries
  * that reference uncompressed blobs keep the file descriptor open until {@link #remove}
  * is called or the cache entry is aged out.
  */
@@ -162,12 +162,15 @@ public class FileDescriptorCache
         mHitRate.increment(0);
         File file = new File(path);
 
-        if (file.length() != rawSize && FileUtil.isGzipped(file)) {
+        boolean compressed = file.length() != rawSize && FileUtil.isGzipped(file);
+        if (compressed && (sharedFile = SharedFile.openBlockCompressed(file)) != null) {
+            sLog.debug("Opening new file descriptor for block compressed %s.", path);
+        } else if (compressed) {
             sLog.debug("Adding file descriptor cache entry for %s from the uncompressed file cache.", path);
             FileCache.Item uncompressed = mUncompressedFileCache.get(path);
             if (uncompressed == null) {
                 InputStream in = null;
-                in = new GZIPInputStream(new FileInputStream(file));
+                in = BlockCompression.newInputStream(new FileInputStream(file));
                 mUncompressedFileCache.put(path, in);
                 uncompressed = mUncompressedFileCache.get(path);
                 if (uncompressed == null) {
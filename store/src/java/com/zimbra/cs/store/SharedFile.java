@@ -48,6 +48,11 @@ public class SharedFile {
      */
     private long mLength;
 
+    /**
+     * Decompresses the blocks a read touches, if the file is block compressed.
+     */
+    private BlockCompression.Reader mBlocks;
+
     /**
      * Creates a new <tt>SharedFile</tt> and opens the underlying
      * file descriptor.
@@ -65,6 +70,30 @@ public class SharedFile {
         openIfNecessary();
     }
 
+    /**
+     * Opens a block compressed file, whose offsets and length are those of
+     * the uncompressed data.  Returns <tt>null</tt> if the file isn't block
+     * compressed.
+     */
+    static SharedFile openBlockCompressed(File file)
+    throws IOException {
+        SharedFile shared = new SharedFile(file);
+        BlockCompression.Index index = null;
+        try {
+            index = BlockCompression.readIndex(shared.mRAF);
+        } finally {
+            if (index == null) {
+                shared.close();
+            }
+        }
+        if (index == null) {
+            return null;
+        }
+        shared.mBlocks = new BlockCompression.Reader(index);
+        shared.mLength = index.rawSize;
+        return shared;
+    }
+
     synchronized long getLength() {
         return mLength;
     }
@@ -74,6 +103,12 @@ public class SharedFile {
         int numRead = 0;
         boolean seeked = false;
         openIfNecessary();
+
+        if (mBlocks != null) {
+            numRead = mBlocks.read(mRAF, fileOffset, b, off, len);
+            ZimbraPerf.COUNTER_BLOB_INPUT_STREAM_READ.increment();
+            return numRead;
+        }
         
         if (mPos != fileOffset) {
             mRAF.seek(fileOffset);
@@ -124,6 +159,9 @@ public class SharedFile {
             mPos = 0;
             mRAF = null;
         }
+        if (mBlocks != null) {
+            mBlocks.close();
+        }
     }
     
     public String toString() {
@@ -20,14 +20,16 @@ package com.zimbra.cs.store.file;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.zip.GZIPInputStream;
 
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
@@ -45,6 +47,8 @@ import com.zimbra.cs.db.DbPool;
 import com.zimbra.cs.db.DbPool.DbConnection;
 import com.zimbra.cs.mailbox.Mailbox;
 import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.Metadata;
+import com.zimbra.cs.store.BlockCompression;
 import com.zimbra.cs.store.StoreManager;
 import com.zimbra.cs.volume.Volume;
 import com.zimbra.cs.volume.VolumeManager;
@@ -75,6 +79,11 @@ public class BlobConsistencyChecker {
         public Multimap<Integer, BlobInfo> unexpectedBlobs = TreeMultimap.create(new IntegerComparator(), new BlobInfoComparator());
         public Multimap<Integer, BlobInfo> incorrectModContent = TreeMultimap.create(new IntegerComparator(), new BlobInfoComparator());
         public Multimap<Integer, BlobInfo> usedBlobs = TreeMultimap.create(new IntegerComparator(), new BlobInfoComparator());
+        /** blobs expected, files compared, bytes of the blobs found and time taken by the check */
+        public int itemCount;
+        public int fileCount;
+        public long byteCount;
+        public long elapsedMillis;
 
         class IntegerComparator implements Comparator<Integer> {
             @Override
@@ -240,6 +249,17 @@ public class BlobConsistencyChecker {
 
     public Results check(Collection<Short> volumeIds, int mboxId, boolean checkSize, boolean reportUsedBlobs)
     throws ServiceException {
+        return check(volumeIds, mboxId, checkSize, reportUsedBlobs, false);
+    }
+
+    /**
+     * @param incremental only check the blobs of items whose content changed since the last incremental check of the
+     *        mailbox, or all of them the first time.  Files that belong to no changed item are not looked at, so
+     *        leftover blobs of deleted items are only reported by a full check.  Moving blobs to another volume
+     *        doesn't change their items, so it has to {@link #resetIncremental} the mailbox.
+     */
+    public Results check(Collection<Short> volumeIds, int mboxId, boolean checkSize, boolean reportUsedBlobs,
+            boolean incremental) throws ServiceException {
         StoreManager sm = StoreManager.getInstance();
         if (!(sm instanceof FileBlobStore)) {
             throw ServiceException.INVALID_REQUEST(sm.getClass().getSimpleName() + " is not supported", null);
@@ -249,7 +269,12 @@ public class BlobConsistencyChecker {
         this.checkSize = checkSize;
         this.reportUsedBlobs = reportUsedBlobs;
         results = new Results();
+        results.mboxId = mboxId;
+        long start = System.currentTimeMillis();
         Mailbox mbox = MailboxManager.getInstance().getMailboxById(mailboxId);
+        int changedSince = incremental ? getLastCheckedChange(mbox) : 0;
+        // anything that changes while the check runs is checked again next time
+        int checkedThrough = mbox.getLastChangeID();
         DbConnection conn = null;
 
         try {
@@ -279,13 +304,17 @@ public class BlobConsistencyChecker {
 
                     while (minId <= mailboxMaxId) {
                         maxId = minId + filesPerGroup - 1; // Maximum id for the current block
-                        for (BlobInfo blob : DbBlobConsistency.getBlobInfo(conn, mbox, minId, maxId, volumeId)) {
+                        for (BlobInfo blob : DbBlobConsistency.getBlobInfo(conn, mbox, minId, maxId, volumeId,
+                                changedSince)) {
                             blobsById.put(blob.itemId, blob);
                         }
                         minId += (numGroups * filesPerGroup);
                     }
                     try {
-                        check(volumeId, blobDir, blobsById);
+                        // nothing changed in this directory since the last check
+                        if (changedSince <= 0 || !blobsById.isEmpty()) {
+                            check(volumeId, blobDir, blobsById, changedSince > 0);
+                        }
                     } catch (IOException e) {
                         throw ServiceException.FAILURE("Unable to check " + blobDir, e);
                     }
@@ -297,18 +326,55 @@ public class BlobConsistencyChecker {
         } finally {
             DbPool.quietClose(conn);
         }
+        if (incremental) {
+            setLastCheckedChange(mbox, checkedThrough);
+        }
+        results.elapsedMillis = System.currentTimeMillis() - start;
+        log.info("Checked blobs of mailbox %d: items=%d,files=%d,bytes=%d,ms=%d,incremental=%b", mailboxId,
+                results.itemCount, results.fileCount, results.byteCount, results.elapsedMillis, changedSince > 0);
         return results;
     }
 
+    private static final String CONFIG_SECTION = "blobcheck";
+    private static final String FN_CHANGE_ID = "changeId";
+
+    /**
+     * Returns the last change covered by an incremental check of the mailbox, or 0 if there was none.
+     */
+    private static int getLastCheckedChange(Mailbox mbox) throws ServiceException {
+        Metadata config = mbox.getConfig(null, CONFIG_SECTION);
+        return config != null ? config.getInt(FN_CHANGE_ID, 0) : 0;
+    }
+
+    /**
+     * Makes the next incremental check of the mailbox a full one.  Called after blobs were relocated without a change
+     * to their items, which the change-based selection would otherwise never look at again.
+     */
+    public static void resetIncremental(Mailbox mbox) throws ServiceException {
+        if (mbox.getConfig(null, CONFIG_SECTION) != null) {
+            mbox.setConfig(null, CONFIG_SECTION, null);
+        }
+    }
+
+    private static void setLastCheckedChange(Mailbox mbox, int changeId) throws ServiceException {
+        Metadata config = new Metadata();
+        config.put(FN_CHANGE_ID, changeId);
+        mbox.setConfig(null, CONFIG_SECTION, config);
+    }
+
     private static final Pattern PAT_BLOB_FILENAME = Pattern.compile("([0-9]+)-([0-9]+)\\.msg");
 
     /**
      * Reconciles blobs against the files in the given directory and adds any inconsistencies
-     * to the current result set.
+     * to the current result set.  Files are only statted when their size is needed.
+     *
+     * @param changedOnly if true, {@code blobsById} only holds changed items and the files of other items are skipped
      */
-    private void check(short volumeId, String blobDirPath, Multimap<Integer, BlobInfo> blobsById)
+    private void check(short volumeId, String blobDirPath, Multimap<Integer, BlobInfo> blobsById, boolean changedOnly)
     throws IOException {
         Multimap<Integer, BlobInfo> revisions = HashMultimap.create();
+        Set<Integer> changed = changedOnly ? new HashSet<Integer>(blobsById.keySet()) : null;
+        results.itemCount += blobsById.size();
         File blobDir = new File(blobDirPath);
         File[] files = blobDir.listFiles();
         if (files == null) {
@@ -324,6 +390,10 @@ public class BlobConsistencyChecker {
                 itemId = Integer.parseInt(matcher.group(1));
                 modContent = Integer.parseInt(matcher.group(2));
             }
+            if (changed != null && !changed.contains(itemId)) {
+                continue;
+            }
+            results.fileCount++;
 
             BlobInfo blob = null;
             if (blobsById.containsKey(itemId)) {
@@ -345,13 +415,16 @@ public class BlobConsistencyChecker {
                 unexpected.fileSize = file.length();
                 results.unexpectedBlobs.put(itemId, unexpected);
             } else {
-                blob.fileSize = file.length();
+                results.byteCount += blob.dbSize;
                 blob.fileModContent = modContent;
+                if (checkSize || reportUsedBlobs) {
+                    blob.fileSize = file.length();
+                }
                 if (reportUsedBlobs) {
                     results.usedBlobs.put(blob.itemId, blob);
                 }
                 if (checkSize) {
-                    blob.fileDataSize = getDataSize(file, blob.dbSize);
+                    blob.fileDataSize = getDataSize(file, blob.fileSize, blob.dbSize);
                     if (blob.dbSize != blob.fileDataSize) {
                         results.incorrectSize.put(blob.itemId, blob);
                     }
@@ -394,12 +467,23 @@ public class BlobConsistencyChecker {
 
     protected long getDataSize(File file, long expected)
     throws IOException {
-        long fileLen = file.length();
-        if (fileLen != expected && FileUtil.isGzipped(file)) {
-            return ByteUtil.getDataLength(new GZIPInputStream(new FileInputStream(file)));
-        } else {
+        return getDataSize(file, file.length(), expected);
+    }
+
+    /**
+     * Returns the uncompressed size of a blob.  A compressed blob is always decompressed in full, so that a damaged
+     * one is reported as having the wrong size.
+     */
+    private static long getDataSize(File file, long fileLen, long expected)
+    throws IOException {
+        if (fileLen == expected || !FileUtil.isGzipped(file)) {
             return fileLen;
         }
+        InputStream in = BlockCompression.newInputStream(new FileInputStream(file));
+        try {
+            return ByteUtil.getDataLength(in);
+        } finally {
+            ByteUtil.closeStream(in);
+        }
     }
-
 }
@@ -30,6 +30,7 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
+import com.google.common.base.Joiner;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.soap.AdminConstants;
 import com.zimbra.common.soap.Element;
@@ -56,6 +57,10 @@ public class BlobConsistencyUtil {
     private static final String LO_NO_EXPORT = "no-export";
     private static final String LO_OUTPUT_USED_BLOBS = "output-used-blobs";
     private static final String LO_USED_BLOB_LIST = "used-blob-list";
+    private static final String LO_INCREMENTAL = "incremental";
+
+    // mailboxes sent in each request, which the server checks in parallel
+    private static final int MAILBOXES_PER_REQUEST = 20;
 
     private Options options;
     private List<Integer> mailboxIds;
@@ -71,6 +76,10 @@ public class BlobConsistencyUtil {
     private boolean outputUsedBlobs = false;
     private String usedBlobList;
     private PrintWriter usedBlobWriter;
+    private boolean incremental = false;
+    private int numItems = 0;
+    private int numFiles = 0;
+    private long numBytes = 0;
 
     private BlobConsistencyUtil() {
         options = new Options();
@@ -105,6 +114,8 @@ public class BlobConsistencyUtil {
         options.addOption(null, LO_NO_EXPORT, false, "Delete items without exporting.");
         options.addOption(new Option(null, LO_INCORRECT_REVISION_RENAME_FILE, false,
             "Rename the file on disk when the revision number doesn't match."));
+        options.addOption(new Option(null, LO_INCREMENTAL, false,
+            "Only check blobs that changed since the last incremental check."));
     }
 
     private void usage(String errorMsg) {
@@ -178,6 +189,7 @@ public class BlobConsistencyUtil {
         }
 
         incorrectRevisionRenameFile = CliUtil.hasOption(cl, LO_INCORRECT_REVISION_RENAME_FILE);
+        incremental = CliUtil.hasOption(cl, LO_INCREMENTAL);
     }
 
     private void run()
@@ -196,15 +208,21 @@ public class BlobConsistencyUtil {
         if (mailboxIds == null) {
             mailboxIds = getAllMailboxIds(prov);
         }
+        long start = System.currentTimeMillis();
         try {
         	DbPool.startup();
-        	for (int mboxId : mailboxIds) {
-        		System.out.println("Checking mailbox " + mboxId + ".");
-        		checkMailbox(mboxId, prov);
+        	for (int i = 0; i < mailboxIds.size(); i += MAILBOXES_PER_REQUEST) {
+        		List<Integer> batch = mailboxIds.subList(i, Math.min(i + MAILBOXES_PER_REQUEST, mailboxIds.size()));
+        		System.out.println("Checking mailboxes " + Joiner.on(',').join(batch) + ".");
+        		checkMailboxes(batch, prov);
         	}
         }  finally{
         	DbPool.shutdown();
         }
+        long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+        System.out.format("Checked mailboxes=%d,items=%d,files=%d,bytes=%d,ms=%d,itemsPerSec=%d,bytesPerSec=%d\n",
+            mailboxIds.size(), numItems, numFiles, numBytes, elapsed, numItems * 1000L / elapsed,
+            numBytes * 1000L / elapsed);
         if (unexpectedBlobWriter != null) {
             unexpectedBlobWriter.close();
         }
@@ -233,17 +251,28 @@ public class BlobConsistencyUtil {
         }
     }
 
-    private void checkMailbox(int mboxId, SoapProvisioning prov)
+    private void checkMailboxes(List<Integer> mboxIds, SoapProvisioning prov)
     throws ServiceException {
         XMLElement request = new XMLElement(AdminConstants.CHECK_BLOB_CONSISTENCY_REQUEST);
         for (short volumeId : volumeIds) {
             request.addElement(AdminConstants.E_VOLUME).addAttribute(AdminConstants.A_ID, volumeId);
         }
-        request.addElement(AdminConstants.E_MAILBOX).addAttribute(AdminConstants.A_ID, mboxId);
+        for (int mboxId : mboxIds) {
+            request.addElement(AdminConstants.E_MAILBOX).addAttribute(AdminConstants.A_ID, mboxId);
+        }
         request.addAttribute(AdminConstants.A_CHECK_SIZE, !skipSizeCheck);
         request.addAttribute(AdminConstants.A_REPORT_USED_BLOBS, outputUsedBlobs || usedBlobWriter != null);
+        if (incremental) {
+            request.addAttribute(AdminConstants.A_INCREMENTAL, true);
+        }
 
         Element response = prov.invoke(request);
+        Element statsEl = response.getOptionalElement(AdminConstants.E_STATS);
+        if (statsEl != null) {
+            numItems += (int) statsEl.getAttributeLong(AdminConstants.A_NUM_ITEMS, 0);
+            numFiles += (int) statsEl.getAttributeLong(AdminConstants.A_NUM_FILES, 0);
+            numBytes += statsEl.getAttributeLong(AdminConstants.A_NUM_BYTES, 0);
+        }
         for (Element mboxEl : response.listElements(AdminConstants.E_MAILBOX)) {
             // Print results.
             BlobConsistencyChecker.Results results = new BlobConsistencyChecker.Results(mboxEl);
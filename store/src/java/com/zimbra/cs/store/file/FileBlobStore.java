@@ -31,6 +31,7 @@ import com.zimbra.cs.mailbox.Mailbox;
 import com.zimbra.cs.store.Blob;
 import com.zimbra.cs.store.BlobBuilder;
 import com.zimbra.cs.store.BlobInputStream;
+import com.zimbra.cs.store.BlockCompression;
 import com.zimbra.cs.store.FileDescriptorCache;
 import com.zimbra.cs.store.IncomingDirectory;
 import com.zimbra.cs.store.MailboxBlob;
@@ -49,6 +50,7 @@ public final class FileBlobStore extends StoreManager {
     @Override
     public void startup() throws IOException, ServiceException {
         IncomingDirectory.startSweeper();
+        SingleInstanceDirectory.startSweeper();
 
         // initialize file uncompressed file cache and file descriptor cache
         File tmpDir = new File(LC.zimbra_tmp_directory.value());
@@ -62,6 +64,7 @@ public final class FileBlobStore extends StoreManager {
     @Override
     public void shutdown() {
         IncomingDirectory.stopSweeper();
+        SingleInstanceDirectory.stopSweeper();
         BlobInputStream.getFileDescriptorCache().shutdown();
     }
 
@@ -171,7 +174,7 @@ public final class FileBlobStore extends StoreManager {
                 FileUtil.copy(srcFile, dest, !DebugConfig.disableMessageStoreFsync);
                 destCompressed = src.isCompressed();
             } else {
-                FileUtil.compress(srcFile, dest, !DebugConfig.disableMessageStoreFsync);
+                BlockCompression.compress(srcFile, dest, !DebugConfig.disableMessageStoreFsync, destVolume.getId());
                 destCompressed = true;
             }
         } else {
@@ -192,7 +195,46 @@ public final class FileBlobStore extends StoreManager {
     throws IOException, ServiceException {
         Volume volume = MANAGER.getCurrentMessageVolume();
         VolumeBlob blob = ((VolumeStagedBlob) src).getLocalBlob();
-        return link(blob, destMbox, destItemId, destRevision, volume.getId());
+        if (!SingleInstanceDirectory.isEnabled()) {
+            return link(blob, destMbox, destItemId, destRevision, volume.getId());
+        }
+        VolumeMailboxBlob mblob = linkSingleInstance(src, destMbox, destItemId, destRevision, volume);
+        if (mblob == null) {
+            mblob = link(blob, destMbox, destItemId, destRevision, volume.getId());
+            SingleInstanceDirectory.publish(volume, src.getDigest(), mblob.getLocalBlob().getFile());
+        }
+        return mblob;
+    }
+
+    /**
+     * Links the mailbox blob to the volume's single instance file with the same content, if there is one.
+     *
+     * @return the linked blob, or null if the content has to be stored
+     * @see SingleInstanceDirectory
+     */
+    private VolumeMailboxBlob linkSingleInstance(StagedBlob src, Mailbox destMbox, int destItemId, int destRevision,
+            Volume volume) throws IOException, ServiceException {
+        File shared = SingleInstanceDirectory.lookup(volume, src.getDigest());
+        if (shared == null) {
+            return null;
+        }
+        File dest = getMailboxBlobFile(destMbox, destItemId, destRevision, volume.getId(), false);
+        String destPath = dest.getAbsolutePath();
+        BlobInputStream.getFileDescriptorCache().remove(destPath);  // Prevent stale cache read.
+        ensureParentDirExists(dest);
+        try {
+            linkFile(shared.getPath(), dest);
+        } catch (IOException e) {
+            // swept since the lookup
+            ZimbraLog.store.debug("Unable to link %s to %s", shared.getPath(), destPath, e);
+            return null;
+        }
+        ZimbraLog.store.debug("Linked single instance %s to %s for mailbox %d, id %d.",
+            shared.getPath(), destPath, destMbox.getId(), destItemId);
+        // the shared file may be compressed differently from the staged one, so only its content is known
+        VolumeBlob vblob = new VolumeBlob(dest, volume.getId());
+        vblob.setDigest(src.getDigest()).setRawSize(src.getSize());
+        return new VolumeMailboxBlob(destMbox, destItemId, destRevision, volume.getLocator(), vblob);
     }
 
     public VolumeMailboxBlob link(Blob src, Mailbox destMbox, int destItemId, int destRevision, short destVolumeId)
@@ -218,36 +260,7 @@ public final class FileBlobStore extends StoreManager {
 
         short srcVolumeId = ((VolumeBlob) src).getVolumeId();
         if (srcVolumeId == destVolumeId) {
-            try {
-                IO.link(srcPath, destPath);
-            } catch (IOException e) {
-                // Did it fail because the destination file already exists?
-                // This can happen if we stored a file (or link), and we failed to
-                // commit (say because of a server crash), and a subsequent new
-                // item gets the ID of the uncommitted item
-                if (dest.exists()) {
-                    File destBak = new File(destPath + ".bak");
-                    ZimbraLog.store.warn("Destination file exists.  Backing up to " + destBak.getAbsolutePath());
-                    if (destBak.exists()) {
-                        String bak = destBak.getAbsolutePath();
-                        ZimbraLog.store.warn(bak + " already exists.  Deleting to make room for new backup file");
-                        if (!destBak.delete()) {
-                            ZimbraLog.store.warn("Unable to delete " + bak);
-                            throw e;
-                        }
-                    }
-                    File destTmp = new File(destPath);
-                    if (!destTmp.renameTo(destBak)) {
-                        ZimbraLog.store.warn("Can't rename " + destTmp.getAbsolutePath() + " to .bak");
-                        throw e;
-                    }
-                    // Existing file is now renamed to <file>.bak.
-                    // Retry link creation.
-                    IO.link(srcPath, destPath);
-                } else {
-                    throw e;
-                }
-            }
+            linkFile(srcPath, dest);
         } else {
             // src and dest are on different volumes and can't be hard linked.
             // Do a copy instead.
@@ -258,6 +271,40 @@ public final class FileBlobStore extends StoreManager {
         return new VolumeMailboxBlob(destMbox, destItemId, destRevision, destLocator, vblob);
     }
 
+    private static void linkFile(String srcPath, File dest) throws IOException {
+        String destPath = dest.getAbsolutePath();
+        try {
+            IO.link(srcPath, destPath);
+        } catch (IOException e) {
+            // Did it fail because the destination file already exists?
+            // This can happen if we stored a file (or link), and we failed to
+            // commit (say because of a server crash), and a subsequent new
+            // item gets the ID of the uncommitted item
+            if (dest.exists()) {
+                File destBak = new File(destPath + ".bak");
+                ZimbraLog.store.warn("Destination file exists.  Backing up to " + destBak.getAbsolutePath());
+                if (destBak.exists()) {
+                    String bak = destBak.getAbsolutePath();
+                    ZimbraLog.store.warn(bak + " already exists.  Deleting to make room for new backup file");
+                    if (!destBak.delete()) {
+                        ZimbraLog.store.warn("Unable to delete " + bak);
+                        throw e;
+                    }
+                }
+                File destTmp = new File(destPath);
+                if (!destTmp.renameTo(destBak)) {
+                    ZimbraLog.store.warn("Can't rename " + destTmp.getAbsolutePath() + " to .bak");
+                    throw e;
+                }
+                // Existing file is now renamed to <file>.bak.
+                // Retry link creation.
+                IO.link(srcPath, destPath);
+            } else {
+                throw e;
+            }
+        }
+    }
+
     @Override
     public VolumeMailboxBlob renameTo(StagedBlob src, Mailbox destMbox, int destItemId, int destRevision)
     throws IOException, ServiceException {
@@ -281,6 +328,14 @@ public final class FileBlobStore extends StoreManager {
                 srcPath, srcSize, srcRawSize, destPath, destMbox.getId(), destItemId);
         }
 
+        if (SingleInstanceDirectory.isEnabled()) {
+            VolumeMailboxBlob mblob = linkSingleInstance(src, destMbox, destItemId, destRevision, volume);
+            if (mblob != null) {
+                srcFile.delete();
+                return mblob;
+            }
+        }
+
         short srcVolumeId = blob.getVolumeId();
         if (srcVolumeId == volume.getId()) {
             boolean renamed = srcFile.renameTo(destFile);
@@ -300,6 +355,9 @@ public final class FileBlobStore extends StoreManager {
             srcFile.delete();
         }
 
+        if (SingleInstanceDirectory.isEnabled()) {
+            SingleInstanceDirectory.publish(volume, src.getDigest(), destFile);
+        }
         VolumeBlob vblob = (VolumeBlob) new VolumeBlob(destFile, volume.getId()).copyCachedDataFrom(blob);
         return new VolumeMailboxBlob(destMbox, destItemId, destRevision, volume.getLocator(), vblob);
     }
@@ -337,6 +395,9 @@ public final class FileBlobStore extends StoreManager {
         }
         ZimbraLog.store.debug("Deleting %s.", file.getPath());
         BlobInputStream.getFileDescriptorCache().remove(file.getPath());  // Prevent stale cache read.
+        if (SingleInstanceDirectory.isEnabled()) {
+            SingleInstanceDirectory.unlinking(file);
+        }
         boolean deleted = file.delete();
         if (deleted) {
             return true;
@@ -379,6 +440,9 @@ public final class FileBlobStore extends StoreManager {
         assert blobs == null : "should not be passed a blob list since we support bulk blob delete";
         for (Volume vol : MANAGER.getAllVolumes()) {
             FileUtil.deleteDir(new File(vol.getMessageRootDir(mbox.getId())));
+            if (SingleInstanceDirectory.isEnabled()) {
+                SingleInstanceDirectory.changed(vol);
+            }
         }
         return true;
     }
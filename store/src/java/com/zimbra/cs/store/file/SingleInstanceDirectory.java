@@ -0,0 +1,227 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+
+package com.zimbra.cs.store.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.Constants;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.util.Zimbra;
+import com.zimbra.cs.volume.Volume;
+import com.zimbra.cs.volume.VolumeManager;
+import com.zimbra.znative.IO;
+import com.zimbra.znative.Util;
+
+/**
+ * Content addressed directory of blobs on a volume, keyed by the SHA-256 digest that {@code BlobBuilder} computes.
+ * <p>
+ * When a delivered blob is linked into a mailbox, its file is also hard linked into {@code <volume>/sis/}, and later
+ * deliveries of the same content on the same volume link to that file instead of storing another copy. The number of
+ * links to the file counts the mailbox blobs that share it, so no bookkeeping is needed when a mailbox blob is
+ * deleted. A file that only the directory still links to is unreferenced and is removed by a periodic sweep. After
+ * a full sweep at startup, the sweep only rescans the volumes on which a mailbox blob sharing a file with the
+ * directory was deleted since the last one.
+ * <p>
+ * All of this is safe without any locking: a blob linked to a file the sweep is about to remove simply keeps its own
+ * link to the content, and a link that loses the race to the sweep falls back to storing the blob normally.
+ */
+final class SingleInstanceDirectory {
+    private static final String DIR = "sis";
+
+    private static TimerTask sweeper;
+
+    /** volumes on which a delete may have left a file only the directory links to */
+    private static final Set<Short> changedVolumes = Collections.newSetFromMap(new ConcurrentHashMap<Short, Boolean>());
+
+    private SingleInstanceDirectory() {
+    }
+
+    /**
+     * Returns true if single instance storage is enabled. It needs native hard links and link counts.
+     */
+    static boolean isEnabled() {
+        return LC.zimbra_store_single_instance_enabled.booleanValue() && Util.haveNativeCode();
+    }
+
+    private static File getFile(Volume volume, String digest) {
+        // spread the files over directories by the first characters of the digest
+        return new File(volume.getRootPath() + File.separator + DIR + File.separator +
+                digest.substring(0, 2) + File.separator + digest);
+    }
+
+    /**
+     * Returns the file holding the content with the given digest on the volume, or null if there is none.
+     */
+    static File lookup(Volume volume, String digest) {
+        if (digest == null || digest.length() < 2) {
+            return null;
+        }
+        File file = getFile(volume, digest);
+        return file.exists() ? file : null;
+    }
+
+    /**
+     * Makes a mailbox blob the file holding its content on the volume, unless the volume already has one.
+     */
+    static void publish(Volume volume, String digest, File blob) {
+        if (digest == null || digest.length() < 2) {
+            return;
+        }
+        File file = getFile(volume, digest);
+        if (file.exists()) {
+            return;
+        }
+        try {
+            File dir = file.getParentFile();
+            if (!dir.exists() && !dir.mkdirs() && !dir.exists()) {
+                throw new IOException("Unable to create directory " + dir.getPath());
+            }
+            IO.link(blob.getPath(), file.getPath());
+        } catch (IOException e) {
+            // most likely another delivery of the same content published it first
+            ZimbraLog.store.debug("Unable to publish %s as %s", blob.getPath(), file.getPath(), e);
+        }
+    }
+
+    /**
+     * Called before a mailbox blob file is deleted. If the directory is the only other link to its content, the
+     * volume is swept next time.
+     */
+    static void unlinking(File blob) {
+        try {
+            if (IO.linkCount(blob.getPath()) != 2) {
+                return;
+            }
+        } catch (IOException e) {
+            return;
+        }
+        String path = blob.getAbsolutePath();
+        for (Volume volume : VolumeManager.getInstance().getAllVolumes()) {
+            if (path.startsWith(volume.getRootPath() + File.separator)) {
+                changed(volume);
+            }
+        }
+    }
+
+    /**
+     * Makes the next sweep rescan the volume, after mailbox blobs were deleted from it wholesale.
+     */
+    static void changed(Volume volume) {
+        if (volume.getType() != Volume.TYPE_INDEX) {
+            changedVolumes.add(volume.getId());
+        }
+    }
+
+    /**
+     * Removes the files no mailbox blob links to anymore from all the message volumes, and returns how many were
+     * removed.
+     */
+    static int sweep() {
+        changedVolumes.clear();
+        int removed = 0;
+        for (Volume volume : VolumeManager.getInstance().getAllVolumes()) {
+            if (volume.getType() != Volume.TYPE_INDEX) {
+                removed += sweep(volume);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Same as {@link #sweep()}, but only for the volumes on which a shared blob was deleted since the last sweep.
+     */
+    static int sweepChanged() {
+        int removed = 0;
+        for (Short id : changedVolumes) {
+            // a delete noted from here on is swept next time
+            changedVolumes.remove(id);
+            try {
+                removed += sweep(VolumeManager.getInstance().getVolume(id));
+            } catch (ServiceException e) {
+                ZimbraLog.store.debug("Volume %d is gone", id, e);
+            }
+        }
+        return removed;
+    }
+
+    private static int sweep(Volume volume) {
+        File[] dirs = new File(volume.getRootPath(), DIR).listFiles();
+        if (dirs == null) {
+            return 0;
+        }
+        int removed = 0;
+        for (File dir : dirs) {
+            File[] files = dir.listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                try {
+                    if (IO.linkCount(file.getPath()) == 1 && file.delete()) {
+                        removed++;
+                    }
+                } catch (IOException e) {
+                    ZimbraLog.store.debug("Unable to check %s", file.getPath(), e);
+                }
+            }
+        }
+        return removed;
+    }
+
+    static synchronized void startSweeper() {
+        if (sweeper != null || !isEnabled()) {
+            return;
+        }
+        long interval = LC.zimbra_store_single_instance_sweep_interval.longValue() * Constants.MILLIS_PER_MINUTE;
+        if (interval <= 0) {
+            return;
+        }
+        sweeper = new TimerTask() {
+            // files left over from before a restart are only found by a full sweep
+            private boolean swept = false;
+
+            @Override
+            public void run() {
+                try {
+                    long start = System.currentTimeMillis();
+                    int removed = swept ? sweepChanged() : sweep();
+                    swept = true;
+                    ZimbraLog.store.info("Removed %d unreferenced single instance blobs in %dms",
+                            removed, System.currentTimeMillis() - start);
+                } catch (Throwable t) {
+                    ZimbraLog.store.warn("Unable to sweep single instance blobs", t);
+                }
+            }
+        };
+        Zimbra.sTimer.schedule(sweeper, interval, interval);
+    }
+
+    static synchronized void stopSweeper() {
+        if (sweeper != null) {
+            sweeper.cancel();
+            sweeper = null;
+        }
+    }
+}
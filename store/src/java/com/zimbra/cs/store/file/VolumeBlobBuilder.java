@@ -22,6 +22,7 @@ import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.store.Blob;
 import com.zimbra.cs.store.BlobBuilder;
+import com.zimbra.cs.store.BlockCompression;
 import com.zimbra.cs.volume.VolumeManager;
 
 public final class VolumeBlobBuilder extends BlobBuilder {
@@ -47,6 +48,11 @@ public final class VolumeBlobBuilder extends BlobBuilder {
     }
 
 
+    @Override
+    protected boolean useBlockCompression() {
+        return BlockCompression.isEnabled(getVolumeId());
+    }
+
     @Override
     protected int getCompressionThreshold() {
         try {
@@ -43,6 +43,7 @@ import com.zimbra.cs.account.Provisioning;
 import com.zimbra.cs.account.Server;
 import com.zimbra.cs.account.accesscontrol.RightManager;
 import com.zimbra.cs.account.ldap.LdapProv;
+import com.zimbra.cs.datasource.DataSourceScheduler;
 import com.zimbra.cs.db.DbPool;
 import com.zimbra.cs.db.DbPool.DbConnection;
 import com.zimbra.cs.db.DbSession;
@@ -320,6 +321,10 @@ public final class Zimbra {
                 MemoryStats.startup();
             }
 
+            if (app.supports(DataSourceScheduler.class.getName())) {
+                DataSourceScheduler.startup();
+            }
+
             if (app.supports(ScheduledTaskManager.class.getName())) {
                 ScheduledTaskManager.startup();
             }
@@ -419,6 +424,10 @@ public final class Zimbra {
             if (app.supports(WaitSetMgr.class.getName())) {
                 WaitSetMgr.shutdown();
             }
+
+            if (app.supports(DataSourceScheduler.class.getName())) {
+                DataSourceScheduler.shutdown();
+            }
         }
 
         RedoLogProvider redoLog = RedoLogProvider.getInstance();
@@ -29,6 +29,7 @@ import com.zimbra.common.auth.ZAuthToken;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.soap.SoapFaultException;
 import com.zimbra.common.soap.SoapTransport;
+import com.zimbra.common.util.Constants;
 import com.zimbra.common.util.CliUtil;
 import com.zimbra.cs.util.BuildInfo;
 import com.zimbra.cs.util.SoapCLI;
@@ -40,6 +41,8 @@ import com.zimbra.soap.admin.message.GetAllVolumesRequest;
 import com.zimbra.soap.admin.message.GetAllVolumesResponse;
 import com.zimbra.soap.admin.message.GetVolumeRequest;
 import com.zimbra.soap.admin.message.GetVolumeResponse;
+import com.zimbra.soap.admin.message.MigrateVolumeRequest;
+import com.zimbra.soap.admin.message.MigrateVolumeResponse;
 import com.zimbra.soap.admin.message.ModifyVolumeRequest;
 import com.zimbra.soap.admin.message.SetCurrentVolumeRequest;
 import com.zimbra.soap.admin.type.VolumeInfo;
@@ -59,6 +62,12 @@ public final class VolumeCLI extends SoapCLI {
     private static final String O_P = "p";
     private static final String O_C = "c";
     private static final String O_CT = "ct";
+    private static final String O_MV = "mv";
+    private static final String O_MVS = "mvs";
+    private static final String O_MVX = "mvx";
+    private static final String O_DEST = "dest";
+    private static final String O_AGE = "age";
+    private static final String O_MIN = "min";
 
     private VolumeCLI() throws ServiceException {
         super();
@@ -72,6 +81,9 @@ public final class VolumeCLI extends SoapCLI {
     private String path;
     private String compress;
     private String compressThreshold;
+    private String destId;
+    private String age;
+    private String minSize;
 
     private void setArgs(CommandLine cl) throws ServiceException, ParseException, IOException {
         auth = getZAuthToken(cl);
@@ -81,6 +93,9 @@ public final class VolumeCLI extends SoapCLI {
         path = cl.getOptionValue(O_P);
         compress = cl.getOptionValue(O_C);
         compressThreshold = cl.getOptionValue(O_CT);
+        destId = cl.getOptionValue(O_DEST);
+        age = cl.getOptionValue(O_AGE);
+        minSize = cl.getOptionValue(O_MIN);
     }
 
     public static void main(String[] args) {
@@ -114,8 +129,14 @@ public final class VolumeCLI extends SoapCLI {
                 util.setCurrentVolume();
             } else if (cl.hasOption(O_TS)) {
                 util.unsetCurrentSecondaryMessageVolume();
+            } else if (cl.hasOption(O_MV)) {
+                util.startMigration();
+            } else if (cl.hasOption(O_MVS)) {
+                util.migration(MigrateVolumeRequest.Action.status);
+            } else if (cl.hasOption(O_MVX)) {
+                util.migration(MigrateVolumeRequest.Action.stop);
             } else {
-                throw new ParseException("No action (-a,-d,-l,-e,-dc,-sc,-ts) is specified");
+                throw new ParseException("No action (-a,-d,-l,-e,-dc,-sc,-ts,-mv,-mvs,-mvx) is specified");
             }
             System.exit(0);
         } catch (ParseException e) {
@@ -148,6 +169,52 @@ public final class VolumeCLI extends SoapCLI {
         System.out.println("Turned off the current secondary message volume.");
     }
 
+    private void startMigration() throws ParseException, SoapFaultException, IOException, ServiceException {
+        if (id == null) {
+            throw new ParseException("id is missing");
+        }
+        if (destId == null) {
+            throw new ParseException("dest is missing");
+        }
+        MigrateVolumeRequest req = new MigrateVolumeRequest(MigrateVolumeRequest.Action.start);
+        req.setSourceVolumeId(Short.parseShort(id));
+        req.setDestVolumeId(Short.parseShort(destId));
+        if (!Strings.isNullOrEmpty(age)) {
+            long maxDate = System.currentTimeMillis() - Long.parseLong(age) * Constants.MILLIS_PER_DAY;
+            req.setMaxDate((int) (maxDate / 1000));
+        }
+        if (!Strings.isNullOrEmpty(minSize)) {
+            req.setMinSize(Long.parseLong(minSize));
+        }
+        auth(auth);
+        MigrateVolumeResponse resp = JaxbUtil.elementToJaxb(getTransport().invokeWithoutSession(
+                JaxbUtil.jaxbToElement(req)));
+        System.out.println("Started moving blobs from volume " + id + " to " + destId + ".");
+        print(resp);
+    }
+
+    private void migration(MigrateVolumeRequest.Action action) throws SoapFaultException, IOException,
+            ServiceException {
+        auth(auth);
+        MigrateVolumeResponse resp = JaxbUtil.elementToJaxb(getTransport().invokeWithoutSession(
+                JaxbUtil.jaxbToElement(new MigrateVolumeRequest(action))));
+        print(resp);
+    }
+
+    private void print(MigrateVolumeResponse resp) {
+        if (resp.getStatus() == null) {
+            System.out.println("No volume migration has been started.");
+            return;
+        }
+        System.out.println("      status: " + resp.getStatus());
+        System.out.println("      source: " + resp.getSourceVolumeId());
+        System.out.println(" destination: " + resp.getDestVolumeId());
+        System.out.println("   mailboxes: " + resp.getMailboxes() + " (last " + resp.getLastMailboxId() + ")");
+        System.out.println("       blobs: " + resp.getFiles());
+        System.out.println("       bytes: " + resp.getBytes());
+        System.out.println("      errors: " + resp.getErrors());
+    }
+
     private void getCurrentVolumes() throws SoapFaultException, IOException, ServiceException {
         GetAllVolumesRequest req = new GetAllVolumesRequest();
         auth(auth);
@@ -260,7 +327,7 @@ public final class VolumeCLI extends SoapCLI {
 
     @Override
     protected String getCommandUsage() {
-        return "zmvolume {-a | -d | -l | -e | -dc | -sc } <options>";
+        return "zmvolume {-a | -d | -l | -e | -dc | -sc | -mv | -mvs | -mvx } <options>";
     }
 
     @Override
@@ -275,6 +342,9 @@ public final class VolumeCLI extends SoapCLI {
         og.addOption(new Option(O_DC, "displayCurrent", false, "Displays the current volumes."));
         og.addOption(new Option(O_SC, "setCurrent", false, "Sets the current volume."));
         og.addOption(new Option(O_TS, "turnOffSecondary", false, "Turns off the current secondary message volume"));
+        og.addOption(new Option(O_MV, "migrate", false, "Starts moving blobs to another message volume."));
+        og.addOption(new Option(O_MVS, "migrateStatus", false, "Displays the progress of moving blobs."));
+        og.addOption(new Option(O_MVX, "migrateStop", false, "Stops moving blobs."));
         og.setRequired(true);
         options.addOptionGroup(og);
         options.addOption(O_ID, "id", true, "Volume ID");
@@ -283,6 +353,9 @@ public final class VolumeCLI extends SoapCLI {
         options.addOption(O_P, "path", true, "Root path");
         options.addOption(O_C, "compress", true, "Compress blobs; \"true\" or \"false\"");
         options.addOption(O_CT, "compressionThreshold", true, "Compression threshold; default 4KB");
+        options.addOption(O_DEST, "dest", true, "Destination volume ID");
+        options.addOption(O_AGE, "age", true, "Only move items older than this many days; default 0");
+        options.addOption(O_MIN, "minSize", true, "Only move items at least this many bytes long; default 0");
         options.addOption(SoapCLI.OPT_AUTHTOKEN);
         options.addOption(SoapCLI.OPT_AUTHTOKENFILE);
     }
@@ -313,6 +386,13 @@ public final class VolumeCLI extends SoapCLI {
         printOpt(O_SC, 0);
         printOpt(O_ID, 2);
         printOpt(O_TS, 0);
+        printOpt(O_MV, 0);
+        printOpt(O_ID, 2);
+        printOpt(O_DEST, 2);
+        printOpt(O_AGE, 2);
+        printOpt(O_MIN, 2);
+        printOpt(O_MVS, 0);
+        printOpt(O_MVX, 0);
         printOpt(SoapCLI.O_AUTHTOKEN, 0);
         printOpt(SoapCLI.O_AUTHTOKENFILE, 0);
     }
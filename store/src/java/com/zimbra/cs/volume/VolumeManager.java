@@ -44,6 +44,7 @@ public final class VolumeManager {
     private Volume currentMessageVolume;
     private Volume currentSecondaryMessageVolume;
     private Volume currentIndexVolume;
+    private VolumeMigration migration;
 
     private VolumeManager() {
         try {
@@ -418,4 +419,48 @@ public final class VolumeManager {
         }
     }
 
+    /**
+     * Starts moving the blobs of items dated before {@code maxDate} (in seconds) and at least {@code minSize} bytes
+     * long from one message volume to another, in the background.
+     *
+     * @see VolumeMigration
+     */
+    public synchronized VolumeMigration startMigration(short sourceId, short destId, int maxDate, long minSize)
+    throws ServiceException {
+        if (migration != null && migration.isRunning()) {
+            throw VolumeServiceException.INVALID_REQUEST("volume migration already running: " + migration);
+        }
+        Volume source = getVolume(sourceId);
+        Volume dest = getVolume(destId);
+        if (sourceId == destId) {
+            throw VolumeServiceException.INVALID_REQUEST("source and destination volumes are the same");
+        }
+        for (Volume vol : new Volume[] { source, dest }) {
+            if (vol.getType() != Volume.TYPE_MESSAGE && vol.getType() != Volume.TYPE_MESSAGE_SECONDARY) {
+                throw VolumeServiceException.INVALID_REQUEST("not a message volume: " + vol.getId());
+            }
+        }
+        migration = new VolumeMigration(source, dest, maxDate, minSize);
+        Thread thread = new Thread(migration, "VolumeMigration");
+        thread.setDaemon(true);
+        thread.start();
+        return migration;
+    }
+
+    /**
+     * Returns the running or last finished volume migration, or {@code null} if none was started.
+     */
+    public synchronized VolumeMigration getMigration() {
+        return migration;
+    }
+
+    /**
+     * Stops the running volume migration after the blobs it is copying.  It can be resumed by starting a migration
+     * between the same volumes.
+     */
+    public synchronized void stopMigration() {
+        if (migration != null) {
+            migration.stop();
+        }
+    }
 }
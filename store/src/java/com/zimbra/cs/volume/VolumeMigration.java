@@ -0,0 +1,333 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+
+package com.zimbra.cs.volume;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.db.DbMailItem;
+import com.zimbra.cs.db.DbMailbox;
+import com.zimbra.cs.db.DbPool;
+import com.zimbra.cs.db.DbPool.DbConnection;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.store.MailboxBlob;
+import com.zimbra.cs.store.MailboxBlob.MailboxBlobInfo;
+import com.zimbra.cs.store.file.BlobConsistencyChecker;
+import com.zimbra.cs.store.StoreManager;
+import com.zimbra.cs.store.file.FileBlobStore;
+import com.zimbra.cs.util.Config;
+
+/**
+ * Moves the blobs of old items from one message volume to another, typically from the primary message volume to the
+ * secondary one.
+ * <p>
+ * Mailboxes are processed in ID order, and only loaded if they have blobs to move. Within a mailbox, candidates are
+ * paged through by item ID, copied by a pool of {@link LC#zimbra_volume_migration_threads} threads, and switched over
+ * in one redo-logged transaction per page, after which the old blobs are deleted. Copying is held to {@link LC#zimbra_volume_migration_bytes_per_sec}. The last finished
+ * mailbox is saved in {@link Config}, so a migration between the same volumes that is stopped or interrupted by a
+ * restart picks up where it left off.
+ * <p>
+ * Started and monitored through {@link VolumeManager#startMigration}, which backs {@code MigrateVolumeRequest} and
+ * {@code zmvolume -mv}.
+ */
+public final class VolumeMigration implements Runnable {
+    static final String KEY_PROGRESS = "volume.migration.progress";
+
+    private final Volume source;
+    private final Volume dest;
+    private final int maxDate;
+    private final long minSize;
+    private final AtomicInteger mailboxes = new AtomicInteger();
+    private final AtomicLong blobs = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicInteger errors = new AtomicInteger();
+    private volatile int lastMailboxId;
+    private volatile boolean running = true;
+    private volatile boolean stopRequested = false;
+
+    /**
+     * @param maxDate items dated at or after this time (in seconds) are left on the source volume
+     * @param minSize items smaller than this are left on the source volume
+     */
+    VolumeMigration(Volume source, Volume dest, int maxDate, long minSize) {
+        this.source = source;
+        this.dest = dest;
+        this.maxDate = maxDate;
+        this.minSize = minSize;
+    }
+
+    public short getSourceVolumeId() {
+        return source.getId();
+    }
+
+    public short getDestVolumeId() {
+        return dest.getId();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** Returns the number of mailboxes done so far. */
+    public int getMailboxCount() {
+        return mailboxes.get();
+    }
+
+    /** Returns the number of blobs moved so far. */
+    public long getBlobCount() {
+        return blobs.get();
+    }
+
+    /** Returns the number of bytes on disk moved so far. */
+    public long getByteCount() {
+        return bytes.get();
+    }
+
+    public int getErrorCount() {
+        return errors.get();
+    }
+
+    public int getLastMailboxId() {
+        return lastMailboxId;
+    }
+
+    void stop() {
+        stopRequested = true;
+    }
+
+    @Override
+    public void run() {
+        int numThreads = Math.max(1, LC.zimbra_volume_migration_threads.intValue());
+        ExecutorService copiers = Executors.newFixedThreadPool(numThreads,
+                new ThreadFactoryBuilder().setNameFormat("VolumeMigration-%d").setDaemon(true).build());
+        long bytesPerSec = LC.zimbra_volume_migration_bytes_per_sec.longValue();
+        RateLimiter limiter = bytesPerSec > 0 ? RateLimiter.create(bytesPerSec) : null;
+        long start = System.currentTimeMillis();
+        try {
+            StoreManager sm = StoreManager.getInstance();
+            if (!(sm instanceof FileBlobStore)) {
+                throw ServiceException.FAILURE("volume migration needs " + FileBlobStore.class.getSimpleName(), null);
+            }
+            List<Mailbox.MailboxData> rows;
+            DbConnection conn = DbPool.getConnection();
+            try {
+                rows = DbMailbox.getMailboxRawData(conn);
+            } finally {
+                DbPool.quietClose(conn);
+            }
+            Collections.sort(rows, new Comparator<Mailbox.MailboxData>() {
+                @Override
+                public int compare(Mailbox.MailboxData a, Mailbox.MailboxData b) {
+                    return a.id < b.id ? -1 : a.id == b.id ? 0 : 1;
+                }
+            });
+            int resumeAfter = getResumePoint();
+            ZimbraLog.store.info("Moving blobs from volume %d to %d with %d threads, resuming after mailbox %d",
+                    source.getId(), dest.getId(), numThreads, resumeAfter);
+            for (Mailbox.MailboxData mbd : rows) {
+                int id = mbd.id;
+                if (stopRequested) {
+                    break;
+                }
+                if (id <= resumeAfter) {
+                    continue;
+                }
+                ZimbraLog.addMboxToContext(id);
+                try {
+                    migrate(mbd, (FileBlobStore) sm, copiers, limiter);
+                    if (!stopRequested) {
+                        Config.setString(KEY_PROGRESS, source.getId() + ":" + dest.getId() + ":" + id);
+                    }
+                } catch (ServiceException e) {
+                    errors.incrementAndGet();
+                    ZimbraLog.store.warn("Unable to move blobs of mailbox %d", id, e);
+                } finally {
+                    ZimbraLog.clearContext();
+                }
+                lastMailboxId = id;
+                mailboxes.incrementAndGet();
+            }
+            if (!stopRequested) {
+                Config.setString(KEY_PROGRESS, "");
+            }
+        } catch (Throwable t) {
+            ZimbraLog.store.error("Volume migration failed", t);
+        } finally {
+            copiers.shutdownNow();
+            running = false;
+            ZimbraLog.store.info("%s volume migration %s in %dms", stopRequested ? "Stopped" : "Finished", this,
+                    System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * Returns the last mailbox finished by a previous migration between the same volumes.
+     */
+    private int getResumePoint() {
+        String[] saved = Config.getString(KEY_PROGRESS, "").split(":");
+        if (saved.length == 3 && saved[0].equals(Short.toString(source.getId())) &&
+                saved[1].equals(Short.toString(dest.getId()))) {
+            try {
+                return Integer.parseInt(saved[2]);
+            } catch (NumberFormatException e) {
+                ZimbraLog.store.warn("Ignoring invalid %s", KEY_PROGRESS);
+            }
+        }
+        return 0;
+    }
+
+    private void migrate(Mailbox.MailboxData mbd, FileBlobStore store, ExecutorService copiers, RateLimiter limiter)
+            throws ServiceException {
+        int batchSize = Math.max(1, LC.zimbra_volume_migration_batch_size.intValue());
+        int afterId = 0;
+        boolean moved = false;
+        Mailbox mbox = null;
+        while (!stopRequested) {
+            List<MailboxBlobInfo> batch;
+            DbConnection conn = DbPool.getConnection(mbox);
+            try {
+                batch = DbMailItem.getBlobsToMove(conn, mbd, source.getId(), maxDate, minSize, afterId, batchSize);
+            } finally {
+                DbPool.quietClose(conn);
+            }
+            if (batch.isEmpty()) {
+                break;
+            }
+            if (mbox == null) { // only loaded once it has something to move
+                mbox = MailboxManager.getInstance().getMailboxById(mbd.id);
+            }
+            afterId = batch.get(batch.size() - 1).itemId;
+
+            List<Future<MailboxBlob>> futures = Lists.newArrayListWithCapacity(batch.size());
+            for (MailboxBlobInfo info : batch) {
+                futures.add(copiers.submit(new Copy(mbox, store, info, limiter)));
+            }
+            List<MailboxBlobInfo> copies = Lists.newArrayListWithCapacity(batch.size());
+            List<MailboxBlob> copied = Lists.newArrayListWithCapacity(batch.size());
+            boolean interrupted = false;
+            for (int i = 0; i < futures.size(); i++) {
+                Future<MailboxBlob> future = futures.get(i);
+                try {
+                    MailboxBlob copy;
+                    try {
+                        copy = interrupted ? Uninterruptibles.getUninterruptibly(future) : future.get();
+                    } catch (InterruptedException e) {
+                        // copies still queued are dropped; ones already running or done must be collected
+                        // below so that the new blob is either switched to or deleted, never orphaned
+                        stopRequested = true;
+                        interrupted = true;
+                        for (Future<MailboxBlob> pending : futures.subList(i + 1, futures.size())) {
+                            pending.cancel(false);
+                        }
+                        copy = Uninterruptibles.getUninterruptibly(future);
+                    }
+                    if (copy != null) {
+                        MailboxBlobInfo info = batch.get(i);
+                        copies.add(new MailboxBlobInfo(info.accountId, info.mailboxId, info.itemId, info.revision,
+                                copy.getLocator(), info.digest));
+                        copied.add(copy);
+                    }
+                } catch (CancellationException e) {
+                    // never started, nothing to clean up
+                } catch (ExecutionException e) {
+                    errors.incrementAndGet();
+                    ZimbraLog.store.warn("Unable to copy blob of item %d", batch.get(i).itemId, e.getCause());
+                }
+            }
+
+            Set<MailboxBlobInfo> updated = copies.isEmpty() ?
+                    Sets.<MailboxBlobInfo>newHashSet() : Sets.newHashSet(mbox.setBlobLocators(null, copies));
+            if (!moved && !updated.isEmpty()) {
+                // the moved items keep their mod_content, which is all an incremental check goes by
+                BlobConsistencyChecker.resetIncremental(mbox);
+                moved = true;
+            }
+            // delete the old blob of each item switched over, and the unused copy of each other one
+            for (int i = 0; i < copies.size(); i++) {
+                MailboxBlobInfo info = copies.get(i);
+                MailboxBlob garbage = copied.get(i);
+                if (updated.contains(info)) {
+                    garbage = store.getMailboxBlob(mbox, info.itemId, info.revision, Short.toString(source.getId()));
+                    blobs.incrementAndGet();
+                }
+                store.quietDelete(garbage);
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private final class Copy implements Callable<MailboxBlob> {
+        private final Mailbox mbox;
+        private final FileBlobStore store;
+        private final MailboxBlobInfo info;
+        private final RateLimiter limiter;
+
+        Copy(Mailbox mbox, FileBlobStore store, MailboxBlobInfo info, RateLimiter limiter) {
+            this.mbox = mbox;
+            this.store = store;
+            this.info = info;
+            this.limiter = limiter;
+        }
+
+        @Override
+        public MailboxBlob call() throws IOException, ServiceException {
+            MailboxBlob src = store.getMailboxBlob(mbox, info.itemId, info.revision, info.locator, true);
+            if (src == null) {
+                ZimbraLog.store.debug("Blob of item %d-%d is gone", info.itemId, info.revision);
+                return null;
+            }
+            long length = src.getLocalBlob().getFile().length();
+            if (limiter != null && length > 0) {
+                limiter.acquire((int) Math.min(length, Integer.MAX_VALUE));
+            }
+            MailboxBlob copy = store.copy(src.getLocalBlob(), mbox, info.itemId, info.revision, dest.getId());
+            bytes.addAndGet(length);
+            return copy;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).add("source", source.getId()).add("dest", dest.getId())
+                .add("mailboxes", mailboxes).add("blobs", blobs).add("bytes", bytes).add("errors", errors)
+                .add("lastMailboxId", lastMailboxId).toString();
+    }
+}